@@ -0,0 +1,199 @@
+package rcr;
+
+import java.io.File;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openstreetmap.josm.Main;
+import org.openstreetmap.josm.data.Bounds;
+import org.openstreetmap.josm.data.coor.LatLon;
+import org.openstreetmap.josm.data.osm.DataSet;
+import org.openstreetmap.josm.data.osm.Node;
+import org.openstreetmap.josm.data.osm.Way;
+import org.openstreetmap.josm.data.projection.Projections;
+
+/**
+ * The OSM data the benchmarks run on. The city is either <tt>fixture</tt>, a
+ * small town in the test resources, or the number of blocks per side of a
+ * synthetic grid city.
+ *
+ * <pre>
+ * gradle jmh -Pjmh -PjmhCity=fixture,10,40
+ * </pre>
+ */
+@State( Scope.Benchmark )
+public class BenchmarkCity {
+
+  /** Size of a block, including half of the streets around it. */
+  static final double BLOCK     = 100;
+  static final double BUILDING  = 16;
+  static final double SETBACK   = 12;
+
+  @Param( { "fixture", "10", "40" } )
+  public String       city;
+
+  public DataSet      data;
+  public Bounds       bounds;
+
+
+  @Setup
+  public void load() throws Exception {
+    init();
+    if ( city.equals( "fixture" ) ) {
+      data = readFixture();
+    } else {
+      data = createGrid( Integer.parseInt( city ) );
+    }
+    bounds = getBounds( data );
+  }
+
+
+  /**
+   * Set up what the plugin or the batch converter would.
+   */
+  public static void init() {
+    if ( Main.getProjection() == null ) {
+      Main.setProjection( Projections.getProjectionByCode( "EPSG:3857" ) );
+    }
+    if ( RCRPlugin.settings == null ) {
+      RCRPlugin.settings = new BatchSettings();
+    }
+  }
+
+
+  /**
+   * Returns all ways with the given key.
+   */
+  public List<Way> getWays( String key ) {
+    List<Way> result = new ArrayList<>();
+    for ( Way w : data.getWays() ) {
+      if ( w.hasKey( key ) ) {
+        result.add( w );
+      }
+    }
+    return result;
+  }
+
+
+  static DataSet readFixture() throws Exception {
+    File file = File.createTempFile( "fixture", ".osm" );
+    try {
+      try ( InputStream in = BenchmarkCity.class
+          .getResourceAsStream( "fixture.osm" ) ) {
+        Files.copy( in, file.toPath(), StandardCopyOption.REPLACE_EXISTING );
+      }
+      return new OsmStreamReader( null ).read( file );
+    } finally {
+      file.delete();
+    }
+  }
+
+
+  /**
+   * A city of blocks x blocks square blocks. Every street between two
+   * crossings is a way of its own and each block has a building at each of
+   * its corners and along its sides.
+   */
+  public static DataSet createGrid( int blocks ) {
+    DataSet data = new DataSet();
+    Node[][] crossings = new Node[blocks + 1][blocks + 1];
+    for ( int x = 0; x <= blocks; x++ ) {
+      for ( int y = 0; y <= blocks; y++ ) {
+        crossings[x][y] = createNode( data, x * BLOCK, y * BLOCK );
+      }
+    }
+    for ( int x = 0; x <= blocks; x++ ) {
+      for ( int y = 0; y <= blocks; y++ ) {
+        String type = x % 5 == 0 || y % 5 == 0 ? "secondary" : "residential";
+        if ( x < blocks ) {
+          createWay( data, "highway", type, crossings[x][y],
+              crossings[x + 1][y] );
+        }
+        if ( y < blocks ) {
+          createWay( data, "highway", type, crossings[x][y],
+              crossings[x][y + 1] );
+        }
+      }
+    }
+    for ( int x = 0; x < blocks; x++ ) {
+      for ( int y = 0; y < blocks; y++ ) {
+        createBlock( data, x * BLOCK, y * BLOCK );
+      }
+    }
+    return data;
+  }
+
+
+  private static void createBlock( DataSet data, double x0, double y0 ) {
+    double first = SETBACK + BUILDING / 2;
+    double last = BLOCK - SETBACK - BUILDING / 2;
+    int count = (int) ( ( last - first ) / ( BUILDING + 4 ) );
+    double step = ( last - first ) / count;
+    for ( int i = 0; i <= count; i++ ) {
+      for ( int j = 0; j <= count; j++ ) {
+        // only the edge of the block is built up
+        if ( i > 0 && i < count && j > 0 && j < count ) {
+          continue;
+        }
+        double cx = x0 + first + i * step;
+        double cy = y0 + first + j * step;
+        double size = BUILDING / 2 - 1;
+        Node n1 = createNode( data, cx - size, cy - size );
+        Node n2 = createNode( data, cx + size, cy - size );
+        Node n3 = createNode( data, cx + size, cy + size );
+        Node n4 = createNode( data, cx - size, cy + size );
+        createWay( data, "building", "yes", n1, n2, n3, n4, n1 );
+      }
+    }
+  }
+
+
+  /**
+   * Create a node at an offset in meters from the origin of the city.
+   */
+  private static Node createNode( DataSet data, double x, double y ) {
+    double lat = 49 + y / 111320;
+    double lon = 8 + x / ( 111320 * Math.cos( Math.toRadians( 49 ) ) );
+    Node n = new Node( new LatLon( lat, lon ) );
+    data.addPrimitive( n );
+    return n;
+  }
+
+
+  private static Way createWay( DataSet data, String key, String value,
+      Node... nodes ) {
+    Way w = new Way();
+    List<Node> list = new ArrayList<>();
+    for ( Node n : nodes ) {
+      list.add( n );
+    }
+    w.setNodes( list );
+    w.put( key, value );
+    data.addPrimitive( w );
+    return w;
+  }
+
+
+  private static Bounds getBounds( DataSet data ) {
+    if ( !data.getDataSourceBounds().isEmpty() ) {
+      return new Bounds( data.getDataSourceBounds().get( 0 ) );
+    }
+    Bounds result = null;
+    for ( Node n : data.getNodes() ) {
+      if ( result == null ) {
+        result = new Bounds( n.getCoor() );
+      } else {
+        result.extend( n.getCoor() );
+      }
+    }
+    return result;
+  }
+
+}
@@ -0,0 +1,34 @@
+package rcr;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openstreetmap.josm.data.osm.Way;
+
+/**
+ * The rescue map generated from a {@link BenchmarkCity}, like the batch
+ * converter does it, with entrances planned but not realized.
+ */
+@State( Scope.Benchmark )
+public class BenchmarkRescueMap {
+
+  public RCRDataSet rcr;
+  public List<Way>  buildings = new ArrayList<>();
+
+
+  @Setup
+  public void generate( BenchmarkCity city ) {
+    rcr = new RCRDataSet( city.data, city.bounds );
+    rcr.updateElements();
+    rcr.generateEntrances();
+    for ( Way w : rcr.getData().getWays() ) {
+      if ( !w.isDeleted() && w.hasTag( "rcr:type", "building" ) ) {
+        buildings.add( w );
+      }
+    }
+  }
+
+}
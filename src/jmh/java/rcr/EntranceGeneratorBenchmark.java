@@ -0,0 +1,33 @@
+package rcr;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openstreetmap.josm.data.osm.Way;
+
+/**
+ * Plans the entrance of every building of the rescue map, one after the
+ * other.
+ */
+@State( Scope.Benchmark )
+public class EntranceGeneratorBenchmark {
+
+  private EntranceGenerator generator;
+
+
+  @Setup
+  public void setup( BenchmarkRescueMap map ) {
+    generator = new EntranceGenerator( map.rcr );
+  }
+
+
+  @Benchmark
+  public void getEntrance( BenchmarkRescueMap map, Blackhole bh ) {
+    for ( Way b : map.buildings ) {
+      bh.consume( generator.getEntrance( b, true ) );
+    }
+  }
+
+}
@@ -0,0 +1,131 @@
+package rcr.export;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import maps.gml.GMLDirectedEdge;
+import maps.gml.GMLEdge;
+import maps.gml.GMLMap;
+import maps.gml.GMLNode;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import rcr.BenchmarkRescueMap;
+
+/**
+ * Builds the GML map of a rescue map, and merges the duplicate edges of a
+ * grid of square roads and writes the merged grid.
+ */
+public class GMLExporterBenchmark {
+
+  @State( Scope.Benchmark )
+  public static class Realized {
+
+    @Setup
+    public void realize( BenchmarkRescueMap map ) {
+      map.rcr.realizeEntrances();
+    }
+  }
+
+
+  @State( Scope.Thread )
+  public static class Grid {
+
+    /** Number of edges, before the merge. */
+    @Param( { "10000", "200000" } )
+    public int     edges;
+
+    public GMLMap gml;
+
+
+    @Setup( Level.Invocation )
+    public void create() {
+      // 4 edges per cell
+      gml = createGrid( (int) Math.ceil( Math.sqrt( edges / 4.0 ) ) );
+    }
+  }
+
+
+  @State( Scope.Thread )
+  public static class Merged {
+
+    /** Number of edges, before the merge. */
+    @Param( { "10000", "200000" } )
+    public int     edges;
+
+    public GMLMap gml;
+    public File   file;
+
+
+    @Setup
+    public void create() throws IOException {
+      gml = createGrid( (int) Math.ceil( Math.sqrt( edges / 4.0 ) ) );
+      GMLExporter.fixDuplicateEdges( gml );
+      file = File.createTempFile( "bench", ".gml" );
+    }
+
+
+    @TearDown
+    public void delete() {
+      file.delete();
+    }
+  }
+
+
+  @Benchmark
+  public GMLExporter construct( BenchmarkRescueMap map, Realized realized ) {
+    return new GMLExporter( map.rcr );
+  }
+
+
+  @Benchmark
+  public GMLMap fixDuplicateEdges( Grid grid ) {
+    GMLExporter.fixDuplicateEdges( grid.gml );
+    return grid.gml;
+  }
+
+
+  @Benchmark
+  public long write( Merged merged ) throws IOException {
+    new GMLWriter( null ).write( merged.gml, merged.file );
+    return merged.file.length();
+  }
+
+
+  /**
+   * Every road is created from its own four edges, so all inner edges exist
+   * twice.
+   */
+  static GMLMap createGrid( int side ) {
+    GMLMap gml = new GMLMap();
+    GMLNode[][] nodes = new GMLNode[side + 1][side + 1];
+    for ( int x = 0; x <= side; x++ ) {
+      for ( int y = 0; y <= side; y++ ) {
+        nodes[x][y] = gml.createNode( x * 10.0, y * 10.0 );
+      }
+    }
+    for ( int x = 0; x < side; x++ ) {
+      for ( int y = 0; y < side; y++ ) {
+        GMLNode[] corners = { nodes[x][y], nodes[x + 1][y],
+            nodes[x + 1][y + 1], nodes[x][y + 1] };
+        List<GMLDirectedEdge> edges = new ArrayList<>();
+        for ( int i = 0; i < corners.length; i++ ) {
+          GMLEdge e = gml.createEdge( corners[i],
+              corners[( i + 1 ) % corners.length] );
+          edges.add( new GMLDirectedEdge( e, true ) );
+        }
+        gml.createRoad( edges );
+      }
+    }
+    return gml;
+  }
+
+}
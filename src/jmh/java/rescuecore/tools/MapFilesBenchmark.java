@@ -0,0 +1,115 @@
+package rescuecore.tools;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+
+import rescuecore.objects.Building;
+import rescuecore.objects.Node;
+import rescuecore.objects.Road;
+
+/**
+ * Saves and loads the node, road and building files of a legacy map. The map
+ * is a grid city with a node at each crossing, a road between neighbouring
+ * crossings and a building in each block.
+ */
+@State(Scope.Benchmark)
+public class MapFilesBenchmark {
+
+	/** Number of blocks per side. */
+	@Param({ "10", "40" })
+	public int blocks;
+
+	private Node[] nodes;
+	private Road[] roads;
+	private Building[] buildings;
+	private File dir;
+
+	@Setup
+	public void setup() throws IOException {
+		int side = blocks + 1;
+		int block = 100000;
+		// nodes get the IDs 1 to side * side, roads and buildings follow
+		int id = side * side + 1;
+		roads = new Road[2 * blocks * side];
+		List<List<Integer>> edges = new ArrayList<>();
+		for (int i = 0; i < side * side; i++) {
+			edges.add(new ArrayList<Integer>());
+		}
+		int r = 0;
+		for (int x = 0; x < side; x++) {
+			for (int y = 0; y < side; y++) {
+				if (x < blocks) {
+					roads[r++] = createRoad(id++, y * side + x, y * side + x + 1, block, edges);
+				}
+				if (y < blocks) {
+					roads[r++] = createRoad(id++, y * side + x, (y + 1) * side + x, block, edges);
+				}
+			}
+		}
+		nodes = new Node[side * side];
+		for (int i = 0; i < nodes.length; i++) {
+			int[] ed = new int[edges.get(i).size()];
+			for (int j = 0; j < ed.length; j++) {
+				ed[j] = edges.get(i).get(j);
+			}
+			nodes[i] = new Node(i % side * block, i / side * block, ed, false, new int[ed.length], new int[2 * ed.length], new int[3 * ed.length]);
+			nodes[i].setID(i + 1);
+		}
+		buildings = new Building[blocks * blocks];
+		int b = 0;
+		for (int x = 0; x < blocks; x++) {
+			for (int y = 0; y < blocks; y++) {
+				int x1 = x * block + 20000, y1 = y * block + 20000;
+				int x2 = x1 + 60000, y2 = y1 + 60000;
+				int[] apexes = { x1, y1, x2, y1, x2, y2, x1, y2 };
+				int[] entrances = { nodes[y * side + x].getID() };
+				buildings[b] = new Building(x1 + 30000, y1 + 30000, 3, 0, false, 0, 0, entrances, 0, 3600, 10800, apexes, 0, 1);
+				buildings[b++].setID(id++);
+			}
+		}
+
+		dir = Files.createTempDirectory("mapfiles").toFile();
+		saveMap();
+	}
+
+	private static Road createRoad(int id, int head, int tail, int length, List<List<Integer>> edges) {
+		Road r = new Road(head + 1, tail + 1, length, 1, 1, 1, 1, 1, 6000, 0, 0, false, 1, 1, 1000);
+		r.setID(id);
+		edges.get(head).add(id);
+		edges.get(tail).add(id);
+		return r;
+	}
+
+	@TearDown
+	public void tearDown() {
+		for (File f : dir.listFiles()) {
+			f.delete();
+		}
+		dir.delete();
+	}
+
+	@Benchmark
+	public void saveMap() throws IOException {
+		MapFiles.writeNodes(new File(dir, "node.bin").getPath(), nodes);
+		MapFiles.writeRoads(new File(dir, "road.bin").getPath(), roads);
+		MapFiles.writeBuildings(new File(dir, "building.bin").getPath(), buildings);
+	}
+
+	@Benchmark
+	public void loadMap(Blackhole bh) throws IOException {
+		bh.consume(MapFiles.loadNodes(new File(dir, "node.bin").getPath()));
+		bh.consume(MapFiles.loadRoads(new File(dir, "road.bin").getPath()));
+		bh.consume(MapFiles.loadBuildings(new File(dir, "building.bin").getPath()));
+	}
+}
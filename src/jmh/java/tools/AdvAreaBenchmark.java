@@ -0,0 +1,63 @@
+package tools;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openstreetmap.josm.data.osm.Way;
+
+import rcr.BenchmarkCity;
+
+/**
+ * Splits and scales the areas of all buildings of the city, like the building
+ * generator does with large blocks.
+ */
+@State(Scope.Benchmark)
+public class AdvAreaBenchmark {
+
+	private List<AdvArea> areas = new ArrayList<>();
+
+	@Setup
+	public void setup(BenchmarkCity city) {
+		for (Way w : city.getWays("building")) {
+			if (w.isClosed()) {
+				areas.add(new AdvArea(w.getNodes()));
+			}
+		}
+	}
+
+	@Benchmark
+	public int split() {
+		int count = 0;
+		for (AdvArea a : areas) {
+			count += a.split(0.5, 0.5, true).size();
+			count += a.split(0.3, 0.5, false).size();
+		}
+		return count;
+	}
+
+	@Benchmark
+	public List<AdvArea> shrink() {
+		List<AdvArea> result = new ArrayList<>();
+		for (AdvArea a : areas) {
+			AdvArea copy = new AdvArea(a);
+			copy.scale(-1);
+			result.add(copy);
+		}
+		return result;
+	}
+
+	@Benchmark
+	public List<AdvArea> grow() {
+		List<AdvArea> result = new ArrayList<>();
+		for (AdvArea a : areas) {
+			AdvArea copy = new AdvArea(a);
+			copy.scale(1);
+			result.add(copy);
+		}
+		return result;
+	}
+}
@@ -0,0 +1,107 @@
+package tools;
+
+import java.awt.geom.Line2D;
+import java.awt.geom.Point2D;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openstreetmap.josm.data.osm.Way;
+
+import rcr.BenchmarkCity;
+
+/**
+ * Checks each building of the city against its neighbour. The buildings are
+ * sorted by their position, so the bounds of neighbours are close and the
+ * checks can't stop at the bounding boxes.
+ */
+@State(Scope.Benchmark)
+public class AreaToolsBenchmark {
+
+	private List<WayGeometry> buildings = new ArrayList<>();
+	private List<Point2D> inside = new ArrayList<>();
+	private List<Point2D> outside = new ArrayList<>();
+	private List<Line2D> lines = new ArrayList<>();
+
+	@Setup
+	public void setup(BenchmarkCity city) {
+		for (Way w : city.getWays("building")) {
+			if (w.isClosed()) {
+				buildings.add(WayGeometry.of(w));
+			}
+		}
+		Collections.sort(buildings, new Comparator<WayGeometry>() {
+
+			@Override
+			public int compare(WayGeometry g1, WayGeometry g2) {
+				int c = Long.compare(Math.round(g1.getMinY()), Math.round(g2.getMinY()));
+				return c != 0 ? c : Double.compare(g1.getMinX(), g2.getMinX());
+			}
+		});
+		for (int i = 0; i < buildings.size(); i++) {
+			WayGeometry g = buildings.get(i);
+			WayGeometry next = buildings.get((i + 1) % buildings.size());
+			Point2D center = getCenter(g);
+			inside.add(center);
+			// the ray to the right crosses the whole outline
+			outside.add(new Point2D.Double(2 * g.getMinX() - g.getMaxX(), center.getY()));
+			lines.add(new Line2D.Double(center, getCenter(next)));
+		}
+	}
+
+	private static Point2D getCenter(WayGeometry g) {
+		return new Point2D.Double((g.getMinX() + g.getMaxX()) / 2, (g.getMinY() + g.getMaxY()) / 2);
+	}
+
+	@Benchmark
+	public int pointInPolygon() {
+		int count = 0;
+		for (int i = 0; i < buildings.size(); i++) {
+			if (AreaTools.pointInPolygon(inside.get(i), buildings.get(i), true)) {
+				count++;
+			}
+			if (AreaTools.pointInPolygon(outside.get(i), buildings.get(i), true)) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	@Benchmark
+	public int waysIntersect() {
+		int count = 0;
+		for (int i = 0; i < buildings.size(); i++) {
+			if (AreaTools.waysIntersect(buildings.get(i), buildings.get((i + 1) % buildings.size()))) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	@Benchmark
+	public int lineIntersectsWay() {
+		int count = 0;
+		for (int i = 0; i < buildings.size(); i++) {
+			if (AreaTools.lineIntersectsWay(lines.get(i), buildings.get(i))) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	@Benchmark
+	public int lineContainedInPolygon() {
+		int count = 0;
+		for (int i = 0; i < buildings.size(); i++) {
+			if (AreaTools.lineContainedInPolygon(lines.get(i), buildings.get(i))) {
+				count++;
+			}
+		}
+		return count;
+	}
+}
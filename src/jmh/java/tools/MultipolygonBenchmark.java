@@ -0,0 +1,144 @@
+package tools;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openstreetmap.josm.Main;
+import org.openstreetmap.josm.data.coor.LatLon;
+import org.openstreetmap.josm.data.osm.DataSet;
+import org.openstreetmap.josm.data.osm.Node;
+import org.openstreetmap.josm.data.osm.Relation;
+import org.openstreetmap.josm.data.osm.RelationMember;
+import org.openstreetmap.josm.data.osm.Way;
+import org.openstreetmap.josm.data.projection.Projections;
+
+import rcr.OsmStreamReader;
+
+/**
+ * Segments the multipolygons with inner rings. With <tt>osm</tt> all such
+ * multipolygons of the file are used, real campus, park or plaza relations
+ * are the interesting cases. Without a file a synthetic campus is used: a
+ * building with a detailed outline and a grid of courtyards.
+ *
+ * <pre>
+ * gradle jmh -Pjmh -PjmhInclude=Multipolygon -PjmhOsm=campus.osm -PjmhGrid=24
+ * </pre>
+ */
+@State(Scope.Benchmark)
+public class MultipolygonBenchmark {
+
+	/** An OSM file, or empty for the synthetic campus. */
+	@Param({ "" })
+	public String osm;
+
+	/** Number of courtyards per side of the synthetic campus. */
+	@Param({ "24" })
+	public int grid;
+
+	private List<Relation> relations = new ArrayList<>();
+
+	@Setup
+	public void setup() throws Exception {
+		if (Main.getProjection() == null) {
+			Main.setProjection(Projections.getProjectionByCode("EPSG:3857"));
+		}
+		if (!osm.isEmpty()) {
+			DataSet data = new OsmStreamReader(null).read(new File(osm));
+			for (Relation r : data.getRelations()) {
+				if ("multipolygon".equals(r.get("type")) && countRings(r, "inner") > 0) {
+					relations.add(r);
+				}
+			}
+		} else {
+			relations.add(createCampus(grid));
+		}
+	}
+
+	@Benchmark
+	public int segment() {
+		int parts = 0;
+		for (Relation r : relations) {
+			parts += MPTools.segmentMP(r).size();
+		}
+		return parts;
+	}
+
+	static int countRings(Relation r, String role) {
+		int count = 0;
+		for (RelationMember m : r.getMembers()) {
+			if (m.hasRole(role) && m.isWay()) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * A campus building of about grid * 40m square. The outline has 16 nodes
+	 * per grid cell, most cells have a courtyard with 4 to 8 nodes.
+	 */
+	static Relation createCampus(int grid) {
+		Random random = new Random(1);
+		double cell = 40;
+		double size = (grid + 1) * cell;
+		int perSide = grid * 4;
+
+		List<double[]> outline = new ArrayList<>();
+		for (int i = 0; i < perSide; i++) {
+			outline.add(new double[] { i * size / perSide, random.nextDouble() * 3 });
+		}
+		for (int i = 0; i < perSide; i++) {
+			outline.add(new double[] { size - random.nextDouble() * 3, i * size / perSide });
+		}
+		for (int i = 0; i < perSide; i++) {
+			outline.add(new double[] { size - i * size / perSide, size - random.nextDouble() * 3 });
+		}
+		for (int i = 0; i < perSide; i++) {
+			outline.add(new double[] { random.nextDouble() * 3, size - i * size / perSide });
+		}
+
+		Relation r = new Relation();
+		r.put("type", "multipolygon");
+		r.put("building", "university");
+		r.addMember(new RelationMember("outer", createRing(outline)));
+		for (int x = 0; x < grid; x++) {
+			for (int y = 0; y < grid; y++) {
+				if (random.nextInt(3) == 0) {
+					continue;
+				}
+				double cx = cell + x * cell + random.nextDouble() * 5;
+				double cy = cell + y * cell + random.nextDouble() * 5;
+				int corners = 4 + random.nextInt(5);
+				List<double[]> courtyard = new ArrayList<>();
+				for (int i = 0; i < corners; i++) {
+					double angle = 2 * Math.PI * i / corners + 0.3;
+					double radius = 6 + random.nextDouble() * 6;
+					courtyard.add(new double[] { cx + radius * Math.cos(angle), cy + radius * Math.sin(angle) });
+				}
+				r.addMember(new RelationMember("inner", createRing(courtyard)));
+			}
+		}
+		return r;
+	}
+
+	/**
+	 * Create a closed way from offsets in meters (roughly, near 50°N).
+	 */
+	static Way createRing(List<double[]> offsets) {
+		List<Node> nodes = new ArrayList<>();
+		for (double[] o : offsets) {
+			nodes.add(new Node(new LatLon(50 + o[1] / 111000, 8 + o[0] / 71000)));
+		}
+		nodes.add(nodes.get(0));
+		Way w = new Way();
+		w.setNodes(nodes);
+		return w;
+	}
+}
@@ -0,0 +1,208 @@
+package rcr;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.openstreetmap.josm.Main;
+import org.openstreetmap.josm.data.Bounds;
+import org.openstreetmap.josm.data.osm.DataSet;
+import org.openstreetmap.josm.data.osm.Node;
+import org.openstreetmap.josm.data.projection.Projections;
+import org.openstreetmap.josm.io.IllegalDataException;
+
+import rcr.export.GMLExporter;
+
+/**
+ * Converts OSM files to GML maps without a running JOSM instance. Runs the
+ * same steps as the rescue dialog: road and building generation, entrance
+ * generation and GML export.
+ *
+ * <pre>
+ * java -cp josm.jar:rcr-converter.jar rcr.BatchConverter \
+ *     [--bbox=minlat,minlon,maxlat,maxlon] [--output=dir] [--metrics=dir] \
+ *     [--cache=dir] [--log=off|info|debug|trace] [--setting=value ...] \
+ *     file.osm [file.osm ...]
+ * </pre>
+ *
+ * Settings use the preference keys of the {@link SettingsDialog}, e.g.
+ * <tt>--entranceWidth=3000</tt> or <tt>--exportScale=1.0</tt>. Without a bbox
+ * the bounds stored in each file (or its node extent) are used. With
+ * <tt>--metrics=dir</tt> the time, allocation and element counts of each
+ * stage are written to <tt>dir/name.metrics.json</tt> (see {@link Metrics}).
+ * With <tt>--cache=dir</tt> the generated map, the entrances and the GML
+ * geometry are kept in dir and reused by later runs with the same input (see
+ * {@link StageCache}).
+ */
+public class BatchConverter {
+
+  private BatchSettings settings  = new BatchSettings();
+  private Bounds        bounds    = null;
+  private File          outputDir = null;
+  private File          metrics   = null;
+  private List<File>    inputs    = new ArrayList<>();
+
+
+  public static void main( String[] args ) {
+    BatchConverter converter = new BatchConverter();
+    if ( !converter.parseArgs( args ) ) {
+      printUsage();
+      System.exit( 2 );
+    }
+    System.exit( converter.run() ? 0 : 1 );
+  }
+
+
+  private static void printUsage() {
+    System.err.println( "usage: rcr.BatchConverter"
+        + " [--bbox=minlat,minlon,maxlat,maxlon] [--output=dir]"
+        + " [--metrics=dir] [--cache=dir] [--log=off|info|debug|trace]"
+        + " [--setting=value ...] file.osm [file.osm ...]" );
+  }
+
+
+  boolean parseArgs( String[] args ) {
+    for ( String arg : args ) {
+      if ( !arg.startsWith( "--" ) ) {
+        inputs.add( new File( arg ) );
+        continue;
+      }
+      int eq = arg.indexOf( '=' );
+      if ( eq < 0 ) {
+        System.err.println( "missing value: " + arg );
+        return false;
+      }
+      String key = arg.substring( 2, eq );
+      String value = arg.substring( eq + 1 );
+      try {
+        if ( key.equals( "bbox" ) ) {
+          bounds = new Bounds( value, "," );
+        } else if ( key.equals( "output" ) ) {
+          outputDir = new File( value );
+        } else if ( key.equals( "metrics" ) ) {
+          metrics = new File( value );
+        } else if ( key.equals( "cache" ) ) {
+          StageCache.setDirectory( new File( value ) );
+        } else if ( key.equals( "log" ) ) {
+          Log.setLevel( Log.parseLevel( value ) );
+        } else if ( !settings.set( key, value ) ) {
+          System.err.println( "unknown option: " + arg );
+          return false;
+        }
+      } catch ( IllegalArgumentException e ) {
+        System.err.println( "invalid value: " + arg );
+        return false;
+      }
+    }
+    return !inputs.isEmpty();
+  }
+
+
+  /**
+   * Convert all input files.
+   *
+   * @return true if every file was converted
+   */
+  boolean run() {
+    RCRPlugin.settings = settings;
+    if ( Main.getProjection() == null ) {
+      Main.setProjection( Projections.getProjectionByCode( "EPSG:3857" ) );
+    }
+
+    boolean success = true;
+    for ( File input : inputs ) {
+      File output = getOutputFile( input );
+      System.out.println( "Converting " + input + " -> " + output );
+      Metrics.reset();
+      try {
+        convert( input, output );
+        if ( metrics != null ) {
+          writeMetrics( input );
+        }
+      } catch ( IOException | IllegalDataException e ) {
+        System.err.println( "Could not convert " + input + ": " + e );
+        success = false;
+      } catch ( RuntimeException e ) {
+        e.printStackTrace();
+        success = false;
+      }
+    }
+    return success;
+  }
+
+
+  public void convert( File input, File output )
+      throws IOException, IllegalDataException {
+    // only roads, buildings and their multipolygons within the bbox
+    DataSet source;
+    try ( Metrics.Stage stage = Metrics.start( "read" ) ) {
+      source = new OsmStreamReader( bounds ).read( input );
+      stage.count( "nodes", source.getNodes().size() );
+      stage.count( "ways", source.getWays().size() );
+      stage.count( "relations", source.getRelations().size() );
+    }
+
+    Bounds b = bounds != null ? bounds : getBounds( source );
+    if ( b == null ) {
+      throw new IllegalDataException( "no data in " + input );
+    }
+
+    RCRDataSet rcrData = new RCRDataSet( source, b );
+    rcrData.updateElements();
+    rcrData.generateEntrances();
+    rcrData.realizeEntrances();
+
+    GMLExporter.exportMap( rcrData, output );
+  }
+
+
+  private File getOutputFile( File input ) {
+    File dir = outputDir != null ? outputDir : input.getAbsoluteFile()
+        .getParentFile();
+    return new File( dir, getBaseName( input ) + ".gml" );
+  }
+
+
+  private void writeMetrics( File input ) throws IOException {
+    if ( !metrics.isDirectory() && !metrics.mkdirs() ) {
+      throw new IOException( "Couldn't create directory " + metrics );
+    }
+    File report = new File( metrics, getBaseName( input ) + ".metrics.json" );
+    Metrics.writeReport( report );
+    System.out.println( "Metrics written to " + report );
+  }
+
+
+  private static String getBaseName( File file ) {
+    String name = file.getName();
+    int dot = name.lastIndexOf( '.' );
+    return dot > 0 ? name.substring( 0, dot ) : name;
+  }
+
+
+  private static Bounds getBounds( DataSet data ) {
+    Bounds result = null;
+    for ( Bounds b : data.getDataSourceBounds() ) {
+      if ( result == null ) {
+        result = new Bounds( b );
+      } else {
+        result.extend( b );
+      }
+    }
+    if ( result != null ) {
+      return result;
+    }
+
+    for ( Node n : data.getNodes() ) {
+      if ( n.getCoor() == null ) continue;
+      if ( result == null ) {
+        result = new Bounds( n.getCoor() );
+      } else {
+        result.extend( n.getCoor() );
+      }
+    }
+    return result;
+  }
+
+}
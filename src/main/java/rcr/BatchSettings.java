@@ -0,0 +1,178 @@
+package rcr;
+
+/**
+ * Conversion settings for runs without the JOSM GUI. Values use the same
+ * units as the fields of the {@link SettingsDialog}, i.e. widths and entrance
+ * lengths in mm.
+ */
+public class BatchSettings implements ConverterSettings {
+
+  private int    civs              = 80;
+  private int    ats               = 8;
+  private int    fbs               = 8;
+  private int    pfs               = 8;
+  private int    refs              = 4;
+  private int    acs               = 1;
+  private int    fss               = 1;
+  private int    pos               = 1;
+  private int    fires             = 6;
+
+  private int    entranceWidth     = Constants.DEFAULT_ENTRANCE_WIDTH;
+  private int    minEntranceLength = (int) ( 1000
+      * Constants.MIN_ENTRANCE_LENGTH );
+  private int    maxEntranceLength = (int) ( 1000
+      * Constants.MAX_ENTRANCE_LENGTH );
+
+  private int    minRoadWidth      = Constants.MINIMUM_ROAD_WIDTH;
+
+  private int    minH              = 1;
+  private int    maxH              = 20;
+
+  private double scale             = 1.0;
+
+
+  /**
+   * Set a value by the key the {@link SettingsDialog} uses for its
+   * preferences, or by the scenario label (e.g. <tt>civilians</tt>).
+   *
+   * @return false if the key is unknown
+   * @throws NumberFormatException
+   *           if the value can't be parsed
+   */
+  public boolean set( String key, String value ) {
+    switch ( key ) {
+      case "civilians":
+        civs = Integer.parseInt( value );
+        break;
+      case "ambulances":
+        ats = Integer.parseInt( value );
+        break;
+      case "fireBrigades":
+        fbs = Integer.parseInt( value );
+        break;
+      case "policeForces":
+        pfs = Integer.parseInt( value );
+        break;
+      case "refuges":
+        refs = Integer.parseInt( value );
+        break;
+      case "ambulanceCentres":
+        acs = Integer.parseInt( value );
+        break;
+      case "fireStations":
+        fss = Integer.parseInt( value );
+        break;
+      case "policeOffices":
+        pos = Integer.parseInt( value );
+        break;
+      case "fires":
+        fires = Integer.parseInt( value );
+        break;
+      case "entranceWidth":
+        entranceWidth = Integer.parseInt( value );
+        break;
+      case "minEntranceLength":
+        minEntranceLength = Integer.parseInt( value );
+        break;
+      case "maxEntranceLength":
+        maxEntranceLength = Integer.parseInt( value );
+        break;
+      case "minRoadWidth":
+        minRoadWidth = Integer.parseInt( value );
+        break;
+      case "minFloors":
+        minH = Integer.parseInt( value );
+        break;
+      case "maxFloors":
+        maxH = Integer.parseInt( value );
+        break;
+      case "exportScale":
+        scale = Double.parseDouble( value );
+        break;
+      default:
+        return false;
+    }
+    return true;
+  }
+
+
+  public int getEntranceWidth() {
+    return entranceWidth;
+  }
+
+
+  public double getMaxEntranceLength() {
+    return (double) maxEntranceLength / 1000;
+  }
+
+
+  public double getMinEntranceLength() {
+    return (double) minEntranceLength / 1000;
+  }
+
+
+  public int getMinRoadWidth() {
+    return minRoadWidth;
+  }
+
+
+  public int civCount() {
+    return civs;
+  }
+
+
+  public int atCount() {
+    return ats;
+  }
+
+
+  public int fbCount() {
+    return fbs;
+  }
+
+
+  public int pfCount() {
+    return pfs;
+  }
+
+
+  public int refugeCount() {
+    return refs;
+  }
+
+
+  public int fireCount() {
+    return fires;
+  }
+
+
+  public int acCount() {
+    return acs;
+  }
+
+
+  public int fsCount() {
+    return fss;
+  }
+
+
+  public int poCount() {
+    return pos;
+  }
+
+
+  public int minFloors() {
+    return minH;
+  }
+
+
+  public int maxFloors() {
+    return maxH;
+  }
+
+
+  public double scale() {
+    return scale;
+  }
+
+}
@@ -41,6 +41,8 @@ import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Random;
 import java.util.Set;
+import java.util.TreeSet;
+import java.util.stream.IntStream;
 import org.openstreetmap.josm.data.Bounds;
 import org.openstreetmap.josm.data.coor.LatLon;
 import org.openstreetmap.josm.data.osm.BBox;
@@ -85,17 +87,24 @@ public class BuildingGenerator {
     List<AdvArea> cuts = new ArrayList<AdvArea>();
     List<AdvArea> firstSplit = new ArrayList<AdvArea>();
 
-    List<AdvArea> filteredPolygons = filterFreePolys(polygons, m_source, bounds,
-        forbidden, split, cuts, firstSplit);
-    System.out.println("Filtered " + polygons.size() + " retained "
-        + filteredPolygons.size() + " blocks.");
-
+    List<AdvArea> filteredPolygons;
     List<AdvArea> containedAres = new ArrayList<AdvArea>();
     List<AdvArea> containingAres = new ArrayList<AdvArea>();
-    List<AdvArea> filteredContained = filterContainedPolys(filteredPolygons,
-        m_source, bounds, containingAres, containedAres);
-    System.out.println("Contained filter " + filteredPolygons.size() + " -> "
-        + filteredContained.size());
+    List<AdvArea> filteredContained;
+    try (Metrics.Stage stage = Metrics.start("blocks")) {
+      filteredPolygons = filterFreePolys(polygons, m_source, bounds,
+          forbidden, split, cuts, firstSplit);
+      Log.info("Filtered " + polygons.size() + " retained "
+          + filteredPolygons.size() + " blocks.");
+
+      filteredContained = filterContainedPolys(filteredPolygons,
+          m_source, bounds, containingAres, containedAres);
+      Log.info("Contained filter " + filteredPolygons.size() + " -> "
+          + filteredContained.size());
+      stage.count("free", polygons.size());
+      stage.count("filtered", filteredPolygons.size());
+      stage.count("retained", filteredContained.size());
+    }
     createNewBuildings(filteredContained);
 
     for (AdvArea a : containedAres) {
@@ -137,48 +146,141 @@ public class BuildingGenerator {
   }
 
 
+  /**
+   * Drops the blocks that (about) contain another block. Only blocks with
+   * touching bounds are compared and the blocks are checked in parallel; for
+   * each dropped block the first contained block in list order is reported,
+   * as if all pairs were compared.
+   */
   private List<AdvArea> filterContainedPolys(List<AdvArea> filteredPolygons,
       DataSet mSource, Bounds bounds, List<AdvArea> containingAreas,
       List<AdvArea> containedAreas) {
+    AdvArea[] blocks = filteredPolygons.toArray(new AdvArea[0]);
+    // also fills the bounds cache of the blocks before they are shared
+    BlockIndex index = new BlockIndex(blocks);
+    double[] areas = new double[blocks.length];
+    int[] contained = new int[blocks.length];
+    IntStream.range(0, blocks.length).parallel()
+        .forEach(i -> areas[i] = blocks[i].area());
+    IntStream.range(0, blocks.length).parallel()
+        .forEach(i -> contained[i] = findContained(i, blocks, areas, index));
+
     List<AdvArea> ret = new ArrayList<AdvArea>();
+    for (int i = 0; i < blocks.length; i++) {
+      if (contained[i] < 0) {
+        ret.add(blocks[i]);
+      } else {
+        containingAreas.add(blocks[i]);
+        containedAreas.add(blocks[contained[i]]);
+      }
+    }
+    return ret;
+  }
+
+
+  /**
+   * Returns the index of the first block contained in block i, or -1.
+   */
+  private static int findContained(int i, AdvArea[] blocks, double[] areas,
+      BlockIndex index) {
+    AdvArea p = blocks[i];
+    for (int j : index.query(i)) {
+      if (i == j)
+        continue;
+      AdvArea p2 = blocks[j];
+      if (p.contains(p2)) {
+        return j;
+      }
+      if (areas[i] > areas[j]) { // possible containment
+        // Do "about" containment check accounting for rounding
+        // errors from conversion, if intersection is about same area, it's
+        // about the same.
+        AdvArea pCopy = new AdvArea(p);
+        pCopy.intersect(p2);
+
+        double deltaIntersect = Math.abs(pCopy.area() - areas[j]);
+        if (areas[j] > 10.0 && deltaIntersect < 10.0) { // TODO: min block
+                                                        // area filten
+          return j;
+        }
+      }
+      // TODO: advanced split 3ways deal
+    }
+    return -1;
+  }
+
 
-    // TODO: bounding boxes
-    for (AdvArea p : filteredPolygons) {
-      boolean containsOther = false;
-      for (AdvArea p2 : filteredPolygons) {
-        if (p == p2)
+  /**
+   * A uniform grid over the bounds of blocks. The cells are as large as an
+   * average block, so most blocks cover only a few of them.
+   */
+  private static class BlockIndex {
+
+    private Rectangle2D[] bounds;
+    private double cellSize;
+    private Map<Long, List<Integer>> cells = new HashMap<Long, List<Integer>>();
+    // empty blocks have no bounds, they are contained in every block
+    private List<Integer> empty = new ArrayList<Integer>();
+
+
+    BlockIndex(AdvArea[] blocks) {
+      bounds = new Rectangle2D[blocks.length];
+      double extent = 0;
+      for (int i = 0; i < blocks.length; i++) {
+        bounds[i] = blocks[i].getBounds2D();
+        extent += Math.max(bounds[i].getWidth(), bounds[i].getHeight());
+      }
+      cellSize = Math.max(1.0, extent / Math.max(1, blocks.length));
+
+      for (int i = 0; i < blocks.length; i++) {
+        if (blocks[i].isEmpty()) {
+          empty.add(i);
           continue;
-        if (p.contains(p2)) {
-          containsOther = true;
-          containingAreas.add(p);
-          containedAreas.add(p2);
-          break;
         }
-        if (p.area() > p2.area()) { // possible containment
-          // Do "about" containment check accounting for rounding
-          // errors from conversion, if intersection is about same area, it's
-          // about the same.
-          AdvArea pCopy = new AdvArea(p);
-          pCopy.intersect(p2);
-
-          double deltaIntersect = Math.abs(pCopy.area() - p2.area());
-          if (p2.area() > 10.0 && deltaIntersect < 10.0) { // TODO: min block
-                                                           // area filten
-            containsOther = true;
-            containingAreas.add(p);
-            containedAreas.add(p2);
-            break;
+        Rectangle2D b = bounds[i];
+        for (int x = cell(b.getMinX()); x <= cell(b.getMaxX()); x++) {
+          for (int y = cell(b.getMinY()); y <= cell(b.getMaxY()); y++) {
+            Long key = ((long) x << 32) | (y & 0xffffffffL);
+            List<Integer> cell = cells.get(key);
+            if (cell == null) {
+              cell = new ArrayList<Integer>(4);
+              cells.put(key, cell);
+            }
+            cell.add(i);
           }
         }
-        // TODO: advanced split 3ways deal
-      }
-      if (!containsOther) {
-        ret.add(p);
       }
+    }
 
+
+    /**
+     * Returns the blocks whose bounds touch those of block i, in ascending
+     * order.
+     */
+    List<Integer> query(int i) {
+      Rectangle2D b = bounds[i];
+      Set<Integer> result = new TreeSet<Integer>(empty);
+      for (int x = cell(b.getMinX()); x <= cell(b.getMaxX()); x++) {
+        for (int y = cell(b.getMinY()); y <= cell(b.getMaxY()); y++) {
+          List<Integer> cell = cells.get(((long) x << 32) | (y & 0xffffffffL));
+          if (cell == null)
+            continue;
+          for (int j : cell) {
+            Rectangle2D b2 = bounds[j];
+            if (b2.getMinX() <= b.getMaxX() && b2.getMaxX() >= b.getMinX()
+                && b2.getMinY() <= b.getMaxY() && b2.getMaxY() >= b.getMinY()) {
+              result.add(j);
+            }
+          }
+        }
+      }
+      return new ArrayList<Integer>(result);
     }
 
-    return ret;
+
+    private int cell(double coord) {
+      return (int) Math.floor(coord / cellSize);
+    }
   }
 
 
@@ -313,8 +415,7 @@ public class BuildingGenerator {
       }
     }
 
-    System.out
-        .print("From " + crossings.size() + " node->way entries, retained ");
+    int entries = crossings.size();
 
     // to get the real crossings remove all node->way mappings, that only have
     // one way
@@ -326,7 +427,8 @@ public class BuildingGenerator {
       if (e.getValue().size() <= 1)
         crIt.remove();
     }
-    System.out.println(crossings.size() + " true crossings.");
+    Log.info("From " + entries + " node->way entries, retained "
+        + crossings.size() + " true crossings.");
 
     /// Prob: crossings might be there, but not with the same node....
     /// Waterways etc are obvious crossings!
@@ -408,7 +510,7 @@ public class BuildingGenerator {
       }
     }
 
-    System.out.println("removing by size from " + polys.size());
+    Log.info("removing by size from " + polys.size());
     Iterator<AdvArea> polyIt = polys.iterator();
     while (polyIt.hasNext()) {
       AdvArea p = polyIt.next();
@@ -421,7 +523,7 @@ public class BuildingGenerator {
       else if (area < minPolyArea)
         polyIt.remove();
       else if (p.toPoints().size() < 3) {
-        System.out.println("Removed degenerated walkcircle area.");
+        Log.debug("Removed degenerated walkcircle area.");
         polyIt.remove();
       } else {
 
@@ -432,7 +534,7 @@ public class BuildingGenerator {
       // remove self-intersecting polys
       // remove very thin/wide ones
     }
-    System.out.println("removed by size to " + polys.size());
+    Log.info("removed by size to " + polys.size());
 
     /// * Prob: minimal? circumfence OK? can this be A* like?
     /// -> somehow define: minimal = no other goes "through" it
@@ -497,7 +599,7 @@ public class BuildingGenerator {
         }
         // addPrimitive(makeBuildingWay(p.toNodeList(new long[] {0})));
       }
-      System.out.println("create: retained " + count + " final blocks");
+      Log.info("create: retained " + count + " final blocks");
       polygons = restPolys;
     }
   }
@@ -659,7 +761,7 @@ public class BuildingGenerator {
 
     visited.add(start.getId());
     if (depth > 42) {
-      System.out.println("walk circle: depth 42 reached");
+      Log.debug("walk circle: depth 42 reached");
       return null;
     }
 
@@ -772,7 +874,7 @@ public class BuildingGenerator {
 
     BBox bbox = new BBox(way);
 
-    System.out.println("bb:" + bbox);
+    Log.debug("bb:" + bbox);
 
     List<Way> waysInPoly = new ArrayList<Way>();
     for (Way w : m_data.getData().searchWays(bbox)) {
@@ -781,7 +883,7 @@ public class BuildingGenerator {
           waysInPoly.add(w);
       }
     }
-    System.out.println(waysInPoly.size() + " ways in p");
+    Log.debug(waysInPoly.size() + " ways in p");
 
     int minSize = parseInt(way, "rcr:minsize", (int) minBuildingSize);
     int maxSize = parseInt(way, "rcr:maxsize", 3000);
@@ -971,7 +1073,7 @@ public class BuildingGenerator {
     AdvArea a = new AdvArea(outerWays.get(0).getNodes());
 
     double angle = findAngle(a);
-    System.out.println("angle: " + angle);
+    Log.debug("angle: " + angle);
     a = a.rotate(-angle);
 
     List<Rectangle2D> bounds = new ArrayList<Rectangle2D>();
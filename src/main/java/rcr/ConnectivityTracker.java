@@ -0,0 +1,329 @@
+package rcr;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.openstreetmap.josm.data.osm.DataSet;
+import org.openstreetmap.josm.data.osm.Node;
+import org.openstreetmap.josm.data.osm.OsmPrimitive;
+import org.openstreetmap.josm.data.osm.Way;
+
+/**
+ * Keeps track of the connected groups of roads and buildings.
+ *
+ * Added ways are merged into the groups of their neighbours (the smaller
+ * group is moved into the larger one), so adding entrances or roads is cheap.
+ * The same holds for nodes added to a way and for ways that become roads or
+ * buildings. Only changes that can split a group mark the groups as dirty:
+ * removing a way with more than one neighbour, removing a node shared with
+ * another way, or changing whether a way is a road, an area or a building.
+ * Dirty groups are recomputed by {@link #update()}, which the
+ * {@link RCRDataSet} calls after each change of the data. Queries never
+ * recompute the groups, so they are cheap enough for painting.
+ *
+ * The groups are also kept by size, so the largest group is found without
+ * going through all ways when it shrinks.
+ */
+public class ConnectivityTracker {
+
+  // kinds of tracked ways, they decide which ways are neighbours
+  private static final int          LINEAR_ROAD = 1;
+  private static final int          AREA_ROAD   = 2;
+  private static final int          BUILDING    = 3;
+
+  private DataSet                   data;
+  private Map<Way, Set<Way>>        groups      = new HashMap<>();
+  // distinct groups by size, compared by identity as groups change
+  private TreeMap<Integer, Set<Set<Way>>> sizes = new TreeMap<>();
+  // kind and nodes of each tracked way when it was last linked
+  private Map<Way, Integer>         kinds       = new HashMap<>();
+  private Map<Way, List<Node>>      nodes       = new HashMap<>();
+  private Set<Way>                  largest     = Collections.emptySet();
+  private boolean                   dirty       = true;
+
+
+  public ConnectivityTracker( DataSet data ) {
+    this.data = data;
+  }
+
+
+  /**
+   * Recompute all groups on the next {@link #update()}.
+   */
+  public void invalidate() {
+    dirty = true;
+  }
+
+
+  /**
+   * Recompute the groups now if they are dirty.
+   */
+  public void update() {
+    if ( !dirty ) {
+      return;
+    }
+    groups.clear();
+    sizes.clear();
+    kinds.clear();
+    nodes.clear();
+    largest = Collections.emptySet();
+    dirty = false;
+    for ( Way w : data.getWays() ) {
+      add( w );
+    }
+  }
+
+
+  /**
+   * Merge a new way into the groups of its neighbours.
+   */
+  public void add( Way w ) {
+    if ( dirty || groups.containsKey( w ) || getKind( w ) == 0 ) {
+      return;
+    }
+    Set<Way> group = new HashSet<>();
+    group.add( w );
+    groups.put( w, group );
+    index( group );
+    link( w );
+  }
+
+
+  /**
+   * A way was removed. Only a way linking several neighbours can split its
+   * group.
+   */
+  public void remove( Way w ) {
+    Set<Way> group = groups.remove( w );
+    kinds.remove( w );
+    nodes.remove( w );
+    if ( dirty || group == null ) {
+      return;
+    }
+    Set<Way> linked = new HashSet<>();
+    for ( Way w2 : RCRDataSet.findNeighbours( w ) ) {
+      if ( groups.get( w2 ) == group ) {
+        linked.add( w2 );
+      }
+    }
+    if ( linked.size() > 1 ) {
+      invalidate();
+      return;
+    }
+    unindex( group );
+    group.remove( w );
+    if ( !group.isEmpty() ) {
+      index( group );
+    }
+    if ( group == largest ) {
+      // another group may be as large now
+      largest = getLargest();
+    }
+  }
+
+
+  /**
+   * The tags of a way changed. Only a way that becomes a road or building
+   * is merged, any other change of its kind recomputes the groups.
+   */
+  public void tagsChanged( Way w ) {
+    if ( dirty ) {
+      return;
+    }
+    Integer kind = kinds.get( w );
+    int newKind = getKind( w );
+    if ( kind == null ) {
+      add( w );
+    } else if ( kind != newKind ) {
+      invalidate();
+    }
+  }
+
+
+  /**
+   * The nodes of a way changed. Inserted nodes only merge groups, unless
+   * they separate two nodes of an edge shared with an area. Removing or
+   * reordering nodes shared with other ways recomputes the groups.
+   */
+  public void nodesChanged( Way w ) {
+    if ( dirty ) {
+      return;
+    }
+    List<Node> old = nodes.get( w );
+    if ( old == null ) {
+      add( w );
+      return;
+    }
+    int[] at = find( old, w.getNodes() );
+    boolean inserted = at != null && ( kinds.get( w ) == LINEAR_ROAD
+        || !splitsSharedEdge( old, at, w ) );
+    if ( !inserted && isShared( old, w ) ) {
+      invalidate();
+      return;
+    }
+    link( w );
+  }
+
+
+  /**
+   * Returns true if the way belongs to the largest connected group, as of
+   * the last {@link #update()}.
+   */
+  public boolean isConnected( Way w ) {
+    return largest.contains( w );
+  }
+
+
+  /**
+   * Returns the largest connected group, as of the last {@link #update()}.
+   * The set must not be modified.
+   */
+  public Set<Way> getLargestGroup() {
+    return Collections.unmodifiableSet( largest );
+  }
+
+
+  /**
+   * Merge the group of a tracked way with the groups of its neighbours.
+   */
+  private void link( Way w ) {
+    kinds.put( w, getKind( w ) );
+    nodes.put( w, w.getNodes() );
+    Set<Way> group = groups.get( w );
+    for ( Way w2 : RCRDataSet.findNeighbours( w ) ) {
+      Set<Way> other = groups.get( w2 );
+      if ( other != null ) {
+        group = merge( group, other );
+      }
+    }
+    if ( group.size() > largest.size() ) {
+      largest = group;
+    }
+  }
+
+
+  private Set<Way> merge( Set<Way> g1, Set<Way> g2 ) {
+    if ( g1 == g2 ) {
+      return g1;
+    }
+    if ( g1.size() < g2.size() ) {
+      Set<Way> tmp = g1;
+      g1 = g2;
+      g2 = tmp;
+    }
+    unindex( g1 );
+    unindex( g2 );
+    for ( Way w : g2 ) {
+      groups.put( w, g1 );
+    }
+    g1.addAll( g2 );
+    index( g1 );
+    if ( largest == g2 ) {
+      largest = g1;
+    }
+    return g1;
+  }
+
+
+  private void index( Set<Way> group ) {
+    sizes.computeIfAbsent( group.size(),
+        size -> Collections.newSetFromMap( new IdentityHashMap<>() ) )
+        .add( group );
+  }
+
+
+  /**
+   * Must be called before the size of the group changes.
+   */
+  private void unindex( Set<Way> group ) {
+    Set<Set<Way>> same = sizes.get( group.size() );
+    same.remove( group );
+    if ( same.isEmpty() ) {
+      sizes.remove( group.size() );
+    }
+  }
+
+
+  /**
+   * Returns the current largest group if no other group is larger, or one of
+   * the largest groups.
+   */
+  private Set<Way> getLargest() {
+    if ( sizes.isEmpty() ) {
+      return Collections.emptySet();
+    }
+    Set<Set<Way>> candidates = sizes.lastEntry().getValue();
+    return candidates.contains( largest ) ? largest
+        : candidates.iterator().next();
+  }
+
+
+  /**
+   * Returns the positions of <tt>old</tt> in <tt>nodes</tt>, or null if
+   * <tt>nodes</tt> does not contain <tt>old</tt> in the same order, i.e. if
+   * nodes were not only inserted.
+   */
+  private static int[] find( List<Node> old, List<Node> nodes ) {
+    int[] at = new int[old.size()];
+    int i = 0;
+    for ( int j = 0; j < nodes.size() && i < at.length; j++ ) {
+      if ( old.get( i ) == nodes.get( j ) ) {
+        at[i++] = j;
+      }
+    }
+    return i == at.length ? at : null;
+  }
+
+
+  /**
+   * Returns true if two nodes which were neighbours in <tt>old</tt> and are
+   * shared with other ways are not neighbours anymore.
+   */
+  private boolean splitsSharedEdge( List<Node> old, int[] at, Way w ) {
+    for ( int i = 0; i + 1 < at.length; i++ ) {
+      if ( at[i + 1] != at[i] + 1
+          && isShared( old.subList( i, i + 2 ), w ) ) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+
+  /**
+   * Returns true if one of the nodes belongs to a tracked way other than
+   * <tt>w</tt>.
+   */
+  private boolean isShared( List<Node> old, Way w ) {
+    for ( Node n : old ) {
+      for ( OsmPrimitive osm : n.getReferrers() ) {
+        if ( osm != w && osm instanceof Way && groups.containsKey( osm ) ) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+
+  /**
+   * Returns the kind of a way as used by {@link RCRDataSet#findNeighbours},
+   * or 0 if it is not tracked.
+   */
+  private static int getKind( Way w ) {
+    if ( w.isDeleted() ) {
+      return 0;
+    }
+    if ( w.hasTag( "rcr:type", "road" ) ) {
+      return w.hasAreaTags() ? AREA_ROAD : LINEAR_ROAD;
+    }
+    return w.hasTag( "rcr:type", "building" ) ? BUILDING : 0;
+  }
+
+}
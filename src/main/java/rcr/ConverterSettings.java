@@ -0,0 +1,61 @@
+package rcr;
+
+/**
+ * The values that control a conversion. In JOSM they come from the
+ * {@link SettingsDialog}, in headless runs from the command line (see
+ * {@link BatchSettings}).
+ */
+public interface ConverterSettings {
+
+  /** entrance width in mm */
+  public int getEntranceWidth();
+
+
+  /** entrance length in m */
+  public double getMaxEntranceLength();
+
+
+  /** entrance length in m */
+  public double getMinEntranceLength();
+
+
+  /** road width in mm */
+  public int getMinRoadWidth();
+
+
+  public int civCount();
+
+
+  public int atCount();
+
+
+  public int fbCount();
+
+
+  public int pfCount();
+
+
+  public int refugeCount();
+
+
+  public int fireCount();
+
+
+  public int acCount();
+
+
+  public int fsCount();
+
+
+  public int poCount();
+
+
+  public int minFloors();
+
+
+  public int maxFloors();
+
+
+  public double scale();
+
+}
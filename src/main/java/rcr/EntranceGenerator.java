@@ -1,7 +1,12 @@
 package rcr;
 
+import static org.openstreetmap.josm.tools.I18n.tr;
+
 import java.awt.geom.Line2D;
 import java.awt.geom.Point2D;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collection;
@@ -11,10 +16,12 @@ import java.util.Deque;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+import java.util.stream.IntStream;
 
 import org.openstreetmap.josm.Main;
 import org.openstreetmap.josm.data.coor.EastNorth;
@@ -24,9 +31,12 @@ import org.openstreetmap.josm.data.osm.DataSet;
 import org.openstreetmap.josm.data.osm.Node;
 import org.openstreetmap.josm.data.osm.OsmPrimitive;
 import org.openstreetmap.josm.data.osm.Way;
+import org.openstreetmap.josm.gui.progress.NullProgressMonitor;
+import org.openstreetmap.josm.gui.progress.ProgressMonitor;
 import org.openstreetmap.josm.tools.Pair;
 
 import tools.AreaTools;
+import tools.SegmentIndex.Segment;
 
 public class EntranceGenerator {
 
@@ -38,7 +48,10 @@ public class EntranceGenerator {
   DataSet                data;
   Set<Way>               mainConnectedGroup;
   Set<EntranceCandidate> plannedEntrances         = new HashSet<>();
-  Map<Way, Set<Way>>     connectivityCache        = new HashMap<>();
+  Map<Way, Set<Way>>     connectivityCache        = new ConcurrentHashMap<>();
+  // union-find over ways sharing nodes or planned entrances
+  Map<Way, Way>          components               = null;
+  Set<Way>               connectedComponents      = null;
 
 
   private class Endpoint {
@@ -69,16 +82,20 @@ public class EntranceGenerator {
       if ( node != null ) {
         return Pair.create( node, node );
       }
-      Vector.debug = true;
-      System.out.println( "point: " + point );
+      boolean trace = Log.isEnabled( Log.TRACE );
+      if ( trace ) {
+        Log.trace( "point: " + point );
+      }
       for ( Pair<Node, Node> p : way.getNodePairs( false ) ) {
         Line2D segment = new Line2D.Double( node2Point( p.a ),
             node2Point( p.b ) );
-        System.out.println( segment.getP1() + " -- " + segment.getP2() + " : "
-            + segment.ptSegDist( point ) );
-        if ( Vector.pointOnLine( point, segment.getP1(), segment.getP2() ) ) {
-          System.out.println( "    ok" );
-          Vector.debug = false;
+        if ( trace ) {
+          Log.trace( segment.getP1() + " -- " + segment.getP2() + " : "
+              + segment.ptSegDist( point ) );
+        }
+        if ( Vector.pointOnLine( point, segment.getP1(), segment.getP2(),
+            trace ) ) {
+          Log.trace( "    ok" );
           return p;
         }
       }
@@ -130,6 +147,9 @@ public class EntranceGenerator {
     public Endpoint buildingEndpoint;
     public Endpoint roadEndpoint;
     public String   debugMsg = null;
+    RankKey         rank;
+    // result of checkMapIntersections, null if not checked yet
+    Boolean         intersectsMap;
 
 
     public EntranceCandidate( Way b, Point2D e, Point2D dir ) {
@@ -142,6 +162,12 @@ public class EntranceGenerator {
     }
 
 
+    EntranceCandidate( Endpoint building, Endpoint road ) {
+      buildingEndpoint = building;
+      roadEndpoint = road;
+    }
+
+
     public EntranceCandidate( EntranceCandidate other ) {
       this.buildingEndpoint = other.buildingEndpoint;
       this.roadEndpoint = other.roadEndpoint;
@@ -262,56 +288,78 @@ public class EntranceGenerator {
     }
   }
 
-  private class EntranceComp implements Comparator<EntranceCandidate> {
+  /**
+   * The ranking of a candidate, computed once before sorting. Larger keys are
+   * better.
+   */
+  private static class RankKey implements Comparable<RankKey> {
+
+    // Penalize sharp angles between building and road
+    final boolean badDirection;
+    // Penalize Building-Building entrances
+    final boolean toRoad;
+    // Prefer entrances to already connected entities
+    final boolean connected;
+    // Prefer entrances from marked entrances
+    final boolean fromMarked;
+    // Prefer short entrances
+    final double  length;
+
+
+    RankKey( boolean badDirection, boolean toRoad, boolean connected,
+        boolean fromMarked, double length ) {
+      this.badDirection = badDirection;
+      this.toRoad = toRoad;
+      this.connected = connected;
+      this.fromMarked = fromMarked;
+      this.length = length;
+    }
+
 
     @Override
-    public int compare( EntranceCandidate e1, EntranceCandidate e2 ) {
-      // Penalize sharp angles between building and road
-      if ( e1.getPreferredDirectionMismatch() < DEVIATION_THRESHOLD ) {
-        if ( e2.getPreferredDirectionMismatch() >= DEVIATION_THRESHOLD ) {
-          return -1;
-        }
-      } else if ( e2.getPreferredDirectionMismatch() < DEVIATION_THRESHOLD ) {
-        return 1;
+    public int compareTo( RankKey other ) {
+      int result = Boolean.compare( other.badDirection, badDirection );
+      if ( result == 0 ) {
+        result = Boolean.compare( toRoad, other.toRoad );
       }
-
-      // Penalize Building-Building entrances
-      if ( e1.roadEndpoint.isBuilding() ) {
-        if ( !e2.roadEndpoint.isBuilding() ) {
-          return -1;
-        }
-      } else if ( e2.roadEndpoint.isBuilding() ) {
-        return 1;
+      if ( result == 0 ) {
+        result = Boolean.compare( connected, other.connected );
       }
-
-      // Prefer entrances to already connected entities
-      if ( !isConnected( e1.roadEndpoint.way ) ) {
-        if ( isConnected( e2.roadEndpoint.way ) ) {
-          return -1;
-        }
-      } else if ( !isConnected( e2.roadEndpoint.way ) ) {
-        return 1;
+      if ( result == 0 ) {
+        result = Boolean.compare( fromMarked, other.fromMarked );
       }
-
-      // Prefer entrances from marked entrances
-      if ( e1.buildingEndpoint.node == null ) {
-        if ( e2.buildingEndpoint.node != null ) {
-          return -1;
-        }
-      } else if ( e2.buildingEndpoint.node == null ) {
-        return 1;
+      if ( result == 0 ) {
+        result = -Double.compare( length, other.length );
       }
+      return result;
+    }
+
+  }
+
+  private class EntranceComp implements Comparator<EntranceCandidate> {
 
-      return -Double.compare( e1.getLength(), e2.getLength() );
+    @Override
+    public int compare( EntranceCandidate e1, EntranceCandidate e2 ) {
+      return e1.rank.compareTo( e2.rank );
     }
 
   }
 
 
   public EntranceGenerator( RCRDataSet data ) {
+    this( data, data.findLargestConnectedGroup() );
+  }
+
+
+  /**
+   * @param mainConnectedGroup
+   *          the largest connected group of the map. A copy lets the
+   *          generator run on other threads than the one editing the map.
+   */
+  public EntranceGenerator( RCRDataSet data, Set<Way> mainConnectedGroup ) {
     this.rcrdata = data;
     this.data = data.getData();
-    this.mainConnectedGroup = this.rcrdata.findLargestConnectedGroup();
+    this.mainConnectedGroup = mainConnectedGroup;
   }
 
 
@@ -327,11 +375,11 @@ public class EntranceGenerator {
     }
 
     if ( !entrances.isEmpty() ) {
-      Collections.sort( entrances, new EntranceComp() );
+      sortCandidates( entrances );
       Collections.reverse( entrances );
       boolean foundBest = false;
       for ( EntranceCandidate best : entrances ) {
-        System.out.println( "candidate: " + best );
+        Log.debug( "candidate: " + best );
         if ( !checkIntersections( best )
             && ( !toRoadsOnly || !best.roadEndpoint.isBuilding() ) ) {
           Way w = createEntranceWay( best );
@@ -385,6 +433,7 @@ public class EntranceGenerator {
     entrance.put( "rcr:width",
         Integer.toString( (int) ( getEntranceWidth() * 1000 ) ) );
     this.data.addPrimitive( entrance );
+    components = null;
     return entrance;
   }
 
@@ -460,6 +509,8 @@ public class EntranceGenerator {
         Double.toString( e.getPreferredDirectionMismatch() ) );
 
     this.data.addPrimitive( entrance );
+    // the shared nodes changed
+    components = null;
     return entrance;
 
   }
@@ -504,45 +555,93 @@ public class EntranceGenerator {
   }
 
 
+  /**
+   * Returns true if the way is connected to the main group by shared nodes or
+   * planned entrances.
+   */
   private boolean isConnected( Way b ) {
     if ( this.mainConnectedGroup.contains( b ) ) {
       return true;
     }
-    HashSet<Way> closed = new HashSet<>();
-    List<Way> open = new LinkedList<>();
-    closed.add( b );
-    open.add( b );
-    while ( !open.isEmpty() ) {
-      Way w = open.remove( 0 );
-      for ( Node n : w.getNodes() ) {
-        for ( Way newWay : RCRDataSet.getWaysAtNode( n ) ) {
-          if ( this.mainConnectedGroup.contains( newWay ) ) {
-            return true;
-          }
-          if ( !closed.contains( newWay ) ) {
-            open.add( newWay );
-            closed.add( newWay );
-          }
-        }
-      }
-      // FIXME: iterating through all entrances is clearly suboptimal
-      for ( EntranceCandidate e : plannedEntrances ) {
-        Way succ = null;
-        if ( e.buildingEndpoint.way == w ) {
-          succ = e.roadEndpoint.way;
-        } else if ( e.roadEndpoint.way == w ) {
-          succ = e.buildingEndpoint.way;
-        }
-        if ( succ != null && this.mainConnectedGroup.contains( succ ) ) {
-          return true;
-        }
-        if ( succ != null && !closed.contains( succ ) ) {
-          open.add( succ );
-          closed.add( succ );
+    if ( components == null ) {
+      buildComponents();
+    }
+    return connectedComponents.contains( findComponent( b ) );
+  }
+
+
+  private void buildComponents() {
+    components = new HashMap<>();
+    connectedComponents = new HashSet<>();
+    for ( Node n : data.getNodes() ) {
+      Way first = null;
+      for ( Way w : RCRDataSet.getWaysAtNode( n ) ) {
+        if ( first == null ) {
+          first = w;
+          findComponent( w );
+        } else {
+          joinComponents( first, w );
         }
       }
     }
-    return false;
+    for ( Way w : this.mainConnectedGroup ) {
+      connectedComponents.add( findComponent( w ) );
+    }
+    for ( EntranceCandidate e : plannedEntrances ) {
+      joinComponents( e.buildingEndpoint.way, e.roadEndpoint.way );
+    }
+  }
+
+
+  private Way findComponent( Way w ) {
+    Way root = w;
+    Way parent = components.get( root );
+    while ( parent != null && parent != root ) {
+      root = parent;
+      parent = components.get( root );
+    }
+    if ( parent == null ) {
+      components.put( root, root );
+    }
+    // path compression
+    while ( w != root ) {
+      Way next = components.get( w );
+      components.put( w, root );
+      w = next;
+    }
+    return root;
+  }
+
+
+  private void joinComponents( Way w1, Way w2 ) {
+    Way r1 = findComponent( w1 );
+    Way r2 = findComponent( w2 );
+    if ( r1 == r2 ) {
+      return;
+    }
+    components.put( r2, r1 );
+    if ( connectedComponents.remove( r2 ) ) {
+      connectedComponents.add( r1 );
+    }
+  }
+
+
+  private void planEntrance( EntranceCandidate e ) {
+    plannedEntrances.add( e );
+    if ( components != null ) {
+      joinComponents( e.buildingEndpoint.way, e.roadEndpoint.way );
+    }
+  }
+
+
+  private void sortCandidates( List<EntranceCandidate> entrances ) {
+    for ( EntranceCandidate e : entrances ) {
+      e.rank = new RankKey(
+          e.getPreferredDirectionMismatch() < DEVIATION_THRESHOLD,
+          !e.roadEndpoint.isBuilding(), isConnected( e.roadEndpoint.way ),
+          e.buildingEndpoint.node != null, e.getLength() );
+    }
+    Collections.sort( entrances, new EntranceComp() );
   }
 
 
@@ -568,7 +667,7 @@ public class EntranceGenerator {
     }
 
     if ( !entrances.isEmpty() ) {
-      Collections.sort( entrances, new EntranceComp() );
+      sortCandidates( entrances );
       for ( int i = entrances.size(); i != 0; i-- ) {
         EntranceCandidate best = entrances.get( i - 1 );
         if ( !checkIntersections( best ) ) {
@@ -585,6 +684,71 @@ public class EntranceGenerator {
 
   public Entrance getEntrance( Way building, boolean toRoadsOnly ) {
     // System.out.println("id:" + building.getId());
+    return chooseEntrance( getCandidates( building ), toRoadsOnly );
+  }
+
+
+  /**
+   * Plan entrances for several buildings. The result is the same as calling
+   * {@link #getEntrance(Way, boolean)} for each building in order: the
+   * candidates and their intersections with the map are computed in parallel,
+   * then the entrances are chosen in order of the buildings and only checked
+   * against the entrances planned before.
+   *
+   * @return the entrance of each building, or null
+   */
+  public List<Entrance> getEntrances( final List<Way> buildings,
+      Predicate<Way> toRoadsOnly ) {
+    return getEntrances( buildings, toRoadsOnly,
+        NullProgressMonitor.INSTANCE );
+  }
+
+
+  /**
+   * Like {@link #getEntrances(List, Predicate)}, but stops when the monitor is
+   * canceled. The buildings that were not handled get no entrance.
+   */
+  public List<Entrance> getEntrances( final List<Way> buildings,
+      Predicate<Way> toRoadsOnly, final ProgressMonitor monitor ) {
+    // one tick for the candidates and one for the choice of each building
+    monitor.beginTask( tr( "Planning entrances" ), 2 * buildings.size() );
+    try {
+      final List<List<EntranceCandidate>> candidates = new ArrayList<>(
+          Collections.nCopies( buildings.size(),
+              (List<EntranceCandidate>) null ) );
+      IntStream.range( 0, buildings.size() ).parallel().forEach( i -> {
+        if ( monitor.isCanceled() ) {
+          return;
+        }
+        List<EntranceCandidate> entrances = getCandidates(
+            buildings.get( i ) );
+        for ( EntranceCandidate e : entrances ) {
+          e.intersectsMap = checkMapIntersections( e );
+        }
+        candidates.set( i, entrances );
+        synchronized ( monitor ) {
+          monitor.worked( 1 );
+        }
+      } );
+
+      List<Entrance> result = new ArrayList<>( buildings.size() );
+      for ( int i = 0; i < buildings.size(); i++ ) {
+        if ( monitor.isCanceled() ) {
+          result.add( null );
+          continue;
+        }
+        result.add( chooseEntrance( candidates.get( i ),
+            toRoadsOnly.test( buildings.get( i ) ) ) );
+        monitor.worked( 1 );
+      }
+      return result;
+    } finally {
+      monitor.finishTask();
+    }
+  }
+
+
+  private List<EntranceCandidate> getCandidates( Way building ) {
     List<EntranceCandidate> entranceStarts = getEntrancePointCandidates(
         building );
     // System.out.println("found " + entranceStarts.size() + " start points");
@@ -599,9 +763,14 @@ public class EntranceGenerator {
       // System.out.println(" " + e2);
       entrances.addAll( entranceEnds );
     }
+    return entrances;
+  }
 
+
+  private Entrance chooseEntrance( List<EntranceCandidate> entrances,
+      boolean toRoadsOnly ) {
     if ( !entrances.isEmpty() ) {
-      Collections.sort( entrances, new EntranceComp() );
+      sortCandidates( entrances );
       Collections.reverse( entrances );
       for ( EntranceCandidate best : entrances ) {
         if ( !checkIntersections( best )
@@ -609,7 +778,7 @@ public class EntranceGenerator {
           // System.out.println("Best entrance: " + best);
           // for (EntranceCandidate e2 : entrances)
           // System.out.println(" " + e2);
-          plannedEntrances.add( best );
+          planEntrance( best );
           return new Entrance( best );
         } else {
           // System.out.println("Failed intersection test: " + best);
@@ -621,46 +790,73 @@ public class EntranceGenerator {
 
 
   private boolean checkIntersections( EntranceCandidate e ) {
-    assert e.getBounds() != null;
-    assert e.getLength() > Vector.epsilon;
+    if ( Log.isEnabled( Log.TRACE ) ) {
+      Log.trace( "check entrance " + e );
+    }
+    if ( e.intersectsMap == null ) {
+      e.intersectsMap = checkMapIntersections( e );
+    }
+    if ( e.intersectsMap ) {
+      return true;
+    }
 
     // shorten the entrance line to avoid self intersects
+    Line2D shortEntrance = getShortEntrance( e );
+    for ( EntranceCandidate e2 : plannedEntrances ) {
+      if ( shortEntrance.intersectsLine( e2.getLine() ) ) {
+        e.debugMsg = "intersects entrance: " + e2.buildingEndpoint.way.getId()
+            + " -- " + e2.roadEndpoint.way.getId();
+        return true;
+      }
+    }
+    return false;
+  }
+
+
+  private static Line2D getShortEntrance( EntranceCandidate e ) {
     double amount = 0.01;
     Point2D offset = Vector.times(
         Vector.normalize(
             Vector.diff( e.roadEndpoint.point, e.buildingEndpoint.point ) ),
         amount );
-    Line2D shortEntrance = new Line2D.Double(
-        Vector.sum( e.buildingEndpoint.point, offset ),
+    return new Line2D.Double( Vector.sum( e.buildingEndpoint.point, offset ),
         Vector.diff( e.roadEndpoint.point, offset ) );
+  }
+
+
+  /**
+   * Check the candidate against the roads and buildings of the map. This
+   * doesn't depend on other planned entrances, so it may run in parallel.
+   */
+  private boolean checkMapIntersections( EntranceCandidate e ) {
+    assert e.getBounds() != null;
+    assert e.getLength() > Vector.epsilon;
+
+    // shorten the entrance line to avoid self intersects
+    Line2D shortEntrance = getShortEntrance( e );
     Line2D line = new Line2D.Double( e.buildingEndpoint.point,
         e.roadEndpoint.point );
-    System.out.println( "check entrance " + e );
-    for ( Way w : data.searchWays( e.getBounds() ) ) {
-      if ( w.hasTag( "rcr:type", "road", "building" )
-          && AreaTools.lineIntersectsWay( line, w ) ) {
-        e.debugMsg = "intersects: " + w.getId();
+    for ( Segment s : rcrdata.getSegmentIndex().query( line ) ) {
+      if ( s.way.hasTag( "rcr:type", "road", "building" )
+          && AreaTools.linesIntersect( line, s.line ) ) {
+        e.debugMsg = "intersects: " + s.way.getId();
         return true;
       }
+    }
+    for ( Way w : data.searchWays( e.getBounds() ) ) {
       if ( w.hasTag( "rcr:type", "building" )
-          && AreaTools.lineContainedInPolygon( line, w ) ) {
+          && AreaTools.lineContainedInPolygon( line,
+              rcrdata.getGeometry( w ) ) ) {
         e.debugMsg = "contained: " + w.getId();
         return true;
       }
     }
-    for ( EntranceCandidate e2 : plannedEntrances ) {
-      if ( shortEntrance.intersectsLine( e2.getLine() ) ) {
-        e.debugMsg = "intersects entrance: " + e2.buildingEndpoint.way.getId()
-            + " -- " + e2.roadEndpoint.way.getId();
-        return true;
-      }
-    }
 
     // Check if entrance lies inside building
     // Line2D longEntrance = new Line2D.Double(Vector.diff(e.buildingPoint,
     // offset), Vector.sum(e.roadPoint, offset));
     if ( AreaTools.lineContainedInPolygon( shortEntrance,
-        e.buildingEndpoint.way ) ) {
+        rcrdata.getGeometry( e.buildingEndpoint.way ) ) ) {
       e.debugMsg = "contained in self";
       return true;
     }
@@ -793,4 +989,75 @@ public class EntranceGenerator {
   private static double getEntranceWidth() {
     return (double) RCRPlugin.settings.getEntranceWidth() / 1000;
   }
+
+
+  /**
+   * Write planned entrances for the {@link StageCache}. Ways are referenced
+   * by {@link StageCache#hashWay(Way)}, nodes by their index in the way.
+   */
+  static void writeEntrances( Map<Way, Entrance> entrances,
+      DataOutputStream out ) throws IOException {
+    out.writeInt( entrances.size() );
+    for ( Map.Entry<Way, Entrance> e : entrances.entrySet() ) {
+      EntranceCandidate c = e.getValue().getEntrance();
+      out.writeLong( StageCache.hashWay( e.getKey() ) );
+      writeEndpoint( c.buildingEndpoint, out );
+      writeEndpoint( c.roadEndpoint, out );
+    }
+  }
+
+
+  /**
+   * Read entrances written by {@link #writeEntrances(Map, DataOutputStream)}
+   * for the ways of this map.
+   *
+   * @return the entrances, or null if a way is not found
+   */
+  Map<Way, Entrance> readEntrances( DataInputStream in ) throws IOException {
+    Map<Long, Way> ways = StageCache.getWaysByHash( data );
+    Map<Way, Entrance> result = new HashMap<>();
+    for ( int count = in.readInt(); count > 0; count-- ) {
+      Way building = ways.get( in.readLong() );
+      Endpoint from = readEndpoint( ways, in );
+      Endpoint to = readEndpoint( ways, in );
+      if ( building == null || from == null || to == null ) {
+        return null;
+      }
+      result.put( building, new Entrance( new EntranceCandidate( from,
+          to ) ) );
+    }
+    return result;
+  }
+
+
+  private static void writeEndpoint( Endpoint e, DataOutputStream out )
+      throws IOException {
+    out.writeLong( StageCache.hashWay( e.way ) );
+    out.writeInt( e.node != null ? e.way.getNodes().indexOf( e.node ) : -1 );
+    if ( e.node == null ) {
+      out.writeDouble( e.point.getX() );
+      out.writeDouble( e.point.getY() );
+    }
+    out.writeBoolean( e.preferredDirection != null );
+    if ( e.preferredDirection != null ) {
+      out.writeDouble( e.preferredDirection.getX() );
+      out.writeDouble( e.preferredDirection.getY() );
+    }
+  }
+
+
+  private Endpoint readEndpoint( Map<Long, Way> ways, DataInputStream in )
+      throws IOException {
+    Way w = ways.get( in.readLong() );
+    int node = in.readInt();
+    Point2D point = node < 0 ? new Point2D.Double( in.readDouble(),
+        in.readDouble() ) : null;
+    Point2D dir = in.readBoolean() ? new Point2D.Double( in.readDouble(),
+        in.readDouble() ) : null;
+    if ( w == null || node >= w.getNodesCount() ) {
+      return null;
+    }
+    return node < 0 ? new Endpoint( w, point, dir ) : new Endpoint( w,
+        w.getNode( node ), dir );
+  }
 }
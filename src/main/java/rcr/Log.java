@@ -0,0 +1,98 @@
+package rcr;
+
+/**
+ * Level check for the diagnostic output of the converter. Messages about
+ * single ways, nodes or segments are off by default. Hot loops check
+ * {@link #isEnabled(int)} before they build a message, so the output costs
+ * nothing in normal runs.
+ *
+ * The level is read from the system property <tt>rcr.log</tt> (<tt>off</tt>,
+ * <tt>info</tt>, <tt>debug</tt> or <tt>trace</tt>) and defaults to
+ * <tt>info</tt>, which keeps one line per stage.
+ */
+public final class Log {
+
+  public static final int OFF   = 0;
+  /** One line per stage. */
+  public static final int INFO  = 1;
+  /** One line per way, node or shape. */
+  public static final int DEBUG = 2;
+  /** Every segment and intermediate result. */
+  public static final int TRACE = 3;
+
+  private static volatile int level = parseLevel(
+      System.getProperty( "rcr.log" ), INFO );
+
+
+  private Log() {
+  }
+
+
+  public static boolean isEnabled( int l ) {
+    return level >= l;
+  }
+
+
+  public static int getLevel() {
+    return level;
+  }
+
+
+  public static void setLevel( int l ) {
+    level = l;
+  }
+
+
+  public static void info( String message ) {
+    if ( isEnabled( INFO ) ) {
+      System.out.println( message );
+    }
+  }
+
+
+  public static void debug( String message ) {
+    if ( isEnabled( DEBUG ) ) {
+      System.out.println( message );
+    }
+  }
+
+
+  public static void trace( String message ) {
+    if ( isEnabled( TRACE ) ) {
+      System.out.println( message );
+    }
+  }
+
+
+  /**
+   * @throws IllegalArgumentException
+   *           if the name is not a level
+   */
+  public static int parseLevel( String name ) {
+    switch ( name.toLowerCase() ) {
+      case "off":
+        return OFF;
+      case "info":
+        return INFO;
+      case "debug":
+        return DEBUG;
+      case "trace":
+        return TRACE;
+      default:
+        throw new IllegalArgumentException( "unknown log level " + name );
+    }
+  }
+
+
+  private static int parseLevel( String name, int defaultLevel ) {
+    if ( name == null ) {
+      return defaultLevel;
+    }
+    try {
+      return parseLevel( name );
+    } catch ( IllegalArgumentException e ) {
+      return defaultLevel;
+    }
+  }
+
+}
@@ -0,0 +1,158 @@
+package rcr;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.openstreetmap.josm.data.coor.LatLon;
+import org.openstreetmap.josm.data.osm.DataSet;
+import org.openstreetmap.josm.data.osm.Node;
+import org.openstreetmap.josm.data.osm.OsmPrimitive;
+import org.openstreetmap.josm.data.osm.Relation;
+import org.openstreetmap.josm.data.osm.RelationMember;
+import org.openstreetmap.josm.data.osm.Way;
+
+/**
+ * The generated roads and buildings of a {@link RCRDataSet}, stored by the
+ * {@link StageCache}. Primitives taken from the source keep their ID, so a
+ * loaded map can be compared with the source like a generated one.
+ * Primitives are referenced by their index in the snapshot.
+ */
+class MapSnapshot {
+
+  private static final int NODE     = 0;
+  private static final int WAY      = 1;
+  private static final int RELATION = 2;
+
+
+  private MapSnapshot() {
+  }
+
+
+  static void write( DataSet data, DataOutputStream out ) throws IOException {
+    Map<OsmPrimitive, Integer> index = new HashMap<>();
+    List<Node> nodes = getPrimitives( data.getNodes(), index );
+    List<Way> ways = getPrimitives( data.getWays(), index );
+    List<Relation> relations = getPrimitives( data.getRelations(), index );
+
+    out.writeInt( nodes.size() );
+    for ( Node n : nodes ) {
+      writeHeader( n, out );
+      out.writeDouble( n.getCoor().lat() );
+      out.writeDouble( n.getCoor().lon() );
+    }
+    out.writeInt( ways.size() );
+    for ( Way w : ways ) {
+      writeHeader( w, out );
+      out.writeInt( w.getNodesCount() );
+      for ( Node n : w.getNodes() ) {
+        out.writeInt( index.get( n ) );
+      }
+    }
+    // members follow all relations, a relation may contain another one
+    out.writeInt( relations.size() );
+    for ( Relation r : relations ) {
+      writeHeader( r, out );
+    }
+    for ( Relation r : relations ) {
+      out.writeInt( r.getMembersCount() );
+      for ( RelationMember m : r.getMembers() ) {
+        OsmPrimitive member = m.getMember();
+        out.writeByte( member instanceof Node ? NODE
+            : member instanceof Way ? WAY : RELATION );
+        out.writeInt( index.get( member ) );
+        out.writeUTF( m.getRole() );
+      }
+    }
+  }
+
+
+  /**
+   * Returns all primitives of the snapshot, in the order they can be added
+   * to a data set.
+   */
+  static List<OsmPrimitive> read( DataInputStream in ) throws IOException {
+    List<OsmPrimitive> result = new ArrayList<>();
+    Node[] nodes = new Node[in.readInt()];
+    for ( int i = 0; i < nodes.length; i++ ) {
+      long id = in.readLong();
+      int version = in.readInt();
+      nodes[i] = id > 0 ? new Node( id, version ) : new Node();
+      readTags( nodes[i], in );
+      nodes[i].setCoor( new LatLon( in.readDouble(), in.readDouble() ) );
+      result.add( nodes[i] );
+    }
+    Way[] ways = new Way[in.readInt()];
+    for ( int i = 0; i < ways.length; i++ ) {
+      long id = in.readLong();
+      int version = in.readInt();
+      ways[i] = id > 0 ? new Way( id, version ) : new Way();
+      readTags( ways[i], in );
+      List<Node> wayNodes = new ArrayList<>();
+      for ( int count = in.readInt(); count > 0; count-- ) {
+        wayNodes.add( nodes[in.readInt()] );
+      }
+      ways[i].setNodes( wayNodes );
+      result.add( ways[i] );
+    }
+    Relation[] relations = new Relation[in.readInt()];
+    for ( int i = 0; i < relations.length; i++ ) {
+      long id = in.readLong();
+      int version = in.readInt();
+      relations[i] = id > 0 ? new Relation( id, version ) : new Relation();
+      readTags( relations[i], in );
+    }
+    for ( Relation r : relations ) {
+      List<RelationMember> members = new ArrayList<>();
+      for ( int count = in.readInt(); count > 0; count-- ) {
+        int type = in.readByte();
+        int member = in.readInt();
+        OsmPrimitive osm = type == NODE ? nodes[member]
+            : type == WAY ? ways[member] : relations[member];
+        members.add( new RelationMember( in.readUTF(), osm ) );
+      }
+      r.setMembers( members );
+      result.add( r );
+    }
+    return result;
+  }
+
+
+  private static <T extends OsmPrimitive> List<T> getPrimitives(
+      Iterable<T> primitives, Map<OsmPrimitive, Integer> index ) {
+    List<T> result = new ArrayList<>();
+    for ( T osm : primitives ) {
+      if ( !osm.isDeleted() ) {
+        index.put( osm, result.size() );
+        result.add( osm );
+      }
+    }
+    return result;
+  }
+
+
+  private static void writeHeader( OsmPrimitive osm, DataOutputStream out )
+      throws IOException {
+    out.writeLong( osm.isNew() ? 0 : osm.getId() );
+    out.writeInt( osm.getVersion() );
+    Map<String, String> tags = osm.getKeys();
+    out.writeInt( tags.size() );
+    for ( Map.Entry<String, String> tag : tags.entrySet() ) {
+      out.writeUTF( tag.getKey() );
+      out.writeUTF( tag.getValue() );
+    }
+  }
+
+
+  private static void readTags( OsmPrimitive osm, DataInputStream in )
+      throws IOException {
+    for ( int count = in.readInt(); count > 0; count-- ) {
+      osm.put( in.readUTF(), in.readUTF() );
+    }
+  }
+
+}
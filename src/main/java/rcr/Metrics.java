@@ -0,0 +1,232 @@
+package rcr;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Wall time, allocation and element counts of the stages of a conversion.
+ *
+ * <pre>
+ * try ( Metrics.Stage stage = Metrics.start( "roads" ) ) {
+ *   ...
+ *   stage.count( "ways", n );
+ * }
+ * </pre>
+ *
+ * Stages with the same name are added up and stages may be nested. The
+ * allocation is that of all threads of the VM while the stage ran, so it is
+ * an estimate: it includes other work done at the same time, and stages
+ * running in parallel count each other's allocations. Threads that ended
+ * before the stage closed are not counted, as their allocation can't be read
+ * anymore.
+ */
+public final class Metrics {
+
+  private static final Map<String, Totals> stages = new LinkedHashMap<>();
+
+
+  private Metrics() {
+  }
+
+
+  public static Stage start( String name ) {
+    return new Stage( name );
+  }
+
+
+  /**
+   * Forget all recorded stages, e.g. before the next conversion.
+   */
+  public static synchronized void reset() {
+    stages.clear();
+  }
+
+
+  private static synchronized void add( Stage s, long time, long allocated ) {
+    Totals t = stages.get( s.name );
+    if ( t == null ) {
+      t = new Totals();
+      stages.put( s.name, t );
+    }
+    t.calls++;
+    t.time += time;
+    if ( allocated >= 0 && t.allocated >= 0 ) {
+      t.allocated += allocated;
+    } else {
+      t.allocated = -1;
+    }
+    for ( Map.Entry<String, Long> e : s.counts.entrySet() ) {
+      Long old = t.counts.get( e.getKey() );
+      t.counts.put( e.getKey(), old == null ? e.getValue()
+          : old + e.getValue() );
+    }
+  }
+
+
+  /**
+   * Write the stages as JSON.
+   */
+  public static void writeReport( File file ) throws IOException {
+    try ( Writer out = new OutputStreamWriter( new FileOutputStream( file ),
+        StandardCharsets.UTF_8 ) ) {
+      out.write( toJson() );
+    }
+  }
+
+
+  /**
+   * Returns the stages in the order they first finished, e.g.
+   *
+   * <pre>
+   * {"stages": [
+   *   {"name": "roads", "calls": 1, "wallMs": 812.4,
+   *     "allocatedBytes": 203423744, "counts": {"ways": 1843}},
+   *   ...
+   * ]}
+   * </pre>
+   *
+   * allocatedBytes is -1 if the VM can't measure it.
+   */
+  public static synchronized String toJson() {
+    StringBuilder json = new StringBuilder( "{\"stages\": [" );
+    String separator = "\n";
+    for ( Map.Entry<String, Totals> e : stages.entrySet() ) {
+      Totals t = e.getValue();
+      json.append( separator );
+      json.append( "  {\"name\": " ).append( quote( e.getKey() ) );
+      json.append( ", \"calls\": " ).append( t.calls );
+      json.append( ", \"wallMs\": " ).append(
+          String.format( Locale.US, "%.1f", t.time / 1e6 ) );
+      json.append( ",\n    \"allocatedBytes\": " ).append( t.allocated );
+      json.append( ", \"counts\": {" );
+      String countSeparator = "";
+      for ( Map.Entry<String, Long> c : t.counts.entrySet() ) {
+        json.append( countSeparator ).append( quote( c.getKey() ) )
+            .append( ": " ).append( c.getValue() );
+        countSeparator = ", ";
+      }
+      json.append( "}}" );
+      separator = ",\n";
+    }
+    json.append( "\n]}\n" );
+    return json.toString();
+  }
+
+
+  private static String quote( String s ) {
+    StringBuilder result = new StringBuilder( "\"" );
+    for ( char c : s.toCharArray() ) {
+      if ( c == '"' || c == '\\' ) {
+        result.append( '\\' ).append( c );
+      } else if ( c < 0x20 ) {
+        result.append( String.format( "\\u%04x", (int) c ) );
+      } else {
+        result.append( c );
+      }
+    }
+    return result.append( '"' ).toString();
+  }
+
+
+  /**
+   * Bytes allocated so far by each live thread, by thread ID, or null if the
+   * VM can't measure them.
+   */
+  private static Map<Long, Long> allocatedBytes() {
+    ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+    if ( !( bean instanceof com.sun.management.ThreadMXBean ) ) {
+      return null;
+    }
+    com.sun.management.ThreadMXBean threads =
+        (com.sun.management.ThreadMXBean) bean;
+    if ( !threads.isThreadAllocatedMemorySupported()
+        || !threads.isThreadAllocatedMemoryEnabled() ) {
+      return null;
+    }
+    long[] ids = threads.getAllThreadIds();
+    long[] bytes = threads.getThreadAllocatedBytes( ids );
+    Map<Long, Long> result = new HashMap<>();
+    for ( int i = 0; i < ids.length; i++ ) {
+      // -1 if the thread ended meanwhile
+      if ( bytes[i] >= 0 ) {
+        result.put( ids[i], bytes[i] );
+      }
+    }
+    return result;
+  }
+
+
+  /**
+   * Bytes allocated by the live threads since the start values, or -1.
+   * Threads started meanwhile count fully.
+   */
+  private static long allocatedSince( Map<Long, Long> start ) {
+    Map<Long, Long> now = start == null ? null : allocatedBytes();
+    if ( now == null ) {
+      return -1;
+    }
+    long sum = 0;
+    for ( Map.Entry<Long, Long> e : now.entrySet() ) {
+      Long before = start.get( e.getKey() );
+      sum += before == null ? e.getValue()
+          : Math.max( 0, e.getValue() - before );
+    }
+    return sum;
+  }
+
+
+  /**
+   * A running stage. Closing it records its time.
+   */
+  public static class Stage implements AutoCloseable {
+
+    private final String            name;
+    private final long              start     = System.nanoTime();
+    private final Map<Long, Long>   allocated = allocatedBytes();
+    private final Map<String, Long> counts    = new LinkedHashMap<>();
+
+
+    private Stage( String name ) {
+      this.name = name;
+    }
+
+
+    /**
+     * Add n elements of a kind, e.g. the ways a stage created.
+     */
+    public synchronized void count( String key, long n ) {
+      Long old = counts.get( key );
+      counts.put( key, old == null ? n : old + n );
+    }
+
+
+    @Override
+    public void close() {
+      long time = System.nanoTime() - start;
+      long bytes = allocatedSince( allocated );
+      synchronized ( this ) {
+        add( this, time, bytes );
+      }
+    }
+  }
+
+
+  private static class Totals {
+
+    int               calls;
+    long              time;
+    long              allocated;
+    Map<String, Long> counts = new LinkedHashMap<>();
+  }
+
+}
@@ -0,0 +1,513 @@
+package rcr;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.GZIPInputStream;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.openstreetmap.josm.data.Bounds;
+import org.openstreetmap.josm.data.DataSource;
+import org.openstreetmap.josm.data.coor.LatLon;
+import org.openstreetmap.josm.data.osm.DataSet;
+import org.openstreetmap.josm.data.osm.Node;
+import org.openstreetmap.josm.data.osm.OsmPrimitive;
+import org.openstreetmap.josm.data.osm.Relation;
+import org.openstreetmap.josm.data.osm.RelationMember;
+import org.openstreetmap.josm.data.osm.Way;
+import org.openstreetmap.josm.io.IllegalDataException;
+
+/**
+ * Reads only the parts of an OSM XML file that are needed for a conversion,
+ * without loading the whole file into a data set first.
+ *
+ * The first pass reads the ways and relations and keeps the roads and
+ * buildings (or the rescue map elements, see {@link #forRescueMap()}) and the
+ * multipolygons built from them. Relations follow the ways in OSM files, so
+ * the other members of these multipolygons, e.g. untagged outer ways, are
+ * only known afterwards and are read in a second pass over the ways, which
+ * keeps just the referenced IDs. The last pass reads only the nodes of the
+ * kept ways, and for a rescue map also the nodes with <tt>rcr:</tt> tags,
+ * e.g. buildings or agents that are no part of a way. Ways outside the bounds are dropped before the data set is
+ * created.
+ *
+ * Files ending in <tt>.gz</tt> are decompressed. PBF files are not supported.
+ */
+public class OsmStreamReader {
+
+  private static class Member {
+
+    String type;
+    long   ref;
+    String role;
+  }
+
+  private static class Element {
+
+    String              type;
+    long                id;
+    int                 version;
+    double              lat;
+    double              lon;
+    Map<String, String> tags    = new HashMap<>();
+    List<Long>          refs    = new ArrayList<>();
+    List<Member>        members = new ArrayList<>();
+  }
+
+  private abstract class Pass {
+
+    abstract boolean wants( String type );
+
+
+    abstract void element( Element e );
+
+
+    void bounds( Bounds b ) {
+    }
+  }
+
+
+  private File                  file;
+  private Bounds                bounds;
+  private boolean               rescueMap;
+
+  private List<Bounds>          fileBounds = new ArrayList<>();
+  private Map<Long, Element>    ways       = new LinkedHashMap<>();
+  private Set<Long>             accepted   = new HashSet<>();
+  private Map<Long, Element>    relations  = new LinkedHashMap<>();
+  private Map<Long, Node>       nodes      = new LinkedHashMap<>();
+  private Set<Node>             tagged     = new HashSet<>();
+  private int                   dropped    = 0;
+
+
+  /**
+   * Reader for OSM source data: roads, buildings and their multipolygons.
+   *
+   * @param bounds
+   *          only keep ways within these bounds, or null for all
+   */
+  public OsmStreamReader( Bounds bounds ) {
+    this.bounds = bounds;
+  }
+
+
+  /**
+   * Reader for rescue maps saved from JOSM. Keeps all ways with a
+   * <tt>rcr:type</tt> and all nodes with a <tt>rcr:</tt> tag.
+   */
+  public static OsmStreamReader forRescueMap() {
+    OsmStreamReader reader = new OsmStreamReader( null );
+    reader.rescueMap = true;
+    return reader;
+  }
+
+
+  public DataSet read( File file ) throws IOException, IllegalDataException {
+    this.file = file;
+    fileBounds.clear();
+    ways.clear();
+    accepted.clear();
+    relations.clear();
+    nodes.clear();
+    tagged.clear();
+    dropped = 0;
+
+    // ways and relations
+    parse( new Pass() {
+
+      boolean wants( String type ) {
+        return !type.equals( "node" );
+      }
+
+
+      void bounds( Bounds b ) {
+        fileBounds.add( b );
+      }
+
+
+      void element( Element e ) {
+        if ( e.type.equals( "way" ) ) {
+          if ( acceptWay( e ) ) {
+            accepted.add( e.id );
+            ways.put( e.id, e );
+          }
+        } else if ( acceptRelation( e ) ) {
+          relations.put( e.id, e );
+        } else {
+          dropped++;
+        }
+      }
+    } );
+
+    final Set<Long> members = new HashSet<>();
+    for ( Element r : relations.values() ) {
+      if ( !isMultipolygon( r ) ) continue;
+      for ( Member m : r.members ) {
+        if ( m.type.equals( "way" ) ) {
+          members.add( m.ref );
+        }
+      }
+    }
+    members.removeAll( ways.keySet() );
+    if ( !members.isEmpty() ) {
+      // multipolygon members that are no roads or buildings
+      parse( new Pass() {
+
+        boolean wants( String type ) {
+          return type.equals( "way" );
+        }
+
+
+        void element( Element e ) {
+          if ( members.contains( e.id ) ) {
+            ways.put( e.id, e );
+          }
+        }
+      } );
+    }
+
+    // nodes of the remaining ways
+    final Set<Long> nodeIds = new HashSet<>();
+    for ( Element w : ways.values() ) {
+      nodeIds.addAll( w.refs );
+    }
+    parse( new Pass() {
+
+      boolean wants( String type ) {
+        return type.equals( "node" );
+      }
+
+
+      void element( Element e ) {
+        boolean keep = rescueMap && hasRescueTag( e );
+        if ( keep || nodeIds.contains( e.id ) ) {
+          Node n = e.id > 0 ? new Node( e.id, e.version ) : new Node();
+          n.setCoor( new LatLon( e.lat, e.lon ) );
+          n.setKeys( e.tags );
+          nodes.put( e.id, n );
+          if ( keep ) {
+            tagged.add( n );
+          }
+        }
+      }
+    } );
+
+    return createDataSet();
+  }
+
+
+  /**
+   * Returns the number of relations the last {@link #read(File)} did not
+   * keep, e.g. all relations of a rescue map.
+   */
+  public int getDroppedRelations() {
+    return dropped;
+  }
+
+
+  private boolean acceptWay( Element w ) {
+    if ( rescueMap ) {
+      return w.tags.containsKey( "rcr:type" );
+    }
+    return w.tags.containsKey( "building" )
+        || Arrays.asList( RoadGenerator.highwayValues )
+            .contains( w.tags.get( "highway" ) );
+  }
+
+
+  private boolean acceptRelation( Element r ) {
+    if ( rescueMap ) {
+      return false;
+    }
+    if ( "associatedStreet".equals( r.tags.get( "type" ) ) ) {
+      return true;
+    }
+    if ( !isMultipolygon( r ) ) {
+      return false;
+    }
+    // like MPTools.isMultipolygon, the outer ways may carry the tags
+    if ( acceptWay( r ) ) {
+      return true;
+    }
+    for ( Member m : r.members ) {
+      if ( m.type.equals( "way" ) && "outer".equals( m.role )
+          && accepted.contains( m.ref ) ) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+
+  private static boolean hasRescueTag( Element e ) {
+    for ( String key : e.tags.keySet() ) {
+      if ( key.startsWith( "rcr:" ) ) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+
+  private static boolean isMultipolygon( Element r ) {
+    String type = r.tags.get( "type" );
+    return "multipolygon".equals( type ) || "boundary".equals( type );
+  }
+
+
+  private DataSet createDataSet() {
+    // drop ways outside the bounds, but keep multipolygons complete
+    Set<Long> keep = new HashSet<>();
+    for ( Element w : ways.values() ) {
+      if ( accepted.contains( w.id ) && inBounds( w ) ) {
+        keep.add( w.id );
+      }
+    }
+    List<Element> keptRelations = new ArrayList<>();
+    for ( Element r : relations.values() ) {
+      boolean inside = isMultipolygon( r ) ? anyMemberInBounds( r )
+          : anyMemberIn( r, keep );
+      if ( inside ) {
+        keptRelations.add( r );
+      }
+    }
+    Set<Long> members = new HashSet<>();
+    for ( Element r : keptRelations ) {
+      if ( isMultipolygon( r ) ) {
+        for ( Member m : r.members ) {
+          if ( m.type.equals( "way" ) ) {
+            members.add( m.ref );
+          }
+        }
+      }
+    }
+    keep.addAll( members );
+
+    DataSet data = new DataSet();
+    for ( Bounds b : fileBounds ) {
+      data.dataSources.add( new DataSource( b, file.getName() ) );
+    }
+    Map<Long, Way> wayMap = new HashMap<>();
+    Set<Node> used = new HashSet<>();
+    List<Way> newWays = new ArrayList<>();
+    for ( Element e : ways.values() ) {
+      if ( !keep.contains( e.id ) ) continue;
+      List<Node> wayNodes = new ArrayList<>( e.refs.size() );
+      for ( Long ref : e.refs ) {
+        Node n = nodes.get( ref );
+        if ( n != null ) {
+          wayNodes.add( n );
+        }
+      }
+      if ( wayNodes.size() < 2 ) continue;
+      Way w = e.id > 0 ? new Way( e.id, e.version ) : new Way();
+      w.setNodes( wayNodes );
+      if ( e.tags != null ) {
+        w.setKeys( e.tags );
+      }
+      used.addAll( wayNodes );
+      wayMap.put( e.id, w );
+      newWays.add( w );
+    }
+    for ( Node n : nodes.values() ) {
+      if ( used.contains( n ) || tagged.contains( n ) ) {
+        data.addPrimitive( n );
+      }
+    }
+    for ( Way w : newWays ) {
+      data.addPrimitive( w );
+    }
+    for ( Element e : keptRelations ) {
+      List<RelationMember> relMembers = new ArrayList<>();
+      for ( Member m : e.members ) {
+        OsmPrimitive osm = null;
+        if ( m.type.equals( "way" ) ) {
+          osm = wayMap.get( m.ref );
+        } else if ( m.type.equals( "node" ) ) {
+          Node n = nodes.get( m.ref );
+          osm = used.contains( n ) ? n : null;
+        }
+        if ( osm != null ) {
+          relMembers.add( new RelationMember( m.role, osm ) );
+        }
+      }
+      if ( relMembers.isEmpty() ) continue;
+      Relation r = e.id > 0 ? new Relation( e.id, e.version ) : new Relation();
+      r.setMembers( relMembers );
+      r.setKeys( e.tags );
+      data.addPrimitive( r );
+    }
+
+    ways.clear();
+    relations.clear();
+    nodes.clear();
+    tagged.clear();
+    return data;
+  }
+
+
+  private boolean anyMemberInBounds( Element r ) {
+    for ( Member m : r.members ) {
+      if ( m.type.equals( "way" ) && ways.containsKey( m.ref )
+          && inBounds( ways.get( m.ref ) ) ) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+
+  private static boolean anyMemberIn( Element r, Set<Long> wayIds ) {
+    for ( Member m : r.members ) {
+      if ( m.type.equals( "way" ) && wayIds.contains( m.ref ) ) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+
+  private boolean inBounds( Element w ) {
+    if ( bounds == null ) {
+      return true;
+    }
+    double minLat = Double.POSITIVE_INFINITY, maxLat = Double.NEGATIVE_INFINITY;
+    double minLon = Double.POSITIVE_INFINITY, maxLon = Double.NEGATIVE_INFINITY;
+    for ( Long ref : w.refs ) {
+      Node n = nodes.get( ref );
+      if ( n == null ) continue;
+      LatLon c = n.getCoor();
+      minLat = Math.min( minLat, c.lat() );
+      maxLat = Math.max( maxLat, c.lat() );
+      minLon = Math.min( minLon, c.lon() );
+      maxLon = Math.max( maxLon, c.lon() );
+    }
+    return minLat <= bounds.getMaxLat() && maxLat >= bounds.getMinLat()
+        && minLon <= bounds.getMaxLon() && maxLon >= bounds.getMinLon();
+  }
+
+
+  private void parse( Pass pass ) throws IOException, IllegalDataException {
+    InputStream in = new BufferedInputStream( new FileInputStream( file ) );
+    try {
+      if ( file.getName().endsWith( ".gz" ) ) {
+        in = new GZIPInputStream( in );
+      }
+      XMLStreamReader xml = XMLInputFactory.newInstance()
+          .createXMLStreamReader( in );
+      try {
+        parse( xml, pass );
+      } finally {
+        xml.close();
+      }
+    } catch ( XMLStreamException | NumberFormatException e ) {
+      throw new IllegalDataException( e );
+    } finally {
+      in.close();
+    }
+  }
+
+
+  private void parse( XMLStreamReader xml, Pass pass )
+      throws XMLStreamException {
+    Element current = null;
+    while ( xml.hasNext() ) {
+      int event = xml.next();
+      if ( event == XMLStreamConstants.END_ELEMENT ) {
+        if ( current != null && current.type.equals( xml.getLocalName() ) ) {
+          pass.element( current );
+          current = null;
+        }
+        continue;
+      }
+      if ( event != XMLStreamConstants.START_ELEMENT ) continue;
+
+      String name = xml.getLocalName();
+      switch ( name ) {
+        case "node":
+        case "way":
+        case "relation":
+          if ( !pass.wants( name )
+              || "delete".equals( xml.getAttributeValue( null, "action" ) ) ) {
+            skipElement( xml );
+            break;
+          }
+          current = new Element();
+          current.type = name;
+          current.id = Long.parseLong( xml.getAttributeValue( null, "id" ) );
+          String version = xml.getAttributeValue( null, "version" );
+          current.version = version != null ? Integer.parseInt( version ) : 1;
+          if ( name.equals( "node" ) ) {
+            current.lat = Double
+                .parseDouble( xml.getAttributeValue( null, "lat" ) );
+            current.lon = Double
+                .parseDouble( xml.getAttributeValue( null, "lon" ) );
+          }
+          break;
+        case "tag":
+          if ( current != null ) {
+            current.tags.put( xml.getAttributeValue( null, "k" ),
+                xml.getAttributeValue( null, "v" ) );
+          }
+          break;
+        case "nd":
+          if ( current != null ) {
+            current.refs
+                .add( Long.parseLong( xml.getAttributeValue( null, "ref" ) ) );
+          }
+          break;
+        case "member":
+          if ( current != null ) {
+            Member m = new Member();
+            m.type = xml.getAttributeValue( null, "type" );
+            m.ref = Long.parseLong( xml.getAttributeValue( null, "ref" ) );
+            m.role = xml.getAttributeValue( null, "role" );
+            current.members.add( m );
+          }
+          break;
+        case "bounds":
+          pass.bounds( new Bounds(
+              Double.parseDouble( xml.getAttributeValue( null, "minlat" ) ),
+              Double.parseDouble( xml.getAttributeValue( null, "minlon" ) ),
+              Double.parseDouble( xml.getAttributeValue( null, "maxlat" ) ),
+              Double.parseDouble( xml.getAttributeValue( null, "maxlon" ) ) ) );
+          break;
+        case "bound":
+          pass.bounds(
+              new Bounds( xml.getAttributeValue( null, "box" ), "," ) );
+          break;
+        default:
+          break;
+      }
+    }
+  }
+
+
+  private static void skipElement( XMLStreamReader xml )
+      throws XMLStreamException {
+    int depth = 1;
+    while ( depth > 0 ) {
+      int event = xml.next();
+      if ( event == XMLStreamConstants.START_ELEMENT ) {
+        depth++;
+      } else if ( event == XMLStreamConstants.END_ELEMENT ) {
+        depth--;
+      }
+    }
+  }
+
+}
@@ -23,12 +23,16 @@
 
 package rcr;
 
+import static org.openstreetmap.josm.tools.I18n.tr;
+
 import java.awt.Point;
 import java.awt.geom.Line2D;
 import java.awt.geom.Point2D;
+import java.awt.geom.Rectangle2D;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Deque;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -60,6 +64,8 @@ import org.openstreetmap.josm.data.osm.event.PrimitivesRemovedEvent;
 import org.openstreetmap.josm.data.osm.event.RelationMembersChangedEvent;
 import org.openstreetmap.josm.data.osm.event.TagsChangedEvent;
 import org.openstreetmap.josm.data.osm.event.WayNodesChangedEvent;
+import org.openstreetmap.josm.gui.progress.NullProgressMonitor;
+import org.openstreetmap.josm.gui.progress.ProgressMonitor;
 import org.openstreetmap.josm.tools.Pair;
 
 import rcr.export.LegacyImporter;
@@ -68,6 +74,10 @@ import rcr.export.RCRRoad;
 import rescuecore.RescueConstants;
 import tools.AreaTools;
 import tools.MPTools;
+import tools.SegmentIndex;
+import tools.SegmentIndex.Segment;
+import tools.WayGeometry;
+import tools.WayGeometryCache;
 
 public class RCRDataSet implements DataSetListener {
 
@@ -76,14 +86,24 @@ public class RCRDataSet implements DataSetListener {
   private DataSet                             data          = new DataSet();
   public final RCRLegacyMap                   sourceMap;
 
-  public Map<Way, EntranceGenerator.Entrance> entrances     = new HashMap<>();
+  // replaced, never changed, while the painter may read it
+  public volatile Map<Way, EntranceGenerator.Entrance> entrances =
+      new HashMap<>();
   private boolean                             entrancesDirty;
 
   public Map<Way, Collection<RCRRoad>>        gmlSegments   = new HashMap<>();
 
   boolean                                     refreshErrors = false;
-  private Set<OsmPrimitive>                   unconnected   = new HashSet<>();
   private Set<OsmPrimitive>                   overlapping   = new HashSet<>();
+  private SegmentIndex                        segmentIndex  = new SegmentIndex();
+  private WayGeometryCache                    geometry      =
+      new WayGeometryCache();
+  private RenderCache                         renderCache   = new RenderCache(
+      this );
+  private ConnectivityTracker                 connectivity  = new ConnectivityTracker(
+      data );
+  // copy of the largest group for planning entrances on worker threads
+  private volatile Set<Way>                   connectedGroup;
 
   Random                                      random        = new Random();
 
@@ -124,11 +144,27 @@ public class RCRDataSet implements DataSetListener {
     }
     entrancesDirty = true;
     updateElements();
+    segmentIndex.rebuild( data.getWays() );
+    checkConnectivity();
     data.addDataSetListener( this );
   }
 
 
+  /**
+   * Generate a rescue map from the source data within the bounds.
+   */
   public RCRDataSet( DataSet source, Bounds bounds ) {
+    this( source, bounds, NullProgressMonitor.INSTANCE );
+  }
+
+
+  /**
+   * Generate a rescue map and report each stage to the monitor. If the
+   * monitor is canceled the remaining stages are skipped and the map is
+   * incomplete.
+   */
+  public RCRDataSet( DataSet source, Bounds bounds,
+      ProgressMonitor monitor ) {
     sourceMap = null;
 
     boundsMin = bounds.getMin();
@@ -136,26 +172,107 @@ public class RCRDataSet implements DataSetListener {
     data.dataSources.add( new DataSource( bounds, "RCR-Converter" ) );
     data.setUploadDiscouraged( true );
 
-    System.out.println( bounds );
+    Log.info( bounds.toString() );
+
+    monitor.beginTask( tr( "Creating rescue map" ), 4 );
+    try {
+      StageCache cache = StageCache.getDefault();
+      StageCache.Key key = cache == null ? null : getMapKey( source,
+          bounds );
+      List<OsmPrimitive> cached = cache == null ? null : cache.load( key,
+          MapSnapshot::read );
+      if ( cached != null ) {
+        for ( OsmPrimitive osm : cached ) {
+          addPrimitive( osm );
+        }
+        monitor.worked( 4 );
+      } else {
+        generate( source, bounds, monitor );
+        if ( cache != null && !monitor.isCanceled() ) {
+          cache.store( key, out -> MapSnapshot.write( data, out ) );
+        }
+      }
+    } finally {
+      monitor.finishTask();
+    }
+
+    entrancesDirty = true;
+
+    segmentIndex.rebuild( data.getWays() );
+    checkConnectivity();
+    data.addDataSetListener( this );
+  }
+
 
+  private void generate( DataSet source, Bounds bounds,
+      ProgressMonitor monitor ) {
     RoadGenerator rgen = new RoadGenerator( this, source );
-    rgen.generateRoads( bounds );
+    try ( Metrics.Stage stage = Metrics.start( "roads" ) ) {
+      rgen.generateRoads( bounds, monitor.createSubTaskMonitor( 1, false ) );
+      stage.count( "roads", countWays( "road" ) );
+    }
+    if ( monitor.isCanceled() ) {
+      return;
+    }
 
     assert sanityCheck();
 
     // removeDisconnectedWays();
 
-    addBuildings( source.getWays(), source.getRelations(), bounds );
+    monitor.subTask( tr( "Adding buildings" ) );
+    try ( Metrics.Stage stage = Metrics.start( "mapped buildings" ) ) {
+      addBuildings( source.getWays(), source.getRelations(), bounds );
+      stage.count( "buildings", countWays( "building" ) );
+    }
+    monitor.worked( 1 );
+    if ( monitor.isCanceled() ) {
+      return;
+    }
 
-    BuildingGenerator bgen = new BuildingGenerator( this, source );
-    bgen.generateBuildings( bounds );
+    monitor.subTask( tr( "Generating buildings" ) );
+    try ( Metrics.Stage stage = Metrics.start( "buildings" ) ) {
+      int before = countWays( "building" );
+      BuildingGenerator bgen = new BuildingGenerator( this, source );
+      bgen.generateBuildings( bounds );
+      stage.count( "generated", countWays( "building" ) - before );
+    }
+    monitor.worked( 1 );
+    if ( monitor.isCanceled() ) {
+      return;
+    }
 
-    rgen.removeRoadsInShapes();
-    cleanupLonelyNodes();
+    monitor.subTask( tr( "Removing roads in shapes" ) );
+    try ( Metrics.Stage stage = Metrics.start( "roads in shapes" ) ) {
+      int before = countWays( "road" );
+      rgen.removeRoadsInShapes();
+      cleanupLonelyNodes();
+      stage.count( "removed", before - countWays( "road" ) );
+    }
+    monitor.worked( 1 );
+  }
 
-    entrancesDirty = true;
 
-    data.addDataSetListener( this );
+  /**
+   * The generated map depends on the source data, the whole data set is
+   * hashed as ways crossing the bounds are read beyond them, and on the
+   * settings of the generators.
+   */
+  private static StageCache.Key getMapKey( DataSet source,
+      Bounds bounds ) {
+    return StageCache.key( "map" ).addSource( source ).add( bounds )
+        .add( RCRPlugin.settings.minFloors() )
+        .add( RCRPlugin.settings.maxFloors() );
+  }
+
+
+  private int countWays( String type ) {
+    int count = 0;
+    for ( Way w : data.getWays() ) {
+      if ( !w.isDeleted() && w.hasTag( "rcr:type", type ) ) {
+        count++;
+      }
+    }
+    return count;
   }
 
 
@@ -171,6 +288,8 @@ public class RCRDataSet implements DataSetListener {
 
     data.dataSources
         .add( new DataSource( bounds, "RCR-Converter imported map" ) );
+    segmentIndex.rebuild( data.getWays() );
+    checkConnectivity();
     data.addDataSetListener( this );
   }
 
@@ -271,7 +390,7 @@ public class RCRDataSet implements DataSetListener {
     // w.incomplete = false;
 
     w.addNode( outline.get( 0 ) );
-    System.out.println( "closed " + w.isClosed() );
+    Log.debug( "closed " + w.isClosed() );
 
     // TODO is this all?
     w.put( "building", "yes" );
@@ -330,6 +449,33 @@ public class RCRDataSet implements DataSetListener {
   }
 
 
+  /**
+   * Returns the index of all way segments. It is kept up to date by the data
+   * set events.
+   */
+  public SegmentIndex getSegmentIndex() {
+    return segmentIndex;
+  }
+
+
+  /**
+   * Returns the projected coordinates of a way. They are cached until the
+   * way or one of its nodes changes; the cache may be read from several
+   * threads.
+   */
+  public WayGeometry getGeometry( Way w ) {
+    return geometry.get( w );
+  }
+
+
+  /**
+   * Returns the shapes drawn by {@link RCRPainter}.
+   */
+  RenderCache getRenderCache() {
+    return renderCache;
+  }
+
+
   public static int parseInt( OsmPrimitive obj, String key, int defaultValue ) {
     String val = obj.get( key );
     if ( val == null ) return defaultValue;
@@ -364,7 +510,7 @@ public class RCRDataSet implements DataSetListener {
       if ( !"removed_node".equals( n.get( "rcr:type" ) ) ) continue;
       // assert waysOfNode.get(n) == null || waysOfNode.get(n).isEmpty();
       // waysOfNode.remove(n);
-      System.out.println( "remove " + n.getId() );
+      Log.debug( "remove " + n.getId() );
       removePrimitive( n );
     }
 
@@ -415,7 +561,7 @@ public class RCRDataSet implements DataSetListener {
         // List<Way> buildings = BuildingGenerator.segmentComplexShape(r);
         List<Way> buildings = MPTools.segmentMP( r );
         for ( Way b : buildings ) {
-          System.out.println(
+          Log.debug(
               "adding building " + b.getId() + " as part of mp " + r.getId() );
           makeBuilding( b, true );
         }
@@ -472,9 +618,9 @@ public class RCRDataSet implements DataSetListener {
    * @param ways
    * @return
    */
-  private List<Way> findNonEntranceBuildings( Collection<Way> ways ) {
+  private List<Way> findNonEntranceBuildings( Collection<Way> ways,
+      Set<Way> mainGroup ) {
     List<Way> result = new ArrayList<>();
-    Set<Way> mainGroup = findLargestConnectedGroup();
     for ( Way w : ways ) {
       if ( !w.hasTag( "rcr:type", "building" ) ) {
         continue;
@@ -495,19 +641,113 @@ public class RCRDataSet implements DataSetListener {
 
 
   public void generateEntrances() {
+    generateEntrances( true );
+  }
+
+
+  /**
+   * Plan entrances for all buildings that are not connected to a road.
+   *
+   * @param parallel
+   *          search the entrance candidates of all buildings in parallel. The
+   *          result is the same as in sequential mode.
+   */
+  public void generateEntrances( boolean parallel ) {
+    prepareEntrances();
+    generateEntrances( parallel, NullProgressMonitor.INSTANCE );
+  }
+
+
+  /**
+   * Remove deleted primitives, bring the connectivity up to date and copy the
+   * largest connected group for the planning. Must be called on the thread
+   * that edits the data before
+   * {@link #generateEntrances(boolean, ProgressMonitor)}.
+   */
+  public void prepareEntrances() {
     data.cleanupDeletedPrimitives();
-    entrances.clear();
     checkConnectivity();
-    EntranceGenerator gen = new EntranceGenerator( this );
-    for ( Way w : findNonEntranceBuildings( data.getWays() ) ) {
-      boolean toRoadsOnly = !unconnected.contains( w );
-      EntranceGenerator.Entrance e = gen.getEntrance( w, toRoadsOnly );
-      if ( e != null ) {
-        entrances.put( w, e );
+    connectedGroup = Collections.unmodifiableSet( new HashSet<>(
+        connectivity.getLargestGroup() ) );
+  }
+
+
+  /**
+   * Plan entrances and report the progress to the monitor. If the monitor is
+   * canceled no entrances are planned. Only reads the data, so it can run on
+   * a worker thread after {@link #prepareEntrances()}.
+   */
+  public void generateEntrances( boolean parallel, ProgressMonitor monitor ) {
+    try ( Metrics.Stage stage = Metrics.start( "entrances" ) ) {
+      planEntrances( parallel, monitor, stage );
+    }
+  }
+
+
+  private void planEntrances( boolean parallel, ProgressMonitor monitor,
+      Metrics.Stage stage ) {
+    // the previous plan stays in place until this one is complete
+    Set<Way> connected = connectedGroup;
+    if ( connected == null ) {
+      throw new IllegalStateException( "prepareEntrances() was not called" );
+    }
+    EntranceGenerator gen = new EntranceGenerator( this, connected );
+    StageCache cache = StageCache.getDefault();
+    StageCache.Key key = cache == null ? null : getEntrancesKey();
+    Map<Way, EntranceGenerator.Entrance> cached = cache == null ? null
+        : cache.load( key, gen::readEntrances );
+    if ( cached != null ) {
+      stage.count( "planned", cached.size() );
+      entrances = cached;
+      entrancesDirty = false;
+      return;
+    }
+    List<Way> buildings = findNonEntranceBuildings( data.getWays(),
+        connected );
+    Map<Way, EntranceGenerator.Entrance> planned = new HashMap<>();
+    if ( parallel ) {
+      List<EntranceGenerator.Entrance> result = gen.getEntrances( buildings,
+          connected::contains, monitor );
+      for ( int i = 0; i < result.size(); i++ ) {
+        if ( result.get( i ) != null ) {
+          planned.put( buildings.get( i ), result.get( i ) );
+        }
+      }
+    } else {
+      monitor.beginTask( tr( "Planning entrances" ), buildings.size() );
+      for ( Way w : buildings ) {
+        if ( monitor.isCanceled() ) {
+          break;
+        }
+        boolean toRoadsOnly = connected.contains( w );
+        EntranceGenerator.Entrance e = gen.getEntrance( w, toRoadsOnly );
+        if ( e != null ) {
+          planned.put( w, e );
+        }
+        monitor.worked( 1 );
       }
+      monitor.finishTask();
     }
+    stage.count( "buildings", buildings.size() );
+    stage.count( "planned", planned.size() );
+    if ( monitor.isCanceled() ) {
+      return;
+    }
+    entrances = planned;
     entrancesDirty = false;
-    checkConnectivity();
+    if ( cache != null ) {
+      cache.store( key, out -> EntranceGenerator.writeEntrances( planned,
+          out ) );
+    }
+  }
+
+
+  private StageCache.Key getEntrancesKey() {
+    ConverterSettings settings = RCRPlugin.settings;
+    return StageCache.key( "entrances" ).addContent( data )
+        .add( settings.getEntranceWidth() )
+        .add( settings.getMinEntranceLength() )
+        .add( settings.getMaxEntranceLength() );
   }
 
 
@@ -522,7 +762,7 @@ public class RCRDataSet implements DataSetListener {
       }
     }
     entrancesDirty = false;
-    entrances.clear();
+    entrances = new HashMap<>();
     data.endUpdate();
   }
 
@@ -570,7 +810,7 @@ public class RCRDataSet implements DataSetListener {
 
 
   public void removePrimitive( OsmPrimitive osm ) {
-    System.out.println( "remove " + osm.getId() );
+    Log.debug( "remove " + osm.getId() );
     data.removePrimitive( osm );
     osm.setDeleted( true );
   }
@@ -596,8 +836,7 @@ public class RCRDataSet implements DataSetListener {
       count++;
       n.put( "rcr:type", "removed_node" );
       for ( Way w : getWaysAtNode( n ) ) {
-        System.out
-            .println( "removing node " + n.getId() + " from " + w.getId() );
+        Log.trace( "removing node " + n.getId() + " from " + w.getId() );
         List<Node> wNodes = w.getNodes();
         for ( int i = 0; i < wNodes.size(); i++ ) {
           if ( wNodes.get( i ) == n ) {
@@ -646,29 +885,20 @@ public class RCRDataSet implements DataSetListener {
   }
 
 
+  /**
+   * Bring the connectivity information up to date. Only does work if ways
+   * were removed or changed since the last check. Called after every change
+   * of the data, so the connectivity is not recomputed while painting.
+   */
   public void checkConnectivity() {
-    Set<Way> mainGroup = findLargestConnectedGroup();
-    unconnected.clear();
-    for ( Way w : data.getWays() ) {
-      if ( w.hasTag( "rcr:type", "building", "road" ) ) {
-        if ( !entrances.containsKey( w ) && !mainGroup.contains( w ) ) {
-          unconnected.add( w );
-        }
-      }
-    }
+    connectivity.update();
   }
 
 
-  public void checkConnectivity( BBox bounds ) {
-    Set<Way> mainGroup = findLargestConnectedGroup();
-    unconnected.clear();
-    for ( Way w : data.searchWays( bounds ) ) {
-      if ( w.hasTag( "rcr:type", "building", "road" ) ) {
-        if ( !entrances.containsKey( w ) && !mainGroup.contains( w ) ) {
-          unconnected.add( w );
-        }
-      }
-    }
+  private boolean isUnconnected( OsmPrimitive osm ) {
+    return osm instanceof Way && osm.hasTag( "rcr:type", "building", "road" )
+        && !entrances.containsKey( osm )
+        && !connectivity.isConnected( (Way) osm );
   }
 
 
@@ -711,10 +941,10 @@ public class RCRDataSet implements DataSetListener {
 
   private boolean checkOverlap( Way w ) {
     if ( isAreaShape( w ) ) {
-      List<Way> other = data.searchWays( w.getBBox() );
-      for ( Way w2 : other ) {
-        if ( w != w2 && isAreaShape( w2 ) ) {
-          if ( AreaTools.waysIntersect( w, w2 ) ) {
+      for ( Segment s1 : segmentIndex.getSegments( w ) ) {
+        for ( Segment s2 : segmentIndex.query( s1.line ) ) {
+          if ( s2.way != w && isAreaShape( s2.way )
+              && AreaTools.linesIntersect( s1.line, s2.line ) ) {
             return true;
           }
         }
@@ -739,20 +969,9 @@ public class RCRDataSet implements DataSetListener {
 
 
   public boolean checkRoadOverlap( Way w, double width ) {
-    // Create bbox that includes the road + width
-    EastNorth topLeft = Main.getProjection()
-        .latlon2eastNorth( w.getBBox().getTopLeft() );
-    EastNorth bottomRight = Main.getProjection()
-        .latlon2eastNorth( w.getBBox().getBottomRight() );
-    topLeft = topLeft.add( -width / 2, width / 2 );
-    bottomRight = bottomRight.add( width / 2, -width / 2 );
-    BBox bounds = new BBox( Main.getProjection().eastNorth2latlon( topLeft ),
-        Main.getProjection().eastNorth2latlon( bottomRight ) );
-
-    List<Way> other = data.searchWays( bounds );
-    for ( Pair<Node, Node> n1 : w.getNodePairs( false ) ) {
-      Point2D p1 = Vector.asPoint( n1.a.getEastNorth() );
-      Point2D p2 = Vector.asPoint( n1.b.getEastNorth() );
+    for ( Segment s1 : segmentIndex.getSegments( w ) ) {
+      Point2D p1 = s1.line.getP1();
+      Point2D p2 = s1.line.getP2();
       Line2D l1a = null, l1b = null;
 
       if ( width == 0 ) {
@@ -767,19 +986,19 @@ public class RCRDataSet implements DataSetListener {
             Vector.diff( p2, offset ) );
       }
 
-      for ( Way w2 : other ) {
-        if ( w2.hasTag( "rcr:type", "building", "road" ) ) {
-          for ( Pair<Node, Node> n2 : w2.getNodePairs( false ) ) {
-            if ( segmentsTouch( n1.a, n1.b, n2.a, n2.b ) ) {
-              continue;
-            }
-            Line2D l2 = new Line2D.Double(
-                Vector.asPoint( n2.a.getEastNorth() ),
-                Vector.asPoint( n2.b.getEastNorth() ) );
-            if ( l1a.intersectsLine( l2 )
-                || ( l1b != null && l1b.intersectsLine( l2 ) ) ) {
-              return true;
-            }
+      // Only segments within the road + width can intersect
+      Rectangle2D area = l1a.getBounds2D();
+      if ( l1b != null ) {
+        area.add( l1b.getBounds2D() );
+      }
+      for ( Segment s2 : segmentIndex.query( area ) ) {
+        if ( s2.way.hasTag( "rcr:type", "building", "road" ) ) {
+          if ( segmentsTouch( s1.a, s1.b, s2.a, s2.b ) ) {
+            continue;
+          }
+          if ( l1a.intersectsLine( s2.line )
+              || ( l1b != null && l1b.intersectsLine( s2.line ) ) ) {
+            return true;
           }
         }
       }
@@ -788,6 +1007,38 @@ public class RCRDataSet implements DataSetListener {
   }
 
 
+  /**
+   * Returns how far both sides of a road can be moved away from its center
+   * line before one of them touches a building or another road that it does
+   * not share a node with, but at most maxDist. A road fits without overlaps
+   * (see {@link #checkRoadOverlap(Way, double)}) for every width below twice
+   * the clearance.
+   *
+   * The segment index is only read, so several roads can be checked in
+   * parallel as long as the map is not changed.
+   */
+  public double getRoadClearance( Way w, double maxDist ) {
+    double clearance = maxDist;
+    for ( Segment s1 : segmentIndex.getSegments( w ) ) {
+      Rectangle2D area = s1.line.getBounds2D();
+      area.setRect( area.getX() - maxDist, area.getY() - maxDist,
+          area.getWidth() + 2 * maxDist, area.getHeight() + 2 * maxDist );
+      for ( Segment s2 : segmentIndex.query( area ) ) {
+        if ( !s2.way.hasTag( "rcr:type", "building", "road" )
+            || segmentsTouch( s1.a, s1.b, s2.a, s2.b ) ) {
+          continue;
+        }
+        clearance = Math.min( clearance,
+            Vector.offsetDistance( s1.line, s2.line ) );
+        if ( clearance == 0 ) {
+          return 0;
+        }
+      }
+    }
+    return clearance;
+  }
+
+
   public void setRefreshErrors( boolean enabled ) {
     refreshErrors = enabled;
   }
@@ -797,7 +1048,7 @@ public class RCRDataSet implements DataSetListener {
     if ( osm instanceof Way && osm.hasAreaTags() && !( (Way) osm ).isArea() ) {
       return true;
     }
-    if ( unconnected.contains( osm ) ) {
+    if ( isUnconnected( osm ) ) {
       return true;
     }
     if ( overlapping.contains( osm ) ) {
@@ -834,7 +1085,7 @@ public class RCRDataSet implements DataSetListener {
       Set<Way> cluster = findConnectedWays( w );
       clusters.add( cluster );
       allWays.removeAll( cluster );
-      System.out.println( "cluster size: " + cluster.size() );
+      Log.debug( "cluster size: " + cluster.size() );
       if ( largest == null || cluster.size() > largest.size() )
         largest = cluster;
     }
@@ -872,21 +1123,17 @@ public class RCRDataSet implements DataSetListener {
 
   public static Collection<Way> findNeighbours( Way w ) {
     List<Way> result = new ArrayList<>();
-    System.out.println( "neigbours of :" + w.getId() );
     for ( Node n : w.getNodes() ) {
       for ( Way w2 : getWaysAtNode( n ) ) {
         if ( w != w2 && w2.hasTag( "rcr:type", "road", "building" ) ) {
           if ( w2.hasTag( "rcr:type", "road" ) && !w2.hasAreaTags() ) {
             // connection to linear road
-            System.out.println( "  to linear road :" + w2.getId() );
             result.add( w2 );
           } else if ( w.hasTag( "rcr:type", "road" ) && !w.hasAreaTags() ) {
             // connection *from* linear road
-            System.out.println( "  from linear road :" + w2.getId() );
             result.add( w2 );
           } else if ( waysShareEdge( w, w2 ) ) {
             // connection via shared edges
-            System.out.println( "  shared edge :" + w2.getId() );
             result.add( w2 );
           }
         }
@@ -896,22 +1143,17 @@ public class RCRDataSet implements DataSetListener {
   }
 
 
+  /**
+   * Returns the largest group of connected roads and buildings. The set must
+   * not be modified.
+   */
   public Set<Way> findLargestConnectedGroup() {
-    Set<Way> allWays = new HashSet<>( data.getWays() );
-    Set<Way> result = null;
-    while ( !allWays.isEmpty() ) {
-      Set<Way> cluster = findConnectedWays( allWays.iterator().next() );
-      allWays.removeAll( cluster );
-      if ( result == null || result.size() < cluster.size() ) {
-        result = cluster;
-      }
-    }
-    return result;
+    return connectivity.getLargestGroup();
   }
 
 
   public Set<Way> findConnectedWays( Way w ) {
-    System.out.println( "find ways from " + w.getId() );
+    Log.debug( "find ways from " + w.getId() );
     HashSet<Way> result = new HashSet<Way>();
     Deque<Way> open = new ArrayDeque<Way>();
     result.add( w );
@@ -974,6 +1216,13 @@ public class RCRDataSet implements DataSetListener {
 
   @Override
   public void primitivesAdded( PrimitivesAddedEvent event ) {
+    for ( OsmPrimitive osm : event.getPrimitives() ) {
+      if ( osm instanceof Way ) {
+        segmentIndex.add( (Way) osm );
+        connectivity.add( (Way) osm );
+      }
+    }
+    checkConnectivity();
     if ( refreshErrors ) {
       BBox bounds = getBoundsFromWays( event.getPrimitives() );
       if ( bounds != null ) {
@@ -986,11 +1235,19 @@ public class RCRDataSet implements DataSetListener {
 
   @Override
   public void primitivesRemoved( PrimitivesRemovedEvent event ) {
+    for ( OsmPrimitive osm : event.getPrimitives() ) {
+      if ( osm instanceof Way ) {
+        segmentIndex.remove( (Way) osm );
+        geometry.invalidate( (Way) osm );
+        renderCache.invalidate( (Way) osm );
+        connectivity.remove( (Way) osm );
+      }
+    }
+    checkConnectivity();
     if ( refreshErrors ) {
       BBox bounds = getBoundsFromWays( event.getPrimitives() );
       if ( bounds != null ) {
         checkOverlaps( bounds );
-        checkConnectivity( bounds );
       }
     }
     for ( OsmPrimitive osm : event.getPrimitives() ) {
@@ -1009,6 +1266,8 @@ public class RCRDataSet implements DataSetListener {
       if ( refreshErrors ) {
         checkOverlaps( bounds );
       }
+      connectivity.tagsChanged( (Way) event.getPrimitive() );
+      checkConnectivity();
       gmlSegments.remove( event.getPrimitive() );
     }
     entrancesDirty = true;
@@ -1022,6 +1281,12 @@ public class RCRDataSet implements DataSetListener {
       return;
     }
 
+    for ( OsmPrimitive osm : event.getNode().getReferrers() ) {
+      if ( osm instanceof Way ) {
+        segmentIndex.update( (Way) osm );
+        geometry.invalidate( (Way) osm );
+      }
+    }
     if ( refreshErrors ) {
       BBox bounds = getBoundsFromWays( event.getNode().getReferrers() );
       if ( bounds != null ) {
@@ -1039,9 +1304,12 @@ public class RCRDataSet implements DataSetListener {
 
   @Override
   public void wayNodesChanged( WayNodesChangedEvent event ) {
+    segmentIndex.update( event.getChangedWay() );
+    geometry.invalidate( event.getChangedWay() );
+    connectivity.nodesChanged( event.getChangedWay() );
+    checkConnectivity();
     if ( refreshErrors ) {
       checkOverlaps( new BBox( event.getChangedWay() ) );
-      checkConnectivity( new BBox( event.getChangedWay() ) );
     }
     gmlSegments.remove( event.getChangedWay() );
     entrancesDirty = true;
@@ -1064,6 +1332,10 @@ public class RCRDataSet implements DataSetListener {
 
   @Override
   public void dataChanged( DataChangedEvent event ) {
+    segmentIndex.rebuild( data.getWays() );
+    geometry.clear();
+    renderCache.clear();
+    connectivity.invalidate();
     checkOverlaps();
     checkConnectivity();
     // TODO Auto-generated method stub
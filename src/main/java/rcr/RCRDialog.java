@@ -55,9 +55,12 @@ import java.awt.event.KeyEvent;
 import java.awt.event.MouseEvent;
 import java.awt.event.MouseListener;
 import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import javax.swing.JButton;
 import javax.swing.JComponent;
@@ -65,7 +68,10 @@ import javax.swing.JFileChooser;
 import javax.swing.JPanel;
 import javax.swing.JToggleButton;
 
+import maps.gml.GMLMap;
+
 import org.openstreetmap.josm.Main;
+import org.openstreetmap.josm.data.Bounds;
 import org.openstreetmap.josm.data.SelectionChangedListener;
 import org.openstreetmap.josm.data.osm.DataSet;
 import org.openstreetmap.josm.data.osm.Node;
@@ -74,11 +80,14 @@ import org.openstreetmap.josm.data.osm.Way;
 import org.openstreetmap.josm.data.osm.event.AbstractDatasetChangedEvent;
 import org.openstreetmap.josm.data.osm.event.DataSetListenerAdapter;
 import org.openstreetmap.josm.gui.MapView.LayerChangeListener;
+import org.openstreetmap.josm.gui.PleaseWaitRunnable;
 import org.openstreetmap.josm.gui.dialogs.ToggleDialog;
 import org.openstreetmap.josm.gui.layer.Layer;
+import org.openstreetmap.josm.gui.progress.ProgressMonitor;
 import org.openstreetmap.josm.tools.Shortcut;
 
 import rcr.export.GMLExporter;
+import rcr.export.RCRRoad;
 
 public class RCRDialog extends ToggleDialog
     implements DataSetListenerAdapter.Listener, LayerChangeListener,
@@ -299,12 +308,7 @@ public class RCRDialog extends ToggleDialog
     if ( !Main.main.hasEditLayer() ) return;
 
     if ( e.getSource() == createRCRLayer ) {
-      RCRMapLayer mapLayer = RCRMapLayer
-          .fromOsmData( Main.main.getEditLayer().data );
-      if ( mapLayer != null ) {
-        Main.main.addLayer( mapLayer );
-        setShowErrors();
-      }
+      createRCRLayer( Main.main.getEditLayer().data );
     }
 
     RCRDataSet data = getRescueData();
@@ -317,11 +321,11 @@ public class RCRDialog extends ToggleDialog
       System.out.println( "can create:" + data.canCreateEntrances() );
       if ( data.canCreateEntrances() ) {
         data.realizeEntrances();
+        update();
+        Main.map.mapView.repaint();
       } else {
-        data.generateEntrances();
+        generateEntrances( data );
       }
-      update();
-      Main.map.mapView.repaint();
     }
 
     /*
@@ -345,7 +349,6 @@ public class RCRDialog extends ToggleDialog
 
     if ( e.getSource() == fitRoads ) {
       fitRoads();
-      Main.map.mapView.repaint();
     }
     if ( e.getSource() == createGeometry ) {
       createGeometry();
@@ -361,35 +364,156 @@ public class RCRDialog extends ToggleDialog
   }
 
 
-  private void createGeometry() {
-    RCRDataSet data = getRescueData();
-    GMLExporter export = new GMLExporter( data );
-    for ( Way w : data.getData().getWays() ) {
-      if ( !export.getSegments( w ).isEmpty() ) {
-        data.gmlSegments.put( w, export.getSegments( w ) );
+  private void createRCRLayer( DataSet layerData ) {
+    final Bounds bounds = RCRMapLayer.getViewBounds();
+    // the generators add referrers to the source nodes, the layer keeps its
+    // own data
+    final DataSet source = new DataSet( layerData );
+    Main.worker.submit( new RescueTask( tr( "Creating rescue map" ) ) {
+
+      private RCRDataSet data;
+
+
+      @Override
+      void compute( ProgressMonitor monitor ) {
+        data = new RCRDataSet( source, bounds, monitor );
       }
-    }
-    Main.map.mapView.repaint();
+
+
+      @Override
+      void apply() {
+        Main.main.addLayer( new RCRMapLayer( data ) );
+        setShowErrors();
+      }
+    } );
   }
 
 
-  private void saveGML() {
-    RCRDataSet data = getRescueData();
-    GMLExporter export = new GMLExporter( data );
+  private void generateEntrances( final RCRDataSet data ) {
+    data.prepareEntrances();
+    Main.worker.submit( new RescueTask( tr( "Generating entrances" ) ) {
 
-    for ( Way w : data.getData().getWays() ) {
-      if ( !export.getSegments( w ).isEmpty() ) {
-        data.gmlSegments.put( w, export.getSegments( w ) );
+      @Override
+      void compute( ProgressMonitor monitor ) {
+        data.generateEntrances( true, monitor );
       }
-    }
+
+
+      @Override
+      void apply() {
+        // generateEntrances() only keeps complete plans
+      }
+    } );
+  }
+
+
+  private void createGeometry() {
+    final RCRDataSet data = getRescueData();
+    final List<Way> ways = new ArrayList<>( data.getData().getWays() );
+    Main.worker.submit( new RescueTask( tr( "Creating geometry" ) ) {
+
+      private Map<Way, Collection<RCRRoad>> segments;
+
+
+      @Override
+      void compute( ProgressMonitor monitor ) {
+        segments = createSegments( data, ways, monitor );
+      }
+
+
+      @Override
+      void apply() {
+        data.gmlSegments.putAll( segments );
+      }
+    } );
+  }
+
+
+  private void saveGML() {
+    final RCRDataSet data = getRescueData();
+    final List<Way> ways = new ArrayList<>( data.getData().getWays() );
 
     JFileChooser fc = new JFileChooser( new File(
         "/home_local/dornroot/teaching/mas08/rescue/rescue-0.50.0/maps/" ) );
     fc.setFileSelectionMode( JFileChooser.FILES_ONLY );
     if ( fc.showSaveDialog( this ) != JFileChooser.APPROVE_OPTION ) return;
-    File file = fc.getSelectedFile();
+    final File file = fc.getSelectedFile();
     System.out.println( "SAVE TO: " + file.getPath() );
-    export.exportMap( file );
+
+    Main.worker.submit( new RescueTask( tr( "Saving map" ) ) {
+
+      private Map<Way, Collection<RCRRoad>> segments = new HashMap<>();
+
+
+      @Override
+      void compute( ProgressMonitor monitor ) throws IOException {
+        monitor.beginTask( tr( "Saving map" ), 2 );
+        try {
+          // an unchanged map is written as it is, without refreshing
+          // the segments
+          GMLMap cached = GMLExporter.getCachedMap( data );
+          if ( cached != null ) {
+            monitor.subTask( tr( "Writing {0}", file.getName() ) );
+            GMLExporter.exportMap( cached, data.getScale(), file );
+            monitor.worked( 2 );
+            return;
+          }
+          GMLExporter export = new GMLExporter( data );
+          segments = createSegments( export, ways,
+              monitor.createSubTaskMonitor( 1, false ) );
+          if ( monitor.isCanceled() ) {
+            return;
+          }
+          monitor.subTask( tr( "Writing {0}", file.getName() ) );
+          export.exportMap( file );
+          monitor.worked( 1 );
+        } finally {
+          monitor.finishTask();
+        }
+      }
+
+
+      @Override
+      void apply() {
+        data.gmlSegments.putAll( segments );
+      }
+    } );
+  }
+
+
+  private static Map<Way, Collection<RCRRoad>> createSegments(
+      RCRDataSet data, List<Way> ways, ProgressMonitor monitor ) {
+    monitor.beginTask( tr( "Creating geometry" ), 2 );
+    try {
+      GMLExporter export = new GMLExporter( data );
+      monitor.worked( 1 );
+      return createSegments( export, ways,
+          monitor.createSubTaskMonitor( 1, false ) );
+    } finally {
+      monitor.finishTask();
+    }
+  }
+
+
+  private static Map<Way, Collection<RCRRoad>> createSegments(
+      GMLExporter export, List<Way> ways, ProgressMonitor monitor ) {
+    Map<Way, Collection<RCRRoad>> segments = new HashMap<>();
+    monitor.beginTask( tr( "Collecting segments" ), ways.size() );
+    try {
+      for ( Way w : ways ) {
+        if ( monitor.isCanceled() ) {
+          break;
+        }
+        Collection<RCRRoad> s = export.getSegments( w );
+        if ( !s.isEmpty() ) {
+          segments.put( w, s );
+        }
+        monitor.worked( 1 );
+      }
+    } finally {
+      monitor.finishTask();
+    }
+    return segments;
   }
 
 
@@ -403,18 +527,47 @@ public class RCRDialog extends ToggleDialog
   }
 
 
+  /**
+   * Fit the width of the selected roads, or of all roads of the map if none
+   * is selected, to the space between the buildings and roads around them.
+   */
   private void fitRoads() {
-    RCRDataSet data = getRescueData();
-    RoadGenerator rg = new RoadGenerator( data, null );
-    for ( Way w : data.getData().getSelectedWays() ) {
-      if ( w.hasTag( "rcr:type", "road" ) && !w.hasAreaTags() ) {
-        double maxWidth = rg.getMaxRoadWidth( w, 0.5 );
-        if ( maxWidth * 1000 >= RCRPlugin.settings.getMinRoadWidth() ) {
-          w.put( "rcr:width", Integer.toString( (int) ( maxWidth * 1000 ) ) );
-        }
+    final RCRDataSet data = getRescueData();
+    final List<Way> roads = new ArrayList<>();
+    for ( Way w : getSelectedWaysOrAll() ) {
+      if ( !w.isDeleted() && w.hasTag( "rcr:type", "road" )
+          && !w.hasAreaTags() ) {
+        roads.add( w );
       }
     }
+    Main.worker.submit( new RescueTask( tr( "Fitting roads" ) ) {
+
+      private Map<Way, Double> widths;
+
+
+      @Override
+      void compute( ProgressMonitor monitor ) {
+        widths = new RoadGenerator( data, null ).fitRoadWidths( roads,
+            monitor );
+      }
+
 
+      @Override
+      void apply() {
+        data.getData().beginUpdate();
+        try {
+          for ( Map.Entry<Way, Double> e : widths.entrySet() ) {
+            double maxWidth = e.getValue();
+            if ( maxWidth * 1000 >= RCRPlugin.settings.getMinRoadWidth() ) {
+              e.getKey().put( "rcr:width",
+                  Integer.toString( (int) ( maxWidth * 1000 ) ) );
+            }
+          }
+        } finally {
+          data.getData().endUpdate();
+        }
+      }
+    } );
   }
 
 
@@ -564,4 +717,51 @@ public class RCRDialog extends ToggleDialog
 
   }
 
+
+  /**
+   * Runs the expensive part of an action in the background with a progress
+   * dialog. {@link #compute(ProgressMonitor)} must not change the data set and
+   * should stop when the monitor is canceled. The result is applied by
+   * {@link #apply()} on the event dispatch thread, unless the task was
+   * canceled or failed.
+   */
+  private abstract class RescueTask extends PleaseWaitRunnable {
+
+    private boolean done;
+
+
+    RescueTask( String title ) {
+      super( title, false );
+    }
+
+
+    abstract void compute( ProgressMonitor monitor ) throws IOException;
+
+
+    abstract void apply();
+
+
+    @Override
+    protected void realRun() throws IOException {
+      compute( getProgressMonitor() );
+      done = !getProgressMonitor().isCanceled();
+    }
+
+
+    @Override
+    protected void finish() {
+      if ( done ) {
+        apply();
+      }
+      update();
+      Main.map.mapView.repaint();
+    }
+
+
+    @Override
+    protected void cancel() {
+      // compute() polls the monitor
+    }
+  }
+
 }
@@ -28,7 +28,6 @@ import static org.openstreetmap.josm.tools.I18n.tr;
 
 import java.awt.HeadlessException;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
@@ -62,8 +61,15 @@ public class RCRImporter extends FileImporter {
   public void importData( File file, ProgressMonitor progressMonitor )
       throws IOException, IllegalDataException {
     try {
-      FileInputStream in = new FileInputStream( file );
-      importData( in, file );
+      // only the rescue map elements, without a full data set of the file
+      OsmStreamReader reader = OsmStreamReader.forRescueMap();
+      DataSet dataSet = reader.read( file );
+      if ( reader.getDroppedRelations() > 0 ) {
+        Log.info( "Ignored " + reader.getDroppedRelations()
+            + " relations of " + file.getName()
+            + ", rescue maps only keep ways with rcr:type" );
+      }
+      importData( dataSet, file );
     } catch ( HeadlessException e ) {
       e.printStackTrace();
       throw new IOException( tr( "Could not read \"{0}\"", file.getName() ) );
@@ -78,6 +84,11 @@ public class RCRImporter extends FileImporter {
       throws IllegalDataException {
     DataSet dataSet = OsmReader.parseDataSet( in,
         NullProgressMonitor.INSTANCE );
+    importData( dataSet, associatedFile );
+  }
+
+
+  private void importData( DataSet dataSet, File associatedFile ) {
     RCRDataSet rcrData = new RCRDataSet( dataSet );
     final OsmDataLayer layer = new RCRMapLayer( rcrData,
         associatedFile.getName(), associatedFile );
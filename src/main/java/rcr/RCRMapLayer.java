@@ -99,10 +99,18 @@ public class RCRMapLayer extends OsmDataLayer {
 
 
   private static RCRDataSet extractRescueData( DataSet data ) {
+    return new RCRDataSet( data, getViewBounds() );
+  }
+
+
+  /**
+   * Returns the bounds of the map view. Must be called on the event dispatch
+   * thread.
+   */
+  static Bounds getViewBounds() {
     LatLon min = Main.map.mapView.getLatLon( 0, Main.map.mapView.getHeight() );
     LatLon max = Main.map.mapView.getLatLon( Main.map.mapView.getWidth(), 0 );
-    Bounds bounds = new Bounds( min, max );
-    return new RCRDataSet( data, bounds );
+    return new Bounds( min, max );
   }
 
 
@@ -33,13 +33,20 @@
 
 package rcr;
 
+import java.awt.BasicStroke;
 import java.awt.Color;
 import java.awt.Graphics2D;
 import java.awt.Point;
 import java.awt.Polygon;
+import java.awt.Shape;
+import java.awt.Stroke;
+import java.awt.geom.AffineTransform;
 import java.awt.geom.Line2D;
+import java.awt.geom.Point2D;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.openstreetmap.josm.data.Bounds;
 import org.openstreetmap.josm.data.coor.EastNorth;
@@ -50,22 +57,61 @@ import org.openstreetmap.josm.data.osm.RelationMember;
 import org.openstreetmap.josm.data.osm.Way;
 import org.openstreetmap.josm.data.osm.visitor.paint.WireframeMapRenderer;
 import org.openstreetmap.josm.gui.NavigatableComponent;
-import org.openstreetmap.josm.tools.Pair;
 
 import rcr.export.RCRRoad;
 import rescuecore.RescueConstants;
 
 public class RCRPainter extends WireframeMapRenderer {
 
+	private static final Color BLOCK = new Color(70,70,70,15);
+	private static final Color FILTERED_BLOCK = new Color(0,100,100,20);
+	private static final Color FORBIDDEN_BLOCK = new Color(100,0,0,20);
+	private static final Color SPLIT_BLOCK = new Color(0,100,0,20);
+	private static final Color CUT_BLOCK = new Color(100,100,0,20);
+	private static final Color FIRST_SPLIT = new Color(0,0,100,20);
+	private static final Color CONTAINED_BLOCK = new Color(0,100,0,20);
+	private static final Color CONTAINING_BLOCK = new Color(100,0,0,20);
+	private static final Color ROAD_AREA = new Color(100, 100, 150, 50);
+	private static final Color ROAD_ERROR_AREA = new Color(255, 0, 0, 50);
+	private static final Color ROAD_SIDE = new Color(200, 200, 200, 150);
+	private static final Color ROAD_OUTLINE = new Color(200, 250, 200, 150);
+
+	/** the colors areas are filled with, see drawArea() */
+	private static final Map<Color, Color> fillColors = new ConcurrentHashMap<>();
+
 	private volatile RCRDataSet data;
 	public volatile boolean showErrors;
 
+	/** maps east/north to screen coordinates, like nc.getPoint() */
+	private final AffineTransform toScreen;
+	/** screen pixels per east/north unit */
+	private final double scale;
+	/** the last stroke of g and the same stroke in east/north units */
+	private Stroke screenStroke;
+	private Stroke scaledStroke;
+
 	/**
      * {@inheritDoc}
      */
     public RCRPainter(Graphics2D g, RCRDataSet data, NavigatableComponent nc, boolean isInactiveMode) {
         super(g, nc, isInactiveMode);
     	this.data = data;
+    	this.toScreen = getTransform(nc);
+    	this.scale = Math.sqrt(Math.abs(toScreen.getDeterminant()));
+    }
+
+    private static AffineTransform getTransform(NavigatableComponent nc) {
+    	EastNorth c = nc.getCenter();
+    	Point2D o = nc.getPoint2D(c);
+    	Point2D x = nc.getPoint2D(new EastNorth(c.east() + 1, c.north()));
+    	Point2D y = nc.getPoint2D(new EastNorth(c.east(), c.north() + 1));
+    	double m00 = x.getX() - o.getX();
+    	double m10 = x.getY() - o.getY();
+    	double m01 = y.getX() - o.getX();
+    	double m11 = y.getY() - o.getY();
+    	return new AffineTransform(m00, m10, m01, m11,
+    			o.getX() - m00 * c.east() - m01 * c.north(),
+    			o.getY() - m10 * c.east() - m11 * c.north());
     }
 
     @Override
@@ -75,28 +121,28 @@ public class RCRPainter extends WireframeMapRenderer {
 
     public void visit(Way w) {
     	if (w.hasTag("rcr:type", "block")) {
-    		drawArea(w, new Color(70,70,70,15));
+    		drawArea(w, BLOCK);
     	}
     	if (w.hasTag("rcr:type", "filteredblock")) {
-    		drawArea(w, new Color(0,100,100,20));
+    		drawArea(w, FILTERED_BLOCK);
     	}
     	if (w.hasTag("rcr:type", "forbiddenblock")) {
-    		drawArea(w, new Color(100,0,0,20));
+    		drawArea(w, FORBIDDEN_BLOCK);
     	}
     	if (w.hasTag("rcr:type", "splitblock")) {
-    		drawArea(w, new Color(0,100,0,20));
+    		drawArea(w, SPLIT_BLOCK);
     	}
     	if (w.hasTag("rcr:type", "cutblock")) {
-    		drawArea(w, new Color(100,100,0,20));
+    		drawArea(w, CUT_BLOCK);
     	}
     	if (w.hasTag("rcr:type", "firstsplit")) {
-    		drawArea(w, new Color(0,0,100,20));
+    		drawArea(w, FIRST_SPLIT);
     	}
     	if (w.hasTag("rcr:type", "containedblock")) {
-    		drawArea(w, new Color(0,100,0,20));
+    		drawArea(w, CONTAINED_BLOCK);
     	}
     	if (w.hasTag("rcr:type", "containingblock")) {
-    		drawArea(w, new Color(100,0,0,20));
+    		drawArea(w, CONTAINING_BLOCK);
     	}
     	if (w.hasTag("rcr:type", "road")) {
     		drawRoad(w);
@@ -140,8 +186,9 @@ public class RCRPainter extends WireframeMapRenderer {
 
     	drawArea(b, c);
 
-    	if (data.entrances.containsKey(b)) {
-    		Line2D e = data.entrances.get(b).getLine();
+    	EntranceGenerator.Entrance entrance = data.entrances.get(b);
+    	if (entrance != null) {
+    		Line2D e = entrance.getLine();
     		Point p1 = nc.getPoint(Vector.asEastNorth(e.getP1()));
     		Point p2 = nc.getPoint(Vector.asEastNorth(e.getP2()));
     		g.setColor(Color.WHITE);
@@ -195,33 +242,22 @@ public class RCRPainter extends WireframeMapRenderer {
     }
 
     public void drawRoad(Way w) {
-    	Color areaColor = new Color(100, 100, 150, 50);
-    	Color offsetColor = new Color(200, 200, 200, 150);
+    	Color areaColor = ROAD_AREA;
+    	Color offsetColor = ROAD_SIDE;
 
     	if (data.gmlSegments.containsKey(w)) {
-    		offsetColor = new Color(200, 250, 200, 150);
+    		offsetColor = ROAD_OUTLINE;
     		if (showErrors && data.hasError(w)) {
     			offsetColor = Color.RED;
     		}
-    		for (RCRRoad r : data.gmlSegments.get(w)) {
-    			for (Line2D l : r.getOutline()) {
-    				Point p1 = nc.getPoint(Vector.asEastNorth(l.getP1()));
-    				Point p2 = nc.getPoint(Vector.asEastNorth(l.getP2()));
-    				drawSegment(p1, p2, offsetColor, false);
-
-    			}
-    		}
+    		g.setColor(offsetColor);
+    		paint(data.getRenderCache().getOutline(w, data.gmlSegments.get(w)), false);
     		return;
     	}
 
     	if (showErrors && data.hasError(w)) {
     		offsetColor = Color.RED;
-    		areaColor = new Color(255, 0, 0, 50);
-//    		for (Pair<Node, Node> pair : w.getNodePairs(false)) {
-//    			Point p1 = nc.getPoint(pair.a.getEastNorth());
-//    			Point p2 = nc.getPoint(pair.b.getEastNorth());
-//                drawSegment(p1, p2, Color.RED, false);
-//    		}
+    		areaColor = ROAD_ERROR_AREA;
     	}
 
 		if (w.hasAreaTags() && w.isArea()) {
@@ -229,22 +265,8 @@ public class RCRPainter extends WireframeMapRenderer {
 		}
 		else {
 			double dist = RCRDataSet.parseInt(w, "rcr:width", 6000) / 2000.0;
-			for (Pair<Node, Node> pair : w.getNodePairs(false)) {
-				EastNorth c1 = pair.a.getEastNorth();
-				EastNorth c2 = pair.b.getEastNorth();
-
-				EastNorth offset = Vector.asEastNorth(Vector.offset(
-						Vector.asPoint(c1), Vector.asPoint(c2), dist));
-				Point p1 = nc.getPoint(c1.add(offset));
-				Point p2 = nc.getPoint(c2.add(offset));
-				drawSegment(p1, p2, offsetColor, false);
-
-				offset = Vector.asEastNorth(Vector.offset(Vector.asPoint(c1),
-						Vector.asPoint(c2), -dist));
-				p1 = nc.getPoint(c1.add(offset));
-				p2 = nc.getPoint(c2.add(offset));
-				drawSegment(p1, p2, offsetColor, false);
-			}
+			g.setColor(offsetColor);
+			paint(data.getRenderCache().getRoadSides(w, dist), false);
     	}
     }
 
@@ -261,18 +283,61 @@ public class RCRPainter extends WireframeMapRenderer {
 
     protected void drawArea(Way w, Color color)
     {
-        Polygon polygon = getPolygon(w);
-
         /* set the opacity (alpha) level of the filled polygon */
-//        if (color.getAlpha() < 250) {
-        	g.setColor(new Color(color.getRed(), color.getGreen(), color.getBlue(), 200));
-//        }
-//        else {
-//        	g.setColor(color);
-//        }
-        g.fillPolygon(polygon);
+        g.setColor(fillColors.computeIfAbsent(color,
+        		c -> new Color(c.getRed(), c.getGreen(), c.getBlue(), 200)));
+        paint(data.getRenderCache().getArea(w), true);
+    }
+
+    /**
+     * Fill or draw a cached shape in east/north coordinates. The shape is not
+     * copied: g draws it through the screen transform, with the stroke scaled
+     * so lines keep their width in pixels.
+     */
+    private void paint(Shape shape, boolean fill)
+    {
+        AffineTransform saved = g.getTransform();
+        Stroke stroke = g.getStroke();
+        g.transform(toScreen);
+        if (fill) {
+            g.fill(shape);
+        } else {
+            g.setStroke(getScaledStroke(stroke));
+            g.draw(shape);
+        }
+        g.setTransform(saved);
+        g.setStroke(stroke);
     }
 
+    private Stroke getScaledStroke(Stroke stroke)
+    {
+        if (stroke != screenStroke) {
+            screenStroke = stroke;
+            scaledStroke = stroke;
+            if (stroke instanceof BasicStroke) {
+                BasicStroke b = (BasicStroke) stroke;
+                float[] dash = b.getDashArray();
+                if (dash != null) {
+                    dash = dash.clone();
+                    for (int i = 0; i < dash.length; i++) {
+                        dash[i] /= scale;
+                    }
+                }
+                scaledStroke = new BasicStroke((float) (b.getLineWidth() / scale),
+                        b.getEndCap(), b.getLineJoin(), b.getMiterLimit(), dash,
+                        (float) (b.getDashPhase() / scale));
+            }
+        }
+        return scaledStroke;
+    }
+
+    /**
+     * The outline of the way in screen coordinates.
+     *
+     * @deprecated areas are drawn from the cached east/north shapes of the
+     *             {@link RenderCache}, this copy is no longer used
+     */
+    @Deprecated
     protected Polygon getPolygon(Way w)
     {
         Polygon polygon = new Polygon();
@@ -145,7 +145,7 @@ public class RCRPlugin extends Plugin {
 
 
     public void actionPerformed( ActionEvent e ) {
-      RCRPlugin.settings.loadAndShow();
+      settingsDialog.loadAndShow();
     }
   }
 
@@ -160,29 +160,36 @@ public class RCRPlugin extends Plugin {
   }
 
 
-  public static boolean        active       = false;
+  public static boolean           active       = false;
 
-  private JMenu                menu;
+  private JMenu                   menu;
 
-  private RCRDialog            dialog;
-  public static SettingsDialog settings;
+  private RCRDialog               dialog;
+  private SettingsDialog          settingsDialog;
+  public static ConverterSettings settings;
 
-  private JMenuItem            createMenu   = new JMenuItem(
+  private JMenuItem               createMenu   = new JMenuItem(
       new CreateAction() );
-  private JMenuItem            loadMenu     = new JMenuItem( new LoadAction() );
-  private JMenuItem            importMenu   = new JMenuItem(
+  private JMenuItem               loadMenu     = new JMenuItem(
+      new LoadAction() );
+  private JMenuItem               importMenu   = new JMenuItem(
       new ImportAction() );
-  private JMenuItem            settingsMenu = new JMenuItem(
+  private JMenuItem               settingsMenu = new JMenuItem(
       new SettingsAction() );
 
-  private UploadHook           noUpload     = new NoUploadHook();
+  private UploadHook              noUpload     = new NoUploadHook();
 
 
   public RCRPlugin( PluginInformation info ) {
     super( info );
     dialog = new RCRDialog( this );
     MapView.addLayerChangeListener( dialog );
-    settings = new SettingsDialog( (JFrame) Main.parent );
+    settingsDialog = new SettingsDialog( (JFrame) Main.parent );
+    settings = settingsDialog;
+    if ( StageCache.getDefault() == null
+        && Main.pref.getBoolean( "rcr-converter.cache", false ) ) {
+      StageCache.setDirectory( new File( getPluginDir(), "cache" ) );
+    }
 
     JMenuBar mainMenu = Main.main.menu;
     menu = new JMenu( tr( "Rescue" ) );
@@ -0,0 +1,144 @@
+package rcr;
+
+import java.awt.geom.Line2D;
+import java.awt.geom.Path2D;
+import java.awt.geom.Point2D;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.openstreetmap.josm.data.osm.Way;
+
+import rcr.export.RCRRoad;
+import tools.WayGeometry;
+
+/**
+ * Keeps the shapes {@link RCRPainter} draws for each way, in east/north
+ * coordinates. A shape is built again when the geometry of the way (see
+ * {@link RCRDataSet#getGeometry(Way)}), the road width or the GML segments of
+ * the way change.
+ */
+class RenderCache {
+
+  private RCRDataSet      data;
+  private Map<Way, Entry> areas    = new ConcurrentHashMap<>();
+  private Map<Way, Entry> roads    = new ConcurrentHashMap<>();
+  private Map<Way, Entry> outlines = new ConcurrentHashMap<>();
+
+
+  RenderCache( RCRDataSet data ) {
+    this.data = data;
+  }
+
+
+  /**
+   * Returns the closed polygon of the nodes of the way.
+   */
+  Path2D getArea( Way w ) {
+    WayGeometry g = data.getGeometry( w );
+    Entry e = areas.get( w );
+    if ( e == null || e.source != g ) {
+      Path2D path = new Path2D.Double();
+      boolean first = true;
+      for ( int i = 0; i < g.getPointCount(); i++ ) {
+        if ( Double.isNaN( g.getX( i ) ) ) {
+          continue;
+        }
+        if ( first ) {
+          path.moveTo( g.getX( i ), g.getY( i ) );
+          first = false;
+        } else {
+          path.lineTo( g.getX( i ), g.getY( i ) );
+        }
+      }
+      if ( !first ) {
+        path.closePath();
+      }
+      e = new Entry( g, 0, path );
+      areas.put( w, e );
+    }
+    return e.path;
+  }
+
+
+  /**
+   * Returns both sides of a road, each segment moved by dist to the left and
+   * to the right.
+   */
+  Path2D getRoadSides( Way w, double dist ) {
+    WayGeometry g = data.getGeometry( w );
+    Entry e = roads.get( w );
+    if ( e == null || e.source != g || e.width != dist ) {
+      Path2D path = new Path2D.Double();
+      for ( int i = 0; i + 1 < g.getPointCount(); i++ ) {
+        if ( !g.hasSegment( i ) ) {
+          continue;
+        }
+        Point2D c1 = new Point2D.Double( g.getX( i ), g.getY( i ) );
+        Point2D c2 = new Point2D.Double( g.getX( i + 1 ), g.getY( i + 1 ) );
+        addLine( path, c1, c2, Vector.offset( c1, c2, dist ) );
+        addLine( path, c1, c2, Vector.offset( c1, c2, -dist ) );
+      }
+      e = new Entry( g, dist, path );
+      roads.put( w, e );
+    }
+    return e.path;
+  }
+
+
+  /**
+   * Returns the outlines of the GML segments of a road.
+   */
+  Path2D getOutline( Way w, Collection<RCRRoad> segments ) {
+    Entry e = outlines.get( w );
+    if ( e == null || e.source != segments ) {
+      Path2D path = new Path2D.Double();
+      for ( RCRRoad r : segments ) {
+        for ( Line2D l : r.getOutline() ) {
+          path.append( l, false );
+        }
+      }
+      e = new Entry( segments, 0, path );
+      outlines.put( w, e );
+    }
+    return e.path;
+  }
+
+
+  void invalidate( Way w ) {
+    areas.remove( w );
+    roads.remove( w );
+    outlines.remove( w );
+  }
+
+
+  void clear() {
+    areas.clear();
+    roads.clear();
+    outlines.clear();
+  }
+
+
+  private static void addLine( Path2D path, Point2D c1, Point2D c2,
+      Point2D offset ) {
+    path.moveTo( c1.getX() + offset.getX(), c1.getY() + offset.getY() );
+    path.lineTo( c2.getX() + offset.getX(), c2.getY() + offset.getY() );
+  }
+
+
+  private static class Entry {
+
+    // the geometry or segments the path was built from
+    final Object source;
+    final double width;
+    final Path2D path;
+
+
+    Entry( Object source, double width, Path2D path ) {
+      this.source = source;
+      this.width = width;
+      this.path = path;
+    }
+  }
+
+}
@@ -1,24 +1,34 @@
 package rcr;
 
+import static org.openstreetmap.josm.tools.I18n.tr;
+
 import java.awt.geom.Line2D;
 import java.awt.geom.Point2D;
 import java.awt.geom.Rectangle2D;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.stream.IntStream;
 
 import org.openstreetmap.josm.Main;
 import org.openstreetmap.josm.data.Bounds;
 import org.openstreetmap.josm.data.coor.EastNorth;
-import org.openstreetmap.josm.data.osm.BBox;
+import org.openstreetmap.josm.data.coor.LatLon;
 import org.openstreetmap.josm.data.osm.DataSet;
 import org.openstreetmap.josm.data.osm.Node;
 import org.openstreetmap.josm.data.osm.Relation;
 import org.openstreetmap.josm.data.osm.Way;
+import org.openstreetmap.josm.gui.progress.NullProgressMonitor;
+import org.openstreetmap.josm.gui.progress.ProgressMonitor;
 import org.openstreetmap.josm.tools.Pair;
 
-import tools.AreaTools;
 import tools.MPTools;
+import tools.PolygonIndex;
+import tools.PreparedPolygon;
 
 public class RoadGenerator {
 
@@ -70,46 +80,142 @@ public class RoadGenerator {
 
 
   public void generateRoads( Bounds bounds ) {
-    for ( Relation r : source.getRelations() ) {
-      if ( MPTools.isMultipolygon( r, bounds, "highway", highwayValues ) ) {
-        List<Way> areas = MPTools.segmentMP( r );
-        for ( Way a : areas ) {
-          Way newWay = new Way( a );
-          newWay.put( "area", "yes" );
+    generateRoads( bounds, NullProgressMonitor.INSTANCE );
+  }
+
+
+  /**
+   * Create the roads of all highway multipolygons and ways within the bounds.
+   * Stops early if the monitor is canceled.
+   *
+   * Only cutting the ways at the bounds runs in parallel, as it just reads
+   * the source. The multipolygons are segmented and all ways and nodes are
+   * created in this thread, in source order, because that changes the
+   * referrers of the shared source nodes.
+   */
+  public void generateRoads( Bounds bounds, ProgressMonitor monitor ) {
+    Collection<Relation> relations = source.getRelations();
+    List<Way> ways = source.searchWays( bounds.toBBox() );
+    monitor.beginTask( tr( "Generating roads" ),
+        relations.size() + ways.size() );
+    try {
+      for ( Relation r : relations ) {
+        if ( monitor.isCanceled() ) {
+          return;
+        }
+        List<Way> areas = createRoads( r, bounds );
+        if ( areas != null ) {
+          for ( Way a : areas ) {
+            addRoad( a );
+          }
+        }
+        monitor.worked( 1 );
+      }
+
+      RoadCut[] cuts = new RoadCut[ways.size()];
+      IntStream.range( 0, cuts.length ).parallel()
+          .forEach( i -> cuts[i] = cutRoad( ways.get( i ), bounds ) );
+      for ( int i = 0; i < cuts.length; i++ ) {
+        if ( monitor.isCanceled() ) {
+          return;
+        }
+        Way newWay = createRoad( ways.get( i ), cuts[i] );
+        if ( newWay != null ) {
           addRoad( newWay );
         }
+        monitor.worked( 1 );
       }
+    } finally {
+      monitor.finishTask();
     }
+  }
 
-    for ( Way way : source.searchWays( bounds.toBBox() ) ) {
-      if ( !isRoad( way ) ) {
-        continue;
-      }
-      if ( MPTools.isPartOfMP( way, "highway", highwayValues ) ) {
-        continue;
+
+  /**
+   * Create the area roads for a highway multipolygon. The ways are not added
+   * to the data set yet.
+   *
+   * @return the new ways or null if <tt>r</tt> is no highway multipolygon
+   */
+  List<Way> createRoads( Relation r, Bounds bounds ) {
+    if ( !MPTools.isMultipolygon( r, bounds, "highway", highwayValues ) ) {
+      return null;
+    }
+    List<Way> result = new ArrayList<>();
+    for ( Way a : MPTools.segmentMP( r ) ) {
+      Way newWay = new Way( a );
+      newWay.put( "area", "yes" );
+      result.add( newWay );
+    }
+    return result;
+  }
+
+
+  /**
+   * The nodes of a road within the bounds. A node at a cut is not created
+   * yet: its entry in <tt>nodes</tt> is null and its position is the next
+   * one in <tt>cuts</tt>.
+   */
+  static class RoadCut {
+
+    // null: the road keeps all nodes of the source way
+    List<Node>   nodes;
+    List<LatLon> cuts = new ArrayList<>();
+  }
+
+
+  /**
+   * Find the nodes of the road for a source way, cut at the bounds. Neither
+   * ways nor nodes are created, so the source may be read from several
+   * threads at once.
+   *
+   * @return the cut or null if <tt>way</tt> is no road
+   */
+  RoadCut cutRoad( Way way, Bounds bounds ) {
+    if ( !isRoad( way ) ) {
+      return null;
+    }
+    if ( MPTools.isPartOfMP( way, "highway", highwayValues ) ) {
+      return null;
+    }
+
+    RoadCut cut = new RoadCut();
+    for ( Node n : way.getNodes() ) {
+      if ( !n.getCoor().isWithin( bounds ) ) {
+        cutWay( way, bounds, cut );
+        break;
       }
+    }
+    return cut;
+  }
+
 
-      boolean contained = true;
-      for ( Node n : way.getNodes() ) {
-        if ( !n.getCoor().isWithin( bounds ) ) {
-          contained = false;
-          break;
+  /**
+   * Create the road for a source way from its cut. The way is not added to
+   * the data set yet.
+   *
+   * @return the new way or null if <tt>cut</tt> is null
+   */
+  Way createRoad( Way way, RoadCut cut ) {
+    if ( cut == null ) {
+      return null;
+    }
+    Way newWay = new Way( way );
+    if ( cut.nodes != null ) {
+      List<Node> nodes = new ArrayList<>( cut.nodes );
+      Iterator<LatLon> cuts = cut.cuts.iterator();
+      for ( int i = 0; i < nodes.size(); i++ ) {
+        if ( nodes.get( i ) == null ) {
+          nodes.set( i, new Node( cuts.next() ) );
         }
       }
-      Way newWay;
-      if ( !contained ) {
-        newWay = cutWay( way, bounds );
-      } else {
-        newWay = new Way( way );
-      }
-
-      addRoad( newWay );
+      newWay.setNodes( nodes );
     }
-
+    return newWay;
   }
 
 
-  private void addRoad( Way w ) {
+  void addRoad( Way w ) {
     List<Node> newNodes = new ArrayList<Node>();
 
     for ( Node n : w.getNodes() ) {
@@ -133,12 +239,12 @@ public class RoadGenerator {
   }
 
 
-  private Way cutWay( Way w, Bounds b ) {
+  private void cutWay( Way w, Bounds b, RoadCut result ) {
     // Start and end are in bounds, keep entire way
     if ( w.getNode( 0 ).getCoor().isWithin( b )
         && w.getNode( w.getNodesCount() - 1 ).getCoor().isWithin( b ) ) {
-      System.out.println( "way  " + w.getId() + " loops" );
-      return new Way( w );
+      Log.debug( "way  " + w.getId() + " loops" );
+      return;
     }
 
     EastNorth b1 = Main.getProjection().latlon2eastNorth( b.getMax() );
@@ -163,25 +269,28 @@ public class RoadGenerator {
         Node outsideNode = ( p.a.getCoor().isWithin( b ) ) ? p.b : p.a;
         Node insideNode = ( p.a.getCoor().isWithin( b ) ) ? p.a : p.b;
 
-        System.out.println(
-            "Cutting " + p.a.getEastNorth() + " -- " + p.b.getEastNorth() );
+        if ( Log.isEnabled( Log.TRACE ) ) {
+          Log.trace(
+              "Cutting " + p.a.getEastNorth() + " -- " + p.b.getEastNorth() );
+        }
         if ( cut == null ) {
           assert false;
           // nodes.add(outsideNode);
         } else if ( Vector.asPoint( outsideNode.getEastNorth() )
             .distance( cut ) <= MAX_CUT_OVERLAP ) {
           // Segment may extend MAX_CUT_OVERLAP outside the bbox
-          System.out.println( "  extend outside" );
+          Log.trace( "  extend outside" );
           nodes.add( outsideNode );
         } else if ( Vector.asPoint( insideNode.getEastNorth() )
             .distance( cut ) <= MAX_CUT_OVERLAP ) {
-          System.out.println( "  remain inside" );
+          Log.trace( "  remain inside" );
           // Segment may be short of bbox by MAX_CUT_OVERLAP
         } else {
           // Actually cut the segment
-          System.out.println( "  cut" );
-          nodes.add( new Node( Main.getProjection()
-              .eastNorth2latlon( Vector.asEastNorth( cut ) ) ) );
+          Log.trace( "  cut" );
+          nodes.add( null );
+          result.cuts.add( Main.getProjection()
+              .eastNorth2latlon( Vector.asEastNorth( cut ) ) );
         }
       }
 
@@ -192,9 +301,7 @@ public class RoadGenerator {
       nodes.add( w.getNode( w.getNodesCount() - 1 ) );
     }
 
-    Way newWay = new Way( w );
-    newWay.setNodes( nodes );
-    return newWay;
+    result.nodes = nodes;
   }
 
 
@@ -261,37 +368,38 @@ public class RoadGenerator {
   }
 
 
+  /**
+   * Remove the parts of linear roads that lie inside area roads or buildings.
+   * The shapes are prepared once, then the roads are checked in parallel and
+   * the map is changed afterwards, in the order of the roads.
+   */
   public void removeRoadsInShapes() {
+    final PolygonIndex shapes = new PolygonIndex();
+    final List<Way> roads = new ArrayList<>();
+    for ( Way w : data.getWays() ) {
+      if ( RCRDataSet.isAreaShape( w ) ) {
+        shapes.add( new PreparedPolygon( rcrdata.getGeometry( w ) ) );
+      } else if ( w.hasTag( "rcr:type", "road" ) && !w.hasAreaTags() ) {
+        roads.add( w );
+      }
+    }
+
+    final List<List<List<Node>>> parts = new ArrayList<>(
+        Collections.nCopies( roads.size(), (List<List<Node>>) null ) );
+    IntStream.range( 0, roads.size() ).parallel().forEach(
+        i -> parts.set( i, getPartsOutsideShapes( roads.get( i ), shapes ) ) );
+
     List<Way> toRemove = new ArrayList<>();
     List<Way> toAdd = new ArrayList<>();
-
-    for ( Way r : data.getWays() ) {
-      if ( !r.hasTag( "rcr:type", "road" ) || r.hasAreaTags() ) {
-        continue;
-      }
-      System.out.println( "Checking road " + r.getId() );
-      List<List<Node>> outsideNodes = new ArrayList<>();
-      List<Node> current = new ArrayList<>();
-      for ( Pair<Node, Node> p : r.getNodePairs( false ) ) {
-        if ( segmentInShape( p.a, p.b ) ) {
-          if ( current.size() > 1 ) {
-            outsideNodes.add( current );
-          }
-          current = new ArrayList<>();
-        } else {
-          if ( current.isEmpty() ) {
-            current.add( p.a );
-          }
-          current.add( p.b );
-        }
-      }
-      if ( current.size() > 1 ) {
-        outsideNodes.add( current );
-      }
+    for ( int i = 0; i < roads.size(); i++ ) {
+      Way r = roads.get( i );
+      List<List<Node>> outsideNodes = parts.get( i );
       if ( outsideNodes.isEmpty() ) {
         toRemove.add( r );
       } else if ( outsideNodes.size() == 1 ) {
-        r.setNodes( outsideNodes.get( 0 ) );
+        if ( outsideNodes.get( 0 ).size() < r.getNodesCount() ) {
+          r.setNodes( outsideNodes.get( 0 ) );
+        }
       } else {
         Iterator<List<Node>> it = outsideNodes.iterator();
         r.setNodes( it.next() );
@@ -313,17 +421,42 @@ public class RoadGenerator {
   }
 
 
-  private boolean segmentInShape( Node n1, Node n2 ) {
-    BBox bounds = new BBox( n1 );
-    bounds.add( n2.getCoor() );
+  /**
+   * Returns the runs of consecutive road segments that are not inside one of
+   * the shapes.
+   */
+  private List<List<Node>> getPartsOutsideShapes( Way r,
+      PolygonIndex shapes ) {
+    List<List<Node>> outsideNodes = new ArrayList<>();
+    List<Node> current = new ArrayList<>();
+    for ( Pair<Node, Node> p : r.getNodePairs( false ) ) {
+      if ( segmentInShape( p.a, p.b, shapes ) ) {
+        if ( current.size() > 1 ) {
+          outsideNodes.add( current );
+        }
+        current = new ArrayList<>();
+      } else {
+        if ( current.isEmpty() ) {
+          current.add( p.a );
+        }
+        current.add( p.b );
+      }
+    }
+    if ( current.size() > 1 ) {
+      outsideNodes.add( current );
+    }
+    return outsideNodes;
+  }
+
 
+  private boolean segmentInShape( Node n1, Node n2, PolygonIndex shapes ) {
     Line2D l = new Line2D.Double( Vector.asPoint( n1.getEastNorth() ),
         Vector.asPoint( n2.getEastNorth() ) );
-
-    for ( Way w : data.searchWays( bounds ) ) {
-      if ( RCRDataSet.isAreaShape( w )
-          && AreaTools.lineContainedInPolygon( l, w ) ) {
-        System.out.println( "contained in polygon" );
+    // a shape that contains the segment contains its center
+    Point2D center = Vector.interpolate( l.getP1(), l.getP2(), 0.5 );
+    for ( PreparedPolygon shape : shapes.query( center.getX(),
+        center.getY() ) ) {
+      if ( shape.containsLine( l ) ) {
         return true;
       }
     }
@@ -352,4 +485,70 @@ public class RoadGenerator {
     return min;
   }
 
+
+  /**
+   * Fit the width of many roads at once. Instead of searching the width of
+   * each road with overlap checks, the clearance of each road is measured
+   * once (see {@link RCRDataSet#getRoadClearance(Way, double)}), in parallel.
+   * The width is limited by the current width of the road and rounded down
+   * like {@link #getMaxRoadWidth(Way, double)} does.
+   *
+   * @return the widest width of each road in meters. Roads that were not
+   *         handled because the monitor was canceled are missing.
+   */
+  public Map<Way, Double> fitRoadWidths( final List<Way> roads,
+      final ProgressMonitor monitor ) {
+    monitor.beginTask( tr( "Fitting roads" ), roads.size() );
+    try {
+      final double[] widths = new double[roads.size()];
+      final boolean[] done = new boolean[roads.size()];
+      IntStream.range( 0, roads.size() ).parallel().forEach( i -> {
+        if ( monitor.isCanceled() ) {
+          return;
+        }
+        Way road = roads.get( i );
+        double width = RCRDataSet.parseInt( road, "rcr:width",
+            Constants.DEFAULT_LANE_WIDTH ) / 1000.;
+        double clearance = rcrdata.getRoadClearance( road, width / 2 );
+        widths[i] = fitWidth( 2 * clearance, width );
+        done[i] = true;
+        synchronized ( monitor ) {
+          monitor.worked( 1 );
+        }
+      } );
+
+      Map<Way, Double> result = new HashMap<>();
+      for ( int i = 0; i < roads.size(); i++ ) {
+        if ( done[i] ) {
+          result.put( roads.get( i ), widths[i] );
+        }
+      }
+      return result;
+    } finally {
+      monitor.finishTask();
+    }
+  }
+
+
+  /**
+   * Returns the width the binary search of {@link #getMaxRoadWidth(Way,
+   * double)} finds if the road overlaps exactly at all widths from limit on.
+   */
+  static double fitWidth( double limit, double width ) {
+    if ( limit <= 0 ) {
+      return 0.0;
+    }
+    double min = 0.0;
+    double max = width;
+    while ( max - min > ROAD_WIDTH_ACCURACY ) {
+      double w = ( max + min ) / 2;
+      if ( w >= limit ) {
+        max = w;
+      } else {
+        min = w;
+      }
+    }
+    return min;
+  }
+
 }
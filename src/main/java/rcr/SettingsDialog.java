@@ -38,7 +38,7 @@ import javax.swing.JTextField;
 
 import org.openstreetmap.josm.Main;
 
-public class SettingsDialog extends JDialog {
+public class SettingsDialog extends JDialog implements ConverterSettings {
 
   private static String prefix            = "rcr-converter.";
 
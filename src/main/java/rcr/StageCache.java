@@ -0,0 +1,419 @@
+package rcr;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.openstreetmap.josm.Main;
+import org.openstreetmap.josm.data.Bounds;
+import org.openstreetmap.josm.data.coor.LatLon;
+import org.openstreetmap.josm.data.osm.DataSet;
+import org.openstreetmap.josm.data.osm.Node;
+import org.openstreetmap.josm.data.osm.OsmPrimitive;
+import org.openstreetmap.josm.data.osm.Relation;
+import org.openstreetmap.josm.data.osm.RelationMember;
+import org.openstreetmap.josm.data.osm.Way;
+
+/**
+ * Keeps the results of conversion stages on disk, so that a stage whose
+ * input did not change is loaded instead of computed again. Each result is
+ * stored under a {@link Key}: a hash of the stage name, the input data and
+ * the settings the stage depends on.
+ *
+ * The stages are the generated map (roads and buildings, see
+ * {@link RCRDataSet}), the planned entrances and the GML geometry. Changing
+ * e.g. the entrance settings only invalidates the entrances and everything
+ * after them. Snapshots are compressed binary files named by their key.
+ * When a snapshot is stored and the directory holds more than
+ * {@link #MAX_BYTES}, the snapshots used least recently are deleted. The
+ * directory can be deleted at any time.
+ *
+ * The cache is off unless a directory is set, by the <tt>--cache</tt> option
+ * of the {@link BatchConverter}, the system property <tt>rcr.cache</tt> or
+ * the plugin if the preference <tt>rcr-converter.cache</tt> is true.
+ */
+public class StageCache {
+
+  /**
+   * Increase when the output of a stage changes for the same input, so old
+   * snapshots are not used anymore.
+   */
+  static final int                  VERSION   = 1;
+
+  /**
+   * Largest size of all snapshots in a directory, in bytes.
+   */
+  static final long                 MAX_BYTES = 512L << 20;
+
+  private static volatile StageCache instance = create(
+      System.getProperty( "rcr.cache" ) );
+
+  private final File                dir;
+
+
+  public StageCache( File dir ) {
+    this.dir = dir;
+  }
+
+
+  private static StageCache create( String dir ) {
+    return dir == null || dir.isEmpty() ? null : new StageCache(
+        new File( dir ) );
+  }
+
+
+  /**
+   * Returns the cache in use, or null if caching is off.
+   */
+  public static StageCache getDefault() {
+    return instance;
+  }
+
+
+  /**
+   * Use the directory for all stages, or turn caching off with null.
+   */
+  public static void setDirectory( File dir ) {
+    instance = dir == null ? null : new StageCache( dir );
+  }
+
+
+  /**
+   * Use the cache for all stages, or turn caching off with null.
+   */
+  static void setDefault( StageCache cache ) {
+    instance = cache;
+  }
+
+
+  /**
+   * Starts the key of a stage. The name, {@link #VERSION} and the projection
+   * are part of every key.
+   */
+  public static Key key( String stage ) {
+    Key key = new Key();
+    key.add( stage );
+    key.add( VERSION );
+    key.add( Main.getProjection().toCode() );
+    return key;
+  }
+
+
+  /**
+   * Writes a snapshot.
+   */
+  public interface Writer {
+
+    void write( DataOutputStream out ) throws IOException;
+  }
+
+  /**
+   * Reads a snapshot.
+   */
+  public interface Reader<T> {
+
+    /**
+     * @return the result of the stage, or null if the snapshot does not fit
+     *         the current data
+     */
+    T read( DataInputStream in ) throws IOException;
+  }
+
+
+  /**
+   * Returns the snapshot stored under the key, or null if there is none or
+   * it can't be read.
+   */
+  public <T> T load( Key key, Reader<T> reader ) {
+    File file = getFile( key );
+    if ( !file.isFile() ) {
+      return null;
+    }
+    try ( DataInputStream in = new DataInputStream( new BufferedInputStream(
+        new GZIPInputStream( new FileInputStream( file ) ) ) ) ) {
+      T result = reader.read( in );
+      Log.info( ( result != null ? "Loaded " : "Ignored " ) + file );
+      if ( result != null ) {
+        // keep it when older snapshots are deleted
+        file.setLastModified( System.currentTimeMillis() );
+      }
+      return result;
+    } catch ( IOException | RuntimeException e ) {
+      // e.g. written by an older version, compute again
+      Log.info( "Couldn't read " + file + ": " + e );
+      return null;
+    }
+  }
+
+
+  /**
+   * Store a snapshot under the key. A snapshot that can't be written is
+   * skipped, the stage is computed again next time.
+   */
+  public void store( Key key, Writer writer ) {
+    File file = getFile( key );
+    File tmp = null;
+    try {
+      if ( !dir.isDirectory() && !dir.mkdirs() ) {
+        throw new IOException( "Couldn't create directory " + dir );
+      }
+      // readers never see a partial snapshot
+      tmp = File.createTempFile( "stage", ".tmp", dir );
+      try ( DataOutputStream out = new DataOutputStream(
+          new BufferedOutputStream( new GZIPOutputStream(
+              new FileOutputStream( tmp ) ) ) ) ) {
+        writer.write( out );
+      }
+      Files.move( tmp.toPath(), file.toPath(),
+          StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE );
+      Log.info( "Stored " + file );
+    } catch ( IOException | RuntimeException e ) {
+      Log.info( "Couldn't store " + file + ": " + e );
+      if ( tmp != null ) {
+        tmp.delete();
+      }
+    }
+    evict( file );
+  }
+
+
+  /**
+   * Delete the least recently used snapshots until the directory holds at
+   * most {@link #MAX_BYTES}. The snapshot just stored is kept.
+   */
+  private void evict( File stored ) {
+    File[] files = dir.listFiles( ( d, name ) -> name.endsWith( ".bin" ) );
+    if ( files == null ) {
+      return;
+    }
+    long size = 0;
+    for ( File f : files ) {
+      size += f.length();
+    }
+    if ( size <= MAX_BYTES ) {
+      return;
+    }
+    Arrays.sort( files, ( a, b ) -> Long.compare( a.lastModified(),
+        b.lastModified() ) );
+    for ( File f : files ) {
+      if ( size <= MAX_BYTES ) {
+        break;
+      }
+      if ( f.equals( stored ) ) continue;
+      long length = f.length();
+      if ( f.delete() ) {
+        size -= length;
+        Log.info( "Deleted " + f );
+      }
+    }
+  }
+
+
+  private File getFile( Key key ) {
+    return new File( dir, key.toString() + ".bin" );
+  }
+
+
+  /**
+   * Returns a hash of the geometry and tags of a way, independent of the IDs
+   * of the way and its nodes. It identifies ways of a map with a given
+   * {@link Key#addContent(DataSet) content}.
+   */
+  public static long hashWay( Way w ) {
+    return hash( w, false, new HashMap<OsmPrimitive, Long>() );
+  }
+
+
+  /**
+   * Returns the ways of the data set by {@link #hashWay(Way)}. Ways with the
+   * same hash are left out.
+   */
+  public static Map<Long, Way> getWaysByHash( DataSet data ) {
+    Map<Long, Way> result = new HashMap<>();
+    List<Long> duplicates = new ArrayList<>();
+    Map<OsmPrimitive, Long> hashes = new HashMap<>();
+    for ( Way w : data.getWays() ) {
+      if ( w.isDeleted() ) continue;
+      long h = hash( w, false, hashes );
+      if ( result.put( h, w ) != null ) {
+        duplicates.add( h );
+      }
+    }
+    result.keySet().removeAll( duplicates );
+    return result;
+  }
+
+
+  private static long hash( OsmPrimitive osm, boolean withIds,
+      Map<OsmPrimitive, Long> hashes ) {
+    Long cached = hashes.get( osm );
+    if ( cached != null ) {
+      return cached;
+    }
+    long h = 0xcbf29ce484222325L;
+    if ( withIds ) {
+      h = mix( h, osm.getUniqueId() );
+    }
+    if ( osm instanceof Node ) {
+      LatLon c = ( (Node) osm ).getCoor();
+      h = mix( h, 'n' );
+      if ( c != null ) {
+        h = mix( h, Double.doubleToLongBits( c.lat() ) );
+        h = mix( h, Double.doubleToLongBits( c.lon() ) );
+      }
+    } else if ( osm instanceof Way ) {
+      h = mix( h, 'w' );
+      for ( Node n : ( (Way) osm ).getNodes() ) {
+        h = mix( h, hash( n, withIds, hashes ) );
+      }
+    } else if ( osm instanceof Relation ) {
+      h = mix( h, 'r' );
+      for ( RelationMember m : ( (Relation) osm ).getMembers() ) {
+        // relations as members only by ID, they may contain each other
+        h = mix( h, m.isRelation() ? m.getMember().getUniqueId()
+            : hash( m.getMember(), withIds, hashes ) );
+        h = mix( h, m.getRole().hashCode() );
+      }
+    }
+    // tags in the order of their keys
+    for ( Map.Entry<String, String> tag : new TreeMap<>( osm.getKeys() )
+        .entrySet() ) {
+      h = mix( h, tag.getKey().hashCode() );
+      h = mix( h, tag.getValue().hashCode() );
+    }
+    hashes.put( osm, h );
+    return h;
+  }
+
+
+  private static long mix( long h, long value ) {
+    h ^= value;
+    h *= 0x100000001b3L;
+    return h ^ ( h >>> 29 );
+  }
+
+
+  /**
+   * A SHA-256 hash of everything a stage depends on.
+   */
+  public static class Key {
+
+    private final MessageDigest digest;
+
+
+    private Key() {
+      try {
+        digest = MessageDigest.getInstance( "SHA-256" );
+      } catch ( NoSuchAlgorithmException e ) {
+        throw new IllegalStateException( e );
+      }
+    }
+
+
+    public Key add( String value ) {
+      digest.update( value.getBytes( StandardCharsets.UTF_8 ) );
+      digest.update( (byte) 0 );
+      return this;
+    }
+
+
+    public Key add( long value ) {
+      for ( int i = 0; i < 8; i++ ) {
+        digest.update( (byte) ( value >>> ( 8 * i ) ) );
+      }
+      return this;
+    }
+
+
+    public Key add( double value ) {
+      return add( Double.doubleToLongBits( value ) );
+    }
+
+
+    public Key add( Bounds bounds ) {
+      add( bounds.getMin().lat() );
+      add( bounds.getMin().lon() );
+      add( bounds.getMax().lat() );
+      return add( bounds.getMax().lon() );
+    }
+
+
+    /**
+     * Add the input data of a stage, with the IDs of all primitives.
+     */
+    public Key addSource( DataSet data ) {
+      return addPrimitives( data, true );
+    }
+
+
+    /**
+     * Add a generated map. Generated primitives get new IDs each time, so
+     * only geometry and tags count.
+     */
+    public Key addContent( DataSet data ) {
+      return addPrimitives( data, false );
+    }
+
+
+    private Key addPrimitives( DataSet data, boolean withIds ) {
+      Map<OsmPrimitive, Long> hashes = new HashMap<>();
+      addSorted( data.getNodes(), withIds, hashes );
+      addSorted( data.getWays(), withIds, hashes );
+      addSorted( data.getRelations(), withIds, hashes );
+      return this;
+    }
+
+
+    private void addSorted( Collection<? extends OsmPrimitive> primitives,
+        boolean withIds, Map<OsmPrimitive, Long> hashes ) {
+      long[] values = new long[primitives.size()];
+      int count = 0;
+      for ( OsmPrimitive osm : primitives ) {
+        if ( !osm.isDeleted() ) {
+          values[count++] = hash( osm, withIds, hashes );
+        }
+      }
+      // independent of the order of the data set
+      Arrays.sort( values, 0, count );
+      add( count );
+      for ( int i = 0; i < count; i++ ) {
+        add( values[i] );
+      }
+    }
+
+
+    @Override
+    public String toString() {
+      StringBuilder hex = new StringBuilder();
+      try {
+        for ( byte b : ( (MessageDigest) digest.clone() ).digest() ) {
+          hex.append( String.format( "%02x", b ) );
+        }
+      } catch ( CloneNotSupportedException e ) {
+        throw new IllegalStateException( e );
+      }
+      return hex.toString();
+    }
+  }
+
+}
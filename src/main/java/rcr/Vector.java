@@ -33,8 +33,7 @@ import org.openstreetmap.josm.data.coor.LatLon;
 
 public class Vector {
 
-  public static boolean debug   = false;
-  public static double  epsilon = 1.0E-6;
+  public static double epsilon = 1.0E-6;
 
 
   @SuppressWarnings( "unchecked" )
@@ -297,19 +296,94 @@ public class Vector {
   }
 
 
+  /**
+   * Returns how far the line can be moved along its normal, to either side,
+   * before it touches the segment. That is the smallest distance from the line
+   * to the part of the segment that is not beside its ends. Returns 0 if they
+   * intersect and infinity if the segment is entirely beside the ends.
+   */
+  public static double offsetDistance( Line2D line, Line2D segment ) {
+    double dx = line.getX2() - line.getX1();
+    double dy = line.getY2() - line.getY1();
+    double length = Math.sqrt( dx * dx + dy * dy );
+    if ( length == 0 ) {
+      return Double.POSITIVE_INFINITY;
+    }
+    dx /= length;
+    dy /= length;
+    // segment in line coordinates: u along the line, v along its normal
+    double ax = segment.getX1() - line.getX1();
+    double ay = segment.getY1() - line.getY1();
+    double bx = segment.getX2() - line.getX1();
+    double by = segment.getY2() - line.getY1();
+    double u1 = ax * dx + ay * dy;
+    double v1 = ay * dx - ax * dy;
+    double u2 = bx * dx + by * dy;
+    double v2 = by * dx - bx * dy;
+
+    // clip the segment to 0 <= u <= length
+    double t1 = 0;
+    double t2 = 1;
+    if ( u1 != u2 ) {
+      double s1 = ( 0 - u1 ) / ( u2 - u1 );
+      double s2 = ( length - u1 ) / ( u2 - u1 );
+      t1 = Math.max( t1, Math.min( s1, s2 ) );
+      t2 = Math.min( t2, Math.max( s1, s2 ) );
+    } else if ( u1 < 0 || u1 > length ) {
+      return Double.POSITIVE_INFINITY;
+    }
+    if ( t1 > t2 ) {
+      return Double.POSITIVE_INFINITY;
+    }
+    double va = v1 + t1 * ( v2 - v1 );
+    double vb = v1 + t2 * ( v2 - v1 );
+    if ( ( va <= 0 && vb >= 0 ) || ( va >= 0 && vb <= 0 ) ) {
+      return 0;
+    }
+    return Math.min( Math.abs( va ), Math.abs( vb ) );
+  }
+
+
   public static <T extends Point2D> boolean pointOnLine( T p, T from, T to ) {
+    return pointOnLine( p, from, to, false );
+  }
+
+
+  /**
+   * @param trace
+   *          log the intermediate values, the caller checks the log level
+   *          once instead of on every call
+   */
+  public static <T extends Point2D> boolean pointOnLine( T p, T from, T to,
+      boolean trace ) {
+    return pointOnLine( p.getX(), p.getY(), from.getX(), from.getY(),
+        to.getX(), to.getY(), trace );
+  }
+
+
+  public static boolean pointOnLine( double px, double py, double fromX,
+      double fromY, double toX, double toY ) {
+    return pointOnLine( px, py, fromX, fromY, toX, toY, false );
+  }
+
+
+  private static boolean pointOnLine( double px, double py, double fromX,
+      double fromY, double toX, double toY, boolean trace ) {
     // we effectively use the maximum-norm as it's cheaper to compute and
     // shouldn't matter much when checking for points *on* the line
-    T v1 = diff( to, from );
-    T v2 = diff( p, from );
+    double v1x = toX - fromX;
+    double v1y = toY - fromY;
+    double v2x = px - fromX;
+    double v2y = py - fromY;
     // normalize to top right quadrant
-    double x1 = v1.getX() < 0 ? -v1.getX() : v1.getX();
-    double y1 = v1.getY() < 0 ? -v1.getY() : v1.getY();
-    double x2 = v1.getX() < 0 ? -v2.getX() : v2.getX();
-    double y2 = v1.getY() < 0 ? -v2.getY() : v2.getY();
-    if ( debug )
-      System.out.printf( "                   x1=%f, x2=%f, y1=%f, y2=%f\n", x1,
-          x2, y1, y2 );
+    double x1 = v1x < 0 ? -v1x : v1x;
+    double y1 = v1y < 0 ? -v1y : v1y;
+    double x2 = v1x < 0 ? -v2x : v2x;
+    double y2 = v1y < 0 ? -v2y : v2y;
+    if ( trace ) {
+      Log.trace( String.format( "                   x1=%f, x2=%f, y1=%f, y2=%f",
+          x1, x2, y1, y2 ) );
+    }
 
     // bbox check
     if ( y2 < -epsilon || y2 - y1 > epsilon || x2 < -epsilon
@@ -325,8 +399,9 @@ public class Vector {
 
     double m1 = y1 / x1;
     double dy = y2 - m1 * x2;
-    if ( debug )
-      System.out.printf( "                   m1=%f, dy=%f\n", m1, dy );
+    if ( trace ) {
+      Log.trace( String.format( "                   m1=%f, dy=%f", m1, dy ) );
+    }
 
     return Math.abs( dy ) < epsilon;
   }
@@ -3,6 +3,7 @@ package rcr.export;
 import java.awt.geom.Line2D;
 import java.awt.geom.Point2D;
 import java.io.File;
+import java.io.IOException;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -24,7 +25,6 @@ import maps.gml.GMLMap;
 import maps.gml.GMLNode;
 import maps.gml.GMLRoad;
 import maps.gml.GMLShape;
-import maps.gml.formats.RobocupFormat;
 
 import org.openstreetmap.josm.data.coor.EastNorth;
 import org.openstreetmap.josm.data.osm.DataSet;
@@ -34,7 +34,10 @@ import org.openstreetmap.josm.data.osm.Way;
 import org.openstreetmap.josm.tools.Pair;
 
 import rcr.Constants;
+import rcr.Log;
+import rcr.Metrics;
 import rcr.RCRDataSet;
+import rcr.StageCache;
 import rcr.Vector;
 
 public class GMLExporter {
@@ -108,6 +111,58 @@ public class GMLExporter {
     this.data = data.getData();
     this.data.cleanupDeletedPrimitives();
 
+    try ( Metrics.Stage stage = Metrics.start( "geometry" ) ) {
+      createGeometry();
+      stage.count( "nodes", gml.getNodes().size() );
+      stage.count( "edges", gml.getEdges().size() );
+      stage.count( "buildings", gml.getBuildings().size() );
+      stage.count( "roads", gml.getRoads().size() );
+    }
+  }
+
+
+  /**
+   * Returns the geometry a GMLExporter exported for the same map before, or
+   * null if it is not in the {@link StageCache}. The segments of the ways
+   * are not stored, only the map can be exported.
+   */
+  public static GMLMap getCachedMap( RCRDataSet data ) {
+    StageCache cache = StageCache.getDefault();
+    if ( cache == null ) {
+      return null;
+    }
+    data.getData().cleanupDeletedPrimitives();
+    return cache.load( getKey( data ), GMLSnapshot::read );
+  }
+
+
+  private static StageCache.Key getKey( RCRDataSet data ) {
+    return StageCache.key( "gml" ).addContent( data.getData() );
+  }
+
+
+  /**
+   * Write the GML map of the data, from the {@link StageCache} if possible.
+   *
+   * @return the exported map
+   * @throws IOException
+   *           if the file could not be written
+   */
+  public static GMLMap exportMap( RCRDataSet data, File file )
+      throws IOException {
+    GMLMap gml = getCachedMap( data );
+    if ( gml != null ) {
+      exportMap( gml, data.getScale(), file );
+    } else {
+      GMLExporter exporter = new GMLExporter( data );
+      exporter.exportMap( file );
+      gml = exporter.getGMLMap();
+    }
+    return gml;
+  }
+
+
+  private void createGeometry() {
     gml = new GMLMap();
     for ( Way b : this.data.getWays() ) {
       if ( !b.isDeleted() && b.hasTag( "rcr:type", "building" )
@@ -135,28 +190,45 @@ public class GMLExporter {
 
     fixDuplicateEdges();
     computeConnectivity();
+  }
 
+
+  /**
+   * Write the map translated to the origin and scaled. The GML map itself is
+   * not changed, so it can still be used while the file is written. The
+   * geometry is stored in the {@link StageCache}.
+   *
+   * @throws IOException
+   *           if the file could not be written
+   */
+  public void exportMap( File file ) throws IOException {
+    exportMap( gml, rcrdata.getScale(), file );
+    StageCache cache = StageCache.getDefault();
+    if ( cache != null ) {
+      cache.store( getKey( rcrdata ), out -> GMLSnapshot.write( gml, out ) );
+    }
   }
 
 
-  public void exportMap( File file ) {
+  /**
+   * Write a map translated to the origin and scaled.
+   *
+   * @throws IOException
+   *           if the file could not be written
+   */
+  public static void exportMap( GMLMap gml, double scale, File file )
+      throws IOException {
     double minx = gml.getMinX();
     double miny = gml.getMinY();
-    System.out.println( "Translate by " + minx + " / " + miny );
-    ScaleConversion translation = new ScaleConversion( minx, miny,
-        rcrdata.getScale(), rcrdata.getScale() );
-    gml.convertCoordinates( translation );
+    Log.info( "Translate by " + minx + " / " + miny );
+    ScaleConversion translation = new ScaleConversion( minx, miny, scale,
+        scale );
 
-    try {
-      RobocupFormat.INSTANCE.write( gml, file );
-    } catch ( Exception e ) {
-      e.printStackTrace();
+    try ( Metrics.Stage stage = Metrics.start( "export" ) ) {
+      new GMLWriter( translation ).write( gml, file );
+      stage.count( "bytes", file.length() );
     }
 
-    ScaleConversion inverseTranslation = new ScaleConversion( -minx, -miny,
-        1.0 / rcrdata.getScale(), 1.0 / rcrdata.getScale() );
-    gml.convertCoordinates( inverseTranslation );
-
     // RCRLegacyMap map = toRescueMap();
 
   }
@@ -236,26 +308,35 @@ public class GMLExporter {
 
 
   public void fixDuplicateEdges() {
-    final Set<GMLEdge> remaining = new HashSet<GMLEdge>( gml.getEdges() );
-    while ( !remaining.isEmpty() ) {
-      GMLEdge next = remaining.iterator().next();
-      remaining.remove( next );
-      // Look at other edges for a duplicate
-      Iterator<GMLEdge> it = remaining.iterator();
-      while ( it.hasNext() ) {
-        GMLEdge test = it.next();
-        if ( ( test.getStart() == next.getStart()
-            || test.getStart() == next.getEnd() )
-            && ( test.getEnd() == next.getStart()
-                || test.getEnd() == next.getEnd() ) ) {
-          // Duplicate found
-          gml.replaceEdge( test, next );
-          gml.removeEdge( test );
-          it.remove();
-        }
+    fixDuplicateEdges( gml );
+  }
+
+
+  /**
+   * Replace all edges that connect the same two nodes by one of them. The
+   * edges are keyed by their unordered pair of node IDs, so this takes a
+   * single pass over the edges.
+   */
+  static void fixDuplicateEdges( GMLMap gml ) {
+    Map<Long, GMLEdge> edgesByNodes = new HashMap<>();
+    for ( GMLEdge test : new ArrayList<>( gml.getEdges() ) ) {
+      Long key = edgeKey( test.getStart(), test.getEnd() );
+      GMLEdge next = edgesByNodes.get( key );
+      if ( next == null ) {
+        edgesByNodes.put( key, test );
+      } else {
+        // Duplicate found
+        gml.replaceEdge( test, next );
+        gml.removeEdge( test );
       }
     }
+  }
+
 
+  private static Long edgeKey( GMLNode n1, GMLNode n2 ) {
+    long id1 = Math.min( n1.getID(), n2.getID() );
+    long id2 = Math.max( n1.getID(), n2.getID() );
+    return ( id1 << 32 ) | ( id2 & 0xffffffffL );
   }
 
 
@@ -370,7 +451,7 @@ public class GMLExporter {
 
   private List<GMLShape> findConnection( GMLShape shape ) {
     // use BFS to find the closest connected shape.
-    System.out.println( "connecting: " + shape );
+    Log.debug( "connecting: " + shape );
     Deque<GMLShape> open = new ArrayDeque<>();
     HashMap<GMLShape, GMLShape> closed = new HashMap<>();
     closed.put( shape, null );
@@ -399,7 +480,7 @@ public class GMLExporter {
         path.add( parent );
         parent = closed.get( parent );
       }
-      System.out.println( "found path of length " + path.size() );
+      Log.debug( "found path of length " + path.size() );
       return path;
     }
     return null;
@@ -433,13 +514,13 @@ public class GMLExporter {
       return;
     }
     if ( processedIntersections.contains( n ) ) {
-      System.out.println( "Skipping Node " + n.getId() );
+      Log.debug( "Skipping Node " + n.getId() );
       return;
     }
     processedIntersections.add( n );
 
-    System.out.println( "Processing Node " + n.getId() );
-    System.out.println( "We have " + roads.size() + " roads" );
+    Log.debug( "Processing Node " + n.getId() );
+    Log.debug( "We have " + roads.size() + " roads" );
     if ( roads.size() == 1 ) {
       RCRRoad r = roads.get( 0 );
       Point2D left = r.offsetLine( r.width / 2000, n ).getP1();
@@ -459,7 +540,7 @@ public class GMLExporter {
       if ( intersection == null ) {
         assert false;
       }
-      System.out.println( "  Found intersection with road" );
+      Log.trace( "  Found intersection with road" );
       GMLNode intersectNode = gml.createNode( intersection.getX(),
           intersection.getY() );
       prev.setRight( n, intersectNode );
@@ -474,7 +555,7 @@ public class GMLExporter {
 
 
   private void createAreaRoadGeometry( Way w ) {
-    System.out.println( "Processing area road " + w.getId() );
+    Log.debug( "Processing area road " + w.getId() );
     assert w.isClosed();
 
     RCRShape r = RCRShape.makeRoad( w, this );
@@ -496,7 +577,7 @@ public class GMLExporter {
 
 
   private void createBuildingGeometry( Way w ) {
-    System.out.println( "Processing building " + w.getId() );
+    Log.debug( "Processing building " + w.getId() );
     assert w.isClosed();
 
     RCRShape b = RCRShape.makeBuilding( w, this );
@@ -584,7 +665,7 @@ public class GMLExporter {
 
     List<GMLNode> roadApexes = new ArrayList<>();
     RCRRoad prev = null;
-    System.out.println( "We have " + roads.size() + " roads" );
+    Log.debug( "We have " + roads.size() + " roads" );
     for ( RCRRoad r : roads ) {
       if ( prev == null ) {
         Pair<Point2D, GMLDirectedEdge> intersection = startShape
@@ -598,7 +679,7 @@ public class GMLExporter {
         } else {
           GMLNode splitNode = gml.createNode( intersection.a.getX(),
               intersection.a.getY() );
-          System.out.println(
+          Log.trace(
               "  Found first intersection with building: " + splitNode );
           startShape.splitEdge( intersection.b, splitNode );
           r.setLeft( head, splitNode );
@@ -609,7 +690,7 @@ public class GMLExporter {
         if ( intersection == null ) {
           assert false;
         }
-        System.out.println( "  Found intersection with road" );
+        Log.trace( "  Found intersection with road" );
         GMLNode intersectNode = gml.createNode( intersection.getX(),
             intersection.getY() );
         prev.setRight( head, intersectNode );
@@ -624,7 +705,7 @@ public class GMLExporter {
       if ( intersection != null ) {
         GMLNode splitNode = gml.createNode( intersection.a.getX(),
             intersection.a.getY() );
-        System.out.println(
+        Log.trace(
             "  Found second intersection with building: " + splitNode );
 
         endShape.splitEdge( intersection.b, splitNode );
@@ -0,0 +1,145 @@
+package rcr.export;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import maps.gml.GMLBuilding;
+import maps.gml.GMLDirectedEdge;
+import maps.gml.GMLEdge;
+import maps.gml.GMLMap;
+import maps.gml.GMLNode;
+import maps.gml.GMLRoad;
+import maps.gml.GMLShape;
+import maps.gml.GMLSpace;
+
+/**
+ * The geometry of a {@link GMLExporter}, stored by the
+ * {@link rcr.StageCache}. All objects keep their IDs.
+ */
+class GMLSnapshot {
+
+  private GMLSnapshot() {
+  }
+
+
+  static void write( GMLMap gml, DataOutputStream out ) throws IOException {
+    out.writeInt( gml.getNodes().size() );
+    for ( GMLNode n : gml.getNodes() ) {
+      out.writeInt( n.getID() );
+      out.writeDouble( n.getX() );
+      out.writeDouble( n.getY() );
+    }
+    out.writeInt( gml.getEdges().size() );
+    for ( GMLEdge e : gml.getEdges() ) {
+      out.writeInt( e.getID() );
+      out.writeInt( e.getStart().getID() );
+      out.writeInt( e.getEnd().getID() );
+      out.writeBoolean( e.isPassable() );
+    }
+    out.writeInt( gml.getBuildings().size() );
+    for ( GMLBuilding b : gml.getBuildings() ) {
+      writeShape( b, out );
+      out.writeInt( b.getFloors() );
+      out.writeInt( b.getCode() );
+      out.writeInt( b.getImportance() );
+    }
+    writeShapes( gml.getRoads(), out );
+    writeShapes( gml.getSpaces(), out );
+  }
+
+
+  static GMLMap read( DataInputStream in ) throws IOException {
+    GMLMap gml = new GMLMap();
+    Map<Integer, GMLNode> nodes = new HashMap<>();
+    for ( int count = in.readInt(); count > 0; count-- ) {
+      GMLNode n = new GMLNode( in.readInt(), in.readDouble(),
+          in.readDouble() );
+      nodes.put( n.getID(), n );
+      gml.addNode( n );
+    }
+    Map<Integer, GMLEdge> edges = new HashMap<>();
+    for ( int count = in.readInt(); count > 0; count-- ) {
+      int id = in.readInt();
+      GMLNode start = nodes.get( in.readInt() );
+      GMLNode end = nodes.get( in.readInt() );
+      if ( start == null || end == null ) {
+        throw new IOException( "Unknown node in edge " + id );
+      }
+      GMLEdge e = new GMLEdge( id, start, end, in.readBoolean() );
+      edges.put( e.getID(), e );
+      gml.addEdge( e );
+    }
+    for ( int count = in.readInt(); count > 0; count-- ) {
+      GMLBuilding b = new GMLBuilding( in.readInt() );
+      readEdges( b, edges, in );
+      b.setFloors( in.readInt() );
+      b.setCode( in.readInt() );
+      b.setImportance( in.readInt() );
+      gml.addBuilding( b );
+    }
+    for ( int count = in.readInt(); count > 0; count-- ) {
+      GMLRoad r = new GMLRoad( in.readInt() );
+      readEdges( r, edges, in );
+      gml.addRoad( r );
+    }
+    for ( int count = in.readInt(); count > 0; count-- ) {
+      GMLSpace s = new GMLSpace( in.readInt() );
+      readEdges( s, edges, in );
+      gml.addSpace( s );
+    }
+    return gml;
+  }
+
+
+  private static void writeShapes( Collection<? extends GMLShape> shapes,
+      DataOutputStream out ) throws IOException {
+    out.writeInt( shapes.size() );
+    for ( GMLShape s : shapes ) {
+      writeShape( s, out );
+    }
+  }
+
+
+  private static void writeShape( GMLShape shape, DataOutputStream out )
+      throws IOException {
+    out.writeInt( shape.getID() );
+    out.writeInt( shape.getEdges().size() );
+    for ( GMLDirectedEdge e : shape.getEdges() ) {
+      out.writeInt( e.getEdge().getID() );
+      out.writeBoolean( e.isForward() );
+      Integer neighbour = shape.getNeighbour( e );
+      out.writeBoolean( neighbour != null );
+      if ( neighbour != null ) {
+        out.writeInt( neighbour );
+      }
+    }
+  }
+
+
+  private static void readEdges( GMLShape shape, Map<Integer, GMLEdge> edges,
+      DataInputStream in ) throws IOException {
+    List<GMLDirectedEdge> result = new ArrayList<>();
+    List<Integer> neighbours = new ArrayList<>();
+    for ( int count = in.readInt(); count > 0; count-- ) {
+      GMLEdge edge = edges.get( in.readInt() );
+      if ( edge == null ) {
+        throw new IOException( "Unknown edge in shape " + shape.getID() );
+      }
+      result.add( new GMLDirectedEdge( edge, in.readBoolean() ) );
+      neighbours.add( in.readBoolean() ? in.readInt() : null );
+    }
+    shape.setEdges( result );
+    for ( int i = 0; i < result.size(); i++ ) {
+      if ( neighbours.get( i ) != null ) {
+        shape.setNeighbour( result.get( i ), neighbours.get( i ) );
+      }
+    }
+  }
+
+}
@@ -0,0 +1,278 @@
+package rcr.export;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.text.DecimalFormat;
+import java.text.DecimalFormatSymbols;
+import java.text.NumberFormat;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.zip.GZIPOutputStream;
+
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+import maps.CoordinateConversion;
+import maps.gml.GMLBuilding;
+import maps.gml.GMLDirectedEdge;
+import maps.gml.GMLEdge;
+import maps.gml.GMLMap;
+import maps.gml.GMLNode;
+import maps.gml.GMLObject;
+import maps.gml.GMLShape;
+
+/**
+ * Writes a {@link GMLMap} in the Robocup Rescue GML format without building a
+ * DOM. The coordinate conversion is applied to each node as it is written,
+ * the map itself is not changed.
+ *
+ * The output is the same as that of <tt>RobocupFormat</tt>: all objects are
+ * sorted by ID, coordinates have three decimals and empty lists are empty
+ * elements. <tt>GMLWriterTest</tt> compares both outputs.
+ */
+public class GMLWriter {
+
+  static final String          RCR_NS   = "urn:roborescue:map:gml";
+  static final String          GML_NS   = "http://www.opengis.net/gml";
+  static final String          XLINK_NS = "http://www.w3.org/1999/xlink";
+
+  private CoordinateConversion conversion;
+  private NumberFormat         format   = new DecimalFormat( "#0.000",
+      DecimalFormatSymbols.getInstance( Locale.US ) );
+
+  private XMLStreamWriter      xml;
+
+
+  /**
+   * @param conversion
+   *          applied to the node coordinates, or null to write them as they
+   *          are
+   */
+  public GMLWriter( CoordinateConversion conversion ) {
+    this.conversion = conversion;
+  }
+
+
+  /**
+   * Write the map to a file. Files ending in <tt>.gz</tt> are compressed.
+   */
+  public void write( GMLMap gml, File file ) throws IOException {
+    File parent = file.getAbsoluteFile().getParentFile();
+    if ( parent != null && !parent.exists() && !parent.mkdirs() ) {
+      throw new IOException( "Couldn't create directory " + parent );
+    }
+    OutputStream out = new BufferedOutputStream(
+        new FileOutputStream( file ) );
+    try {
+      if ( file.getName().endsWith( ".gz" ) ) {
+        out = new GZIPOutputStream( out );
+      }
+      write( gml, out );
+    } finally {
+      out.close();
+    }
+  }
+
+
+  /**
+   * Write the map to a stream. The stream is not closed.
+   */
+  public void write( GMLMap gml, OutputStream out ) throws IOException {
+    try {
+      xml = XMLOutputFactory.newInstance().createXMLStreamWriter( out,
+          "UTF-8" );
+      xml.writeStartDocument( "UTF-8", "1.0" );
+      xml.writeCharacters( "\n\n" );
+      xml.setPrefix( "rcr", RCR_NS );
+      xml.setPrefix( "gml", GML_NS );
+      xml.setPrefix( "xlink", XLINK_NS );
+      xml.writeStartElement( "rcr", "map", RCR_NS );
+      xml.writeNamespace( "rcr", RCR_NS );
+      xml.writeNamespace( "gml", GML_NS );
+      xml.writeNamespace( "xlink", XLINK_NS );
+
+      writeNodes( gml.getNodes() );
+      writeEdges( gml.getEdges() );
+      writeShapes( gml.getBuildings(), "buildinglist", "building" );
+      writeShapes( gml.getRoads(), "roadlist", "road" );
+      writeShapes( gml.getSpaces(), "spacelist", "space" );
+
+      newLine( 0 );
+      xml.writeEndElement();
+      xml.writeCharacters( "\n" );
+      xml.writeEndDocument();
+      xml.flush();
+    } catch ( XMLStreamException e ) {
+      throw new IOException( e );
+    } finally {
+      if ( xml != null ) {
+        try {
+          xml.close();
+        } catch ( XMLStreamException e ) {
+          // only releases the writer, the stream stays open
+        }
+        xml = null;
+      }
+    }
+  }
+
+
+  private void writeNodes( Collection<GMLNode> nodes )
+      throws XMLStreamException {
+    if ( !startList( RCR_NS, "nodelist", nodes ) ) {
+      return;
+    }
+    for ( GMLNode node : sorted( nodes ) ) {
+      startElement( 2, GML_NS, "Node" );
+      xml.writeAttribute( "gml", GML_NS, "id",
+          String.valueOf( node.getID() ) );
+      startElement( 3, GML_NS, "pointProperty" );
+      startElement( 4, GML_NS, "Point" );
+      startElement( 5, GML_NS, "coordinates" );
+      xml.writeCharacters( formatCoordinates( node ) );
+      xml.writeEndElement();
+      endElement( 4 );
+      endElement( 3 );
+      endElement( 2 );
+    }
+    endElement( 1 );
+  }
+
+
+  private void writeEdges( Collection<GMLEdge> edges )
+      throws XMLStreamException {
+    if ( !startList( RCR_NS, "edgelist", edges ) ) {
+      return;
+    }
+    for ( GMLEdge edge : sorted( edges ) ) {
+      startElement( 2, GML_NS, "Edge" );
+      xml.writeAttribute( "gml", GML_NS, "id",
+          String.valueOf( edge.getID() ) );
+      emptyElement( 3, GML_NS, "directedNode" );
+      xml.writeAttribute( "orientation", "-" );
+      xml.writeAttribute( "xlink", XLINK_NS, "href",
+          "#" + edge.getStart().getID() );
+      emptyElement( 3, GML_NS, "directedNode" );
+      xml.writeAttribute( "orientation", "+" );
+      xml.writeAttribute( "xlink", XLINK_NS, "href",
+          "#" + edge.getEnd().getID() );
+      endElement( 2 );
+    }
+    endElement( 1 );
+  }
+
+
+  private void writeShapes( Collection<? extends GMLShape> shapes,
+      String listName, String name ) throws XMLStreamException {
+    if ( !startList( RCR_NS, listName, shapes ) ) {
+      return;
+    }
+    for ( GMLShape shape : sorted( shapes ) ) {
+      startElement( 2, RCR_NS, name );
+      xml.writeAttribute( "gml", GML_NS, "id",
+          String.valueOf( shape.getID() ) );
+      startElement( 3, GML_NS, "Face" );
+      if ( shape instanceof GMLBuilding ) {
+        GMLBuilding b = (GMLBuilding) shape;
+        xml.writeAttribute( "rcr", RCR_NS, "floors",
+            String.valueOf( b.getFloors() ) );
+        xml.writeAttribute( "rcr", RCR_NS, "buildingcode",
+            String.valueOf( b.getCode() ) );
+        xml.writeAttribute( "rcr", RCR_NS, "importance",
+            String.valueOf( b.getImportance() ) );
+      }
+      for ( GMLDirectedEdge e : shape.getEdges() ) {
+        emptyElement( 4, GML_NS, "directedEdge" );
+        xml.writeAttribute( "orientation", e.isForward() ? "+" : "-" );
+        xml.writeAttribute( "xlink", XLINK_NS, "href",
+            "#" + e.getEdge().getID() );
+        Integer neighbour = shape.getNeighbour( e );
+        if ( neighbour != null ) {
+          xml.writeAttribute( "rcr", RCR_NS, "neighbour",
+              String.valueOf( neighbour ) );
+        }
+      }
+      endElement( 3 );
+      endElement( 2 );
+    }
+    endElement( 1 );
+  }
+
+
+  private String formatCoordinates( GMLNode node ) {
+    double x = node.getX();
+    double y = node.getY();
+    if ( conversion != null ) {
+      x = conversion.convertX( x );
+      y = conversion.convertY( y );
+    }
+    return format.format( x ) + "," + format.format( y );
+  }
+
+
+  private static <T extends GMLObject> List<T> sorted(
+      Collection<? extends T> objects ) {
+    List<T> result = new ArrayList<T>( objects );
+    Collections.sort( result, new Comparator<GMLObject>() {
+
+      @Override
+      public int compare( GMLObject o1, GMLObject o2 ) {
+        return Integer.compare( o1.getID(), o2.getID() );
+      }
+    } );
+    return result;
+  }
+
+
+  /**
+   * Start a list of objects. An empty list is written as an empty element
+   * and false is returned.
+   */
+  private boolean startList( String ns, String name, Collection<?> objects )
+      throws XMLStreamException {
+    if ( objects.isEmpty() ) {
+      emptyElement( 1, ns, name );
+      return false;
+    }
+    startElement( 1, ns, name );
+    return true;
+  }
+
+
+  private void startElement( int level, String ns, String name )
+      throws XMLStreamException {
+    newLine( level );
+    xml.writeStartElement( ns, name );
+  }
+
+
+  private void emptyElement( int level, String ns, String name )
+      throws XMLStreamException {
+    newLine( level );
+    xml.writeEmptyElement( ns, name );
+  }
+
+
+  private void endElement( int level ) throws XMLStreamException {
+    newLine( level );
+    xml.writeEndElement();
+  }
+
+
+  private void newLine( int level ) throws XMLStreamException {
+    StringBuilder indent = new StringBuilder( "\n" );
+    for ( int i = 0; i < level; i++ ) {
+      indent.append( "  " );
+    }
+    xml.writeCharacters( indent.toString() );
+  }
+
+}
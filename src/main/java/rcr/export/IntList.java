@@ -0,0 +1,46 @@
+package rcr.export;
+
+import java.util.Arrays;
+
+/**
+ * A growing list of ints, to collect IDs without boxing them.
+ */
+class IntList {
+
+  private int[] values = new int[8];
+  private int   size;
+
+
+  void add( int value ) {
+    if ( size == values.length ) {
+      values = Arrays.copyOf( values, size * 2 );
+    }
+    values[size++] = value;
+  }
+
+
+  void addAll( int[] ids ) {
+    if ( size + ids.length > values.length ) {
+      values = Arrays.copyOf( values, Math.max( values.length * 2, size
+          + ids.length ) );
+    }
+    System.arraycopy( ids, 0, values, size, ids.length );
+    size += ids.length;
+  }
+
+
+  int get( int index ) {
+    return values[index];
+  }
+
+
+  int size() {
+    return size;
+  }
+
+
+  int[] toArray() {
+    return Arrays.copyOf( values, size );
+  }
+
+}
@@ -2,12 +2,17 @@ package rcr.export;
 
 import java.awt.Point;
 import java.io.File;
+import java.io.FileWriter;
 import java.io.IOException;
+import java.io.PrintWriter;
 import java.util.ArrayList;
-import java.util.Collection;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 
 import org.openstreetmap.josm.data.osm.DataSet;
 import org.openstreetmap.josm.data.osm.Node;
@@ -31,6 +36,7 @@ import rescuecore.objects.PoliceOffice;
 import rescuecore.objects.RealObject;
 import rescuecore.objects.Refuge;
 import rescuecore.objects.Road;
+import rescuecore.tools.MapFiles;
 
 public class LegacyExporter {
 
@@ -45,9 +51,13 @@ public class LegacyExporter {
 
 
   public void exportMap( File file ) {
-    RCRLegacyMap map = toRescueMap();
     try {
-      map.save( file.getPath() );
+      if ( this.rcrdata.sourceMap == null ) {
+        writeMap( file.getPath() );
+      } else {
+        // files of the source are reused, both maps are compared
+        toRescueMap().save( file.getPath() );
+      }
       System.out.println( "saved map to " + file.getPath() );
     } catch ( IOException e1 ) {
       e1.printStackTrace();
@@ -55,14 +65,12 @@ public class LegacyExporter {
   }
 
 
-  private int nextRCRId( OsmPrimitive obj,
-      HashMap<Integer, RescueObject> id2Object, int nextId ) {
+  private int nextRCRId( OsmPrimitive obj, BitSet used, int nextId ) {
     int id = RCRDataSet.parseInt( obj, "rcr:id", -1 );
 
-    if ( id != -1 && !id2Object.containsKey( id ) ) {
+    if ( id >= 0 && !used.get( id ) ) {
       return id;
     } else {
-      // id2Object.put(n.id, nextId);
       obj.put( "rcr:id", String.valueOf( nextId ) );
       return nextId;
     }
@@ -83,39 +91,59 @@ public class LegacyExporter {
   }
 
 
-  private Road createRescueRoad( Way w, Node head, Node tail, int id ) {
-    Road r = new Road();
-    r.setID( id );
+  /**
+   * The values of a road between two nodes of a way.
+   */
+  private static class RoadRecord {
+
+    int head;
+    int tail;
+    int length;
+    int linesToHead;
+    int linesToTail;
+    int block;
+    int width;
+  }
+
 
-    int headId = RCRDataSet.parseInt( head, "rcr:id", -1 );
-    int tailId = RCRDataSet.parseInt( tail, "rcr:id", -1 );
+  private RoadRecord readRoad( Way w, Node head, Node tail ) {
+    RoadRecord r = new RoadRecord();
+    r.head = RCRDataSet.parseInt( head, "rcr:id", -1 );
+    r.tail = RCRDataSet.parseInt( tail, "rcr:id", -1 );
 
-    assert headId != -1 && tailId != -1;
+    assert r.head != -1 && r.tail != -1;
 
-    // rescuecore.objects.Node headNode = (rescuecore.objects.Node)
-    // idMap.get(headId);
-    // rescuecore.objects.Node tailNode = (rescuecore.objects.Node)
-    // idMap.get(tailId);
     Point ps = this.rcrdata.osm2rescueCoords( head );
     Point pe = this.rcrdata.osm2rescueCoords( tail );
 
-    r.setHead( headId, 0, this );
-    r.setTail( tailId, 0, this );
-
-    int length = (int) Math.hypot( ps.x - pe.x, ps.y - pe.y );
-    if ( length <= 0 ) {
-      length = 1;
+    r.length = (int) Math.hypot( ps.x - pe.x, ps.y - pe.y );
+    if ( r.length <= 0 ) {
+      r.length = 1;
     }
-    r.setLength( length, 0, this );
-    r.setLinesToHead( RCRDataSet.parseInt( w, "rcr:lines_to_head", 1 ), 0,
-        this );
-    r.setLinesToTail( RCRDataSet.parseInt( w, "rcr:lines_to_tail", 1 ), 0,
-        this );
+    r.linesToHead = RCRDataSet.parseInt( w, "rcr:lines_to_head", 1 );
+    r.linesToTail = RCRDataSet.parseInt( w, "rcr:lines_to_tail", 1 );
+    r.block = RCRDataSet.parseInt( w, "rcr:block", 0 );
+
+    // Road.getFreeLinesToTail() of a road without width
+    double laneWidth = 0.0 / ( r.linesToHead + r.linesToTail );
+    int blockedLanes = (int) Math.floor( r.block / laneWidth / 2.0 + 0.5 );
+    r.width = RCRDataSet.parseInt( w, "rcr:width",
+        3000 * ( r.linesToHead + r.linesToTail - blockedLanes ) );
+    return r;
+  }
 
-    r.setBlock( RCRDataSet.parseInt( w, "rcr:block", 0 ), 0, this );
-    r.setWidth( RCRDataSet.parseInt( w, "rcr:width",
-        3000 * ( r.getLinesToHead() + r.getFreeLinesToTail() ) ), 0, this );
 
+  private Road createRescueRoad( Way w, Node head, Node tail, int id ) {
+    RoadRecord record = readRoad( w, head, tail );
+    Road r = new Road();
+    r.setID( id );
+    r.setHead( record.head, 0, this );
+    r.setTail( record.tail, 0, this );
+    r.setLength( record.length, 0, this );
+    r.setLinesToHead( record.linesToHead, 0, this );
+    r.setLinesToTail( record.linesToTail, 0, this );
+    r.setBlock( record.block, 0, this );
+    r.setWidth( record.width, 0, this );
     return r;
   }
 
@@ -135,31 +163,29 @@ public class LegacyExporter {
   }
 
 
-  private Building createRescueBuilding( Node n, int id ) {
-    Building b;
-    if ( n.hasTag( "rcr:building_type", "refuge" ) )
-      b = new Refuge();
-    else if ( n.hasTag( "rcr:building_type", "policeoffice" ) )
-      b = new PoliceOffice();
-    else if ( n.hasTag( "rcr:building_type", "ambulancecenter" ) )
-      b = new AmbulanceCenter();
-    else if ( n.hasTag( "rcr:building_type", "firestation" ) )
-      b = new FireStation();
-    else
-      b = new Building();
-
-    b.setID( id );
+  /**
+   * The values of a building node, its outline and entrances.
+   */
+  private static class BuildingRecord {
+
+    String     type;
+    int        x;
+    int        y;
+    int        floors;
+    int        code;
+    int        importance;
+    int        area;
+    boolean    fire;
+    IntList    entrances     = new IntList();
+    List<Node> entranceNodes = new ArrayList<Node>();
+    int[]      apexes;
+  }
 
-    Point p = this.rcrdata.osm2rescueCoords( n );
-    b.setX( p.x, 0, this );
-    b.setY( p.y, 0, this );
-    b.setFloors( RCRDataSet.parseInt( n, "rcr:floors", 3 ), 0, this );
-    b.setBuildingCode( RCRDataSet.parseInt( n, "rcr:building_code", 0 ), 0,
-        this );
-    if ( n.isKeyTrue( "rcr:fire" ) ) {
-      b.setIgnition( true, 0, this );
-    }
 
+  /**
+   * @return the building, or null if it has no outline or is too small
+   */
+  private BuildingRecord readBuilding( Node n ) {
     Relation buildingRel = null;
     for ( Relation rel : this.rcrdata.getRelationsOf( n, "rcr:node" ) ) {
       for ( RelationMember m : rel.getMembers() ) {
@@ -173,11 +199,12 @@ public class LegacyExporter {
 
     if ( buildingRel == null ) return null;
 
+    BuildingRecord b = new BuildingRecord();
     Way outline = null;
     for ( RelationMember m : buildingRel.getMembers() ) {
       if ( m.isNode() && "rcr:entrance".equals( m.getRole() ) ) {
-        int entranceId = RCRDataSet.parseInt( m.getNode(), "rcr:id", -1 );
-        if ( id != -1 ) b.appendEntrances( entranceId, 0, this );
+        b.entrances.add( RCRDataSet.parseInt( m.getNode(), "rcr:id", -1 ) );
+        b.entranceNodes.add( m.getNode() );
       }
       if ( m.isWay() && "rcr:outline".equals( m.getRole() ) ) {
         outline = m.getWay();
@@ -190,17 +217,18 @@ public class LegacyExporter {
     }
 
     List<Node> ol_nodes = outline.getNodes();
+    IntList apexes = new IntList();
     Point prev = this.rcrdata
         .osm2rescueCoords( ol_nodes.get( outline.getNodesCount() - 1 ) );
     long area = 0;
     for ( Node ol : ol_nodes ) {
       Point olp = this.rcrdata.osm2rescueCoords( ol );
-      b.appendApex( olp.x, 0, this );
-      b.appendApex( olp.y, 0, this );
+      apexes.add( olp.x );
+      apexes.add( olp.y );
       area += ( (long) prev.x * (long) olp.y - (long) prev.y * (long) olp.x );
       prev = olp;
     }
-    if ( b.getApexes().length < 2 * 3 ) {
+    if ( apexes.size() < 2 * 3 ) {
       System.out.println( "removed degenerated building" );
       return null;
     }
@@ -211,9 +239,54 @@ public class LegacyExporter {
       System.out.println( "Removed too small building with area " + intarea );
       return null;
     }
-    b.setGroundArea( intarea, 0, this );
-    b.setTotalArea( b.getFloors() * intarea, 0, this );
-    b.setImportance( RCRDataSet.parseInt( n, "rcr:importance", 1 ), 0, this );
+
+    Point p = this.rcrdata.osm2rescueCoords( n );
+    b.type = n.get( "rcr:building_type" );
+    b.x = p.x;
+    b.y = p.y;
+    b.floors = RCRDataSet.parseInt( n, "rcr:floors", 3 );
+    b.code = RCRDataSet.parseInt( n, "rcr:building_code", 0 );
+    b.importance = RCRDataSet.parseInt( n, "rcr:importance", 1 );
+    b.area = intarea;
+    b.fire = n.get( "rcr:fire" ) != null;
+    b.apexes = apexes.toArray();
+    return b;
+  }
+
+
+  private Building createRescueBuilding( Node n, int id ) {
+    BuildingRecord record = readBuilding( n );
+    if ( record == null ) return null;
+
+    Building b;
+    if ( "refuge".equals( record.type ) )
+      b = new Refuge();
+    else if ( "policeoffice".equals( record.type ) )
+      b = new PoliceOffice();
+    else if ( "ambulancecenter".equals( record.type ) )
+      b = new AmbulanceCenter();
+    else if ( "firestation".equals( record.type ) )
+      b = new FireStation();
+    else
+      b = new Building();
+
+    b.setID( id );
+    b.setX( record.x, 0, this );
+    b.setY( record.y, 0, this );
+    b.setFloors( record.floors, 0, this );
+    b.setBuildingCode( record.code, 0, this );
+    if ( record.fire ) {
+      b.setIgnition( true, 0, this );
+    }
+    for ( int entranceId : record.entrances.toArray() ) {
+      b.appendEntrances( entranceId, 0, this );
+    }
+    for ( int apex : record.apexes ) {
+      b.appendApex( apex, 0, this );
+    }
+    b.setGroundArea( record.area, 0, this );
+    b.setTotalArea( record.floors * record.area, 0, this );
+    b.setImportance( record.importance, 0, this );
 
     return b;
   }
@@ -257,26 +330,29 @@ public class LegacyExporter {
 
 
   /**
-   * This function is supposed to only convert the current representation into a
-   * rescue map. No additional algorithms will be performed.
-   *
-   * @return a valid rescuemap representing this dataset
+   * Add the position of each humanoid tagged at the primitive to the list of
+   * its kind, without creating the humanoids.
    */
-  public RCRLegacyMap toRescueMap() {
-    RCRLegacyMap map = new RCRLegacyMap();
-    if ( this.rcrdata.sourceMap != null )
-      map.setSource( this.rcrdata.sourceMap );
-
-    int nextFreeId = 0; // next free id
-
-    HashMap<Integer, RescueObject> id2Object = new HashMap<Integer, RescueObject>();
+  private static void addPositions( OsmPrimitive at, int position,
+      IntList ambulances, IntList fireBrigades, IntList policeForces,
+      IntList civilians ) {
+    for ( int i = RCRDataSet.parseInt( at, "rcr:ambulances", 0 ); i > 0; i-- )
+      ambulances.add( position );
+    for ( int i = RCRDataSet.parseInt( at, "rcr:firebrigades", 0 ); i > 0; i-- )
+      fireBrigades.add( position );
+    for ( int i = RCRDataSet.parseInt( at, "rcr:policeforces", 0 ); i > 0; i-- )
+      policeForces.add( position );
+    for ( int i = RCRDataSet.parseInt( at, "rcr:civilians", 0 ); i > 0; i-- )
+      civilians.add( position );
+  }
 
-    List<Humanoid> humanoids = new ArrayList<Humanoid>();
-    List<Node> rcrNodes = new ArrayList<Node>();
-    List<Way> rcrRoads = new ArrayList<Way>();
-    List<Node> rcrBuildings = new ArrayList<Node>();
-    List<Way> quakePolygons = new ArrayList<Way>();
 
+  /**
+   * Sort the nodes, roads, buildings and quake polygons of the data set into
+   * the lists.
+   */
+  private void collect( List<Node> rcrNodes, List<Way> rcrRoads,
+      List<Node> rcrBuildings, List<Way> quakePolygons ) {
     // Make sure we get *all* elements
     for ( Node n : data.getNodes() ) {
       if ( n.isDeleted() ) continue;
@@ -294,26 +370,53 @@ public class LegacyExporter {
       else if ( "galpoylgon".equals( w.get( "rcr:type" ) ) )
         quakePolygons.add( w );
     }
+  }
 
-    System.out.println( "BM RM SIZE " + rcrBuildings.size() );
 
-    for ( Node n : rcrNodes ) {
-      Collection<OsmPrimitive> refs = n.getReferrers();
-      boolean hasWays = false;
-      for ( OsmPrimitive p : refs ) {
-        if ( p instanceof Way ) {
-          hasWays = true;
-          break;
-        }
+  private static boolean hasWays( Node n ) {
+    for ( OsmPrimitive p : n.getReferrers() ) {
+      if ( p instanceof Way ) {
+        return true;
       }
+    }
+    return false;
+  }
+
 
-      if ( !hasWays ) continue;
+  /**
+   * This function is supposed to only convert the current representation into a
+   * rescue map. No additional algorithms will be performed.
+   *
+   * @return a valid rescuemap representing this dataset
+   */
+  public RCRLegacyMap toRescueMap() {
+    RCRLegacyMap map = new RCRLegacyMap();
+    if ( this.rcrdata.sourceMap != null )
+      map.setSource( this.rcrdata.sourceMap );
 
-      int id = nextRCRId( n, id2Object, nextFreeId );
+    int nextFreeId = 0; // next free id
+
+    HashMap<Integer, RescueObject> id2Object = new HashMap<Integer, RescueObject>();
+    BitSet used = new BitSet();
+
+    List<Humanoid> humanoids = new ArrayList<Humanoid>();
+    List<Node> rcrNodes = new ArrayList<Node>();
+    List<Way> rcrRoads = new ArrayList<Way>();
+    List<Node> rcrBuildings = new ArrayList<Node>();
+    List<Way> quakePolygons = new ArrayList<Way>();
+    collect( rcrNodes, rcrRoads, rcrBuildings, quakePolygons );
+
+    System.out.println( "BM RM SIZE " + rcrBuildings.size() );
+
+    for ( Node n : rcrNodes ) {
+      if ( !hasWays( n ) ) continue;
+
+      int id = nextRCRId( n, used, nextFreeId );
 
       rescuecore.objects.Node node = createRescueNode( n );
       map.nodes.add( node );
       id2Object.put( id, node );
+      used.set( id );
 
       for ( Humanoid h : getHumanoids( n ) ) {
         humanoids.add( h );
@@ -328,9 +431,10 @@ public class LegacyExporter {
         if ( n.isDeleted() ) continue;
         // assert waysOfNode.containsKey(n);
         if ( head != null ) {
-          int id = nextRCRId( w, id2Object, nextFreeId );
+          int id = nextRCRId( w, used, nextFreeId );
           Road road = createRescueRoad( w, head, n, id );
           id2Object.put( id, road );
+          used.set( id );
           /*
            * if (road == null ) { head = n; continue; }
            */
@@ -350,7 +454,7 @@ public class LegacyExporter {
     // BUILDINGS
     System.out.println( "there are " + rcrBuildings.size() + " buildings." );
     for ( Node n : rcrBuildings ) {
-      int id = nextRCRId( n, id2Object, nextFreeId );
+      int id = nextRCRId( n, used, nextFreeId );
       Building b = createRescueBuilding( n, id );
       if ( b == null ) continue;
 
@@ -364,9 +468,9 @@ public class LegacyExporter {
               "Warning: Entrance " + entrance + " of " + id + " not found." );
         }
       }
-      if ( n.get( "rcr:fire" ) != null ) b.setIgnition( true, 0, this );
       map.buildings.add( b );
       id2Object.put( id, b );
+      used.set( id );
       for ( Humanoid h : getHumanoids( n ) ) {
         humanoids.add( h );
         h.setPosition( id, 0, this );
@@ -396,6 +500,255 @@ public class LegacyExporter {
   }
 
 
+  /**
+   * Writes the same files as {@link #toRescueMap()} and
+   * {@link RCRLegacyMap#save(String)} of a map without source, but in one
+   * pass over the data set: IDs are assigned and roads and buildings are
+   * written as they are found, through a {@link MapFiles.RecordWriter} that
+   * writes its buffer in chunks. Only the nodes are kept until all their
+   * edges are known. Nothing is written if a road does not end at a node.
+   * Afterwards the map is checked by {@link LegacyMapCheck} on objects that
+   * only hold the IDs, like {@link RCRLegacyMap#save(String)} does, and the
+   * problems are printed to System.err.
+   */
+  public void writeMap( String mapdir ) throws IOException {
+    String nodesFile = mapdir + File.separator + "node.bin";
+    String roadsFile = mapdir + File.separator + "road.bin";
+    String bldgsFile = mapdir + File.separator + "building.bin";
+    String gisiniFile = mapdir + File.separator + "gisini.txt";
+    String galFile = mapdir + File.separator + "galpolydata.dat";
+    String blockadeFile = mapdir + File.separator + "blockades.lst";
+    System.out.println( "Saving to " + nodesFile + " " + roadsFile + " "
+        + bldgsFile + " " + gisiniFile + " " + galFile );
+
+    int nextFreeId = 0;
+    BitSet used = new BitSet();
+
+    List<Node> rcrNodes = new ArrayList<Node>();
+    List<Way> rcrRoads = new ArrayList<Way>();
+    List<Node> rcrBuildings = new ArrayList<Node>();
+    List<Way> quakePolygons = new ArrayList<Way>();
+    collect( rcrNodes, rcrRoads, rcrBuildings, quakePolygons );
+
+    IntList ambulances = new IntList();
+    IntList fireBrigades = new IntList();
+    IntList policeForces = new IntList();
+    IntList civilians = new IntList();
+
+    // NODES, by index
+    Map<Node, Integer> nodeIndex = new HashMap<Node, Integer>();
+    IntList nodeIds = new IntList();
+    IntList nodeXs = new IntList();
+    IntList nodeYs = new IntList();
+    List<IntList> nodeEdges = new ArrayList<IntList>();
+    for ( Node n : rcrNodes ) {
+      if ( !hasWays( n ) ) continue;
+
+      int id = nextRCRId( n, used, nextFreeId );
+      used.set( id );
+      Point coords = this.rcrdata.osm2rescueCoords( n );
+      nodeIndex.put( n, nodeIds.size() );
+      nodeIds.add( id );
+      nodeXs.add( coords.x );
+      nodeYs.add( coords.y );
+      nodeEdges.add( new IntList() );
+      addPositions( n, id, ambulances, fireBrigades, policeForces, civilians );
+      nextFreeId = Math.max( id + 1, nextFreeId );
+    }
+    checkRoadEnds( rcrRoads, nodeIndex );
+
+    // the objects for the check, without the geometry
+    List<rescuecore.objects.Node> checkNodes = new ArrayList<>();
+    List<Road> checkRoads = new ArrayList<>();
+    List<Building> checkBuildings = new ArrayList<>();
+
+    // ROADS, the blockades go to their own file
+    IntList midXs = new IntList();
+    IntList midYs = new IntList();
+    IntList blocks = new IntList();
+    try ( MapFiles.RecordWriter out = MapFiles.RecordWriter
+        .roads( roadsFile ) ) {
+      for ( Way w : rcrRoads ) {
+        Node head = null;
+        for ( Node n : w.getNodes() ) {
+          if ( n.isDeleted() ) continue;
+          if ( head != null ) {
+            int id = nextRCRId( w, used, nextFreeId );
+            used.set( id );
+            RoadRecord r = readRoad( w, head, n );
+            int headIndex = nodeIndex.get( head );
+            int tailIndex = nodeIndex.get( n );
+            out.writeRoad( id, r.head, r.tail, r.length, 0, 0, 0, 0, 0,
+                r.width, 0, 0, false, r.linesToHead, r.linesToTail, 0 );
+            nodeEdges.get( headIndex ).add( id );
+            nodeEdges.get( tailIndex ).add( id );
+            midXs.add(
+                ( nodeXs.get( headIndex ) + nodeXs.get( tailIndex ) ) / 2 );
+            midYs.add(
+                ( nodeYs.get( headIndex ) + nodeYs.get( tailIndex ) ) / 2 );
+            blocks.add( r.block );
+            Road road = new Road( r.head, r.tail, r.length, 0, 0, 0, 0, 0,
+                r.width, 0, 0, false, r.linesToHead, r.linesToTail, 0 );
+            road.setID( id );
+            checkRoads.add( road );
+            nextFreeId = Math.max( id + 1, nextFreeId );
+          }
+          head = n;
+        }
+      }
+    }
+    writeBlockades( blockadeFile, midXs, midYs, blocks );
+
+    // BUILDINGS
+    System.out.println( "there are " + rcrBuildings.size() + " buildings." );
+    IntList fireStations = new IntList();
+    IntList policeOffices = new IntList();
+    IntList ambulanceCenters = new IntList();
+    IntList refuges = new IntList();
+    IntList fires = new IntList();
+    IntList buildingIds = new IntList();
+    IntList importance = new IntList();
+    try ( MapFiles.RecordWriter out = MapFiles.RecordWriter
+        .buildings( bldgsFile ) ) {
+      for ( Node n : rcrBuildings ) {
+        int id = nextRCRId( n, used, nextFreeId );
+        BuildingRecord b = readBuilding( n );
+        if ( b == null ) continue;
+
+        for ( int i = 0; i < b.entranceNodes.size(); i++ ) {
+          Integer index = nodeIndex.get( b.entranceNodes.get( i ) );
+          if ( index != null ) {
+            nodeEdges.get( index ).add( id );
+          } else {
+            System.err.println( "Warning: Entrance " + b.entrances.get( i )
+                + " of " + id + " not found." );
+          }
+        }
+        // the ignition goes to gisini.txt only
+        out.writeBuilding( id, b.x, b.y, b.floors, 0, false, 0, 0,
+            b.entrances.toArray(), b.area, b.floors * b.area, b.code,
+            b.apexes );
+        used.set( id );
+        if ( "firestation".equals( b.type ) ) fireStations.add( id );
+        if ( "policeoffice".equals( b.type ) ) policeOffices.add( id );
+        if ( "ambulancecenter".equals( b.type ) ) ambulanceCenters.add( id );
+        if ( "refuge".equals( b.type ) ) refuges.add( id );
+        if ( b.fire ) fires.add( id );
+        buildingIds.add( id );
+        importance.add( b.importance );
+        Building building = new Building( b.x, b.y, b.floors, 0, false, 0, 0,
+            b.entrances.toArray(), b.code, b.area, b.floors * b.area,
+            new int[0], 0, b.importance );
+        building.setID( id );
+        checkBuildings.add( building );
+        addPositions( n, id, ambulances, fireBrigades, policeForces,
+            civilians );
+        nextFreeId = Math.max( id + 1, nextFreeId );
+      }
+    }
+
+    int edgeCount = 0;
+    for ( IntList edges : nodeEdges ) {
+      edgeCount += edges.size();
+    }
+    try ( MapFiles.RecordWriter out = MapFiles.RecordWriter.nodes( nodesFile,
+        6 * nodeIds.size() + 7 * edgeCount ) ) {
+      for ( int i = 0; i < nodeIds.size(); i++ ) {
+        int[] edges = nodeEdges.get( i ).toArray();
+        // No idea, what these values are, but gis reads for each
+        // edge:
+        // 1x shortcut, 2x pocket, 3x timing
+        int[] shortcut = new int[edges.length];
+        int[] pocket = new int[2 * edges.length];
+        Arrays.fill( shortcut, 1 );
+        Arrays.fill( pocket, 1 );
+        out.writeNode( nodeIds.get( i ), nodeXs.get( i ), nodeYs.get( i ),
+            edges, false, shortcut, pocket, new int[3 * edges.length] );
+        rescuecore.objects.Node node = new rescuecore.objects.Node(
+            nodeXs.get( i ), nodeYs.get( i ), edges, false, new int[0],
+            new int[0], new int[0] );
+        node.setID( nodeIds.get( i ) );
+        checkNodes.add( node );
+      }
+    }
+
+    List<GalPolygon> polys = new ArrayList<GalPolygon>();
+    for ( Way w : quakePolygons ) {
+      polys.add( createGalPolygon( w ) );
+    }
+    try ( PrintWriter polyPw = new PrintWriter( new File( galFile ) ) ) {
+      RCRLegacyMap.writePolydata( polyPw, polys );
+    }
+
+    try ( PrintWriter gisPw = new PrintWriter( new File( gisiniFile ) ) ) {
+      MapFiles.writeGISMotionlessObjects( gisPw, fireStations.toArray(),
+          policeOffices.toArray(), ambulanceCenters.toArray(),
+          refuges.toArray() );
+      MapFiles.writeGISMovingObjects( gisPw, fireBrigades.toArray(),
+          policeForces.toArray(), ambulances.toArray(), civilians.toArray() );
+      MapFiles.writeGISFires( gisPw, fires.toArray() );
+      MapFiles.writeGISImportantBuildings( gisPw, buildingIds.toArray(),
+          importance.toArray() );
+    }
+
+    LegacyMapCheck.Report report = new LegacyMapCheck( checkNodes, checkRoads,
+        checkBuildings ).run();
+    report.print( System.err );
+    if ( !report.passed() ) System.err.println( "Map seems incorrect." );
+  }
+
+
+  /**
+   * Make sure that every road of the ways goes from node to node, before any
+   * file is written.
+   */
+  private static void checkRoadEnds( List<Way> rcrRoads,
+      Map<Node, Integer> nodeIndex ) throws IOException {
+    for ( Way w : rcrRoads ) {
+      Node head = null;
+      for ( Node n : w.getNodes() ) {
+        if ( n.isDeleted() ) continue;
+        if ( head != null && ( !nodeIndex.containsKey( head )
+            || !nodeIndex.containsKey( n ) ) ) {
+          Node end = nodeIndex.containsKey( head ) ? n : head;
+          throw new IOException( "Way " + w.getId() + " has a road that"
+              + " does not end at a node: " + end.getId() );
+        }
+        head = n;
+      }
+    }
+  }
+
+
+  /**
+   * The blockades of the roads, in the order of the midpoints of the roads
+   * as read by {@link RCRLegacyMap}.
+   */
+  private static void writeBlockades( String filename, final IntList xs,
+      final IntList ys, IntList blocks ) throws IOException {
+    Integer[] order = new Integer[blocks.size()];
+    for ( int i = 0; i < order.length; i++ ) {
+      order[i] = i;
+    }
+    Arrays.sort( order, new Comparator<Integer>() {
+
+      public int compare( Integer a, Integer b ) {
+        int result = Integer.compare( xs.get( a ), xs.get( b ) );
+        return result != 0 ? result : Integer.compare( ys.get( a ),
+            ys.get( b ) );
+      }
+    } );
+    PrintWriter out = new PrintWriter( new FileWriter( new File( filename ) ) );
+    try {
+      for ( int i : order ) {
+        out.println( blocks.get( i ) );
+      }
+    } finally {
+      out.close();
+    }
+  }
+
+
   public RCRLegacyMap toDummyRescueMap() {
     RCRLegacyMap map = new RCRLegacyMap();
 
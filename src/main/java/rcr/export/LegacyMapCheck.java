@@ -0,0 +1,373 @@
+package rcr.export;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+import rescuecore.objects.Building;
+import rescuecore.objects.Node;
+import rescuecore.objects.RealObject;
+import rescuecore.objects.Road;
+
+/**
+ * Checks the consistency of a {@link RCRLegacyMap}: unique IDs, references
+ * between nodes, roads and buildings, duplicate roads and whether the road
+ * graph is connected. The checks of nodes, roads, buildings and the
+ * connectivity run in parallel, each in linear time.
+ */
+public class LegacyMapCheck {
+
+  /**
+   * The kinds of problems found, with the message for the offending IDs.
+   */
+  public enum Problem {
+    DUPLICATE_ID( "Object with duplicate id: %d" ),
+    NO_ENTRANCE( "Building %d has no entrance." ),
+    MISSING_ENTRANCE( "Entrance %d of building %d not found." ),
+    ENTRANCE_WITHOUT_EDGE( "Entrance %d of building %d has no edge pointing back." ),
+    MISSING_HEAD( "Road %d has no head." ),
+    MISSING_TAIL( "Road %d has no tail." ),
+    SAME_HEAD_AND_TAIL( "Head and Tail of Road %d are the same." ),
+    HEAD_WITHOUT_EDGE( "Head %d of road %d has no edge pointing back." ),
+    TAIL_WITHOUT_EDGE( "Tail %d of road %d has no edge pointing back." ),
+    ONE_WAY( "Road %d is a one-way street." ),
+    DUPLICATE_ROAD( "Roads %d and %d connect the same nodes." ),
+    NODE_WITHOUT_EDGES( "Node %d has no edges." ),
+    MISSING_EDGE( "Edge %d of node %d not found" ),
+    ROAD_NOT_AT_NODE( "Road %d is edge of node %d but neither Head or Tail." ),
+    BUILDING_NOT_AT_NODE( "Building %d is edge of node %d but node is no entrance" ),
+    INVALID_EDGE( "Edge %d of node %d is neither Road nor Building" ),
+    NODE_WITHOUT_ROADS( "Node %d has no roads." ),
+    NOT_CONNECTED( "%d is not connected to the road graph" );
+
+    private final String message;
+    // IDs per occurrence
+    final int            arity;
+
+
+    Problem( String message ) {
+      this.message = message;
+      this.arity = message.split( "%d", -1 ).length - 1;
+    }
+  }
+
+  /**
+   * The problems found by a check. Each occurrence of a problem is stored as
+   * the IDs of its message, e.g. the entrance and the building.
+   */
+  public static class Report {
+
+    private final Map<Problem, IntList> problems = new EnumMap<>(
+        Problem.class );
+
+
+    void add( Problem p, int... ids ) {
+      IntList list = problems.get( p );
+      if ( list == null ) {
+        list = new IntList();
+        problems.put( p, list );
+      }
+      list.addAll( ids );
+    }
+
+
+    void addAll( Report other ) {
+      for ( Map.Entry<Problem, IntList> e : other.problems.entrySet() ) {
+        add( e.getKey(), e.getValue().toArray() );
+      }
+    }
+
+
+    public boolean passed() {
+      return problems.isEmpty();
+    }
+
+
+    /**
+     * Returns the number of occurrences of the problem.
+     */
+    public int getCount( Problem p ) {
+      IntList list = problems.get( p );
+      return list == null ? 0 : list.size() / p.arity;
+    }
+
+
+    /**
+     * Returns the IDs of all occurrences of the problem, one after the other.
+     */
+    public int[] getIds( Problem p ) {
+      IntList list = problems.get( p );
+      return list == null ? new int[0] : list.toArray();
+    }
+
+
+    /**
+     * Print a line for each occurrence, as the old check did.
+     */
+    public void print( PrintStream out ) {
+      for ( Problem p : problems.keySet() ) {
+        int[] values = getIds( p );
+        Object[] args = new Object[p.arity];
+        for ( int i = 0; i < values.length; i += p.arity ) {
+          for ( int j = 0; j < p.arity; j++ ) {
+            args[j] = values[i + j];
+          }
+          out.println( String.format( p.message, args ) );
+        }
+      }
+    }
+
+
+    public String toJson() {
+      StringBuilder json = new StringBuilder( "{\"passed\": " );
+      json.append( passed() ).append( ", \"problems\": {" );
+      String separator = "\n";
+      for ( Problem p : problems.keySet() ) {
+        json.append( separator );
+        json.append( "  \"" ).append( p.name() ).append( "\": {\"count\": " )
+            .append( getCount( p ) ).append( ", \"ids\": " )
+            .append( Arrays.toString( getIds( p ) ) ).append( "}" );
+        separator = ",\n";
+      }
+      json.append( "\n}}\n" );
+      return json.toString();
+    }
+  }
+
+  private final List<Node>            nodes;
+  private final List<Road>            roads;
+  private final List<Building>        buildings;
+  // all objects, nodes first, then roads and buildings
+  private final RealObject[]          objects;
+  // from ID to index in objects
+  private final Map<Integer, Integer> index;
+  private final Report                duplicates = new Report();
+
+
+  LegacyMapCheck( List<Node> nodes, List<Road> roads,
+      List<Building> buildings ) {
+    this.nodes = nodes;
+    this.roads = roads;
+    this.buildings = buildings;
+    objects = new RealObject[nodes.size() + roads.size() + buildings.size()];
+    index = new HashMap<>( objects.length * 2 );
+    int i = 0;
+    for ( List<? extends RealObject> list : Arrays.asList( nodes, roads,
+        buildings ) ) {
+      for ( RealObject o : list ) {
+        objects[i] = o;
+        if ( index.putIfAbsent( o.getID(), i ) != null ) {
+          duplicates.add( Problem.DUPLICATE_ID, o.getID() );
+        }
+        i++;
+      }
+    }
+  }
+
+
+  /**
+   * Run all checks.
+   */
+  public Report run() {
+    List<Supplier<Report>> checks = new ArrayList<>();
+    checks.add( this::checkBuildings );
+    checks.add( this::checkRoads );
+    checks.add( this::checkDuplicateRoads );
+    checks.add( this::checkNodes );
+    checks.add( this::checkConnectivity );
+    Report result = new Report();
+    result.addAll( duplicates );
+    // merged in a fixed order, the report does not depend on the threads
+    for ( Report r : checks.parallelStream().map( Supplier::get )
+        .toArray( Report[]::new ) ) {
+      result.addAll( r );
+    }
+    return result;
+  }
+
+
+  private RealObject get( int id ) {
+    Integer i = index.get( id );
+    return i == null ? null : objects[i];
+  }
+
+
+  private static boolean hasEdge( Node node, int edge ) {
+    if ( node == null ) return true;
+    for ( int e : node.getEdges() ) {
+      if ( e == edge ) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+
+  private Report checkBuildings() {
+    Report report = new Report();
+    for ( Building b : buildings ) {
+      if ( b.getEntrances().length == 0 ) {
+        report.add( Problem.NO_ENTRANCE, b.getID() );
+      }
+      for ( int e : b.getEntrances() ) {
+        RealObject n = get( e );
+        if ( !( n instanceof Node ) ) {
+          report.add( Problem.MISSING_ENTRANCE, e, b.getID() );
+        } else if ( !hasEdge( (Node) n, b.getID() ) ) {
+          report.add( Problem.ENTRANCE_WITHOUT_EDGE, e, b.getID() );
+        }
+      }
+    }
+    return report;
+  }
+
+
+  private Report checkRoads() {
+    Report report = new Report();
+    for ( Road r : roads ) {
+      RealObject head = get( r.getHead() );
+      RealObject tail = get( r.getTail() );
+      if ( !( head instanceof Node ) ) {
+        report.add( Problem.MISSING_HEAD, r.getID() );
+      } else if ( !hasEdge( (Node) head, r.getID() ) ) {
+        report.add( Problem.HEAD_WITHOUT_EDGE, r.getHead(), r.getID() );
+      }
+      if ( !( tail instanceof Node ) ) {
+        report.add( Problem.MISSING_TAIL, r.getID() );
+      } else if ( !hasEdge( (Node) tail, r.getID() ) ) {
+        report.add( Problem.TAIL_WITHOUT_EDGE, r.getTail(), r.getID() );
+      }
+      if ( r.getHead() == r.getTail() ) {
+        report.add( Problem.SAME_HEAD_AND_TAIL, r.getID() );
+      }
+      if ( r.getLinesToHead() == 0 || r.getLinesToTail() == 0 ) {
+        report.add( Problem.ONE_WAY, r.getID() );
+      }
+    }
+    return report;
+  }
+
+
+  /**
+   * Roads between the same two nodes, in either direction, found by their
+   * pair of nodes.
+   */
+  private Report checkDuplicateRoads() {
+    Report report = new Report();
+    Map<Long, Road> byNodes = new HashMap<>( roads.size() * 2 );
+    for ( Road r : roads ) {
+      int a = Math.min( r.getHead(), r.getTail() );
+      int b = Math.max( r.getHead(), r.getTail() );
+      Road other = byNodes.putIfAbsent( ( (long) a << 32 ) | ( b & 0xFFFFFFFFL ),
+          r );
+      if ( other != null ) {
+        report.add( Problem.DUPLICATE_ROAD, other.getID(), r.getID() );
+      }
+    }
+    return report;
+  }
+
+
+  private Report checkNodes() {
+    Report report = new Report();
+    for ( Node n : nodes ) {
+      if ( n.getEdges().length == 0 ) {
+        report.add( Problem.NODE_WITHOUT_EDGES, n.getID() );
+      }
+      boolean roadsFromEdge = false;
+      for ( int e : n.getEdges() ) {
+        RealObject o = get( e );
+        if ( o == null ) {
+          report.add( Problem.MISSING_EDGE, e, n.getID() );
+        } else if ( o instanceof Road ) {
+          Road r = (Road) o;
+          if ( r.getHead() != n.getID() && r.getTail() != n.getID() ) {
+            report.add( Problem.ROAD_NOT_AT_NODE, e, n.getID() );
+          }
+          roadsFromEdge = true;
+        } else if ( o instanceof Building ) {
+          boolean found = false;
+          for ( int ent : ( (Building) o ).getEntrances() ) {
+            if ( ent == n.getID() ) {
+              found = true;
+              break;
+            }
+          }
+          if ( !found ) {
+            report.add( Problem.BUILDING_NOT_AT_NODE, e, n.getID() );
+          }
+        } else {
+          report.add( Problem.INVALID_EDGE, e, n.getID() );
+        }
+      }
+      if ( !roadsFromEdge ) {
+        report.add( Problem.NODE_WITHOUT_ROADS, n.getID() );
+      }
+    }
+    return report;
+  }
+
+
+  /**
+   * Everything must be reachable from the first node: the edges of a node
+   * and, over a road, the node at its other end.
+   */
+  private Report checkConnectivity() {
+    Report report = new Report();
+    if ( nodes.isEmpty() ) {
+      return report;
+    }
+    int[] parent = new int[objects.length];
+    for ( int i = 0; i < parent.length; i++ ) {
+      parent[i] = i;
+    }
+    for ( int i = 0; i < nodes.size(); i++ ) {
+      Node n = nodes.get( i );
+      for ( int e : n.getEdges() ) {
+        Integer edge = index.get( e );
+        if ( edge == null ) continue;
+        union( parent, i, edge );
+        if ( objects[edge] instanceof Road ) {
+          Road r = (Road) objects[edge];
+          Integer next = r.getHead() == n.getID() ? index.get( r.getTail() )
+              : r.getTail() == n.getID() ? index.get( r.getHead() ) : null;
+          if ( next != null && objects[next] instanceof Node ) {
+            union( parent, i, next );
+          }
+        }
+      }
+    }
+    int root = find( parent, 0 );
+    for ( int i = 0; i < objects.length; i++ ) {
+      if ( find( parent, i ) != root ) {
+        report.add( Problem.NOT_CONNECTED, objects[i].getID() );
+      }
+    }
+    return report;
+  }
+
+
+  private static int find( int[] parent, int i ) {
+    while ( parent[i] != i ) {
+      // path halving
+      parent[i] = parent[parent[i]];
+      i = parent[i];
+    }
+    return i;
+  }
+
+
+  private static void union( int[] parent, int a, int b ) {
+    int ra = find( parent, a );
+    int rb = find( parent, b );
+    if ( ra != rb ) {
+      parent[Math.max( ra, rb )] = Math.min( ra, rb );
+    }
+  }
+
+}
@@ -369,7 +369,7 @@ public class RCRLegacyMap {
     }
 
     PrintWriter polyPw = new PrintWriter( new File( galFile ) );
-    writePolydata( polyPw );
+    writePolydata( polyPw, quakePolygons );
     polyPw.close();
     for ( Node n : nodes ) {
       ids.put( n.getID(), n );
@@ -448,186 +448,22 @@ public class RCRLegacyMap {
   }
 
 
-  private boolean checkBackRef( rescuecore.objects.Node node, int edge ) {
-    if ( node == null ) return true;
-    for ( int e : node.getEdges() ) {
-      if ( e == edge ) {
-        return true;
-      }
-    }
-    return false;
-  }
-
-
+  /**
+   * Check the consistency of the map and print the problems found to
+   * System.err.
+   */
   public boolean check( boolean modify ) {
-    HashMap<Integer, RealObject> ids = new HashMap<Integer, RealObject>();
-    boolean passed = true;
-    for ( Building b : buildings ) {
-      if ( ids.containsKey( b.getID() ) ) {
-        System.err.println( "Building with duplicate id: " + b.getID() );
-        passed = false;
-      }
-      ids.put( b.getID(), b );
-    }
-    for ( rescuecore.objects.Node n : nodes ) {
-      if ( ids.containsKey( n.getID() ) ) {
-        System.err.println( "Node with duplicate id: " + n.getID() );
-        passed = false;
-      }
-      ids.put( n.getID(), n );
-    }
-    for ( Road r : roads ) {
-      if ( ids.containsKey( r.getID() ) ) {
-        System.err.println( "Roads with duplicate id: " + r.getID() );
-        passed = false;
-      }
-      ids.put( r.getID(), r );
-    }
-
-    // check entrances and entrance consistency
-    for ( Building b : buildings ) {
-      if ( b.getEntrances().length == 0 ) {
-        System.err.println( "Building " + b.getID() + " has no entrance." );
-        passed = false;
-      }
-      for ( int e : b.getEntrances() ) {
-        rescuecore.objects.Node n = (Node) ids.get( e );
-        if ( n == null ) {
-          System.err.println(
-              "Entrance " + e + " of building " + b.getID() + " not found." );
-          passed = false;
-        } else if ( !checkBackRef( n, b.getID() ) ) {
-          System.err.println( "Entrance " + e + " of building " + b.getID()
-              + " has no edge pointing back." );
-          passed = false;
-        }
-      }
-    }
-
-    // check road consistency
-    for ( Road r : roads ) {
-      rescuecore.objects.Node head = (Node) ids.get( r.getHead() );
-      rescuecore.objects.Node tail = (Node) ids.get( r.getTail() );
-      if ( head == null ) {
-        System.err.println( "Road " + r.getID() + " has no head." );
-        passed = false;
-      }
-      if ( tail == null ) {
-        System.err.println( "Road " + r.getID() + " has no tail." );
-        passed = false;
-      }
-      if ( head == tail ) {
-        System.err
-            .println( "Head and Tail of Road " + r.getID() + " are the same." );
-        passed = false;
-      }
-      if ( !checkBackRef( head, r.getID() ) ) {
-        System.err.println( "Head " + head.getID() + " of road " + r.getID()
-            + " has no edge pointing back." );
-        passed = false;
-      }
-      if ( !checkBackRef( tail, r.getID() ) ) {
-        System.err.println( "Head " + tail.getID() + " of road " + r.getID()
-            + " has no edge pointing back." );
-        passed = false;
-      }
-      if ( r.getLinesToHead() == 0 || r.getLinesToTail() == 0 ) {
-        System.err.println( "Road " + r.getID() + " is a one-way street." );
-        passed = false;
-      }
-      for ( Road r2 : roads ) {
-        if ( r2 != r ) {
-          if ( r.getHead() == r2.getHead() && r.getTail() == r2.getTail()
-              || r.getHead() == r2.getTail() && r.getTail() == r2.getHead() ) {
-            System.err.println( "Roads " + r.getID() + " and " + r2.getID()
-                + " connect the same nodes (" + r.getHead() + ", " + r.getTail()
-                + ")." );
-            passed = false;
-          }
-        }
-      }
-    }
-
-    for ( rescuecore.objects.Node n : nodes ) {
-      if ( n.getEdges().length == 0 ) {
-        System.err.println( "Node " + n.getID() + " has no edges." );
-        passed = false;
-      }
-      boolean roadsFromEdge = false;
-      for ( int e : n.getEdges() ) {
-        RealObject o = ids.get( e );
-        if ( o == null ) {
-          System.err
-              .println( "Edge " + e + " of node " + n.getID() + " not found" );
-          passed = false;
-        } else if ( o instanceof Road ) {
-          if ( ( (Road) o ).getHead() != n.getID()
-              && ( (Road) o ).getTail() != n.getID() ) {
-            System.err.println( "Road " + e + " is edge of node " + n.getID()
-                + " but neither Head or Tail." );
-            passed = false;
-          }
-          roadsFromEdge = true;
-        } else if ( o instanceof Building ) {
-          boolean found = false;
-          for ( int ent : ( (Building) o ).getEntrances() ) {
-            if ( ent == n.getID() ) {
-              found = true;
-              break;
-            }
-          }
-          if ( !found ) {
-            System.err.println( "Building " + e + " is edge of node "
-                + n.getID() + " but node is no entrance" );
-            passed = false;
-          }
-        } else {
-          System.err.println( "Edge is neither Road nor Building" );
-          passed = false;
-        }
-
-      }
-      if ( !roadsFromEdge ) {
-        System.err.println( "Node " + n.getID() + " has no roads." );
-        passed = false;
-      }
-    }
-
-    // check for connected graph
-    List<Node> open = new ArrayList<Node>();
-    HashSet<RealObject> reached = new HashSet<RealObject>();
-    open.add( nodes.get( 0 ) );
-    reached.add( nodes.get( 0 ) );
-
-    while ( !open.isEmpty() ) {
-      Node n = open.remove( 0 );
-      for ( int e : n.getEdges() ) {
-        RealObject o = ids.get( e );
-        reached.add( o );
-        if ( o instanceof Road ) {
-          Road r = (Road) o;
-          Node next = null;
-          if ( r.getHead() == n.getID() )
-            next = (Node) ids.get( r.getTail() );
-          else if ( r.getTail() == n.getID() )
-            next = (Node) ids.get( r.getHead() );
-          else
-            assert false;
-
-          if ( !reached.contains( next ) ) {
-            reached.add( next );
-            open.add( next );
-          }
-        }
-      }
-    }
+    LegacyMapCheck.Report report = validate();
+    report.print( System.err );
+    return report.passed();
+  }
 
-    if ( reached.size() != nodes.size() + roads.size() + buildings.size() ) {
-      System.err.println( "road graph is not connected" );
-      passed = false;
-    }
 
-    return passed;
+  /**
+   * Returns all problems of the map, see {@link LegacyMapCheck}.
+   */
+  public LegacyMapCheck.Report validate() {
+    return new LegacyMapCheck( nodes, roads, buildings ).run();
   }
 
 
@@ -701,7 +537,7 @@ public class RCRLegacyMap {
   }
 
 
-  private void writePolydata( PrintWriter out ) throws IOException {
+  static void writePolydata( PrintWriter out, List<GalPolygon> polys ) {
     // olydata format is:
     // Line 1: <number of values to read, including the <level>,<number of
     // vertices> pairs>,<number of polygons>
@@ -709,14 +545,14 @@ public class RCRLegacyMap {
     // <level>,<number of vertices>
     // Followed by <number of vertices> pairs of coordinates
     int sum = 0;
-    for ( GalPolygon poly : quakePolygons ) {
+    for ( GalPolygon poly : polys ) {
       sum += poly.numPoints * 2;
       sum += 2;
     }
     out.print( sum );
     out.print( "," );
-    out.println( quakePolygons.size() );
-    for ( GalPolygon poly : quakePolygons ) {
+    out.println( polys.size() );
+    for ( GalPolygon poly : polys ) {
       out.print( poly.level );
       out.print( "," );
       out.println( poly.numPoints );
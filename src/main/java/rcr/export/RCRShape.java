@@ -20,6 +20,7 @@ import org.openstreetmap.josm.data.osm.OsmPrimitive;
 import org.openstreetmap.josm.data.osm.Way;
 import org.openstreetmap.josm.tools.Pair;
 
+import rcr.Log;
 import rcr.RCRDataSet;
 import rcr.Vector;
 
@@ -72,12 +73,12 @@ class RCRShape {
 
   public void splitEdge( Node n ) {
     if ( usedNodes.contains( n ) ) {
-      System.out.println( "" + this.way.getId() + ": Don't split on " + n );
+      Log.debug( "" + this.way.getId() + ": Don't split on " + n );
       return;
     }
     usedNodes.add( n );
     GMLNode gn = export.node2GML( n );
-    System.out.println( "" + this.way.getId() + ": split on " + n + "/" + gn );
+    Log.debug( "" + this.way.getId() + ": split on " + n + "/" + gn );
     GMLDirectedEdge e = getEdgeFromNode( gn );
     assert e != null;
     splitEdge( e, gn );
@@ -174,14 +175,17 @@ class RCRShape {
     List<GMLDirectedEdge> center = new ArrayList<>();
     List<GMLDirectedEdge> tail = new ArrayList<>();
 
-    System.out.println( "from:" + from + ",  to:" + to );
+    Log.trace( "from:" + from + ",  to:" + to );
 
+    boolean trace = Log.isEnabled( Log.TRACE );
     List<GMLDirectedEdge> current = head;
     for ( GMLDirectedEdge e : shape.getEdges() ) {
-      System.out.println( "start: " + e.getStartNode() );
+      if ( trace ) {
+        Log.trace( "start: " + e.getStartNode() );
+      }
       if ( ( e.getStartNode() == from && e.getEndNode() == to )
           || ( e.getStartNode() == to && e.getEndNode() == from ) ) {
-        System.out.println( "end: " + e.getEndNode() );
+        Log.trace( "end: " + e.getEndNode() );
         List<GMLNode> result = new ArrayList<>();
         result.add( from );
         result.add( to );
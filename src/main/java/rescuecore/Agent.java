@@ -343,13 +343,13 @@ public abstract class Agent extends RescueComponent {
 			receiveMax = 4;
 			break;
 		case RescueConstants.TYPE_FIRE_STATION:
-			sendMax = receiveMax = memory.getObjectsOfType(RescueConstants.TYPE_FIRE_BRIGADE).size()*2;
+			sendMax = receiveMax = memory.getObjectsOfTypeView(RescueConstants.TYPE_FIRE_BRIGADE).size()*2;
 			break;
 		case RescueConstants.TYPE_POLICE_OFFICE:
-			sendMax = receiveMax = memory.getObjectsOfType(RescueConstants.TYPE_POLICE_FORCE).size()*2;
+			sendMax = receiveMax = memory.getObjectsOfTypeView(RescueConstants.TYPE_POLICE_FORCE).size()*2;
 			break;
 		case RescueConstants.TYPE_AMBULANCE_CENTER:
-			sendMax = receiveMax = memory.getObjectsOfType(RescueConstants.TYPE_AMBULANCE_TEAM).size()*2;
+			sendMax = receiveMax = memory.getObjectsOfTypeView(RescueConstants.TYPE_AMBULANCE_TEAM).size()*2;
 			break;
 		default:
 			sendMax = receiveMax = 0;
@@ -58,19 +58,6 @@ public class ArrayMemory extends Memory {
 		return result;
 	}
 
-    public void getObjectsOfType(Collection<RescueObject> result, int... types) {
-		for (int i=0;i<data.length;++i) {
-			RescueObject next = data[i];
-			int type = next.getType();
-			for (int nextType : types) {
-				if (type==nextType) {
-					result.add(next);
-					break;
-				}
-			}
-		}
-	}
-
 	/*
 	  public RescueObject[] getObjectsOfInternalType(int type) {
 	  List result = new ArrayList();
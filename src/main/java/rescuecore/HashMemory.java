@@ -72,19 +72,6 @@ public class HashMemory extends Memory {
   }
 
 
-  public void getObjectsOfType(Collection<RescueObject> result, int... types) {
-    for (Iterator it = data.values().iterator(); it.hasNext();) {
-      RescueObject next = (RescueObject) it.next();
-      int type = next.getType();
-      for (int nextType : types) {
-        if (type == nextType) {
-          result.add(next);
-          break;
-        }
-      }
-    }
-  }
-
   /*
    * public RescueObject[] getObjectsOfInternalType(int type) {
    * List result = new ArrayList();
@@ -0,0 +1,167 @@
+package rescuecore;
+
+import java.util.*;
+
+/**
+   This is an implementation of Memory that stores the data in an open addressing hash table keyed by the primitive object id. Unlike {@link HashMemory} no ids are boxed on lookup, and unlike {@link ArrayMemory} sparse ids do not waste space. Agents can use it by overriding {@link Agent#generateMemory()}.
+ */
+public class IntHashMemory extends Memory {
+	private final static long serialVersionUID = 1L;
+
+	private final static int DEFAULT_MEMORY_SIZE = 4096;
+	// The table is grown when it is more than half full
+	private final static int MAX_LOAD_SHIFT = 1;
+
+	private int[] keys;
+	private RescueObject[] values;
+	private int size;
+	private int modCount;
+	private final Collection<RescueObject> allObjects = new AllObjects();
+
+	/**
+	   Construct a new empty memory
+	*/
+	public IntHashMemory() {
+		this(DEFAULT_MEMORY_SIZE);
+	}
+
+	/**
+	   Construct a new empty memory
+	   @param expected The number of objects expected, the table is sized to hold them without growing
+	*/
+	public IntHashMemory(int expected) {
+		int capacity = 16;
+		while (capacity>>MAX_LOAD_SHIFT < expected) capacity <<= 1;
+		keys = new int[capacity];
+		values = new RescueObject[capacity];
+	}
+
+	private static int hash(int id, int mask) {
+		// Fibonacci hashing spreads consecutive ids over the table
+		int h = id*0x9E3779B9;
+		return (h^(h>>>16))&mask;
+	}
+
+	/**
+	   Find the slot of an id
+	   @return The slot holding the id, or the empty slot where it would be inserted
+	*/
+	private int slot(int id) {
+		int mask = keys.length-1;
+		int i = hash(id,mask);
+		while (values[i]!=null && keys[i]!=id) i = (i+1)&mask;
+		return i;
+	}
+
+	public RescueObject lookup(int id) {
+		return values[slot(id)];
+	}
+
+	/**
+	   Get all objects in memory. The result is a read-only view that reflects later changes to the memory and must not be iterated while objects are added or removed.
+	*/
+	public Collection<RescueObject> getAllObjects() {
+		return allObjects;
+	}
+
+	public void add(RescueObject o, int timestamp, Object source) {
+		int id = o.getID();
+		int i = slot(id);
+		if (values[i]==null) {
+			if (size+1 > keys.length>>MAX_LOAD_SHIFT) {
+				resize(keys.length<<1);
+				i = slot(id);
+			}
+			keys[i] = id;
+			++size;
+			++modCount;
+		}
+		values[i] = o;
+		super.add(o,timestamp,source);
+	}
+
+	public void remove(RescueObject o) {
+		int i = slot(o.getID());
+		if (values[i]!=null) {
+			values[i] = null;
+			--size;
+			++modCount;
+			// Shift the following entries back so that no lookup stops at the gap
+			int mask = keys.length-1;
+			int gap = i;
+			for (int j = (i+1)&mask; values[j]!=null; j = (j+1)&mask) {
+				int home = hash(keys[j],mask);
+				// Move the entry unless its home lies cyclically in (gap,j]
+				if (((j-home)&mask) >= ((j-gap)&mask)) {
+					keys[gap] = keys[j];
+					values[gap] = values[j];
+					values[j] = null;
+					gap = j;
+				}
+			}
+		}
+		super.remove(o);
+	}
+
+	private void resize(int capacity) {
+		int[] oldKeys = keys;
+		RescueObject[] oldValues = values;
+		keys = new int[capacity];
+		values = new RescueObject[capacity];
+		for (int i=0;i<oldValues.length;++i) {
+			if (oldValues[i]!=null) {
+				int j = slot(oldKeys[i]);
+				keys[j] = oldKeys[i];
+				values[j] = oldValues[i];
+			}
+		}
+	}
+
+    /**
+     * A deep clone of this memory.
+     * Any listeners on the original memory will not be registered on the new memory.
+     **/
+	public Memory copy() {
+		IntHashMemory m = new IntHashMemory(size);
+		for (RescueObject o : values)
+			if (o!=null)
+				m.add(o.copy(),0,RescueConstants.SOURCE_UNKNOWN);
+		return m;
+	}
+
+	private class AllObjects extends AbstractCollection<RescueObject> implements java.io.Serializable {
+		private final static long serialVersionUID = 1L;
+
+		public int size() {
+			return size;
+		}
+
+		public boolean contains(Object o) {
+			return o instanceof RescueObject && lookup(((RescueObject)o).getID())==o;
+		}
+
+		public Iterator<RescueObject> iterator() {
+			return new Iterator<RescueObject>() {
+				private final int expectedModCount = modCount;
+				private int next = advance(0);
+
+				private int advance(int i) {
+					while (i<values.length && values[i]==null) ++i;
+					return i;
+				}
+
+				public boolean hasNext() {
+					return next<values.length;
+				}
+
+				public RescueObject next() {
+					if (modCount!=expectedModCount) throw new ConcurrentModificationException();
+					if (next>=values.length) throw new NoSuchElementException();
+					RescueObject result = values[next];
+					next = advance(next+1);
+					return result;
+				}
+			};
+		}
+	}
+}
@@ -30,9 +30,17 @@
 
 package rescuecore;
 
+import java.util.AbstractCollection;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
 import rescuecore.commands.KASense;
 import rescuecore.commands.Update;
 import rescuecore.event.MemoryListener;
@@ -59,6 +67,9 @@ public abstract class Memory implements java.io.Serializable {
   private int minX, maxX, width, minY, maxY, height;
   private transient Collection<MemoryListener> listeners;
   private final Object LOCK = Integer.valueOf(0);
+  // The objects of each type by id, kept up to date by add and remove
+  private final Map<Integer, Map<Integer, RescueObject>> byType =
+      new HashMap<Integer, Map<Integer, RescueObject>>();
 
   private class InternalPropertyListener
       implements PropertyListener, java.io.Serializable {
@@ -157,7 +168,8 @@ public abstract class Memory implements java.io.Serializable {
 
   private void calculateDimensions() {
     Collection<
-        RescueObject> allNodes = getObjectsOfType(RescueConstants.TYPE_NODE);
+        RescueObject> allNodes = getObjectsOfTypeView(
+            RescueConstants.TYPE_NODE);
     if (allNodes.size() == 0) {
       minX = 0;
       maxX = 1;
@@ -265,16 +277,108 @@ public abstract class Memory implements java.io.Serializable {
    * @see RescueConstants#TYPE_WORLD
    * @see RescueConstants#TYPE_CAR
    */
-  public abstract void getObjectsOfType(Collection<RescueObject> result,
-      int... types);
+  public void getObjectsOfType(Collection<RescueObject> result,
+      int... types) {
+    for (int i = 0; i < types.length; ++i) {
+      if (!isRepeated(types, i))
+        result.addAll(getBucket(types[i]).values());
+    }
+  }
 
 
+  /**
+   * Get all objects of particular types as a new Collection
+   *
+   * @param types
+   *   The types we want
+   *
+   * @return A new Collection of all objects of the given types
+   */
   public Collection<RescueObject> getObjectsOfType(int... types) {
     Collection<RescueObject> result = new HashSet<RescueObject>();
     getObjectsOfType(result, types);
     return result;
   }
 
+
+  /**
+   * Get all objects of particular types without copying them. The result is
+   * a read-only view that reflects later adds and removes, so it must not be
+   * iterated while objects are added to or removed from this memory.
+   *
+   * @param types
+   *   The types we want
+   *
+   * @return A view of all objects of the given types
+   */
+  public Collection<RescueObject> getObjectsOfTypeView(final int... types) {
+    if (types.length == 1)
+      return Collections
+          .unmodifiableCollection(getBucket(types[0]).values());
+    final List<Collection<RescueObject>> buckets =
+        new ArrayList<Collection<RescueObject>>();
+    for (int i = 0; i < types.length; ++i) {
+      if (!isRepeated(types, i))
+        buckets.add(getBucket(types[i]).values());
+    }
+    return new AbstractCollection<RescueObject>() {
+
+      public int size() {
+        int size = 0;
+        for (Collection<RescueObject> bucket : buckets)
+          size += bucket.size();
+        return size;
+      }
+
+
+      public Iterator<RescueObject> iterator() {
+        final Iterator<Collection<RescueObject>> next = buckets.iterator();
+        return new Iterator<RescueObject>() {
+
+          private Iterator<RescueObject> current = Collections
+              .<RescueObject> emptyList().iterator();
+
+
+          public boolean hasNext() {
+            while (!current.hasNext() && next.hasNext())
+              current = next.next().iterator();
+            return current.hasNext();
+          }
+
+
+          public RescueObject next() {
+            if (!hasNext())
+              throw new NoSuchElementException();
+            return current.next();
+          }
+        };
+      }
+    };
+  }
+
+
+  /**
+   * Get the objects of a type by id. A missing bucket is created and kept, so
+   * that a view of a type without objects sees the ones added later.
+   */
+  private Map<Integer, RescueObject> getBucket(int type) {
+    Map<Integer, RescueObject> bucket = byType.get(type);
+    if (bucket == null) {
+      bucket = new LinkedHashMap<Integer, RescueObject>();
+      byType.put(type, bucket);
+    }
+    return bucket;
+  }
+
+
+  private static boolean isRepeated(int[] types, int i) {
+    for (int j = 0; j < i; ++j) {
+      if (types[j] == types[i])
+        return true;
+    }
+    return false;
+  }
+
   /**
    * Get all objects of a particular internal type
    *
@@ -328,6 +432,14 @@ public abstract class Memory implements java.io.Serializable {
    *   The source of the change
    */
   public void add(RescueObject o, int timestamp, Object source) {
+    Map<Integer, RescueObject> bucket = getBucket(o.getType());
+    if (bucket.put(o.getID(), o) == null) {
+      // An object with this id but another type is replaced
+      for (Map<Integer, RescueObject> other : byType.values()) {
+        if (other != bucket)
+          other.remove(o.getID());
+      }
+    }
     fireObjectAdded(o, timestamp, source);
     o.addPropertyListener(PROPERTY_LISTENER);
   }
@@ -340,6 +452,9 @@ public abstract class Memory implements java.io.Serializable {
    *   The object to be removed
    */
   public void remove(RescueObject o) {
+    Map<Integer, RescueObject> bucket = byType.get(o.getType());
+    if (bucket != null)
+      bucket.remove(o.getID());
     o.removePropertyListener(PROPERTY_LISTENER);
   }
 
@@ -15,14 +15,18 @@
 
 package rescuecore.tools;
 
-import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
 import java.io.PrintWriter;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
 import java.util.List;
 
 import rescuecore.Memory;
@@ -53,66 +57,60 @@ public class MapFiles {
     private final static String[] GIS_TYPES = {"","","AmbulanceCenter","FireStation","PoliceOffice","Refuge","Civilian","AmbulanceTeam","FireBrigade","PoliceForce","FirePoint"};
 
 
-    private static int readInt(InputStream in) throws IOException {
-		int result = (in.read()&0xFF) | ((in.read() << 8) & 0xFF00) | ((in.read() << 16) & 0xFF0000) | ((in.read() << 24) & 0xFF000000);
-		return result;
-    }
+	private final static int[] HEADER = {5,-152950000,52050000};
+	private final static int[] BUILDING_HEADER = {0,0,0};
+
+	/**
+	   Read a whole file as little-endian ints. The file is read into a heap buffer rather than mapped, because a mapping stays open until it is garbage collected and Windows doesn't allow to rewrite a mapped file, e.g. in FixIDs.
+	*/
+	private static IntBuffer readFile(String file) throws IOException {
+		try (FileChannel channel = FileChannel.open(Paths.get(file),StandardOpenOption.READ)) {
+			long size = channel.size();
+			if (size>Integer.MAX_VALUE) throw new IOException(file+" is too large");
+			ByteBuffer buffer = ByteBuffer.allocate((int)size);
+			while (buffer.hasRemaining() && channel.read(buffer)>=0);
+			buffer.flip();
+			return buffer.order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+		}
+	}
 
-    private static void writeInt(OutputStream out, int value) throws IOException {
-		out.write(value&0xFF);
-		out.write((value>>8)&0xFF);
-		out.write((value>>16)&0xFF);
-		out.write((value>>24)&0xFF);
-    }
+	private static int[] readInts(IntBuffer in, int count) {
+		int[] result = new int[count];
+		in.get(result);
+		return result;
+	}
 
 	public static Node[] loadNodes() throws IOException {
 		return loadNodes("node.bin");
 	}
 
 	public static Node[] loadNodes(String file) throws IOException {
-		System.out.print("Loading nodes from "+file);
-		InputStream in = null;
+		System.out.println("Loading nodes from "+file);
+		IntBuffer in = readFile(file);
 		try {
-			in = new BufferedInputStream(new FileInputStream(file));
 			// Skip something, not sure what
-			readInt(in);
-			readInt(in);
-			readInt(in);
-			int num = readInt(in);
-			//			System.out.println("Loading "+num+" nodes");
+			in.position(HEADER.length);
+			int num = in.get();
 			Node[] result = new Node[num];
 			for (int i=0;i<num;++i) {
-				int size = readInt(in);
-				int id = readInt(in);
-				int x = readInt(in);
-				int y = readInt(in);
-				int numEdges = readInt(in);
-				int[] edges = new int[numEdges];
-				int[] shortcut = new int[numEdges];
-				int[] pocket = new int[numEdges*2];
-				int[] signalTiming = new int[numEdges*3];
-				for (int j=0;j<numEdges;++j) edges[j] = readInt(in);
-				int signal = readInt(in);
-				for (int j=0;j<numEdges;++j) shortcut[j] = readInt(in); // shortcutToTurn
-				for (int j=0;j<numEdges;++j) {
-					pocket[j*2] = readInt(in); // pocketToTurnAcross
-					pocket[j*2 + 1] = readInt(in);
-				}
-				for (int j=0;j<numEdges;++j) {
-					signalTiming[j*3] = readInt(in); // signalTiming
-					signalTiming[j*3 + 1] = readInt(in);
-					signalTiming[j*3 + 2] = readInt(in);
-				}
+				int size = in.get();
+				int id = in.get();
+				int x = in.get();
+				int y = in.get();
+				int numEdges = in.get();
+				int[] edges = readInts(in,numEdges);
+				int signal = in.get();
+				int[] shortcut = readInts(in,numEdges); // shortcutToTurn
+				int[] pocket = readInts(in,numEdges*2); // pocketToTurnAcross
+				int[] signalTiming = readInts(in,numEdges*3); // signalTiming
 				result[i] = new Node(x,y,edges,signal!=0,shortcut,pocket,signalTiming);
 				result[i].setID(id);
-				System.out.print(".");
 			}
-			System.out.println();
 			return result;
 		}
-		finally {
-			if (in!=null) in.close();
-		}		
+		catch (BufferUnderflowException e) {
+			throw new EOFException("Unexpected end of "+file);
+		}
 	}
 
 	public static Road[] loadRoads() throws IOException {
@@ -120,42 +118,37 @@ public class MapFiles {
 	}
 
 	public static Road[] loadRoads(String file) throws IOException {
-		System.out.print("Loading roads from "+file);
-		InputStream in = null;
+		System.out.println("Loading roads from "+file);
+		IntBuffer in = readFile(file);
 		try {
-			in = new BufferedInputStream(new FileInputStream(file));
-			readInt(in);
-			readInt(in);
-			readInt(in);
-			int num = readInt(in);
+			in.position(HEADER.length);
+			int num = in.get();
 			Road[] result = new Road[num];
 			for (int i=0;i<num;++i) {
-				int size = readInt(in);
-				int id = readInt(in);
-				int head = readInt(in);
-				int tail = readInt(in);
-				int length = readInt(in);
-				int roadKind = readInt(in);
-				int carsToHead = readInt(in);
-				int carsToTail = readInt(in);
-				int humansToHead = readInt(in);
-				int humansToTail = readInt(in);
-				int width = readInt(in);
-				int block = readInt(in);
-				int repairCost = readInt(in);
-				int median = readInt(in);
-				int linesToHead = readInt(in);
-				int linesToTail = readInt(in);
-				int widthForWalkers = readInt(in);
+				int size = in.get();
+				int id = in.get();
+				int head = in.get();
+				int tail = in.get();
+				int length = in.get();
+				int roadKind = in.get();
+				int carsToHead = in.get();
+				int carsToTail = in.get();
+				int humansToHead = in.get();
+				int humansToTail = in.get();
+				int width = in.get();
+				int block = in.get();
+				int repairCost = in.get();
+				int median = in.get();
+				int linesToHead = in.get();
+				int linesToTail = in.get();
+				int widthForWalkers = in.get();
 				result[i] = new Road(head,tail,length,roadKind,carsToHead,carsToTail,humansToHead,humansToTail,width,block,repairCost,median!=0,linesToHead,linesToTail,widthForWalkers);
 				result[i].setID(id);
-				System.out.print(".");
 			}
-			System.out.println();
 			return result;
 		}
-		finally {
-			if (in!=null) in.close();
+		catch (BufferUnderflowException e) {
+			throw new EOFException("Unexpected end of "+file);
 		}
 	}
 
@@ -164,266 +157,220 @@ public class MapFiles {
 	}
 
 	public static Building[] loadBuildings(String file) throws IOException {
-		System.out.print("Loading buildings from "+file);
-		InputStream in = null;
+		System.out.println("Loading buildings from "+file);
+		IntBuffer in = readFile(file);
 		try {
-			in = new BufferedInputStream(new FileInputStream(file));
-			readInt(in);
-			readInt(in);
-			readInt(in);
-			int num = readInt(in);
+			in.position(BUILDING_HEADER.length);
+			int num = in.get();
 			Building[] result = new Building[num];
 			for (int i=0;i<num;++i) {
-				int size = readInt(in);
-				int id = readInt(in);
-				int x = readInt(in);
-				int y = readInt(in);
-				int floors = readInt(in);
-				int attributes = readInt(in);
-				int ignition = readInt(in);
-				int fieryness = readInt(in);
-				int brokenness = readInt(in);
-				int numEntrances = readInt(in);
-				int[] entrances = new int[numEntrances];
-				for (int j=0;j<numEntrances;++j) entrances[j] = readInt(in);
-				int shapeID = readInt(in);
-				int area = readInt(in);
-				int totalArea = readInt(in);
-				int code = readInt(in);
-				int numApexes = readInt(in);
-				int[] apexes = new int[numApexes*2];
-				for (int j=0;j<numApexes;++j) {
-					// Apexes
-					apexes[j*2] = readInt(in);
-					apexes[j*2 + 1] = readInt(in);
-				}
+				int size = in.get();
+				int id = in.get();
+				int x = in.get();
+				int y = in.get();
+				int floors = in.get();
+				int attributes = in.get();
+				int ignition = in.get();
+				int fieryness = in.get();
+				int brokenness = in.get();
+				int numEntrances = in.get();
+				int[] entrances = readInts(in,numEntrances);
+				int shapeID = in.get();
+				int area = in.get();
+				int totalArea = in.get();
+				int code = in.get();
+				int numApexes = in.get();
+				int[] apexes = readInts(in,numApexes*2); // Apexes
 				result[i] = new Building(x,y,floors,attributes,ignition!=0,fieryness,brokenness,entrances,code,area,totalArea,apexes,0,1);
 				result[i].setID(id);
-				System.out.print(".");
 			}
-			System.out.println();
 			return result;
 		}
-		finally {
-			if (in!=null) in.close();
+		catch (BufferUnderflowException e) {
+			throw new EOFException("Unexpected end of "+file);
 		}
 	}
-	
+
 	public static void writeBuildings(String file, Building[] bs) throws IOException{
-		BufferedOutputStream out = null;
-		try {
-			out = new BufferedOutputStream(new FileOutputStream(file));
-			writeInt(out,0);
-			writeInt(out,0);
-			writeInt(out,0);
-
-			writeInt(out,bs.length);
-			for(int i = 0; i < bs.length; i++){
-				writeInt(out,getSize(bs[i]));
-				writeInt(out,bs[i].getID());
-				writeInt(out,bs[i].getX());
-				writeInt(out,bs[i].getY());
-				writeInt(out,bs[i].getFloors());
-				writeInt(out,bs[i].getBuildingAttributes());
-				writeInt(out,bs[i].isIgnited()?1:0);
-				writeInt(out,bs[i].getFieryness());
-				writeInt(out,bs[i].getBrokenness());
-				int[] ent = bs[i].getEntrances();
-				writeInt(out,ent.length);
-				for(int j = 0; j < ent.length; j++)
-					writeInt(out,ent[j]);
-				writeInt(out,0/*bs[i].getBuildingShapeID()*/);
-				writeInt(out,bs[i].getGroundArea());
-				writeInt(out,bs[i].getTotalArea());
-				writeInt(out,bs[i].getBuildingCode());
-				int[] ap = bs[i].getApexes();
-				writeInt(out,ap.length/2);
-				for(int j = 0; j < ap.length; j++)
-					writeInt(out,ap[j]);
-			}
-		}
-		finally {
-			if (out!=null) out.close();
-		}
+		writeBuildings(file,Arrays.asList(bs));
 	}
 
 	public static void writeBuildings(String file, List<Building> bs) throws IOException{
-		BufferedOutputStream out = null;
-		try {
-			out = new BufferedOutputStream(new FileOutputStream(file));
-			writeInt(out,0);
-			writeInt(out,0);
-			writeInt(out,0);
-
-			writeInt(out,bs.size());
+		int ints = 0;
+		for (Building b : bs) ints += 15 + b.getEntrances().length + b.getApexes().length;
+		try (RecordWriter out = RecordWriter.buildings(file,ints)) {
 			for(Building b : bs){
-				writeInt(out,getSize(b));
-				writeInt(out,b.getID());
-				writeInt(out,b.getX());
-				writeInt(out,b.getY());
-				writeInt(out,b.getFloors());
-				writeInt(out,b.getBuildingAttributes());
-				writeInt(out,b.isIgnited()?1:0);
-				writeInt(out,b.getFieryness());
-				writeInt(out,b.getBrokenness());
-				int[] ent = b.getEntrances();
-				writeInt(out,ent.length);
-				for(int j = 0; j < ent.length; j++)
-					writeInt(out,ent[j]);
-				writeInt(out,0/*b.getBuildingShapeID()*/);
-				writeInt(out,b.getGroundArea());
-				writeInt(out,b.getTotalArea());
-				writeInt(out,b.getBuildingCode());
-				int[] ap = b.getApexes();
-				writeInt(out,ap.length/2);
-				for(int j = 0; j < ap.length; j++)
-					writeInt(out,ap[j]);
+				out.writeBuilding(b.getID(),b.getX(),b.getY(),b.getFloors(),b.getBuildingAttributes(),b.isIgnited(),b.getFieryness(),b.getBrokenness(),b.getEntrances(),b.getGroundArea(),b.getTotalArea(),b.getBuildingCode(),b.getApexes());
 			}
 		}
-		finally {
-			if (out!=null) out.close();
-		}
 	}
 
 	public static void writeNodes(String file, Node[] ns) throws IOException{
-		BufferedOutputStream out = null;
-		try {
-			out = new BufferedOutputStream(new FileOutputStream(file));
-			writeInt(out,5);
-			writeInt(out,-152950000);
-			writeInt(out,52050000);
-
-			writeInt(out,ns.length);
-			//			System.out.println("Writing "+ns.length+" nodes");
-			for(int i = 0; i < ns.length; i++){
-				writeInt(out,getSize(ns[i]));
-				writeInt(out,ns[i].getID());
-				writeInt(out,ns[i].getX());
-				writeInt(out,ns[i].getY());
-				int[] ed = ns[i].getEdges();
-				writeInt(out,ed.length);
-				//				System.out.println("Node "+ns[i].getID()+" has "+ed.length+" edges");
-				for(int j = 0; j < ed.length; j++)
-					writeInt(out,ed[j]);
-				writeInt(out,ns[i].hasSignal()?1:0);
-				int[] sh = ns[i].getShortcutToTurn();
-				for(int j = 0; j < sh.length; j++)
-					writeInt(out,sh[j]);
-				int[] p = ns[i].getPocketToTurnAcross();
-				for(int j = 0; j < p.length; j++)
-					writeInt(out,p[j]);
-				int[] st = ns[i].getSignalTiming();
-				for(int j = 0; j < st.length; j++)
-					writeInt(out,st[j]);
-			}
-		}
-		finally {
-			if (out!=null) out.close();
-		}
+		writeNodes(file,Arrays.asList(ns));
 	}
 
 	public static void writeNodes(String file, List<Node> ns) throws IOException{
-		BufferedOutputStream out = null;
-		try {
-			out = new BufferedOutputStream(new FileOutputStream(file));
-			writeInt(out,5);
-			writeInt(out,-152950000);
-			writeInt(out,52050000);
-
-			writeInt(out,ns.size());
-			//			System.out.println("Writing "+ns.length+" nodes");
+		int ints = 0;
+		for (Node n : ns) ints += 6 + n.getEdges().length + n.getShortcutToTurn().length + n.getPocketToTurnAcross().length + n.getSignalTiming().length;
+		try (RecordWriter out = RecordWriter.nodes(file,ints)) {
 			for(Node n : ns) {
-				writeInt(out,getSize(n));
-				writeInt(out,n.getID());
-				writeInt(out,n.getX());
-				writeInt(out,n.getY());
-				int[] ed = n.getEdges();
-				writeInt(out,ed.length);
-				//				System.out.println("Node "+n.getID()+" has "+ed.length+" edges");
-				for(int j = 0; j < ed.length; j++)
-					writeInt(out,ed[j]);
-				writeInt(out,n.hasSignal()?1:0);
-				int[] sh = n.getShortcutToTurn();
-				for(int j = 0; j < sh.length; j++)
-					writeInt(out,sh[j]);
-				int[] p = n.getPocketToTurnAcross();
-				for(int j = 0; j < p.length; j++)
-					writeInt(out,p[j]);
-				int[] st = n.getSignalTiming();
-				for(int j = 0; j < st.length; j++)
-					writeInt(out,st[j]);
+				out.writeNode(n.getID(),n.getX(),n.getY(),n.getEdges(),n.hasSignal(),n.getShortcutToTurn(),n.getPocketToTurnAcross(),n.getSignalTiming());
 			}
 		}
-		finally {
-			if (out!=null) out.close();
-		}
 	}
 
 	public static void writeRoads(String file, Road[] roads) throws IOException {
-		BufferedOutputStream out = null;
-		try {
-			out = new BufferedOutputStream(new FileOutputStream(file));
-			writeInt(out,5);
-			writeInt(out,-152950000);
-			writeInt(out,52050000);
-
-			writeInt(out,roads.length);
-			for(int i = 0; i < roads.length; i++){
-				writeInt(out,getSize(roads[i]));
-				writeInt(out,roads[i].getID());
-				writeInt(out,roads[i].getHead());
-				writeInt(out,roads[i].getTail());
-				writeInt(out,roads[i].getLength());
-				writeInt(out,roads[i].getRoadKind());
-				writeInt(out,roads[i].getCarsPassToHead());
-				writeInt(out,roads[i].getCarsPassToTail());
-				writeInt(out,roads[i].getHumansPassToHead());
-				writeInt(out,roads[i].getHumansPassToTail());
-				writeInt(out,roads[i].getWidth());
-				writeInt(out,roads[i].getBlock());
-				writeInt(out,roads[i].getRepairCost());
-				writeInt(out,roads[i].hasMedian()?1:0);
-				writeInt(out,roads[i].getLinesToHead());
-				writeInt(out,roads[i].getLinesToTail());
-				writeInt(out,roads[i].getWidthForWalkers());
-			}
-		}
-		finally {
-			if (out!=null) out.close();
-		}
+		writeRoads(file,Arrays.asList(roads));
 	}
 
 	public static void writeRoads(String file, List<Road> roads) throws IOException {
-		BufferedOutputStream out = null;
-		try {
-			out = new BufferedOutputStream(new FileOutputStream(file));
-			writeInt(out,5);
-			writeInt(out,-152950000);
-			writeInt(out,52050000);
-
-			writeInt(out,roads.size());
+		try (RecordWriter out = RecordWriter.roads(file,17*roads.size())) {
 			for(Road r : roads) {
-				writeInt(out,getSize(r));
-				writeInt(out,r.getID());
-				writeInt(out,r.getHead());
-				writeInt(out,r.getTail());
-				writeInt(out,r.getLength());
-				writeInt(out,r.getRoadKind());
-				writeInt(out,r.getCarsPassToHead());
-				writeInt(out,r.getCarsPassToTail());
-				writeInt(out,r.getHumansPassToHead());
-				writeInt(out,r.getHumansPassToTail());
-				writeInt(out,r.getWidth());
-				writeInt(out,r.getBlock());
-				writeInt(out,r.getRepairCost());
-				writeInt(out,r.hasMedian()?1:0);
-				writeInt(out,r.getLinesToHead());
-				writeInt(out,r.getLinesToTail());
-				writeInt(out,r.getWidthForWalkers());
+				out.writeRoad(r.getID(),r.getHead(),r.getTail(),r.getLength(),r.getRoadKind(),r.getCarsPassToHead(),r.getCarsPassToTail(),r.getHumansPassToHead(),r.getHumansPassToTail(),r.getWidth(),r.getBlock(),r.getRepairCost(),r.hasMedian(),r.getLinesToHead(),r.getLinesToTail(),r.getWidthForWalkers());
 			}
 		}
-		finally {
-			if (out!=null) out.close();
+	}
+
+	/**
+	   Writes the records of a node.bin, road.bin or building.bin file one after the other, without creating the rescue objects first. Records are put into a direct little-endian buffer that is written to the channel whenever it is full. The buffer holds the expected number of ints, but at most DEFAULT_INTS, so only files of up to 256 KiB whose size was passed are written with a single call, larger ones and those of unknown size in chunks. The number of records is filled in by {@link #close()}, in the buffer if it still holds the header, else at its position in the file.
+	*/
+	public static class RecordWriter implements Closeable {
+		private final static int DEFAULT_INTS = 1<<16;
+
+		private final FileChannel channel;
+		private final ByteBuffer buffer;
+		private final int countPosition;
+		private boolean flushed;
+		private int count;
+
+		private RecordWriter(String file, int[] header, int ints) throws IOException {
+			int size = header.length+1+ints;
+			buffer = ByteBuffer.allocateDirect(Math.min(size,DEFAULT_INTS)*RescueConstants.INT_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+			channel = FileChannel.open(Paths.get(file),StandardOpenOption.CREATE,StandardOpenOption.WRITE,StandardOpenOption.TRUNCATE_EXISTING);
+			for (int value : header) buffer.putInt(value);
+			countPosition = buffer.position();
+			buffer.putInt(0);
+		}
+
+		/**
+		   Writes in chunks of DEFAULT_INTS ints.
+		*/
+		public static RecordWriter nodes(String file) throws IOException {
+			return nodes(file,DEFAULT_INTS);
+		}
+
+		/**
+		   @param ints the expected number of ints of all records, to size the buffer. More ints may be written, they are flushed in chunks.
+		*/
+		public static RecordWriter nodes(String file, int ints) throws IOException {
+			return new RecordWriter(file,HEADER,ints);
+		}
+
+		public static RecordWriter roads(String file) throws IOException {
+			return roads(file,DEFAULT_INTS);
+		}
+
+		public static RecordWriter roads(String file, int ints) throws IOException {
+			return new RecordWriter(file,HEADER,ints);
+		}
+
+		public static RecordWriter buildings(String file) throws IOException {
+			return buildings(file,DEFAULT_INTS);
+		}
+
+		public static RecordWriter buildings(String file, int ints) throws IOException {
+			return new RecordWriter(file,BUILDING_HEADER,ints);
+		}
+
+		public void writeNode(int id, int x, int y, int[] edges, boolean signal, int[] shortcut, int[] pocket, int[] signalTiming) throws IOException {
+			put((6 + edges.length*7)*RescueConstants.INT_SIZE);
+			put(id);
+			put(x);
+			put(y);
+			put(edges.length);
+			put(edges);
+			put(signal?1:0);
+			put(shortcut);
+			put(pocket);
+			put(signalTiming);
+			count++;
+		}
+
+		public void writeRoad(int id, int head, int tail, int length, int roadKind, int carsToHead, int carsToTail, int humansToHead, int humansToTail, int width, int block, int repairCost, boolean median, int linesToHead, int linesToTail, int widthForWalkers) throws IOException {
+			put(16*RescueConstants.INT_SIZE);
+			put(id);
+			put(head);
+			put(tail);
+			put(length);
+			put(roadKind);
+			put(carsToHead);
+			put(carsToTail);
+			put(humansToHead);
+			put(humansToTail);
+			put(width);
+			put(block);
+			put(repairCost);
+			put(median?1:0);
+			put(linesToHead);
+			put(linesToTail);
+			put(widthForWalkers);
+			count++;
+		}
+
+		public void writeBuilding(int id, int x, int y, int floors, int attributes, boolean ignition, int fieryness, int brokenness, int[] entrances, int groundArea, int totalArea, int code, int[] apexes) throws IOException {
+			put((15 + entrances.length + apexes.length)*RescueConstants.INT_SIZE);
+			put(id);
+			put(x);
+			put(y);
+			put(floors);
+			put(attributes);
+			put(ignition?1:0);
+			put(fieryness);
+			put(brokenness);
+			put(entrances.length);
+			put(entrances);
+			put(0/*getBuildingShapeID()*/);
+			put(groundArea);
+			put(totalArea);
+			put(code);
+			put(apexes.length/2);
+			put(apexes);
+			count++;
+		}
+
+		private void put(int value) throws IOException {
+			if (!buffer.hasRemaining()) flush();
+			buffer.putInt(value);
+		}
+
+		private void put(int[] values) throws IOException {
+			for (int value : values) put(value);
+		}
+
+		private void flush() throws IOException {
+			buffer.flip();
+			while (buffer.hasRemaining()) channel.write(buffer);
+			buffer.clear();
+			flushed = true;
+		}
+
+		/**
+		   Write the rest of the buffer and the number of records.
+		*/
+		public void close() throws IOException {
+			try {
+				// the header is still in the buffer unless it was flushed before
+				boolean patch = flushed;
+				if (!patch) buffer.putInt(countPosition,count);
+				flush();
+				if (patch) {
+					ByteBuffer value = ByteBuffer.allocate(RescueConstants.INT_SIZE).order(ByteOrder.LITTLE_ENDIAN).putInt(0,count);
+					channel.write(value,countPosition);
+				}
+			}
+			finally {
+				channel.close();
+			}
 		}
 	}
 
@@ -470,6 +417,48 @@ public class MapFiles {
 		for (PoliceForce pf : police) writeMovingObjectData(out,GIS_TYPE_POLICE_FORCE, (pf.getPosition()));
 	}
 	
+	/**
+	   Write the motionless objects given by their IDs, e.g. by a {@link RecordWriter} user that has no Building objects.
+	*/
+	public static void writeGISMotionlessObjects(PrintWriter out, int[] fire, int[] police, int[] ambulance, int[] refuge) {
+		out.println("# Motionless Objects");
+		for (int id : fire) writeFixedObjectData(out,GIS_TYPE_FIRE_STATION,id);
+		for (int id : police) writeFixedObjectData(out,GIS_TYPE_POLICE_OFFICE,id);
+		for (int id : ambulance) writeFixedObjectData(out,GIS_TYPE_AMBULANCE_CENTER,id);
+		for (int id : refuge) writeFixedObjectData(out,GIS_TYPE_REFUGE,id);
+	}
+
+	/**
+	   Write the moving objects given by their positions.
+	*/
+	public static void writeGISMovingObjects(PrintWriter out, int[] fire, int[] police, int[] ambulance, int[] civ) {
+		out.println("# Moving Objects");
+		for (int position : civ) writeMovingObjectData(out,GIS_TYPE_CIVILIAN,position);
+		for (int position : ambulance) writeMovingObjectData(out,GIS_TYPE_AMBULANCE_TEAM,position);
+		for (int position : fire) writeMovingObjectData(out,GIS_TYPE_FIRE_BRIGADE,position);
+		for (int position : police) writeMovingObjectData(out,GIS_TYPE_POLICE_FORCE,position);
+	}
+
+	public static void writeGISFires(PrintWriter out, int[] fires) {
+		out.println("# Fires");
+		for (int id : fires) writeFixedObjectData(out,GIS_TYPE_FIRE,id);
+	}
+
+	/**
+	   Write the buildings with an importance above 1.
+	*/
+	public static void writeGISImportantBuildings(PrintWriter out, int[] ids, int[] importance) {
+		out.println("# Important buildings");
+		for (int i=0;i<ids.length;++i) {
+			if (importance[i]>1) {
+				out.print("ImportantBuilding ");
+				out.print(ids[i]);
+				out.print("=");
+				out.println(importance[i]);
+			}
+		}
+	}
+
 	public static void writeGISFires(PrintWriter out, Building[] fires) {
 		out.println("# Fires");
 		for (int i=0;i<fires.length;++i) {
@@ -509,10 +498,14 @@ public class MapFiles {
 	}
 
     private static void writeFixedObjectData(PrintWriter out, int type, Building b) {
+		writeFixedObjectData(out,type,b.getID());
+    }
+
+    private static void writeFixedObjectData(PrintWriter out, int type, int id) {
 		// Fixed objects are of them form TYPE = id
 		out.print(GIS_TYPES[type]);
 		out.print("=");
-		out.print(b.getID());
+		out.print(id);
 		out.println();
     }
 
@@ -539,16 +532,4 @@ public class MapFiles {
 		out.print(location);
 		out.println();
     }
-    
-	private static int getSize(Building b){
-		return (15 + b.getEntrances().length + b.getApexes().length)*RescueConstants.INT_SIZE;
-	}
-	
-	private static int getSize(Node n){
-		return (6 + n.getEdges().length*7)*RescueConstants.INT_SIZE;
-	}
-
-	private static int getSize(Road r){
-		return 16*RescueConstants.INT_SIZE;
-	}
 }
@@ -33,7 +33,7 @@ public class MemoryLayer extends Layer {
 		objects.clear();
 		for (Iterator<Integer> it = types.iterator();it.hasNext();) {
 			int next = it.next();
-			Collection<RescueObject> os = m.getObjectsOfType(next);
+			Collection<RescueObject> os = m.getObjectsOfTypeView(next);
 			objects.addAll(os);
 		}
 	}
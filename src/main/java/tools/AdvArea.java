@@ -33,13 +33,10 @@
 
 package tools;
 
-import static rcr.Vector.dotPNorm;
-import static rcr.Vector.diff;
 import static rcr.Vector.epsilon;
 import static rcr.Vector.fromLine;
 import static rcr.Vector.length;
 import static rcr.Vector.normalVec;
-import static rcr.Vector.sum;
 import static rcr.Vector.times;
 
 import java.awt.Shape;
@@ -47,7 +44,6 @@ import java.awt.geom.AffineTransform;
 import java.awt.geom.Area;
 import java.awt.geom.GeneralPath;
 import java.awt.geom.Line2D;
-import java.awt.geom.PathIterator;
 import java.awt.geom.Point2D;
 import java.awt.geom.Rectangle2D;
 import java.util.ArrayList;
@@ -78,6 +74,10 @@ public class AdvArea extends Area {
 	public boolean dirRef;
 	public long ref;	/// for giving some optional reference
 	
+	// packed outline, dropped whenever the area changes. The polygon is
+	// immutable, so it may be created by any thread that reads the area.
+	private transient PackedPolygon polygon;
+	
 	public AdvArea() {
 	}
 	
@@ -121,52 +121,64 @@ public class AdvArea extends Area {
 
 	public AdvArea(AdvArea a) {
 		super(a);
+		polygon = a.polygon;
 		m_coordRef = a.m_coordRef;
 		this.ref = a.ref;
 		this.nref = a.nref;
 		this.dirRef = a.dirRef;
 	}
 	
-	public List<Point2D.Double> toPoints() {
-		double[] point = new double[6];
-		List<Point2D.Double> result = new ArrayList<Point2D.Double>();
-		Point2D.Double start = null;
-		PathIterator i = this.getPathIterator(null);
-		for(;!i.isDone(); i.next()) {
-			int type = i.currentSegment(point); 
-			Point2D.Double p = new Point2D.Double(point[0], point[1]);
-			switch(type) {
-			case PathIterator.SEG_MOVETO:
-				start = p;
-				result.add(p);
-				break;
-			case PathIterator.SEG_LINETO:
-				if (p.distance(start) > mergeDistance) {
-					result.add(p);
-				}
-				break;
-			case PathIterator.SEG_CLOSE:
-				break;
-			default:
-				assert(false);
-			}
+	/**
+	 * Returns the packed outline of the area, which is read from the path only
+	 * once.
+	 */
+	public PackedPolygon getPolygon() {
+		PackedPolygon p = polygon;
+		if (p == null) {
+			p = new PackedPolygon(this, mergeDistance);
+			polygon = p;
 		}
-		//System.out.println(result.size() + " vertices");
-		/*for(int j=0; j<result.size(); j++) {
-			Point2D.Double p = result.get(j);
-			for (int k=j+1; k<result.size(); k++) {
-				if ( p.distance(result.get(k)) < mergeDistance )
-				{
-					System.out.println("remove " + result.get(k) +" , close to " + p + " (diff = " + diff(p, result.get(k))+")");
-					result.remove(k);
-					k--;
-				}
-			}
-		}*/
-		//if (nearZero(diff(result.get(0), result.get(result.size()-1)))) {
-		//	result.remove(result.size()-1);
-		//}
-		return result;
+		return p;
+	}
+	
+	@Override
+	public void add(Area rhs) {
+		super.add(rhs);
+		polygon = null;
+	}
+	
+	@Override
+	public void subtract(Area rhs) {
+		super.subtract(rhs);
+		polygon = null;
+	}
+	
+	@Override
+	public void intersect(Area rhs) {
+		super.intersect(rhs);
+		polygon = null;
+	}
+	
+	@Override
+	public void exclusiveOr(Area rhs) {
+		super.exclusiveOr(rhs);
+		polygon = null;
+	}
+	
+	@Override
+	public void reset() {
+		super.reset();
+		polygon = null;
+	}
+	
+	@Override
+	public void transform(AffineTransform t) {
+		super.transform(t);
+		polygon = null;
+	}
+	
+	public List<Point2D.Double> toPoints() {
+		return getPolygon().toPoints();
 	}
 
 	/// suggest a thin area, that divides the surrounding area
@@ -203,35 +215,7 @@ public class AdvArea extends Area {
 	}
 	
 	public List<Line2D.Double> toSegments() {
-		double[] point = new double[6];
-		List<Line2D.Double> result = new ArrayList<Line2D.Double>();
-		
-		Point2D.Double start = null;
-		Point2D.Double prev = null;
-		PathIterator i = this.getPathIterator(null);
-		for(;!i.isDone(); i.next()) {
-			int type = i.currentSegment(point);
-			Point2D.Double p = new Point2D.Double(point[0], point[1]);
-			switch(type) {
-			case PathIterator.SEG_MOVETO:
-				prev = p;
-				start = prev;
-				break;
-			case PathIterator.SEG_LINETO:
-				result.add(new Line2D.Double(prev, p));
-				//System.out.println(prev.getX()+","+prev.getY() + " -- " + p.getX()+","+p.getY()); 
-				prev = p;
-				break;
-			case PathIterator.SEG_CLOSE:
-				if (p.distance(start) > mergeDistance) {
-					result.add(new Line2D.Double(p, start));
-				}
-				break;
-			default:
-				assert(false);
-			}
-		}
-		return result;
+		return getPolygon().toSegments();
 	}
 
 	public String toString() {
@@ -265,36 +249,7 @@ public class AdvArea extends Area {
 	}
 	
 	public Rectangle2D getRotatedBBox(double angle) {
-		double[] point = new double[6];
-		Rectangle2D bound = null;
-		
-		// Rotated axes
-		Point2D rotXVec = new Point2D.Double(Math.cos(angle), Math.sin(angle));
-		Point2D rotYVec = new Point2D.Double(-Math.sin(angle), Math.cos(angle));
-		
-		PathIterator i = this.getPathIterator(null);
-		for(;!i.isDone(); i.next()) {
-			int type = i.currentSegment(point);
-			Point2D.Double p = new Point2D.Double(point[0], point[1]);
-			switch(type) {
-			case PathIterator.SEG_MOVETO:
-			case PathIterator.SEG_LINETO:
-				double x = Vector.dotProduct(p, rotXVec);
-				double y = Vector.dotProduct(p, rotYVec);
-				if (bound == null) {
-					bound = new Rectangle2D.Double(x,y,0,0);
-				}
-				else {
-					bound.add(x, y);
-				}
-				break;
-			case PathIterator.SEG_CLOSE:
-				break;
-			default:
-				assert(false);
-			}
-		}
-		return bound;		
+		return getPolygon().getRotatedBounds(angle);
 	}
 	
 	public AdvArea rotate(double angle) {
@@ -316,63 +271,41 @@ public class AdvArea extends Area {
 
 		Rectangle2D bbox = this.getBounds2D();
 		bbox = new Rectangle2D.Double(bbox.getMinX()-1, bbox.getMinY()-1, bbox.getWidth()+2, bbox.getHeight()+2);
-		Area a1;
-		Area a2;
+		// the parts are cut away as slabs of the enlarged bounds
+		Rectangle2D a1;
+		Rectangle2D a2;
 		if (vertical) {
 			double x2 = bbox.getMinX() + bbox.getWidth()*ratio - gap; 
-			a1 = new Area(new Rectangle2D.Double(
-					bbox.getMinX(), bbox.getMinY(), bbox.getWidth()*ratio + gap, bbox.getHeight() ));
-			a2 = new Area(new Rectangle2D.Double(
-					x2, bbox.getMinY(), bbox.getWidth()*(1-ratio), bbox.getHeight() ));
+			a1 = new Rectangle2D.Double(
+					bbox.getMinX(), bbox.getMinY(), bbox.getWidth()*ratio + gap, bbox.getHeight() );
+			a2 = new Rectangle2D.Double(
+					x2, bbox.getMinY(), bbox.getWidth()*(1-ratio), bbox.getHeight() );
 		}
 		else {
 			double y2 = bbox.getMinY() + bbox.getHeight()*ratio - gap; 
-			a1 = new Area(new Rectangle2D.Double(
-					bbox.getMinX(), bbox.getMinY(), bbox.getWidth(), bbox.getHeight()*ratio + gap));
-			a2 = new Area(new Rectangle2D.Double(
-					bbox.getMinX(), y2, bbox.getWidth(), bbox.getHeight()*(1-ratio)));
+			a1 = new Rectangle2D.Double(
+					bbox.getMinX(), bbox.getMinY(), bbox.getWidth(), bbox.getHeight()*ratio + gap);
+			a2 = new Rectangle2D.Double(
+					bbox.getMinX(), y2, bbox.getWidth(), bbox.getHeight()*(1-ratio));
 		}
-		AdvArea res1 = new AdvArea(this, m_coordRef);
-		res1.subtract(a1);
-		AdvArea res2 = new AdvArea(this, m_coordRef);
-		res2.subtract(a2);
+		PackedPolygon poly = getPolygon();
+		AdvArea res1 = new AdvArea(vertical
+				? poly.subtractSlab(a1.getMinX(), a1.getMaxX(), true)
+				: poly.subtractSlab(a1.getMinY(), a1.getMaxY(), false), m_coordRef);
+		AdvArea res2 = new AdvArea(vertical
+				? poly.subtractSlab(a2.getMinX(), a2.getMaxX(), true)
+				: poly.subtractSlab(a2.getMinY(), a2.getMaxY(), false), m_coordRef);
 		result.addAll(res1.split());
 		result.addAll(res2.split());
 		return result;
 	}
 	
 	public List<AdvArea> split() {
-		double[] point = new double[6];
-		List<Point2D.Double> newArea = new ArrayList<Point2D.Double>();
 		List<AdvArea> result = new ArrayList<AdvArea>();
-		
-		Point2D.Double start = null;
-		PathIterator i = this.getPathIterator(null);
-		for(;!i.isDone(); i.next()) {
-			int type = i.currentSegment(point); 
-			Point2D.Double p = new Point2D.Double(point[0], point[1]);
-			switch(type) {
-			case PathIterator.SEG_MOVETO:
-				start = p;
-				assert newArea.isEmpty();
-				newArea.add(p);
-				break;
-			case PathIterator.SEG_LINETO:
-				if (p.distance(start) > mergeDistance && 
-						p.distance(newArea.get(newArea.size()-1)) > mergeDistance) {
-					newArea.add(p);
-					//System.out.println("skipped point");
-				}
-				break;
-			case PathIterator.SEG_CLOSE:
-				AdvArea a = new AdvArea(newArea, m_coordRef);
-				if (!a.isEmpty()) {
-					result.add(a);
-				}
-				newArea.clear();
-				break;
-			default:
-				assert(false);
+		for (double[] ring : getPolygon().splitRings()) {
+			AdvArea a = new AdvArea(fromCoords(ring), m_coordRef);
+			if (!a.isEmpty()) {
+				result.add(a);
 			}
 		}
 		return result;
@@ -383,54 +316,11 @@ public class AdvArea extends Area {
 	 * @return false, if it intersects itself
 	 */
 	public boolean isSimple() {
-		List<Line2D.Double> segments = toSegments();
-		for(int i = 0; i < segments.size(); i++) {
-			Line2D.Double l1 = segments.get(i);
-			for(int j = i + 2; j < segments.size(); j++) {	// start with segment after next as next segment obviously intersects current
-				if (i == 0 && j == segments.size() -1) // first and last segments intersect, too
-					continue;
-				if(l1.intersectsLine(segments.get(j)))
-					return false;
-			}
-		}
-		return true;
+		return getPolygon().isSimple();
 	}
 	
 	private AdvArea scaledArea(double amount) {
-		List<Line2D.Double> segments = toSegments();
-		List<Point2D.Double> points = toPoints();
-		List<Point2D> newPoly = new ArrayList<Point2D>();
-		//System.out.println(points.size());
-		for (int i=0; i < points.size(); i++) {
-			Point2D.Double p = points.get(i);
-			Line2D.Double l1 = segments.get((i-1+points.size()) % points.size());
-			Line2D.Double l2 = segments.get(i);
-			Point2D n1 = normalVec(diff(l1.getP2(),l1.getP1()));
-			Point2D n2 = normalVec(diff(l2.getP2(),l2.getP1()));
-			Point2D dir = sum(n1,n2);
-			if (length(dir) < 0.1*Math.abs(amount) ) {
-				Point2D p2 = sum(p, times(n1, amount));
-				Point2D p3 = sum(p, times(n2, amount));
-				newPoly.add(p2);
-				newPoly.add(p3);
-			}
-			else {
-				double len = amount/(length(dir) * dotPNorm(n1, dir));
-				Point2D offset = times(dir, len);
-				Point2D p2 = sum(p, offset);
-				newPoly.add(p2);
-				//sanity checking:
-				/*if (newPoly.size() > 1) {
-					Point2D newSegment = diff(p2, newPoly.get(newPoly.size()-2));
-					if (cosAngle(fromLine(l1), newSegment) < 0) {
-						newPoly.remove(newPoly.size()-2);
-					}
-				}*/
-			}
-		}
-		//System.out.println(newPoly.size());
-		AdvArea a = new AdvArea(newPoly, m_coordRef);
-		return a;
+		return new AdvArea(fromCoords(getPolygon().offset(amount)), m_coordRef);
 	}
 	
 	public void scale(double amount) {
@@ -444,6 +334,8 @@ public class AdvArea extends Area {
 	}
 	
 	public boolean intersects(AdvArea other) {
+		if (!getPolygon().boundsIntersect(other.getPolygon()))
+			return false;
 		Area tmp = (Area) other.clone();
 		tmp.intersect(this);
 		
@@ -462,41 +354,17 @@ public class AdvArea extends Area {
 	}
 
 	public double area(boolean absolute) {
-		List<Line2D.Double> segments = toSegments();
-		double sum = 0;
-		for(Line2D l : segments) {
-			sum += l.getX1()*l.getY2() - l.getX2()*l.getY1();
-		}
 		if(absolute)
-			return Math.abs(0.5 * sum);
-		return 0.5 * sum;
+			return getPolygon().area();
+		return getPolygon().signedArea();
 	}
 
 	public double circumfence() {
-		List<Line2D.Double> segments = toSegments();
-		double sum = 0;
-		for(Line2D l : segments) {
-			sum += length(fromLine(l));
-		}
-		return sum;
+		return getPolygon().perimeter();
 	}
 	
 	public double sideRatio() {
-		List<Line2D.Double> segments = toSegments();
-		double A = 0;
-		double U = 0;
-		for(Line2D l : segments) {
-			A += l.getX1()*l.getY2() - l.getX2()*l.getY1();
-			U += length(fromLine(l));
-		}
-		A = Math.abs(0.5*A);
-		double z = U*U/(4*A);
-		if (z < 4)
-			return 1;
-		double ratio = z/2 -1 + 0.5*Math.sqrt(z*(z-4));
-		
-		//System.out.println("Ratio: " + ratio);
-		return ratio;
+		return getPolygon().sideRatio();
 	}
 
 	public void cleanScale(double amount) {
@@ -523,8 +391,9 @@ public class AdvArea extends Area {
 	}
 	
 	public boolean contains(AdvArea a) {
-		for(Point2D p : a.toPoints()) {
-			if(!this.contains(p))
+		PackedPolygon p = a.getPolygon();
+		for(int i = 0; i < p.getPointCount(); i++) {
+			if(!this.contains(p.getPointX(i), p.getPointY(i)))
 				return false;
 		}
 		return true;
@@ -545,6 +414,19 @@ public class AdvArea extends Area {
 		return path;
 	}
 	
+	private static GeneralPath fromCoords(double[] coords) {
+		GeneralPath path = new GeneralPath(GeneralPath.WIND_NON_ZERO, coords.length/2+1);
+		if (coords.length == 0) {
+			return path;
+		}
+		path.moveTo((float) coords[0], (float) coords[1]);
+		for (int i=2; i < coords.length; i+=2) {
+			path.lineTo((float) coords[i], (float) coords[i+1]);
+		}
+		path.closePath();
+		return path;
+	}
+	
 	private static GeneralPath fromNodeList(List<? extends Node> nodes) {
 		GeneralPath path = new GeneralPath(GeneralPath.WIND_NON_ZERO, nodes.size()+1);
 		EastNorth c = Main.getProjection().latlon2eastNorth(nodes.get(0).getCoor());
@@ -3,36 +3,40 @@ package tools;
 import java.awt.geom.Line2D;
 import java.awt.geom.Point2D;
 import java.awt.geom.Rectangle2D;
-import java.util.ArrayList;
 import java.util.List;
 
 import org.openstreetmap.josm.Main;
 import org.openstreetmap.josm.data.coor.EastNorth;
-import org.openstreetmap.josm.data.osm.Node;
 import org.openstreetmap.josm.data.osm.OsmPrimitive;
 import org.openstreetmap.josm.data.osm.Way;
-import org.openstreetmap.josm.tools.Pair;
 
 import rcr.Vector;
 
 public class AreaTools {
 	
+	/*
+	 * The helpers taking a Way project its nodes on every call. The ones taking
+	 * a WayGeometry work on the packed coordinates, use them with a
+	 * WayGeometryCache (see RCRDataSet.getGeometry()) when the same ways are
+	 * checked again and again.
+	 */
+
 	public static List<Line2D> getSegments(Way w) {
-		List<Line2D> result = new ArrayList<>();
-		for (Pair<Node, Node> p : w.getNodePairs(false)) {
-			result.add(new Line2D.Double(Vector.asPoint(p.a.getEastNorth()), Vector.asPoint(p.b.getEastNorth())));
-		}
-		return result;
+		return WayGeometry.of(w).toSegments();
 	}
 	
 	public static boolean lineContainedInPolygon(Line2D l, Way w) {
+		return lineContainedInPolygon(l, WayGeometry.of(w));
+	}
+
+	public static boolean lineContainedInPolygon(Line2D l, WayGeometry g) {
 //		System.out.println("check line " + l.getP1() + " -- " + l.getP2() + " against way " + w);
-		if (lineIntersectsWay(l, w)) {
+		if (lineIntersectsWay(l, g)) {
 			return false;
 		}
 		Point2D center = Vector.interpolate(l.getP1(), l.getP2(), 0.5);
 //		System.out.println("center: " + center);
-		return pointInPolygon(center, w, false);		
+		return pointInPolygon(center, g, false);		
 	}
 	
 	public static Rectangle2D getEastNorthBounds(OsmPrimitive osm) {
@@ -48,8 +52,15 @@ public class AreaTools {
 	}
 	
 	public static boolean waysIntersect(Way w1, Way w2) {
-		for (Line2D l : getSegments(w1)) {
-			if (lineIntersectsWay(l, w2)) {
+		return waysIntersect(WayGeometry.of(w1), WayGeometry.of(w2));
+	}
+
+	public static boolean waysIntersect(WayGeometry g1, WayGeometry g2) {
+		if (!g1.boundsIntersect(g2.getMinX(), g2.getMinY(), g2.getMaxX(), g2.getMaxY())) {
+			return false;
+		}
+		for (Line2D l : g1.toSegments()) {
+			if (lineIntersectsWay(l, g2)) {
 				return true;
 			}
 		}
@@ -57,66 +68,117 @@ public class AreaTools {
 	}
 
 	public static boolean lineIntersectsWay(Line2D l, Way w) {
+		return lineIntersectsWay(l, WayGeometry.of(w));
+	}
+
+	public static boolean lineIntersectsWay(Line2D l, WayGeometry g) {
 //		System.out.println("check line " + l.getP1() + " -- " + l.getP2() + " against way " + w);
-		for (Line2D l2 : getSegments(w)) {
-//			System.out.println("     segment " + l2.getP1() + " -- " + l2.getP2());
-			if (!Vector.pointOnLine(l.getP1(), l2.getP1(), l2.getP2())
-					&& !Vector.pointOnLine(l.getP2(), l2.getP1(), l2.getP2())) {
-//				System.out.println("     check intersection");
-				if (l.intersectsLine(l2)) {
-//					System.out.println("         true");
-					return true;
-				}
+		// crossing lines have overlapping bounds
+		if (!g.boundsIntersect(Math.min(l.getX1(), l.getX2()), Math.min(l.getY1(), l.getY2()),
+				Math.max(l.getX1(), l.getX2()), Math.max(l.getY1(), l.getY2()))) {
+			return false;
+		}
+		for (int i = 0; i + 1 < g.getPointCount(); i++) {
+			if (g.hasSegment(i)
+					&& linesIntersect(l, g.getX(i), g.getY(i), g.getX(i + 1), g.getY(i + 1))) {
+				return true;
 			}
 		}
 		return false;
 	}
+
+	/**
+	 * Check if two lines cross. Lines that only touch with an endpoint of
+	 * <tt>l</tt> don't count.
+	 */
+	public static boolean linesIntersect(Line2D l, Line2D l2) {
+		return linesIntersect(l, l2.getX1(), l2.getY1(), l2.getX2(), l2.getY2());
+	}
+
+	static boolean linesIntersect(Line2D l, double x1, double y1, double x2, double y2) {
+		if (!Vector.pointOnLine(l.getX1(), l.getY1(), x1, y1, x2, y2)
+				&& !Vector.pointOnLine(l.getX2(), l.getY2(), x1, y1, x2, y2)) {
+//			System.out.println("     check intersection");
+			return Line2D.linesIntersect(l.getX1(), l.getY1(), l.getX2(), l.getY2(), x1, y1, x2, y2);
+		}
+		return false;
+	}
 	
 	public static boolean pointInPolygon(Point2D p, Way w, boolean includeOutline) {
 		assert w.isArea();
+		return pointInPolygon(p, WayGeometry.of(w), includeOutline);
+	}
+
+	/**
+	 * The geometry has to be that of a closed way.
+	 */
+	public static boolean pointInPolygon(Point2D p, WayGeometry g, boolean includeOutline) {
+		// the ray to the right doesn't reach the outline
+		if (p.getY() < g.getMinY() - Vector.epsilon || p.getY() > g.getMaxY() + Vector.epsilon
+				|| p.getX() > g.getMaxX() + Vector.epsilon) {
+			return false;
+		}
 		
 		boolean isInside = false;
 		
-		for (Line2D l : getSegments(w)) {
-//			System.out.println( "  segment: " + l.getP1() + " -- " + l.getP2());
-			if (l.ptSegDist(p) < Vector.epsilon) {
-				// point is on the outline
-//				System.out.println("On outline");
-				return includeOutline;
-			}
-			if (Math.abs(l.getY1() - l.getY2()) < Vector.epsilon) {
-//				System.out.println("  skip horizontal");
+		for (int i = 0; i + 1 < g.getPointCount(); i++) {
+			if (!g.hasSegment(i)) {
 				continue;
 			}
-			double x1 = l.getX1();
-			double x2 = l.getX2();
-			double y1 = l.getY1();
-			double y2 = l.getY2();
-			if (y1 > y2) {
-				// make sure p1 is the bottom one 
-				x1 = l.getX2(); x2 = l.getX1();
-				y1 = l.getY2(); y2 = l.getY1();
-			}
-//			System.out.printf("  x1: %f, x2: %f, y1: %f, y2: %f\n", x1, x2, y1, y2);
-			// Move points that are on the same Y coordinate as the test point
-			if (Math.abs(y1 - p.getY()) < Vector.epsilon) {
-				y1 += 0.01;
+			int crossing = rayCrossing(p.getX(), p.getY(), g.getX(i), g.getY(i), g.getX(i + 1), g.getY(i + 1));
+			if (crossing == ON_OUTLINE) {
+				return includeOutline;
 			}
-			if (Math.abs(y2 - p.getY()) < Vector.epsilon) {
-				y2 += 0.01;
+			if (crossing == CROSSING) {
+				isInside = !isInside;
 			}
-			
-			// check for intersection
-			if (y1 < p.getY() && y2 > p.getY()) {
-				double m = (y2 - y1) / (x2 - x1);
-				double x = x1 + (p.getY() - y1)/m;
-//				System.out.printf("  m=%f, x=%f\n", m, x);
-				if (x >= p.getX()) {
-//					System.out.println("  hit!");
-					isInside = !isInside;
-				}
-			}			
 		}
 		return isInside;
 	}
+
+	static final int ON_OUTLINE = -1;
+	static final int CROSSING = 1;
+
+	/**
+	 * Check an edge against the ray from p to the right.
+	 * 
+	 * @return {@link #ON_OUTLINE} if p is on the edge, {@link #CROSSING} if the
+	 *         ray crosses it, otherwise 0
+	 */
+	static int rayCrossing(double px, double py, double x1, double y1, double x2, double y2) {
+		if (Line2D.ptSegDist(x1, y1, x2, y2, px, py) < Vector.epsilon) {
+			// point is on the outline
+//			System.out.println("On outline");
+			return ON_OUTLINE;
+		}
+		if (Math.abs(y1 - y2) < Vector.epsilon) {
+//			System.out.println("  skip horizontal");
+			return 0;
+		}
+		if (y1 > y2) {
+			// make sure p1 is the bottom one 
+			double tmp = x1; x1 = x2; x2 = tmp;
+			tmp = y1; y1 = y2; y2 = tmp;
+		}
+//		System.out.printf("  x1: %f, x2: %f, y1: %f, y2: %f\n", x1, x2, y1, y2);
+		// Move points that are on the same Y coordinate as the test point
+		if (Math.abs(y1 - py) < Vector.epsilon) {
+			y1 += 0.01;
+		}
+		if (Math.abs(y2 - py) < Vector.epsilon) {
+			y2 += 0.01;
+		}
+		
+		// check for intersection
+		if (y1 < py && y2 > py) {
+			double m = (y2 - y1) / (x2 - x1);
+			double x = x1 + (py - y1)/m;
+//			System.out.printf("  m=%f, x=%f\n", m, x);
+			if (x >= px) {
+//				System.out.println("  hit!");
+				return CROSSING;
+			}
+		}
+		return 0;
+	}
 }
@@ -13,10 +13,14 @@ import java.util.Deque;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
 
 import org.openstreetmap.josm.Main;
 import org.openstreetmap.josm.data.Bounds;
 import org.openstreetmap.josm.data.coor.EastNorth;
+import org.openstreetmap.josm.data.coor.LatLon;
 import org.openstreetmap.josm.data.osm.BBox;
 import org.openstreetmap.josm.data.osm.Node;
 import org.openstreetmap.josm.data.osm.OsmPrimitive;
@@ -25,6 +29,7 @@ import org.openstreetmap.josm.data.osm.RelationMember;
 import org.openstreetmap.josm.data.osm.Way;
 import org.openstreetmap.josm.tools.Pair;
 
+import rcr.Log;
 import rcr.Vector;
 
 public class MPTools {
@@ -83,9 +88,7 @@ public class MPTools {
 		}
 		
 		public Way asWay() {
-			Way w = new Way();
-			w.setNodes(this.nodes);
-			return w;
+			return createWay(this.nodes);
 		}
 		
 		public boolean canAppend(WaySegment other) {
@@ -230,21 +233,43 @@ public class MPTools {
 				if (newNodes != null) {
 					// creating a new way every time might be a bit wasteful, but ensures we don't stomp
 					// upon other's data
-					Way newWay = new Way(w);
-					newWay.setNodes(newNodes);
-					open.add(newWay);
+					open.add(copyWay(w, newNodes));
 				}
 			}
 		}
 		return result;
 	}
 	
+	/**
+	 * Create new ways, like {@link Way#setNodes(List)} this registers the way
+	 * as referrer of its nodes. The segmentation creates ways on several
+	 * threads and the halves of a split share the nodes on the split line, so
+	 * the nodes must not be changed at the same time.
+	 */
+	private static synchronized Way createWay(List<Node> nodes) {
+		Way w = new Way();
+		w.setNodes(nodes);
+		return w;
+	}
+
+	private static synchronized Way copyWay(Way original, List<Node> nodes) {
+		Way w = new Way(original);
+		w.setNodes(nodes);
+		return w;
+	}
+
+	/**
+	 * Split a multipolygon into simple ways without holes. The halves of each
+	 * split are segmented in parallel (on the common fork-join pool), the
+	 * result is in the same order as in a sequential run. Only the IDs of the
+	 * new ways and nodes depend on the scheduling.
+	 */
 	public static List<Way> segmentMP(Relation mp) {
 		Map<String, String> combinedTags = getMPTags(mp);
 		Pair<List<Way>, List<Way>> ways = getMPWays(mp);
 		List<Way> outer = ways.a;
 
-		List<Way> result = segmentMPRecursive(ways.a, ways.b);
+		List<Way> result = new SegmentTask(ways.a, ways.b, new RingCache()).invoke();
 		for (Way w : result) {
 			if (!outer.contains(w)) {
 				//FIXME: add tags to unchanged outer rings
@@ -356,16 +381,35 @@ public class MPTools {
 		
 	}
 	
+	/**
+	 * Segments the rings of one half of a split.
+	 */
+	private static class SegmentTask extends RecursiveTask<List<Way>> {
+
+		private final List<Way> outer;
+		private final List<Way> inner;
+		private final RingCache rings;
+
+		SegmentTask(List<Way> outer, List<Way> inner, RingCache rings) {
+			this.outer = outer;
+			this.inner = inner;
+			this.rings = rings;
+		}
+
+		@Override
+		protected List<Way> compute() {
+			return segmentMPRecursive(outer, inner, rings);
+		}
+	}
+
 	@SuppressWarnings("unused")
-	private static List<Way> segmentMPRecursive(List<Way> outer, List<Way> inner) {
-		if (inner.isEmpty()) {
+	private static List<Way> segmentMPRecursive(List<Way> outer, List<Way> inner, RingCache rings) {
+		// inner rings without an outer ring on their side of a split leave no area
+		if (inner.isEmpty() || outer.isEmpty()) {
 			return outer;
 		}
 		
-		Rectangle2D b = getBoundingRect(outer);
-		System.out.printf("Bounds: (%f, %f) + (%f, %f)\n", b.getX(), b.getY(), b.getWidth(), b.getHeight());
-		
-		Line2D line = getBestSplit(outer, inner);
+		Line2D line = getBestSplit(outer, inner, rings);
 		
 		Pair<List<Way>, List<Way>> split= splitMP(outer, inner, line);
 		
@@ -419,9 +463,12 @@ public class MPTools {
 			return result;
 		}
 		
+		SegmentTask first = new SegmentTask(outer1, inner1, rings);
+		SegmentTask second = new SegmentTask(outer2, inner2, rings);
+		ForkJoinTask.invokeAll(first, second);
 		List<Way> result = new ArrayList<>();
-		result.addAll(segmentMPRecursive(outer1, inner1));
-		result.addAll(segmentMPRecursive(outer2, inner2));
+		result.addAll(first.join());
+		result.addAll(second.join());
 		return result;
 	}
 	
@@ -486,6 +533,7 @@ public class MPTools {
 	}
 		
 	public static Pair<List<Way>, List<Way>> splitMP(List<Way> outer, List<Way> inner, Line2D line) {
+		boolean trace = Log.isEnabled(Log.TRACE);
 		List<Way> newOuter = new ArrayList<>();
 		List<Way> newInner = new ArrayList<>();
 		
@@ -522,19 +570,19 @@ public class MPTools {
 		// ways which are stored in left/right (direction as seen from the split line orientation). 
 		Node prevSplitNode = null;
 		for (WaySegment e : shapeSegments) {
-			System.out.println("considering segment " + e);
+			if (trace) Log.trace("considering segment " + e);
 			
 			if (prevSplitNode != null && prevSplitNode != e.getStartNode()) {
 				// close the gap along the cut line with a new way segment
-				System.out.println("new split node");
+				if (trace) Log.trace("new split node");
 				WaySegment gap = new WaySegment(Arrays.asList(prevSplitNode, e.getStartNode()));
-				System.out.println("  closing gap: " + gap);
+				if (trace) Log.trace("  closing gap: " + gap);
 				if (left.canAppend(gap)) {
-					System.out.println("    add to left: " + left);
+					if (trace) Log.trace("    add to left: " + left);
 					left.joinWith(gap);
 				}
 				if (right.canAppend(gap)) {
-					System.out.println("    add to right. " + right);
+					if (trace) Log.trace("    add to right. " + right);
 					right.joinWith(gap);
 				}
 			}
@@ -544,14 +592,14 @@ public class MPTools {
 				Way newWay = left.asWay();
 				newWay.put("rcr:split", "yes");
 				newOuter.add(newWay);
-				System.out.println("  left is closed, stack has " + leftStack.size() + " elements");
+				if (trace) Log.trace("  left is closed, stack has " + leftStack.size() + " elements");
 				left = !leftStack.isEmpty() ? leftStack.pop() : new WaySegment();
 			}
 			if (right.isClosed()) {
 				Way newWay = right.asWay();
 				newWay.put("rcr:split", "yes");
 				newOuter.add(newWay);
-				System.out.println("  right is closed, stack has " + rightStack.size() + " elements");
+				if (trace) Log.trace("  right is closed, stack has " + rightStack.size() + " elements");
 				right = !rightStack.isEmpty() ? rightStack.pop() : new WaySegment();
 			}
 
@@ -563,21 +611,21 @@ public class MPTools {
 						
 			if (isLeftOfLine(e.nodes, line)) {
 				if (!left.canJoin(e)) {
-					System.out.println("push left:" + left);
+					if (trace) Log.trace("push left:" + left);
 					leftStack.push(left);
 					left = new WaySegment();
 				}
 				left.joinWith(e);
-				System.out.println("  merge to left: " + left);
+				if (trace) Log.trace("  merge to left: " + left);
 			}
 			else if (!isLeftOfLine(e.nodes, line)) {
 				if (!right.canJoin(e)) {
-					System.out.println("push right:" + right);
+					if (trace) Log.trace("push right:" + right);
 					rightStack.push(right);
 					right = new WaySegment();
 				}
 				right.joinWith(e);
-				System.out.println("  merge to right: " + right);
+				if (trace) Log.trace("  merge to right: " + right);
 			}			
 		}
 		
@@ -619,14 +667,15 @@ public class MPTools {
 		
 		List<WaySegment> result = new ArrayList<>();
 		
-		System.out.println("Splitting: " + w.getId());
+		boolean trace = Log.isEnabled(Log.TRACE);
+		if (trace) Log.trace("Splitting: " + w.getId());
 		
 		List<Node> currentNodes = new ArrayList<>();
 		for (Pair<Node, Node> p : w.getNodePairs(false)) {
 			if (currentNodes.isEmpty()) {
 				currentNodes.add(p.a);
 			}
-			System.out.println("segment " + p.a + " -- " + p.b );
+			if (trace) Log.trace("segment " + p.a + " -- " + p.b );
 			Point2D p1 = Vector.asPoint(p.a.getEastNorth());
 			Point2D p2 = Vector.asPoint(p.b.getEastNorth());
 
@@ -636,11 +685,11 @@ public class MPTools {
 			if (line.ptSegDist(p2) <= SPLIT_HARD_SNAP_DISTANCE) {
 				// Line intersects second node
 				currentNodes.add(p.b);
-				System.out.println("add end node" + p.b);
+				if (trace) Log.trace("add end node" + p.b);
 				newNodes = new ArrayList<>();
-				System.out.println(" -- new list --");
+				if (trace) Log.trace(" -- new list --");
 				newNodes.add(p.b);
-				System.out.println("add end node" + p.b);
+				if (trace) Log.trace("add end node" + p.b);
 			}
 			else {
 				Point2D i = Vector.getIntersectionPoint(p1, p2, line.getP1(), line.getP2());
@@ -649,31 +698,31 @@ public class MPTools {
 					if (i.distance(p1) <= SPLIT_SOFT_SNAP_DISTANCE && i.distance(p1) <= i.distance(p2)) {
 						//Snap to p1
 						// p1 was already added
-						System.out.println("snap " + i + " to head at " + p1);
-						System.out.println("add" + p.a);
+						if (trace) Log.trace("snap " + i + " to head at " + p1);
+						if (trace) Log.trace("add" + p.a);
 						newNodes = new ArrayList<>();
-						System.out.println(" -- new list --");
+						if (trace) Log.trace(" -- new list --");
 						newNodes.add(p.a);
-						System.out.println("add" + p.a);
+						if (trace) Log.trace("add" + p.a);
 					}
 					else if (i.distance(p2) <= SPLIT_SOFT_SNAP_DISTANCE) {
 						//Snap to p2
 						currentNodes.add(p.b);
-						System.out.println("add end node" + p.b);
+						if (trace) Log.trace("add end node" + p.b);
 						newNodes = new ArrayList<>();
-						System.out.println(" -- new list --");
+						if (trace) Log.trace(" -- new list --");
 						newNodes.add(p.b);
-						System.out.println("add end node" + p.b);
+						if (trace) Log.trace("add end node" + p.b);
 					}
 					else {
 						Node splitNode = new Node(Vector.asEastNorth(i));
 						currentNodes.add(splitNode);
-						System.out.println("split at " + i);
-						System.out.println("add" + splitNode);
+						if (trace) Log.trace("split at " + i);
+						if (trace) Log.trace("add" + splitNode);
 						newNodes = new ArrayList<>();
-						System.out.println(" -- new list --");
+						if (trace) Log.trace(" -- new list --");
 						newNodes.add(splitNode);
-						System.out.println("add" + splitNode);
+						if (trace) Log.trace("add" + splitNode);
 					}
 				}
 			}
@@ -686,7 +735,7 @@ public class MPTools {
 			
 			if (currentNodes.isEmpty() || currentNodes.get(currentNodes.size()-1) != p.b) { 
 				currentNodes.add(p.b);
-				System.out.println("add" + p.b);
+				if (trace) Log.trace("add" + p.b);
 			}
 		}
 		
@@ -697,10 +746,10 @@ public class MPTools {
 			//Complete first segment
 			if (!currentNodes.isEmpty()) {
 				if (!result.get(0).nodes.isEmpty()) {
-					System.out.println("fixup first/last segment:  " + currentNodes.get(currentNodes.size()-1) + " <-> " + result.get(0).nodes.get(0) );
+					if (trace) Log.trace("fixup first/last segment:  " + currentNodes.get(currentNodes.size()-1) + " <-> " + result.get(0).nodes.get(0) );
 				}
 				else {
-					System.out.println("fixup first/last segment:  " + currentNodes.get(currentNodes.size()-1) + " <-> empty");			
+					if (trace) Log.trace("fixup first/last segment:  " + currentNodes.get(currentNodes.size()-1) + " <-> empty");			
 				}
 				result.get(0).joinWith(new WaySegment(currentNodes), line);
 			}			
@@ -724,64 +773,124 @@ public class MPTools {
 		return result;
 	}
 
-	private static List<Line2D> getSegments(List<Way> outer, List<Way> inner) {
-		List<Way> all = new ArrayList<>(outer);
-		all.addAll(inner);
-		return getSegments(all);
-		
-	}
-	
-	private static List<Line2D> getSegments(List<Way> ways) {
-		List<Line2D> result = new ArrayList<>();
-		for (Way w: ways) {
-			result.addAll(AreaTools.getSegments(w));
+	private static Line2D getBestSplit(List<Way> outer, List<Way> inner, RingCache rings) {
+		boolean trace = Log.isEnabled(Log.TRACE);
+		SplitLineComparator comparator = new SplitLineComparator(outer, inner, rings);
+		// Take the last of the inner segments in the order of the comparator,
+		// but score each segment only once
+		Line2D l0 = null;
+		double best = 0;
+		for (Way w : inner) {
+			for (Line2D l : rings.get(w).segments) {
+				double score = comparator.score(l);
+				if (l0 == null || Double.compare(score, best) >= 0) {
+					l0 = l;
+					best = score;
+				}
+			}
 		}
-		return result;
-	}
-	
-	private static Line2D getBestSplit(List<Way> outer, List<Way> inner) {
-		SplitLineComparator comparator = new SplitLineComparator(outer, inner);
-		List<Line2D> lines = getSegments(inner);
-		Collections.sort(lines, comparator);
 		
 		// Extend best split line, so that it's guaranteed to intersect the entire MP
-		BBox b = new BBox(outer.get(0));
-		for (Way w : outer) {
-			b.addPrimitive(w, 0);
-		}
-		Point2D b1 = Vector.asPoint(Main.getProjection().latlon2eastNorth(b.getTopLeft()));
-		Point2D b2 = Vector.asPoint(Main.getProjection().latlon2eastNorth(b.getBottomRight()));
+		LatLon[] b = rings.getCorners(outer);
+		Point2D b1 = Vector.asPoint(Main.getProjection().latlon2eastNorth(b[0]));
+		Point2D b2 = Vector.asPoint(Main.getProjection().latlon2eastNorth(b[1]));
 //		System.out.printf("BBox: %f,%f+%fx%f\n", bbox.getX(), bbox.getY(), bbox.getWidth(), bbox.getHeight());
 		double maxDiameter = b1.distance(b2);
-		System.out.println("diameter:" + maxDiameter);
-		Line2D l0 = lines.get(lines.size()-1);
+		if (trace) Log.trace("diameter:" + maxDiameter);
 		Point2D extension = Vector.times(Vector.normalize(Vector.fromLine(l0)), maxDiameter);
 		Point2D extP1 = Vector.diff(l0.getP1(), extension); 
 		Point2D extP2 = Vector.sum(l0.getP2(), extension);
-		System.out.println(extension);
-		System.out.println(extP1);
-		System.out.println(extP2);
+		if (trace) Log.trace(String.valueOf(extension));
+		if (trace) Log.trace(String.valueOf(extP1));
+		if (trace) Log.trace(String.valueOf(extP2));
 		
 		return new Line2D.Double(extP1, extP2);
 	}
 	
+	/**
+	 * The lat/lon bounds and projected segments of a ring.
+	 */
+	private static class Ring {
+		final double minLat, minLon, maxLat, maxLon;
+		final List<Line2D> segments;
+		// the unit direction and the length of each segment
+		final double[] dirX, dirY, length;
+
+		Ring(Way w) {
+			BBox bounds = w.getBBox();
+			minLat = bounds.getBottomRight().lat();
+			minLon = bounds.getTopLeft().lon();
+			maxLat = bounds.getTopLeft().lat();
+			maxLon = bounds.getBottomRight().lon();
+
+			segments = AreaTools.getSegments(w);
+			dirX = new double[segments.size()];
+			dirY = new double[segments.size()];
+			length = new double[segments.size()];
+			for (int i = 0; i < segments.size(); i++) {
+				Point2D vec = Vector.fromLine(segments.get(i));
+				Point2D dir = Vector.normalize(vec);
+				dirX[i] = dir.getX();
+				dirY[i] = dir.getY();
+				length[i] = Vector.length(vec);
+			}
+		}
+	}
+
+	/**
+	 * The rings of a multipolygon that were seen during its segmentation. A
+	 * split only creates new ways for the rings it cuts, all other rings keep
+	 * their entries on the next levels.
+	 */
+	private static class RingCache {
+
+		private final Map<Way, Ring> rings = new ConcurrentHashMap<>();
+
+		Ring get(Way w) {
+			return rings.computeIfAbsent(w, Ring::new);
+		}
+
+		/**
+		 * Returns the top left and the bottom right corner of the bounds of
+		 * the ways, the same as those of a {@link BBox} of the ways.
+		 */
+		LatLon[] getCorners(List<Way> ways) {
+			double minLat = Double.POSITIVE_INFINITY, minLon = Double.POSITIVE_INFINITY;
+			double maxLat = Double.NEGATIVE_INFINITY, maxLon = Double.NEGATIVE_INFINITY;
+			for (Way w : ways) {
+				Ring r = get(w);
+				minLat = Math.min(minLat, r.minLat);
+				minLon = Math.min(minLon, r.minLon);
+				maxLat = Math.max(maxLat, r.maxLat);
+				maxLon = Math.max(maxLon, r.maxLon);
+			}
+			return new LatLon[] { new LatLon(maxLat, minLon), new LatLon(minLat, maxLon) };
+		}
+	}
 		
 	private static class SplitLineComparator implements Comparator<Line2D> {
 
-		private List<Line2D> segments;
+		private List<Ring> rings = new ArrayList<>();
 		private Point2D centroid;
 		
-		public SplitLineComparator(List<Way> outer, List<Way> inner) {
-			segments = getSegments(outer, inner);
+		public SplitLineComparator(List<Way> outer, List<Way> inner, RingCache cache) {
+			for (Way w : outer) {
+				rings.add(cache.get(w));
+			}
+			for (Way w : inner) {
+				rings.add(cache.get(w));
+			}
 			computeCentroid();
 		}
 		
 		private void computeCentroid() {
 			double cx = 0, cy = 0, area = 0;
-			for (Line2D l: segments) {
-				area += 0.5*(l.getX1()*l.getY2() - l.getX2()*l.getY1());
-				cx += (l.getX1()+l.getX2()) * (l.getX1()*l.getY2() - l.getX2()*l.getY1());
-				cy += (l.getY1()+l.getY2()) * (l.getX1()*l.getY2() - l.getX2()*l.getY1());
+			for (Ring r : rings) {
+				for (Line2D l: r.segments) {
+					area += 0.5*(l.getX1()*l.getY2() - l.getX2()*l.getY1());
+					cx += (l.getX1()+l.getX2()) * (l.getX1()*l.getY2() - l.getX2()*l.getY1());
+					cy += (l.getY1()+l.getY2()) * (l.getX1()*l.getY2() - l.getX2()*l.getY1());
+				}
 			}
 			cx /= 6*area;
 			cy /= 6*area;
@@ -791,28 +900,29 @@ public class MPTools {
 		
 		private double weightedLineFit(Line2D line) {
 			Point2D direction = Vector.normalize(Vector.fromLine(line));
+			double x = direction.getX();
+			double y = direction.getY();
 		
 			double sum = 0;
-			for (Line2D l2 : segments) {
-				Point2D vec2 = Vector.fromLine(l2);
-				Point2D dir2 = Vector.normalize(vec2);
-				double cosA = Vector.dotProduct(direction, dir2);
-//				double deviation = 1 - 2*Math.abs(cosA-0.5); // = 0 for 0 and 1, 1 for 1/2
-				double deviation = 1 - 2*Math.max(Math.abs(cosA), 0.2); // = 1 for 0 and 0 for 0.2 - 1
-				sum += deviation * Vector.length(vec2);
+			for (Ring r : rings) {
+				for (int i = 0; i < r.length.length; i++) {
+					double cosA = x * r.dirX[i] + y * r.dirY[i];
+//					double deviation = 1 - 2*Math.abs(cosA-0.5); // = 0 for 0 and 1, 1 for 1/2
+					double deviation = 1 - 2*Math.max(Math.abs(cosA), 0.2); // = 1 for 0 and 0 for 0.2 - 1
+					sum += deviation * r.length[i];
+				}
 			}
 
 			return sum;
 		}
 		
+		double score(Line2D line) {
+			return weightedLineFit(line) - line.ptLineDist(centroid) * SPLIT_EXCENTRICITY_PENALTY;
+		}
 		
 		@Override
 		public int compare(Line2D arg0, Line2D arg1) {
-			double fit0 = weightedLineFit(arg0);
-			double fit1 = weightedLineFit(arg1);
-			double cdist0 = arg0.ptLineDist(centroid) * SPLIT_EXCENTRICITY_PENALTY;
-			double cdist1 = arg1.ptLineDist(centroid) * SPLIT_EXCENTRICITY_PENALTY;
-			return Double.compare(fit0-cdist0, fit1-cdist1);
+			return Double.compare(score(arg0), score(arg1));
 		}
 		
 	}
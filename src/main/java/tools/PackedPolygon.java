@@ -0,0 +1,401 @@
+package tools;
+
+import java.awt.Shape;
+import java.awt.geom.Line2D;
+import java.awt.geom.Path2D;
+import java.awt.geom.PathIterator;
+import java.awt.geom.Point2D;
+import java.awt.geom.Rectangle2D;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The outline of a shape as packed double coordinates, read once from its
+ * path. Points, segments, area, perimeter and bounds are computed up front.
+ *
+ * The outline follows the conventions of {@link AdvArea}: points closer than
+ * the merge distance to the start of their ring are no points of the outline,
+ * and a ring is only closed by an extra segment if its last point is further
+ * than the merge distance from its start.
+ *
+ * Instances are immutable and may be shared between threads.
+ */
+public final class PackedPolygon {
+
+	/** x and y of the path points, ring after ring */
+	private final double[] coords;
+	/** first point of each ring, followed by the number of points */
+	private final int[] rings;
+	/** x and y of the outline points */
+	private final double[] points;
+	/** x1, y1, x2 and y2 of the outline segments */
+	private final double[] segments;
+
+	private final double mergeDistance;
+	private final double signedArea;
+	private final double perimeter;
+	private final double minX, minY, maxX, maxY;
+
+	/**
+	 * Read the outline of a shape made of straight lines. Curves are ignored.
+	 */
+	public PackedPolygon(Shape shape, double mergeDistance) {
+		this.mergeDistance = mergeDistance;
+		DoubleList coordList = new DoubleList();
+		DoubleList pointList = new DoubleList();
+		DoubleList segmentList = new DoubleList();
+		List<Integer> ringList = new ArrayList<Integer>();
+
+		double[] point = new double[6];
+		double startX = 0, startY = 0;
+		double prevX = 0, prevY = 0;
+		for (PathIterator i = shape.getPathIterator(null); !i.isDone(); i.next()) {
+			int type = i.currentSegment(point);
+			double x = point[0];
+			double y = point[1];
+			switch (type) {
+			case PathIterator.SEG_MOVETO:
+				ringList.add(coordList.size() / 2);
+				coordList.add(x, y);
+				pointList.add(x, y);
+				startX = x;
+				startY = y;
+				break;
+			case PathIterator.SEG_LINETO:
+				coordList.add(x, y);
+				if (Point2D.distance(x, y, startX, startY) > mergeDistance) {
+					pointList.add(x, y);
+				}
+				segmentList.add(prevX, prevY);
+				segmentList.add(x, y);
+				break;
+			case PathIterator.SEG_CLOSE:
+				// the segment type leaves the coordinates of the last point
+				if (Point2D.distance(x, y, startX, startY) > mergeDistance) {
+					segmentList.add(x, y);
+					segmentList.add(startX, startY);
+				}
+				break;
+			default:
+				continue;
+			}
+			prevX = x;
+			prevY = y;
+		}
+		ringList.add(coordList.size() / 2);
+
+		coords = coordList.toArray();
+		points = pointList.toArray();
+		segments = segmentList.toArray();
+		rings = new int[ringList.size()];
+		for (int r = 0; r < rings.length; r++) {
+			rings[r] = ringList.get(r);
+		}
+
+		double a = 0;
+		double u = 0;
+		for (int s = 0; s < segments.length; s += 4) {
+			a += segments[s] * segments[s + 3] - segments[s + 2] * segments[s + 1];
+			u += Math.hypot(segments[s + 2] - segments[s], segments[s + 3] - segments[s + 1]);
+		}
+		signedArea = 0.5 * a;
+		perimeter = u;
+
+		double x1 = Double.POSITIVE_INFINITY, y1 = Double.POSITIVE_INFINITY;
+		double x2 = Double.NEGATIVE_INFINITY, y2 = Double.NEGATIVE_INFINITY;
+		for (int c = 0; c < coords.length; c += 2) {
+			x1 = Math.min(x1, coords[c]);
+			y1 = Math.min(y1, coords[c + 1]);
+			x2 = Math.max(x2, coords[c]);
+			y2 = Math.max(y2, coords[c + 1]);
+		}
+		minX = x1;
+		minY = y1;
+		maxX = x2;
+		maxY = y2;
+	}
+
+	public boolean isEmpty() {
+		return coords.length == 0;
+	}
+
+	public int getRingCount() {
+		return rings.length - 1;
+	}
+
+	public double getMinX() {
+		return minX;
+	}
+
+	public double getMinY() {
+		return minY;
+	}
+
+	public double getMaxX() {
+		return maxX;
+	}
+
+	public double getMaxY() {
+		return maxY;
+	}
+
+	/**
+	 * Returns true if the (closed) bounds of both polygons overlap.
+	 */
+	public boolean boundsIntersect(PackedPolygon other) {
+		return !isEmpty() && !other.isEmpty() && minX <= other.maxX && maxX >= other.minX
+				&& minY <= other.maxY && maxY >= other.minY;
+	}
+
+	public double area() {
+		return Math.abs(signedArea);
+	}
+
+	public double signedArea() {
+		return signedArea;
+	}
+
+	public double perimeter() {
+		return perimeter;
+	}
+
+	/**
+	 * The ratio of the sides of a rectangle with the same area and perimeter,
+	 * 1 for compact shapes.
+	 */
+	public double sideRatio() {
+		double a = Math.abs(signedArea);
+		double z = perimeter * perimeter / (4 * a);
+		if (z < 4)
+			return 1;
+		return z / 2 - 1 + 0.5 * Math.sqrt(z * (z - 4));
+	}
+
+	public int getPointCount() {
+		return points.length / 2;
+	}
+
+	public double getPointX(int i) {
+		return points[2 * i];
+	}
+
+	public double getPointY(int i) {
+		return points[2 * i + 1];
+	}
+
+	public List<Point2D.Double> toPoints() {
+		List<Point2D.Double> result = new ArrayList<Point2D.Double>(points.length / 2);
+		for (int p = 0; p < points.length; p += 2) {
+			result.add(new Point2D.Double(points[p], points[p + 1]));
+		}
+		return result;
+	}
+
+	public List<Line2D.Double> toSegments() {
+		List<Line2D.Double> result = new ArrayList<Line2D.Double>(segments.length / 4);
+		for (int s = 0; s < segments.length; s += 4) {
+			result.add(new Line2D.Double(segments[s], segments[s + 1], segments[s + 2], segments[s + 3]));
+		}
+		return result;
+	}
+
+	/**
+	 * @return false, if two segments that are not neighbours intersect
+	 */
+	public boolean isSimple() {
+		int n = segments.length / 4;
+		for (int i = 0; i < n; i++) {
+			// start with segment after next as next segment obviously intersects current
+			for (int j = i + 2; j < n; j++) {
+				if (i == 0 && j == n - 1) // first and last segments intersect, too
+					continue;
+				if (Line2D.linesIntersect(segments[4 * i], segments[4 * i + 1], segments[4 * i + 2],
+						segments[4 * i + 3], segments[4 * j], segments[4 * j + 1], segments[4 * j + 2],
+						segments[4 * j + 3]))
+					return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the bounds of the path points in a coordinate system rotated by
+	 * angle, or null if there are none.
+	 */
+	public Rectangle2D getRotatedBounds(double angle) {
+		double cos = Math.cos(angle);
+		double sin = Math.sin(angle);
+		Rectangle2D bound = null;
+		for (int c = 0; c < coords.length; c += 2) {
+			double x = coords[c] * cos + coords[c + 1] * sin;
+			double y = coords[c] * -sin + coords[c + 1] * cos;
+			if (bound == null) {
+				bound = new Rectangle2D.Double(x, y, 0, 0);
+			} else {
+				bound.add(x, y);
+			}
+		}
+		return bound;
+	}
+
+	/**
+	 * Moves every outline point by amount along the bisector of its segments.
+	 * Points at sharp corners are replaced by two points, one for each
+	 * segment. Only meaningful for outlines with a single ring.
+	 *
+	 * @return x and y of the points of the moved outline
+	 */
+	public double[] offset(double amount) {
+		int n = points.length / 2;
+		DoubleList result = new DoubleList();
+		for (int i = 0; i < n; i++) {
+			double px = points[2 * i];
+			double py = points[2 * i + 1];
+			int s1 = 4 * ((i - 1 + n) % n);
+			int s2 = 4 * i;
+			// normals of the segments before and after the point
+			double d1x = segments[s1 + 2] - segments[s1];
+			double d1y = segments[s1 + 3] - segments[s1 + 1];
+			double len1 = Math.hypot(d1x, d1y);
+			double n1x = -d1y / len1;
+			double n1y = d1x / len1;
+			double d2x = segments[s2 + 2] - segments[s2];
+			double d2y = segments[s2 + 3] - segments[s2 + 1];
+			double len2 = Math.hypot(d2x, d2y);
+			double n2x = -d2y / len2;
+			double n2y = d2x / len2;
+
+			double dirX = n1x + n2x;
+			double dirY = n1y + n2y;
+			double dirLen = Math.hypot(dirX, dirY);
+			if (dirLen < 0.1 * Math.abs(amount)) {
+				result.add(px + amount * n1x, py + amount * n1y);
+				result.add(px + amount * n2x, py + amount * n2y);
+			} else {
+				double cos = (n1x * dirX + n1y * dirY) / (Math.hypot(n1x, n1y) * dirLen);
+				double len = amount / (dirLen * cos);
+				result.add(px + len * dirX, py + len * dirY);
+			}
+		}
+		return result.toArray();
+	}
+
+	/**
+	 * Splits the path into its rings. Points closer than the merge distance to
+	 * the start of the ring or to the previous point are dropped.
+	 *
+	 * @return x and y of the points of each ring
+	 */
+	public List<double[]> splitRings() {
+		List<double[]> result = new ArrayList<double[]>(getRingCount());
+		DoubleList ring = new DoubleList();
+		for (int r = 0; r + 1 < rings.length; r++) {
+			int start = 2 * rings[r];
+			int end = 2 * rings[r + 1];
+			ring.clear();
+			ring.add(coords[start], coords[start + 1]);
+			for (int c = start + 2; c < end; c += 2) {
+				double x = coords[c];
+				double y = coords[c + 1];
+				if (Point2D.distance(x, y, coords[start], coords[start + 1]) > mergeDistance
+						&& Point2D.distance(x, y, ring.get(ring.size() - 2), ring.get(ring.size() - 1)) > mergeDistance) {
+					ring.add(x, y);
+				}
+			}
+			result.add(ring.toArray());
+		}
+		return result;
+	}
+
+	/**
+	 * Cuts the slab lo &lt;= x &lt;= hi (vertical) or lo &lt;= y &lt;= hi out
+	 * of the polygon. Each ring is clipped on its own, so the result can have
+	 * zero width bridges along the cut lines; reading it into an
+	 * {@link java.awt.geom.Area} removes them.
+	 */
+	public Path2D subtractSlab(double lo, double hi, boolean vertical) {
+		Path2D.Double path = new Path2D.Double(Path2D.WIND_NON_ZERO, coords.length / 2 + 8);
+		for (int r = 0; r + 1 < rings.length; r++) {
+			appendRing(path, clipRing(2 * rings[r], 2 * rings[r + 1], lo, vertical, true));
+			appendRing(path, clipRing(2 * rings[r], 2 * rings[r + 1], hi, vertical, false));
+		}
+		return path;
+	}
+
+	/**
+	 * Clips a ring at an axis parallel line (Sutherland-Hodgman).
+	 *
+	 * @param below
+	 *            keep the part with coordinates up to the line, else the part
+	 *            from the line on
+	 */
+	private double[] clipRing(int start, int end, double line, boolean vertical, boolean below) {
+		int axis = vertical ? 0 : 1;
+		DoubleList result = new DoubleList();
+		int prev = end - 2;
+		for (int c = start; c < end; c += 2) {
+			double prevA = coords[prev + axis];
+			double curA = coords[c + axis];
+			boolean prevIn = below ? prevA <= line : prevA >= line;
+			boolean curIn = below ? curA <= line : curA >= line;
+			if (prevIn != curIn) {
+				double t = (line - prevA) / (curA - prevA);
+				double other = coords[prev + 1 - axis] + t * (coords[c + 1 - axis] - coords[prev + 1 - axis]);
+				if (vertical) {
+					result.add(line, other);
+				} else {
+					result.add(other, line);
+				}
+			}
+			if (curIn) {
+				result.add(coords[c], coords[c + 1]);
+			}
+			prev = c;
+		}
+		return result.toArray();
+	}
+
+	private static void appendRing(Path2D path, double[] ring) {
+		if (ring.length < 6) {
+			return;
+		}
+		path.moveTo(ring[0], ring[1]);
+		for (int c = 2; c < ring.length; c += 2) {
+			path.lineTo(ring[c], ring[c + 1]);
+		}
+		path.closePath();
+	}
+
+	/**
+	 * A growable array of doubles.
+	 */
+	private static class DoubleList {
+		private double[] data = new double[16];
+		private int size;
+
+		void add(double x, double y) {
+			if (size + 2 > data.length) {
+				data = Arrays.copyOf(data, 2 * data.length);
+			}
+			data[size++] = x;
+			data[size++] = y;
+		}
+
+		double get(int i) {
+			return data[i];
+		}
+
+		int size() {
+			return size;
+		}
+
+		void clear() {
+			size = 0;
+		}
+
+		double[] toArray() {
+			return Arrays.copyOf(data, size);
+		}
+	}
+}
@@ -0,0 +1,77 @@
+package tools;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import rcr.Vector;
+
+/**
+ * A uniform grid over the bounds of prepared polygons, to find the polygons
+ * that may contain a point.
+ *
+ * Every polygon is stored in all cells its bounds cover. The index is not
+ * synchronized; it may be queried from several threads as long as nobody
+ * modifies it at the same time.
+ */
+public class PolygonIndex {
+
+	private final double cellSize;
+	private final Map<Long, List<PreparedPolygon>> cells = new HashMap<>();
+
+	public PolygonIndex() {
+		this(SegmentIndex.DEFAULT_CELL_SIZE);
+	}
+
+	public PolygonIndex(double cellSize) {
+		this.cellSize = cellSize;
+	}
+
+	/**
+	 * Add a polygon. Polygons without coordinates are ignored.
+	 */
+	public void add(PreparedPolygon polygon) {
+		WayGeometry g = polygon.getGeometry();
+		if (!(g.getMinX() <= g.getMaxX())) {
+			return;
+		}
+		// the polygon tests accept points that are epsilon off the bounds
+		int x1 = cell(g.getMinX() - Vector.epsilon);
+		int x2 = cell(g.getMaxX() + Vector.epsilon);
+		int y1 = cell(g.getMinY() - Vector.epsilon);
+		int y2 = cell(g.getMaxY() + Vector.epsilon);
+		for (int x = x1; x <= x2; x++) {
+			for (int y = y1; y <= y2; y++) {
+				Long key = key(x, y);
+				List<PreparedPolygon> cell = cells.get(key);
+				if (cell == null) {
+					cell = new ArrayList<>(4);
+					cells.put(key, cell);
+				}
+				cell.add(polygon);
+			}
+		}
+	}
+
+	/**
+	 * Returns the polygons stored in the cell of the point. These include all
+	 * polygons that may contain the point.
+	 */
+	public List<PreparedPolygon> query(double x, double y) {
+		List<PreparedPolygon> cell = cells.get(key(cell(x), cell(y)));
+		if (cell == null) {
+			return Collections.emptyList();
+		}
+		return Collections.unmodifiableList(cell);
+	}
+
+	private int cell(double coord) {
+		return (int) Math.floor(coord / cellSize);
+	}
+
+	private static Long key(int x, int y) {
+		return ((long) x << 32) | (y & 0xffffffffL);
+	}
+}
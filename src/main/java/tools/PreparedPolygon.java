@@ -0,0 +1,134 @@
+package tools;
+
+import java.awt.geom.Line2D;
+import java.awt.geom.Point2D;
+
+import rcr.Vector;
+
+/**
+ * The outline of a closed way, prepared for many point and line tests. The
+ * edges are sorted into horizontal bands, so a test only looks at the edges
+ * that reach the band of the point, or the bands the line spans.
+ *
+ * The results are the same as those of
+ * {@link AreaTools#pointInPolygon(Point2D, WayGeometry, boolean)} and
+ * {@link AreaTools#lineContainedInPolygon(Line2D, WayGeometry)}. Instances
+ * are immutable and may be shared between threads.
+ */
+public final class PreparedPolygon {
+
+	private final WayGeometry geometry;
+	private final double minY;
+	private final double bandHeight;
+	private final int bands;
+	// the edges of band b are bandEdges[bandStart[b]] to bandEdges[bandStart[b + 1] - 1]
+	private final int[] bandStart;
+	private final int[] bandEdges;
+
+	public PreparedPolygon(WayGeometry geometry) {
+		this.geometry = geometry;
+		int edges = Math.max(0, geometry.getPointCount() - 1);
+		bands = Math.max(1, edges / 2);
+		minY = geometry.getMinY();
+		double height = geometry.getMaxY() - minY;
+		bandHeight = height > 0 ? height / bands : 1;
+
+		bandStart = new int[bands + 1];
+		for (int i = 0; i < edges; i++) {
+			if (geometry.hasSegment(i)) {
+				for (int b = firstBand(i); b <= lastBand(i); b++) {
+					bandStart[b + 1]++;
+				}
+			}
+		}
+		for (int b = 0; b < bands; b++) {
+			bandStart[b + 1] += bandStart[b];
+		}
+		bandEdges = new int[bandStart[bands]];
+		int[] next = bandStart.clone();
+		for (int i = 0; i < edges; i++) {
+			if (geometry.hasSegment(i)) {
+				for (int b = firstBand(i); b <= lastBand(i); b++) {
+					bandEdges[next[b]++] = i;
+				}
+			}
+		}
+	}
+
+	public WayGeometry getGeometry() {
+		return geometry;
+	}
+
+	/**
+	 * Same as {@link AreaTools#pointInPolygon(Point2D, WayGeometry, boolean)}.
+	 */
+	public boolean contains(Point2D p, boolean includeOutline) {
+		if (p.getY() < geometry.getMinY() - Vector.epsilon || p.getY() > geometry.getMaxY() + Vector.epsilon
+				|| p.getX() > geometry.getMaxX() + Vector.epsilon) {
+			return false;
+		}
+
+		// each edge is stored once per band, so the crossings are counted once
+		boolean isInside = false;
+		int b = band(p.getY());
+		for (int e = bandStart[b]; e < bandStart[b + 1]; e++) {
+			int i = bandEdges[e];
+			int crossing = AreaTools.rayCrossing(p.getX(), p.getY(), geometry.getX(i), geometry.getY(i),
+					geometry.getX(i + 1), geometry.getY(i + 1));
+			if (crossing == AreaTools.ON_OUTLINE) {
+				return includeOutline;
+			}
+			if (crossing == AreaTools.CROSSING) {
+				isInside = !isInside;
+			}
+		}
+		return isInside;
+	}
+
+	/**
+	 * Same as {@link AreaTools#lineIntersectsWay(Line2D, WayGeometry)}.
+	 */
+	public boolean intersects(Line2D l) {
+		double y1 = Math.min(l.getY1(), l.getY2());
+		double y2 = Math.max(l.getY1(), l.getY2());
+		if (!geometry.boundsIntersect(Math.min(l.getX1(), l.getX2()), y1, Math.max(l.getX1(), l.getX2()), y2)) {
+			return false;
+		}
+		// an edge may show up in several bands, that doesn't matter here
+		for (int b = band(y1 - Vector.epsilon); b <= band(y2 + Vector.epsilon); b++) {
+			for (int e = bandStart[b]; e < bandStart[b + 1]; e++) {
+				int i = bandEdges[e];
+				if (AreaTools.linesIntersect(l, geometry.getX(i), geometry.getY(i), geometry.getX(i + 1),
+						geometry.getY(i + 1))) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Same as {@link AreaTools#lineContainedInPolygon(Line2D, WayGeometry)}.
+	 */
+	public boolean containsLine(Line2D l) {
+		if (intersects(l)) {
+			return false;
+		}
+		return contains(Vector.interpolate(l.getP1(), l.getP2(), 0.5), false);
+	}
+
+	private int firstBand(int edge) {
+		double y = Math.min(geometry.getY(edge), geometry.getY(edge + 1));
+		return band(y - Vector.epsilon);
+	}
+
+	private int lastBand(int edge) {
+		double y = Math.max(geometry.getY(edge), geometry.getY(edge + 1));
+		return band(y + Vector.epsilon);
+	}
+
+	private int band(double y) {
+		int b = (int) Math.floor((y - minY) / bandHeight);
+		return Math.max(0, Math.min(bands - 1, b));
+	}
+}
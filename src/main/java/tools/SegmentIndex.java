@@ -0,0 +1,232 @@
+package tools;
+
+import java.awt.geom.Line2D;
+import java.awt.geom.Rectangle2D;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.openstreetmap.josm.data.coor.EastNorth;
+import org.openstreetmap.josm.data.osm.Node;
+import org.openstreetmap.josm.data.osm.Way;
+import org.openstreetmap.josm.tools.Pair;
+
+import rcr.Vector;
+
+/**
+ * A uniform grid over the projected (east/north) segments of ways.
+ *
+ * Every segment is stored in all cells its bounding box covers. The index is
+ * not synchronized; it may be queried from several threads as long as nobody
+ * modifies it at the same time.
+ */
+public class SegmentIndex {
+
+	public static class Segment {
+		public final Way way;
+		public final Node a;
+		public final Node b;
+		public final Line2D line;
+
+		Segment(Way way, Node a, Node b, Line2D line) {
+			this.way = way;
+			this.a = a;
+			this.b = b;
+			this.line = line;
+		}
+
+		boolean intersects(double minX, double minY, double maxX, double maxY) {
+			return getMinX() <= maxX && getMaxX() >= minX && getMinY() <= maxY && getMaxY() >= minY;
+		}
+
+		double getMinX() {
+			return Math.min(line.getX1(), line.getX2());
+		}
+
+		double getMinY() {
+			return Math.min(line.getY1(), line.getY2());
+		}
+
+		double getMaxX() {
+			return Math.max(line.getX1(), line.getX2());
+		}
+
+		double getMaxY() {
+			return Math.max(line.getY1(), line.getY2());
+		}
+	}
+
+	/** cell size in projected units (meters) */
+	public static final double DEFAULT_CELL_SIZE = 50.0;
+
+	private final double cellSize;
+	private final Map<Long, List<Segment>> cells = new HashMap<>();
+	private final Map<Way, List<Segment>> segmentsOfWay = new HashMap<>();
+
+	public SegmentIndex() {
+		this(DEFAULT_CELL_SIZE);
+	}
+
+	public SegmentIndex(double cellSize) {
+		this.cellSize = cellSize;
+	}
+
+	public void clear() {
+		cells.clear();
+		segmentsOfWay.clear();
+	}
+
+	public void rebuild(Collection<Way> ways) {
+		clear();
+		for (Way w : ways) {
+			add(w);
+		}
+	}
+
+	/**
+	 * Add the segments of a way, replacing any segments stored for it before.
+	 * Deleted and incomplete ways are ignored.
+	 */
+	public void add(Way w) {
+		remove(w);
+		if (w.isDeleted() || w.isIncomplete()) {
+			return;
+		}
+		List<Segment> segments = createSegments(w);
+		segmentsOfWay.put(w, segments);
+		for (Segment s : segments) {
+			int x1 = cell(s.getMinX());
+			int x2 = cell(s.getMaxX());
+			int y1 = cell(s.getMinY());
+			int y2 = cell(s.getMaxY());
+			for (int x = x1; x <= x2; x++) {
+				for (int y = y1; y <= y2; y++) {
+					Long key = key(x, y);
+					List<Segment> cell = cells.get(key);
+					if (cell == null) {
+						cell = new ArrayList<>(4);
+						cells.put(key, cell);
+					}
+					cell.add(s);
+				}
+			}
+		}
+	}
+
+	public void remove(Way w) {
+		List<Segment> segments = segmentsOfWay.remove(w);
+		if (segments == null) {
+			return;
+		}
+		for (Segment s : segments) {
+			int x1 = cell(s.getMinX());
+			int x2 = cell(s.getMaxX());
+			int y1 = cell(s.getMinY());
+			int y2 = cell(s.getMaxY());
+			for (int x = x1; x <= x2; x++) {
+				for (int y = y1; y <= y2; y++) {
+					Long key = key(x, y);
+					List<Segment> cell = cells.get(key);
+					if (cell != null) {
+						cell.remove(s);
+						if (cell.isEmpty()) {
+							cells.remove(key);
+						}
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Re-read the geometry of a way after its nodes changed or moved.
+	 */
+	public void update(Way w) {
+		if (w.getDataSet() == null) {
+			remove(w);
+		} else {
+			add(w);
+		}
+	}
+
+	public boolean contains(Way w) {
+		return segmentsOfWay.containsKey(w);
+	}
+
+	/**
+	 * Returns the segments of a way. Ways that are not in the index are
+	 * projected on the fly.
+	 */
+	public List<Segment> getSegments(Way w) {
+		List<Segment> segments = segmentsOfWay.get(w);
+		if (segments == null) {
+			return createSegments(w);
+		}
+		return Collections.unmodifiableList(segments);
+	}
+
+	/**
+	 * Returns all segments whose bounding box intersects the rectangle. Every
+	 * segment is reported once.
+	 */
+	public List<Segment> query(Rectangle2D r) {
+		return query(r.getMinX(), r.getMinY(), r.getMaxX(), r.getMaxY());
+	}
+
+	public List<Segment> query(Line2D l) {
+		return query(Math.min(l.getX1(), l.getX2()), Math.min(l.getY1(), l.getY2()),
+				Math.max(l.getX1(), l.getX2()), Math.max(l.getY1(), l.getY2()));
+	}
+
+	public List<Segment> query(double minX, double minY, double maxX, double maxY) {
+		List<Segment> result = new ArrayList<>();
+		int x1 = cell(minX);
+		int x2 = cell(maxX);
+		int y1 = cell(minY);
+		int y2 = cell(maxY);
+		for (int x = x1; x <= x2; x++) {
+			for (int y = y1; y <= y2; y++) {
+				List<Segment> cell = cells.get(key(x, y));
+				if (cell == null) {
+					continue;
+				}
+				for (Segment s : cell) {
+					if (!s.intersects(minX, minY, maxX, maxY)) {
+						continue;
+					}
+					// report a segment only in the first cell of its overlap
+					// with the query, so it shows up once
+					if (cell(Math.max(minX, s.getMinX())) == x
+							&& cell(Math.max(minY, s.getMinY())) == y) {
+						result.add(s);
+					}
+				}
+			}
+		}
+		return result;
+	}
+
+	private static List<Segment> createSegments(Way w) {
+		List<Segment> result = new ArrayList<>();
+		for (Pair<Node, Node> p : w.getNodePairs(false)) {
+			EastNorth a = p.a.getEastNorth();
+			EastNorth b = p.b.getEastNorth();
+			if (a == null || b == null) {
+				continue;
+			}
+			result.add(new Segment(w, p.a, p.b, new Line2D.Double(Vector.asPoint(a), Vector.asPoint(b))));
+		}
+		return result;
+	}
+
+	private int cell(double coord) {
+		return (int) Math.floor(coord / cellSize);
+	}
+
+	private static Long key(int x, int y) {
+		return ((long) x << 32) | (y & 0xffffffffL);
+	}
+}
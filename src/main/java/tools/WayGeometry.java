@@ -0,0 +1,107 @@
+package tools;
+
+import java.awt.geom.Line2D;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.openstreetmap.josm.data.coor.EastNorth;
+import org.openstreetmap.josm.data.osm.Way;
+
+/**
+ * The projected (east/north) coordinates of the nodes of a way, packed into
+ * an array, and their bounds. Nodes without coordinates are stored as NaN and
+ * the segments next to them are left out.
+ *
+ * Instances are immutable and may be shared between threads.
+ */
+public final class WayGeometry {
+
+	private final double[] coords;
+	private final double minX, minY, maxX, maxY;
+
+	private WayGeometry(double[] coords) {
+		this.coords = coords;
+		double x1 = Double.POSITIVE_INFINITY, y1 = Double.POSITIVE_INFINITY;
+		double x2 = Double.NEGATIVE_INFINITY, y2 = Double.NEGATIVE_INFINITY;
+		for (int c = 0; c < coords.length; c += 2) {
+			if (Double.isNaN(coords[c])) {
+				continue;
+			}
+			x1 = Math.min(x1, coords[c]);
+			y1 = Math.min(y1, coords[c + 1]);
+			x2 = Math.max(x2, coords[c]);
+			y2 = Math.max(y2, coords[c + 1]);
+		}
+		minX = x1;
+		minY = y1;
+		maxX = x2;
+		maxY = y2;
+	}
+
+	/**
+	 * Project the nodes of a way. Use {@link WayGeometryCache} for ways that
+	 * are checked more than once.
+	 */
+	public static WayGeometry of(Way w) {
+		double[] coords = new double[2 * w.getNodesCount()];
+		for (int i = 0; i < w.getNodesCount(); i++) {
+			EastNorth en = w.getNode(i).getEastNorth();
+			coords[2 * i] = en == null ? Double.NaN : en.getX();
+			coords[2 * i + 1] = en == null ? Double.NaN : en.getY();
+		}
+		return new WayGeometry(coords);
+	}
+
+	public int getPointCount() {
+		return coords.length / 2;
+	}
+
+	public double getX(int i) {
+		return coords[2 * i];
+	}
+
+	public double getY(int i) {
+		return coords[2 * i + 1];
+	}
+
+	/**
+	 * Returns false if segment i (from point i to i + 1) has a node without
+	 * coordinates.
+	 */
+	public boolean hasSegment(int i) {
+		return !Double.isNaN(coords[2 * i]) && !Double.isNaN(coords[2 * i + 2]);
+	}
+
+	public double getMinX() {
+		return minX;
+	}
+
+	public double getMinY() {
+		return minY;
+	}
+
+	public double getMaxX() {
+		return maxX;
+	}
+
+	public double getMaxY() {
+		return maxY;
+	}
+
+	/**
+	 * Returns true if the bounds touch the given rectangle.
+	 */
+	public boolean boundsIntersect(double x1, double y1, double x2, double y2) {
+		return minX <= x2 && maxX >= x1 && minY <= y2 && maxY >= y1;
+	}
+
+	public List<Line2D> toSegments() {
+		List<Line2D> result = new ArrayList<>();
+		for (int i = 0; i + 1 < getPointCount(); i++) {
+			if (hasSegment(i)) {
+				result.add(new Line2D.Double(getX(i), getY(i), getX(i + 1), getY(i + 1)));
+			}
+		}
+		return result;
+	}
+}
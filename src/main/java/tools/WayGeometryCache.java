@@ -0,0 +1,29 @@
+package tools;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.openstreetmap.josm.data.osm.Way;
+
+/**
+ * Keeps the {@link WayGeometry} of ways until they are invalidated. The owner
+ * of the cache has to invalidate a way whenever its nodes change or move.
+ *
+ * The cache may be read from several threads.
+ */
+public class WayGeometryCache {
+
+	private final Map<Way, WayGeometry> geometries = new ConcurrentHashMap<>();
+
+	public WayGeometry get(Way w) {
+		return geometries.computeIfAbsent(w, WayGeometry::of);
+	}
+
+	public void invalidate(Way w) {
+		geometries.remove(w);
+	}
+
+	public void clear() {
+		geometries.clear();
+	}
+}
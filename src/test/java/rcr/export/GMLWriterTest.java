@@ -0,0 +1,78 @@
+package rcr.export;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import java.io.File;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+import maps.ScaleConversion;
+import maps.gml.GMLMap;
+import maps.gml.formats.RobocupFormat;
+
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.openstreetmap.josm.Main;
+import org.openstreetmap.josm.data.Bounds;
+import org.openstreetmap.josm.data.osm.DataSet;
+import org.openstreetmap.josm.data.projection.Projections;
+
+import rcr.BatchSettings;
+import rcr.OsmStreamReader;
+import rcr.RCRDataSet;
+import rcr.RCRPlugin;
+
+/**
+ * Converts the fixture town like the batch converter and compares the output
+ * of the {@link GMLWriter} with that of <tt>RobocupFormat</tt>, which wrote
+ * the maps before.
+ */
+public class GMLWriterTest {
+
+  @Rule
+  public TemporaryFolder dir = new TemporaryFolder();
+
+
+  @BeforeClass
+  public static void init() {
+    if ( Main.getProjection() == null ) {
+      Main.setProjection( Projections.getProjectionByCode( "EPSG:3857" ) );
+    }
+    if ( RCRPlugin.settings == null ) {
+      RCRPlugin.settings = new BatchSettings();
+    }
+  }
+
+
+  @Test
+  public void writesLikeRobocupFormat() throws Exception {
+    File osm = dir.newFile( "fixture.osm" );
+    try ( InputStream in = GMLWriterTest.class
+        .getResourceAsStream( "/rcr/fixture.osm" ) ) {
+      Files.copy( in, osm.toPath(), StandardCopyOption.REPLACE_EXISTING );
+    }
+    DataSet source = new OsmStreamReader( null ).read( osm );
+    RCRDataSet rcrData = new RCRDataSet( source,
+        new Bounds( source.getDataSourceBounds().get( 0 ) ) );
+    rcrData.updateElements();
+    rcrData.generateEntrances();
+    rcrData.realizeEntrances();
+
+    File file = dir.newFile( "fixture.gml" );
+    GMLMap gml = GMLExporter.exportMap( rcrData, file );
+
+    // translated and scaled in place, as the map was exported then
+    double scale = rcrData.getScale();
+    gml.convertCoordinates( new ScaleConversion( gml.getMinX(),
+        gml.getMinY(), scale, scale ) );
+    File expected = dir.newFile( "expected.gml" );
+    RobocupFormat.INSTANCE.write( gml, expected );
+
+    assertArrayEquals( Files.readAllBytes( expected.toPath() ),
+        Files.readAllBytes( file.toPath() ) );
+  }
+
+}
@@ -0,0 +1,178 @@
+package rescuecore.tools;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import rescuecore.objects.Building;
+import rescuecore.objects.Node;
+import rescuecore.objects.Road;
+
+/**
+   Tests {@link MapFiles} on random nodes, roads and buildings: the written files must have the bytes of the old stream writer, and loading and writing them again must give the same bytes. The same holds for a {@link MapFiles.RecordWriter} that writes its buffer in chunks.
+*/
+public class MapFilesTest {
+	private final static int COUNT = 2000;
+	// ints of the buffer of the chunked writers, smaller than most records
+	private final static int CHUNK = 5;
+
+	@Rule
+	public TemporaryFolder dir = new TemporaryFolder();
+
+	private Node[] nodes = new Node[COUNT];
+	private Road[] roads = new Road[COUNT];
+	private Building[] buildings = new Building[COUNT];
+
+	@Before
+	public void createObjects() {
+		Random random = new Random(1);
+		for (int i=0;i<COUNT;++i) {
+			int edges = random.nextInt(5);
+			nodes[i] = new Node(random.nextInt(),random.nextInt(),randomInts(random,edges),random.nextBoolean(),randomInts(random,edges),randomInts(random,2*edges),randomInts(random,3*edges));
+			nodes[i].setID(i+1);
+			roads[i] = new Road(random.nextInt(),random.nextInt(),random.nextInt(),1,2,3,4,5,6,7,8,random.nextBoolean(),9,10,11);
+			roads[i].setID(COUNT+i+1);
+			buildings[i] = new Building(random.nextInt(),random.nextInt(),3,0,false,0,0,randomInts(random,edges),0,3600,10800,randomInts(random,2*(3+edges)),0,1);
+			buildings[i].setID(2*COUNT+i+1);
+		}
+	}
+
+	@Test
+	public void writeNodes() throws IOException {
+		String file = getFile("node.bin");
+		MapFiles.writeNodes(file,nodes);
+		check(file,encodeNodes(nodes));
+		MapFiles.writeNodes(file,MapFiles.loadNodes(file));
+		check(file,encodeNodes(nodes));
+	}
+
+	@Test
+	public void writeRoads() throws IOException {
+		String file = getFile("road.bin");
+		MapFiles.writeRoads(file,roads);
+		check(file,encodeRoads(roads));
+		MapFiles.writeRoads(file,MapFiles.loadRoads(file));
+		check(file,encodeRoads(roads));
+	}
+
+	@Test
+	public void writeBuildings() throws IOException {
+		String file = getFile("building.bin");
+		MapFiles.writeBuildings(file,buildings);
+		check(file,encodeBuildings(buildings));
+		MapFiles.writeBuildings(file,MapFiles.loadBuildings(file));
+		check(file,encodeBuildings(buildings));
+	}
+
+	/**
+	   A small buffer is written many times and the number of records is patched into the file by close().
+	*/
+	@Test
+	public void writeChunked() throws IOException {
+		String file = getFile("node_chunked.bin");
+		try (MapFiles.RecordWriter out = MapFiles.RecordWriter.nodes(file,CHUNK)) {
+			for (Node n : nodes) out.writeNode(n.getID(),n.getX(),n.getY(),n.getEdges(),n.hasSignal(),n.getShortcutToTurn(),n.getPocketToTurnAcross(),n.getSignalTiming());
+		}
+		check(file,encodeNodes(nodes));
+
+		file = getFile("road_chunked.bin");
+		try (MapFiles.RecordWriter out = MapFiles.RecordWriter.roads(file,CHUNK)) {
+			for (Road r : roads) writeRoad(out,r);
+		}
+		check(file,encodeRoads(roads));
+
+		file = getFile("building_chunked.bin");
+		try (MapFiles.RecordWriter out = MapFiles.RecordWriter.buildings(file,CHUNK)) {
+			for (Building b : buildings) out.writeBuilding(b.getID(),b.getX(),b.getY(),b.getFloors(),b.getBuildingAttributes(),b.isIgnited(),b.getFieryness(),b.getBrokenness(),b.getEntrances(),b.getGroundArea(),b.getTotalArea(),b.getBuildingCode(),b.getApexes());
+		}
+		check(file,encodeBuildings(buildings));
+	}
+
+	/**
+	   The default buffer of the streaming export, larger than a chunk of DEFAULT_INTS ints.
+	*/
+	@Test
+	public void writeDefaultBuffer() throws IOException {
+		Road[] many = new Road[5000];
+		for (int i=0;i<many.length;++i) many[i] = roads[i%COUNT];
+		String file = getFile("road_default.bin");
+		try (MapFiles.RecordWriter out = MapFiles.RecordWriter.roads(file)) {
+			for (Road r : many) writeRoad(out,r);
+		}
+		check(file,encodeRoads(many));
+	}
+
+	private String getFile(String name) {
+		return new File(dir.getRoot(),name).getPath();
+	}
+
+	private static void writeRoad(MapFiles.RecordWriter out, Road r) throws IOException {
+		out.writeRoad(r.getID(),r.getHead(),r.getTail(),r.getLength(),r.getRoadKind(),r.getCarsPassToHead(),r.getCarsPassToTail(),r.getHumansPassToHead(),r.getHumansPassToTail(),r.getWidth(),r.getBlock(),r.getRepairCost(),r.hasMedian(),r.getLinesToHead(),r.getLinesToTail(),r.getWidthForWalkers());
+	}
+
+	private static int[] randomInts(Random random, int count) {
+		int[] result = new int[count];
+		for (int i=0;i<count;++i) result[i] = random.nextInt();
+		return result;
+	}
+
+	private static void check(String file, byte[] expected) throws IOException {
+		assertArrayEquals(file+" differs from the old format",expected,Files.readAllBytes(new File(file).toPath()));
+	}
+
+	/*
+	  The encoders below write the records like the old stream writer of MapFiles did, one little-endian int at a time.
+	*/
+
+	private static byte[] encodeNodes(Node[] nodes) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		writeInts(out,5,-152950000,52050000,nodes.length);
+		for (Node n : nodes) {
+			writeInts(out,(6+n.getEdges().length*7)*4,n.getID(),n.getX(),n.getY(),n.getEdges().length);
+			writeInts(out,n.getEdges());
+			writeInts(out,n.hasSignal()?1:0);
+			writeInts(out,n.getShortcutToTurn());
+			writeInts(out,n.getPocketToTurnAcross());
+			writeInts(out,n.getSignalTiming());
+		}
+		return bytes.toByteArray();
+	}
+
+	private static byte[] encodeRoads(Road[] roads) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		writeInts(out,5,-152950000,52050000,roads.length);
+		for (Road r : roads) {
+			writeInts(out,16*4,r.getID(),r.getHead(),r.getTail(),r.getLength(),r.getRoadKind(),r.getCarsPassToHead(),r.getCarsPassToTail(),r.getHumansPassToHead(),r.getHumansPassToTail(),r.getWidth(),r.getBlock(),r.getRepairCost(),r.hasMedian()?1:0,r.getLinesToHead(),r.getLinesToTail(),r.getWidthForWalkers());
+		}
+		return bytes.toByteArray();
+	}
+
+	private static byte[] encodeBuildings(Building[] buildings) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		writeInts(out,0,0,0,buildings.length);
+		for (Building b : buildings) {
+			writeInts(out,(15+b.getEntrances().length+b.getApexes().length)*4,b.getID(),b.getX(),b.getY(),b.getFloors(),b.getBuildingAttributes(),b.isIgnited()?1:0,b.getFieryness(),b.getBrokenness(),b.getEntrances().length);
+			writeInts(out,b.getEntrances());
+			writeInts(out,0,b.getGroundArea(),b.getTotalArea(),b.getBuildingCode(),b.getApexes().length/2);
+			writeInts(out,b.getApexes());
+		}
+		return bytes.toByteArray();
+	}
+
+	private static void writeInts(DataOutputStream out, int... values) throws IOException {
+		for (int value : values) out.writeInt(Integer.reverseBytes(value));
+	}
+}